@@ -0,0 +1,167 @@
+package com.shf.benchmark;
+
+import com.shf.codec.BinaryEntityDecoder;
+import com.shf.codec.BinaryEntityEncoder;
+import com.shf.entity.User;
+import com.shf.entity.UserRequest;
+import com.shf.mimetype.DataCodecs;
+
+import io.netty.buffer.PooledByteBufAllocator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description:
+ * Encoding and decoding of a {@link User} and a {@link UserRequest} with the codec of each data mime type a requester can select,
+ * through the Spring {@link Encoder}s and {@link Decoder}s and the {@link NettyDataBufferFactory} RSocket uses.
+ * The bytes per message of each format are printed when the trial starts. Run with {@code -prof gc} for the allocations, e.g.
+ * {@code java -jar benchmark/target/benchmarks.jar DataCodecBenchmark -prof gc}.
+ *
+ * @author songhaifeng
+ * @date 2020/01/20 14:00
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataCodecBenchmark {
+    private static final Map<String, Object> HINTS = Collections.emptyMap();
+
+    @Param({"JSON", "CBOR", "SMILE", "ENTITY"})
+    public Format format;
+
+    @Param({"User", "UserRequest"})
+    public String entity;
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    private Encoder<Object> encoder;
+    private Decoder<Object> decoder;
+    private ResolvableType type;
+    private Object value;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void encodeOnce() {
+        encoder = format.encoder();
+        decoder = format.decoder();
+        value = "User".equals(entity)
+                ? User.builder().id(1).name("songhaifeng").age(30).build()
+                : new UserRequest(1);
+        type = ResolvableType.forClass(value.getClass());
+        if (!encoder.canEncode(type, format.mimeType) || !decoder.canDecode(type, format.mimeType)) {
+            throw new IllegalStateException("No " + format + " codec of " + entity);
+        }
+        DataBuffer buffer = encoder.encodeValue(value, bufferFactory, type, format.mimeType, HINTS);
+        encoded = new byte[buffer.readableByteCount()];
+        buffer.read(encoded);
+        DataBufferUtils.release(buffer);
+        System.out.println(format + " " + entity + ": " + encoded.length + " bytes per message");
+    }
+
+    @Benchmark
+    public int encode() {
+        DataBuffer buffer = encoder.encodeValue(value, bufferFactory, type, format.mimeType, HINTS);
+        int size = buffer.readableByteCount();
+        DataBufferUtils.release(buffer);
+        return size;
+    }
+
+    /**
+     * The decoders release the buffer they read.
+     */
+    @Benchmark
+    public Object decode() {
+        return decoder.decode(bufferFactory.wrap(encoded), type, format.mimeType, HINTS);
+    }
+
+    public enum Format {
+        JSON(MimeTypeUtils.APPLICATION_JSON) {
+            @Override
+            Encoder<Object> encoder() {
+                return new Jackson2JsonEncoder();
+            }
+
+            @Override
+            Decoder<Object> decoder() {
+                return new Jackson2JsonDecoder();
+            }
+        },
+        CBOR(DataCodecs.APPLICATION_CBOR) {
+            @Override
+            Encoder<Object> encoder() {
+                return new Jackson2CborEncoder();
+            }
+
+            @Override
+            Decoder<Object> decoder() {
+                return new Jackson2CborDecoder();
+            }
+        },
+        SMILE(DataCodecs.APPLICATION_SMILE) {
+            @Override
+            Encoder<Object> encoder() {
+                return new Jackson2SmileEncoder();
+            }
+
+            @Override
+            Decoder<Object> decoder() {
+                return new Jackson2SmileDecoder();
+            }
+        },
+        /**
+         * The codecs generated for the {@link com.shf.codec.BinaryCodec} entities.
+         */
+        ENTITY(DataCodecs.APPLICATION_ENTITY) {
+            @Override
+            Encoder<Object> encoder() {
+                return new BinaryEntityEncoder();
+            }
+
+            @Override
+            Decoder<Object> decoder() {
+                return new BinaryEntityDecoder();
+            }
+        };
+
+        final MimeType mimeType;
+
+        Format(MimeType mimeType) {
+            this.mimeType = mimeType;
+        }
+
+        abstract Encoder<Object> encoder();
+
+        abstract Decoder<Object> decoder();
+    }
+}
@@ -0,0 +1,102 @@
+package com.shf.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shf.codec.EntityCodec;
+import com.shf.codec.EntityCodecs;
+import com.shf.entity.User;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description:
+ * Writing a {@link User} into a pooled {@link ByteBuf} and reading it back, with its generated {@link EntityCodec}
+ * and with Jackson as its Spring codecs use it: serialized to a byte array then copied, read through an InputStream.
+ * Meant to be run with {@code -prof gc}, {@code gc.alloc.rate.norm} is the allocation per operation, e.g.
+ * {@code java -jar benchmark/target/benchmarks.jar EntityCodecBenchmark -prof gc}.
+ *
+ * @author songhaifeng
+ * @date 2020/01/20 15:00
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EntityCodecBenchmark {
+    private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+    private final EntityCodec<User> codec = EntityCodecs.get(User.class);
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final User user = User.builder().id(1).name("songhaifeng").age(30).build();
+    private ByteBuf generated;
+    private ByteBuf json;
+
+    @Setup(Level.Trial)
+    public void encodeOnce() throws IOException {
+        generated = allocator.buffer(codec.size(user));
+        codec.write(user, generated);
+        byte[] bytes = objectMapper.writeValueAsBytes(user);
+        json = allocator.buffer(bytes.length);
+        json.writeBytes(bytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void release() {
+        generated.release();
+        json.release();
+    }
+
+    @Benchmark
+    public int generatedWrite() {
+        ByteBuf buf = allocator.buffer(codec.size(user));
+        codec.write(user, buf);
+        int size = buf.readableBytes();
+        buf.release();
+        return size;
+    }
+
+    @Benchmark
+    public User generatedRead() {
+        generated.readerIndex(0);
+        return codec.read(generated);
+    }
+
+    @Benchmark
+    public int jacksonWrite() throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(user);
+        ByteBuf buf = allocator.buffer(bytes.length);
+        buf.writeBytes(bytes);
+        int size = buf.readableBytes();
+        buf.release();
+        return size;
+    }
+
+    @Benchmark
+    public User jacksonRead() throws IOException {
+        json.readerIndex(0);
+        try (InputStream inputStream = new ByteBufInputStream(json)) {
+            return objectMapper.readValue(inputStream, User.class);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.shf.benchmark;
+
+import com.shf.transport.LocalTransports;
+import com.shf.transport.NettyTransportFactory;
+import com.shf.transport.NettyTransportProperties;
+
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Closeable;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.SocketAcceptor;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.transport.ClientTransport;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.util.DefaultPayload;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Description:
+ * Request/response to an echo responder over each {@link Transport}, one request at a time and {@link #IN_FLIGHT} at a time.
+ * Both sides decode the frames with {@link PayloadDecoder#ZERO_COPY}, as the in-JVM responder of {@link LocalTransports} does.
+ * The sample time mode reports the latency percentiles, p0.99 among them, e.g.
+ * {@code java -jar benchmark/target/benchmarks.jar TransportBenchmark -bm sample -p transport=TCP_NIO,TCP_NATIVE}.
+ *
+ * @author songhaifeng
+ * @date 2020/01/20 17:00
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+    private static final String SERVER_NAME = "transport-benchmark";
+    private static final int IN_FLIGHT = 64;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Param({"LOCAL", "TCP_NIO", "TCP_NATIVE"})
+    public Transport transport;
+
+    private final byte[] data = new byte[128];
+    private NettyTransportFactory transportFactory;
+    private Closeable server;
+    private RSocket rsocket;
+
+    @Setup(Level.Trial)
+    public void connect() {
+        SocketAcceptor echo = (setup, sendingSocket) -> Mono.just(new AbstractRSocket() {
+            @Override
+            public Mono<Payload> requestResponse(Payload payload) {
+                return Mono.just(payload);
+            }
+        });
+        NettyTransportProperties properties = new NettyTransportProperties();
+        properties.setNativeTransport(transport == Transport.TCP_NATIVE);
+        transportFactory = new NettyTransportFactory(properties);
+        ClientTransport clientTransport;
+        if (transport == Transport.LOCAL) {
+            server = LocalTransports.bind(SERVER_NAME, echo, Collections.emptyList());
+            // bound above, never falls back to TCP
+            clientTransport = LocalTransports.client(SERVER_NAME, null);
+        } else {
+            CloseableChannel channel = RSocketFactory.receive()
+                    .frameDecoder(PayloadDecoder.ZERO_COPY)
+                    .acceptor(echo)
+                    .transport(transportFactory.server(new InetSocketAddress("localhost", 0)))
+                    .start()
+                    .block(TIMEOUT);
+            server = channel;
+            clientTransport = transportFactory.client(channel.address());
+            // without epoll(or kqueue) on the classpath and the platform, native falls back to NIO
+            System.out.println(transport + " over " + transportFactory.transportName());
+        }
+        rsocket = RSocketFactory.connect()
+                .frameDecoder(PayloadDecoder.ZERO_COPY)
+                .transport(clientTransport)
+                .start()
+                .block(TIMEOUT);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        rsocket.dispose();
+        server.dispose();
+        transportFactory.dispose();
+    }
+
+    @Benchmark
+    public int requestResponse() {
+        Payload payload = rsocket.requestResponse(DefaultPayload.create(data)).block(TIMEOUT);
+        int size = payload.data().readableBytes();
+        payload.release();
+        return size;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IN_FLIGHT)
+    public Long requestResponseInFlight() {
+        return Flux.range(0, IN_FLIGHT)
+                .flatMap(i -> rsocket.requestResponse(DefaultPayload.create(data)), IN_FLIGHT)
+                .doOnNext(Payload::release)
+                .count()
+                .block(TIMEOUT);
+    }
+
+    public enum Transport {
+        /**
+         * In-JVM, see {@link LocalTransports}.
+         */
+        LOCAL,
+        /**
+         * Loopback TCP on NIO event loops, from the {@link NettyTransportFactory}.
+         */
+        TCP_NIO,
+        /**
+         * Loopback TCP on native event loops, from the {@link NettyTransportFactory}.
+         */
+        TCP_NATIVE
+    }
+}
@@ -0,0 +1,114 @@
+package com.shf.benchmark;
+
+import com.shf.entity.User;
+import com.shf.server.configuration.UserRepositoryProperties;
+import com.shf.server.repository.UserChangeFeed;
+import com.shf.server.repository.UserLog;
+import com.shf.server.repository.UserRepository;
+import com.shf.server.repository.UserSnapshotFile;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Description:
+ * Startup of the {@link UserRepository} from a snapshot of {@link #users} users, with and without the index section
+ * (the chunks are decoded in parallel only with it).
+ * Each iteration is one startup, its peak heap is printed at the end of the iteration. Run with {@code -prof gc} for the allocations, e.g.
+ * {@code java -jar benchmark/target/benchmarks.jar UserSnapshotBenchmark -p users=10000000}.
+ *
+ * @author songhaifeng
+ * @date 2020/01/20 11:00
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class UserSnapshotBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int users;
+
+    @Param({"true", "false"})
+    public boolean index;
+
+    private Path directory;
+    private Path path;
+    private UserRepositoryProperties properties;
+    private UserSnapshotFile snapshotFile;
+    private UserRepository repository;
+
+    @Setup(Level.Trial)
+    public void dump() throws IOException {
+        directory = Files.createTempDirectory("user-snapshot-benchmark");
+        properties = new UserRepositoryProperties();
+        path = directory.resolve("users.snapshot");
+        snapshotFile = new UserSnapshotFile(path, properties.getSnapshot().getChunkRecords(), index);
+        Iterable<User> generated = () -> IntStream.range(0, users)
+                .mapToObj(id -> User.builder().id(id).name("user" + id).age(id % 100).build())
+                .iterator();
+        snapshotFile.dump(generated, 0);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    @Benchmark
+    public UserRepository startup() {
+        repository = new UserRepository(new StaticListableBeanFactory().getBeanProvider(UserLog.class), snapshotFile,
+                new UserChangeFeed(properties, new SimpleMeterRegistry()), properties);
+        return repository;
+    }
+
+    /**
+     * The peaks of the heap pools are summed, an upper bound of the peak of the heap.
+     */
+    @TearDown(Level.Iteration)
+    public void printPeakHeap() throws InterruptedException {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.println("Peak heap " + (peak >> 20) + " MB");
+        repository.destroy();
+        repository = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(directory);
+    }
+}
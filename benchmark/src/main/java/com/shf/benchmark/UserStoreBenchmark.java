@@ -0,0 +1,172 @@
+package com.shf.benchmark;
+
+import com.shf.entity.User;
+import com.shf.server.repository.ConcurrentIntObjectMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description:
+ * Lookups and writes of random ids in a store of {@link #users} users, for each {@link Store}.
+ * <ul>
+ * <li>{@link Store#INT_MAP}: the {@link ConcurrentIntObjectMap} of the repository.</li>
+ * <li>{@link Store#SYNCHRONIZED_HASH_MAP}: the static HashMap the repository used to have, locked to make it safe to share.</li>
+ * <li>{@link Store#CONCURRENT_HASH_MAP}: the JDK map, boxing every id.</li>
+ * </ul>
+ * Run it once per number of event loops to see how it scales, e.g.
+ * {@code java -jar benchmark/target/benchmarks.jar UserStoreBenchmark -t 4}.
+ *
+ * @author songhaifeng
+ * @date 2020/01/20 10:10
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserStoreBenchmark {
+
+    @Param({"1000000"})
+    public int users;
+
+    @Param({"INT_MAP", "SYNCHRONIZED_HASH_MAP", "CONCURRENT_HASH_MAP"})
+    public Store store;
+
+    private UserStore userStore;
+    private User[] values;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        userStore = store.create(users);
+        values = new User[users];
+        for (int id = 0; id < users; id++) {
+            values[id] = User.builder().id(id).name("user" + id).age(id % 100).build();
+            userStore.put(id, values[id]);
+        }
+    }
+
+    @Benchmark
+    public User get(Ids ids) {
+        return userStore.get(ids.next(users));
+    }
+
+    /**
+     * Replaces a user, the store keeps its size.
+     */
+    @Benchmark
+    public User put(Ids ids) {
+        int id = ids.next(users);
+        return userStore.put(id, values[id]);
+    }
+
+    /**
+     * As add(User) of a known id: the write is refused.
+     */
+    @Benchmark
+    public User putIfAbsent(Ids ids) {
+        int id = ids.next(users);
+        return userStore.putIfAbsent(id, values[id]);
+    }
+
+    /**
+     * Random ids of one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Ids {
+        private final SplittableRandom random = new SplittableRandom();
+
+        int next(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+
+    public enum Store {
+        INT_MAP {
+            @Override
+            UserStore create(int capacity) {
+                ConcurrentIntObjectMap<User> map = new ConcurrentIntObjectMap<>(capacity, Runtime.getRuntime().availableProcessors() * 4);
+                return new UserStore() {
+                    @Override
+                    public User get(int id) {
+                        return map.get(id);
+                    }
+
+                    @Override
+                    public User put(int id, User user) {
+                        return map.put(id, user);
+                    }
+
+                    @Override
+                    public User putIfAbsent(int id, User user) {
+                        return map.putIfAbsent(id, user);
+                    }
+                };
+            }
+        },
+        SYNCHRONIZED_HASH_MAP {
+            @Override
+            UserStore create(int capacity) {
+                return new BoxedUserStore(Collections.synchronizedMap(new HashMap<>(capacity * 4 / 3 + 1)));
+            }
+        },
+        CONCURRENT_HASH_MAP {
+            @Override
+            UserStore create(int capacity) {
+                return new BoxedUserStore(new ConcurrentHashMap<>(capacity * 4 / 3 + 1));
+            }
+        };
+
+        abstract UserStore create(int capacity);
+    }
+
+    interface UserStore {
+
+        User get(int id);
+
+        User put(int id, User user);
+
+        User putIfAbsent(int id, User user);
+    }
+
+    private static final class BoxedUserStore implements UserStore {
+        private final Map<Integer, User> map;
+
+        BoxedUserStore(Map<Integer, User> map) {
+            this.map = map;
+        }
+
+        @Override
+        public User get(int id) {
+            return map.get(id);
+        }
+
+        @Override
+        public User put(int id, User user) {
+            return map.put(id, user);
+        }
+
+        @Override
+        public User putIfAbsent(int id, User user) {
+            return map.putIfAbsent(id, user);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.shf.route;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.RouteMatcher;
+import org.springframework.web.util.pattern.PathPatternRouteMatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description:
+ * Finding the handler of a route among {@link #handlers} handlers and extracting its variables.
+ * A third of the handlers are static routes, the others are templated with one or two variables,
+ * the routes looked up are spread over all of them.
+ * <ul>
+ * <li>{@link #pathPatternScan}: the {@link PathPatternRouteMatcher} matching every pattern in turn, as the RSocketMessageHandler does.</li>
+ * <li>{@link #compiledScan}: the same scan with the {@link CompiledRouteMatcher}.</li>
+ * <li>{@link #routeTable}: the {@link RouteTable} lookup of the RouteTableRSocketMessageHandler, only the candidates are matched.</li>
+ * </ul>
+ * In the package of the {@link RouteTable}, which is package-private.
+ *
+ * @author songhaifeng
+ * @date 2020/01/20 16:00
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RouteDispatchBenchmark {
+    private static final int ROUTES = 1024;
+
+    @Param({"10", "100", "500"})
+    public int handlers;
+
+    private final PathPatternRouteMatcher pathPatternMatcher = new PathPatternRouteMatcher();
+    private final CompiledRouteMatcher compiledMatcher = new CompiledRouteMatcher();
+    private List<String> patterns;
+    private RouteTable<String> table;
+    private String[] routes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void register() {
+        patterns = new ArrayList<>(handlers);
+        for (int i = 0; i < handlers; i++) {
+            switch (i % 3) {
+                case 0:
+                    patterns.add("route" + i);
+                    break;
+                case 1:
+                    patterns.add("route" + i + ".{id}");
+                    break;
+                default:
+                    patterns.add("specific.route" + i + ".{id}.{name}");
+                    break;
+            }
+        }
+        table = new RouteTable<>(patterns, Collections::singletonList, compiledMatcher);
+
+        routes = new String[ROUTES];
+        for (int r = 0; r < ROUTES; r++) {
+            int i = r * 7 % handlers;
+            routes[r] = patterns.get(i).replace("{id}", String.valueOf(r)).replace("{name}", "user" + r);
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> pathPatternScan() {
+        RouteMatcher.Route route = pathPatternMatcher.parseRoute(nextRoute());
+        for (String pattern : patterns) {
+            if (pathPatternMatcher.match(pattern, route)) {
+                return pathPatternMatcher.matchAndExtract(pattern, route);
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Map<String, String> compiledScan() {
+        RouteMatcher.Route route = compiledMatcher.parseRoute(nextRoute());
+        for (String pattern : patterns) {
+            Map<String, String> variables = compiledMatcher.matchAndExtract(pattern, route);
+            if (variables != null) {
+                return variables;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Map<String, String> routeTable() {
+        CompiledRouteMatcher.ParsedRoute route = compiledMatcher.parsed(compiledMatcher.parseRoute(nextRoute()));
+        for (String pattern : table.candidates(route)) {
+            Map<String, String> variables = compiledMatcher.matchAndExtract(pattern, route);
+            if (variables != null) {
+                return variables;
+            }
+        }
+        return null;
+    }
+
+    private String nextRoute() {
+        next = (next + 1) & (ROUTES - 1);
+        return routes[next];
+    }
+}
@@ -2,23 +2,44 @@ package com.shf.client.configuration;
 
 import com.shf.client.responder.annotation.RSocketClientResponder2;
 import com.shf.client.responder.controller.Requester1ResponderController;
+import com.shf.entity.User;
+import com.shf.lease.AdaptiveLeaseProperties;
+import com.shf.lease.AdaptiveLeaseSender;
 import com.shf.lease.LeaseReceiver;
-import com.shf.lease.LeaseSender;
-import com.shf.lease.NoopStats;
+import com.shf.lease.LeaseStatsRegistry;
 import com.shf.lease.ServerRoleEnum;
+import com.shf.metadata.MetadataDictionary;
+import com.shf.metadata.MetadataDictionaryProperties;
+import com.shf.metrics.InstrumentedRSocketMessageHandler;
+import com.shf.metrics.RouteMetricsRegistry;
+import com.shf.mimetype.DataCodecProperties;
+import com.shf.mimetype.DataCodecs;
+import com.shf.pool.RSocketPool;
+import com.shf.pool.RSocketPoolProperties;
+import com.shf.route.CompiledRouteMatcher;
+import com.shf.transport.LocalTransportProperties;
+import com.shf.transport.LocalTransports;
+import com.shf.transport.NettyTransportFactory;
+import com.shf.transport.NettyTransportProperties;
+import com.shf.transport.NettyTransportRSocketServerFactory;
 
+import io.rsocket.Closeable;
 import io.rsocket.frame.decoder.PayloadDecoder;
-import io.rsocket.lease.Leases;
 import io.rsocket.metadata.WellKnownMimeType;
 import io.rsocket.resume.ClientResume;
 import io.rsocket.resume.PeriodicResumeStrategy;
 import io.rsocket.resume.ResumeStrategy;
-import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.ClientTransport;
 
 import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.rsocket.RSocketMessagingAutoConfiguration;
+import org.springframework.boot.autoconfigure.rsocket.RSocketProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.rsocket.messaging.RSocketStrategiesCustomizer;
+import org.springframework.boot.rsocket.server.RSocketServerFactory;
 import org.springframework.boot.rsocket.server.ServerRSocketFactoryProcessor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -27,14 +48,15 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.annotation.AnnotatedElementUtils;
 import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.rsocket.ClientRSocketFactoryConfigurer;
 import org.springframework.messaging.rsocket.RSocketRequester;
 import org.springframework.messaging.rsocket.RSocketStrategies;
 import org.springframework.messaging.rsocket.annotation.ConnectMapping;
 import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.util.Assert;
 import org.springframework.util.MimeType;
 import org.springframework.util.MimeTypeUtils;
 import org.springframework.validation.annotation.Validated;
-import org.springframework.web.util.pattern.PathPatternRouteMatcher;
 
 import java.net.InetSocketAddress;
 import java.time.Duration;
@@ -43,6 +65,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import javax.validation.constraints.NotNull;
 
@@ -63,6 +86,8 @@ import static com.shf.mimetype.MimeTypes.SECURITY_TOKEN_MIME_TYPE;
  * @date 2019/11/18 11:26
  */
 @Configuration
+@EnableConfigurationProperties({DataCodecProperties.class, MetadataDictionaryProperties.class, LocalTransportProperties.class,
+        NettyTransportProperties.class, RSocketPoolProperties.class, AdaptiveLeaseProperties.class})
 @Slf4j
 public class RSocketConfiguration {
 
@@ -77,11 +102,32 @@ public class RSocketConfiguration {
             }, "properties")
     );
 
+    /**
+     * Per route recorders of all the handlers below, bound to Micrometer as a MeterBinder.
+     *
+     * @return RouteMetricsRegistry
+     */
+    @Bean
+    public RouteMetricsRegistry routeMetricsRegistry() {
+        return new RouteMetricsRegistry();
+    }
+
+    /**
+     * The event loops and the socket options of the TCP transports, both the requesters and the server, from `spring.rsocket.netty`.
+     *
+     * @param properties NettyTransportProperties
+     * @return NettyTransportFactory
+     */
+    @Bean(destroyMethod = "dispose")
+    public NettyTransportFactory nettyTransportFactory(NettyTransportProperties properties) {
+        return new NettyTransportFactory(properties);
+    }
+
     @Configuration
     static class CommonRequesterConfiguration {
 
         /**
-         * Add resume ability for RSocketRequester. Here we can customize any thing here for our business.
+         * The common setup of the RSocketRequesters. Here we can customize any thing here for our business.
          * The RSocketRequester.Builder instance is a prototype bean, meaning each injection point will provide you with a new instance .
          * This is done on purpose since this builder is stateful and you shouldn’t create requesters with different setups using the same instance.
          * Like requester and requester2 as below.
@@ -112,26 +158,48 @@ public class RSocketConfiguration {
          * }</pre>
          * RSocketRequester.wrap(***) will wrapper the original RSocket as a higher level Object.
          * Here is the DefaultRSocketRequesterBuilder object.
+         * Resumption is added by each requester, see {@link #resume()}.
+         *
+         * The data mime type is selected by {@link DataCodecs#select}, the first preferred binary format this requester supports, JSON otherwise.
+         * The custom metadata mime types and the tokens are compacted by the {@link MetadataDictionary} of each connection.
          *
-         * @param strategies RSocketStrategies
+         * @param strategies                   RSocketStrategies
+         * @param dataCodecProperties          DataCodecProperties
+         * @param metadataDictionaryProperties MetadataDictionaryProperties
          * @return DefaultRSocketRequesterBuilder
          */
         @Bean
         @Scope("prototype")
-        public RSocketRequester.Builder rSocketRequesterBuilder(RSocketStrategies strategies) {
-            return RSocketRequester.builder()
+        public RSocketRequester.Builder rSocketRequesterBuilder(RSocketStrategies strategies, DataCodecProperties dataCodecProperties,
+                                                                MetadataDictionaryProperties metadataDictionaryProperties) {
+            RSocketRequester.Builder builder = RSocketRequester.builder()
                     // default value is also WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA, setting in DefaultRSocketRequesterBuilder
                     .metadataMimeType(MimeTypeUtils.parseMimeType(WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString()))
-                    .dataMimeType(MimeTypeUtils.APPLICATION_JSON)
+                    .dataMimeType(DataCodecs.select(strategies, dataCodecProperties.getMimeTypes(), User.class))
                     .rsocketStrategies(strategies)
-                    .rsocketFactory(rSocketFactory ->
-                            // Resumption is designed for loss of connectivity and assumes client and server state is maintained across connectivity loss
-                            // So if restart server or client, it will resume failure. In fact, it's not always succeed.
-                            rSocketFactory
-                                    .resume()
-                                    .resumeStrategy(() -> new VerboseResumeStrategy(new PeriodicResumeStrategy(Duration.ofSeconds(5))))
-                                    .resumeStreamTimeout(Duration.ofSeconds(30))
-                                    .frameDecoder(PayloadDecoder.ZERO_COPY));
+                    .rsocketFactory(rSocketFactory -> rSocketFactory.frameDecoder(PayloadDecoder.ZERO_COPY));
+            if (metadataDictionaryProperties.isEnabled()) {
+                builder.rsocketFactory(MetadataDictionary.requester(metadataDictionaryProperties))
+                        .setupMetadata(MetadataDictionary.setupMetadata(metadataDictionaryProperties), MetadataDictionary.DICTIONARY_MIME_TYPE);
+            }
+            return builder;
+        }
+
+        /**
+         * Add resume ability for a RSocketRequester.
+         * RSocket does not resume a connection with leases, so it is left to the requesters without, the pooled connections of
+         * rSocketRequester1 are replaced by the pool instead.
+         *
+         * @return ClientRSocketFactoryConfigurer
+         */
+        static ClientRSocketFactoryConfigurer resume() {
+            return rSocketFactory ->
+                    // Resumption is designed for loss of connectivity and assumes client and server state is maintained across connectivity loss
+                    // So if restart server or client, it will resume failure. In fact, it's not always succeed.
+                    rSocketFactory
+                            .resume()
+                            .resumeStrategy(() -> new VerboseResumeStrategy(new PeriodicResumeStrategy(Duration.ofSeconds(5))))
+                            .resumeStreamTimeout(Duration.ofSeconds(30));
         }
 
         /**
@@ -151,6 +219,16 @@ public class RSocketConfiguration {
             }
         }
 
+        /**
+         * Add the binary data codecs, for both the requesters and the responders.
+         *
+         * @return RSocketStrategiesCustomizer
+         */
+        @Bean
+        public RSocketStrategiesCustomizer binaryCodecsCustomizer() {
+            return DataCodecs.binaryCodecs();
+        }
+
         /**
          * Customize the rSocket-Strategy for metadata. It can be used for both client-side and server-side.
          *
@@ -160,8 +238,8 @@ public class RSocketConfiguration {
         public RSocketStrategiesCustomizer addMetadataExtractMimeTypeCustomizer() {
             return (strategyBuilder) -> {
                 strategyBuilder
-                        // Already set as the default routeMatcher in {@Code RSocketStrategiesAutoConfiguration#rSocketStrategies}
-                        .routeMatcher(new PathPatternRouteMatcher())
+                        // Replaces the default PathPatternRouteMatcher of {@Code RSocketStrategiesAutoConfiguration#rSocketStrategies}
+                        .routeMatcher(new CompiledRouteMatcher())
                         .metadataExtractorRegistry(register -> {
                             // register all metadata extracts
                             METADATA_TO_EXTRACT_REF_LIST.forEach(metadataToExtractRef -> {
@@ -186,12 +264,20 @@ public class RSocketConfiguration {
      * At the same time, we need to create a new {@link RSocketMessageHandler} for handling the requests.
      * Here via {@link RSocketMessageHandler#clientResponder(RSocketStrategies, Object...)} to create a new instance,
      * set the specific {@link Requester1ResponderController} for handling requests.
+     * {@link InstrumentedRSocketMessageHandler#clientResponder(RSocketStrategies, RouteMetricsRegistry, Object...)} does the same with route metrics.
      */
     @Configuration
     static class Request1Configuration {
         /**
          * Create a {@link RSocketRequester} for interacting with the RSocket server.
-         * It will return a DefaultRSocketRequesterBuilder object by the method {@code DefaultRSocketRequesterBuilder#doConnect}.
+         * It is a {@link RSocketPool} of `rsocket.requester.pool.size` connections to each of the `rsocket.requester.pool.endpoints`
+         * (the leased responder of the server, 127.0.0.1:7001 or `rsocket.requester.pool.local-name` in-JVM, by default),
+         * each one set up by the builder, wrapped by {@code RSocketRequester#wrap},
+         * so that the requests are balanced over the server instances, the connections and the event loops.
+         * Leases are enabled on both ends: the availability of each connection follows the lease of the server, which the pool
+         * balances on, and the server is leased the requests it makes to {@link Requester1ResponderController} by the
+         * {@link AdaptiveLeaseSender} of this application. The endpoints must be the leased responders of the server instances,
+         * `rsocket.lease.server.port`.
          *
          * @param builder RSocketRequester.Builder
          * @return DefaultRSocketRequester
@@ -199,20 +285,41 @@ public class RSocketConfiguration {
         @Bean("rSocketRequester1")
         public RSocketRequester rSocketRequester1(RSocketRequester.Builder builder,
                                                   RSocketStrategies rSocketStrategies,
-                                                  Requester1ResponderController requester1ResponderController) {
-            return builder
+                                                  RouteMetricsRegistry routeMetricsRegistry,
+                                                  Requester1ResponderController requester1ResponderController,
+                                                  NettyTransportFactory nettyTransportFactory,
+                                                  RSocketPoolProperties rSocketPoolProperties,
+                                                  AdaptiveLeaseSender adaptiveLeaseSender) {
+            RSocketRequester.Builder connection = builder
                     // requester and responder come in pairs. When any requester needs to responded, it need to config the specific handlers.
                     // Here suggest to create a new {@Code RSocketMessageHandler} instance. The default {@code RSocketMessageHandler} instance used as a server not a responder.
-                    .rsocketFactory(RSocketMessageHandler.clientResponder(rSocketStrategies, requester1ResponderController))
+                    .rsocketFactory(InstrumentedRSocketMessageHandler.clientResponder(rSocketStrategies, routeMetricsRegistry, requester1ResponderController))
+                    .rsocketFactory(rSocketFactory ->
+                            rSocketFactory.lease(() -> adaptiveLeaseSender.leases(new LeaseReceiver(ServerRoleEnum.CLIENT)))
+                                    .addResponderPlugin(adaptiveLeaseSender.responder()))
                     // Link {@Code DefaultRSocketRequesterBuilder#getSetupPayload} and {@Code RSocketFactory.ClientRSocketFactory.StartClient#start}.
                     // Setting payload(@Payload) for @ConnectMapping
                     .setupData("Client-123")
                     // Setting header(metadata) for @ConnectMapping
-                    .setupMetadata(Arrays.asList("connect-metadata-values", "connect-metadata-values2"), MimeTypeUtils.APPLICATION_JSON)
-                    .connect(TcpClientTransport.create(new InetSocketAddress("127.0.0.1", 7000)))
-                    .retry(5)
-                    .cache()
-                    .block();
+                    .setupMetadata(Arrays.asList("connect-metadata-values", "connect-metadata-values2"), MimeTypeUtils.APPLICATION_JSON);
+            // several server instances are balanced over TCP, a single one may be co-located
+            List<ClientTransport> transports = rSocketPoolProperties.getEndpoints().isEmpty()
+                    ? Collections.singletonList(LocalTransports.client(rSocketPoolProperties.getLocalName(),
+                    nettyTransportFactory.client(new InetSocketAddress("127.0.0.1", 7001))))
+                    : rSocketPoolProperties.getEndpoints().stream()
+                    .map(endpoint -> nettyTransportFactory.client(address(endpoint)))
+                    .collect(Collectors.toList());
+            return RSocketPool.requester(connection, transports, rSocketStrategies, rSocketPoolProperties).block();
+        }
+
+        /**
+         * @param endpoint host:port
+         * @return InetSocketAddress
+         */
+        private static InetSocketAddress address(String endpoint) {
+            int colon = endpoint.lastIndexOf(':');
+            Assert.isTrue(colon > 0, "Endpoint must be host:port, but was " + endpoint);
+            return new InetSocketAddress(endpoint.substring(0, colon), Integer.parseInt(endpoint.substring(colon + 1)));
         }
     }
 
@@ -224,8 +331,8 @@ public class RSocketConfiguration {
     static class Request2Configuration {
 
         @Bean("handler4Requester2")
-        public RSocketMessageHandler handler4Requester2(RSocketStrategies strategies) {
-            RSocketMessageHandler handler = new RSocketMessageHandler();
+        public RSocketMessageHandler handler4Requester2(RSocketStrategies strategies, RouteMetricsRegistry routeMetricsRegistry) {
+            RSocketMessageHandler handler = new InstrumentedRSocketMessageHandler(routeMetricsRegistry);
             handler.setHandlerPredicate(type -> AnnotatedElementUtils.hasAnnotation(type, RSocketClientResponder2.class));
             handler.setRSocketStrategies(strategies);
             return handler;
@@ -238,8 +345,11 @@ public class RSocketConfiguration {
          * @return RSocketRequester
          */
         @Bean("rSocketRequester2")
-        public RSocketRequester rSocketRequester2(RSocketRequester.Builder builder, @Qualifier("handler4Requester2") RSocketMessageHandler rSocketMessageHandler) {
+        public RSocketRequester rSocketRequester2(RSocketRequester.Builder builder, @Qualifier("handler4Requester2") RSocketMessageHandler rSocketMessageHandler,
+                                                  LocalTransportProperties localTransportProperties,
+                                                  NettyTransportFactory nettyTransportFactory) {
             return builder
+                    .rsocketFactory(CommonRequesterConfiguration.resume())
                     .rsocketFactory(rSocketFactory -> {
                         rSocketFactory.acceptor(rSocketMessageHandler.responder());
                     })
@@ -248,7 +358,8 @@ public class RSocketConfiguration {
                     // Mapping @ConnectMapping's route in server side.
                     // route could be a route template, then expand routeVars into the template.
                     .setupRoute("specific.route.{id}.{id}", "1", "2")
-                    .connect(TcpClientTransport.create(new InetSocketAddress("127.0.0.1", 7000)))
+                    .connect(LocalTransports.client(localTransportProperties.getClientName(),
+                            nettyTransportFactory.client(new InetSocketAddress("127.0.0.1", 7000))))
                     .block();
         }
 
@@ -270,12 +381,68 @@ public class RSocketConfiguration {
          */
         @Bean
         @Primary
-        public RSocketMessageHandler rSocketMessageHandler(RSocketStrategies strategies) {
-            RSocketMessageHandler handler = new RSocketMessageHandler();
+        public RSocketMessageHandler rSocketMessageHandler(RSocketStrategies strategies, RouteMetricsRegistry routeMetricsRegistry) {
+            RSocketMessageHandler handler = new InstrumentedRSocketMessageHandler(routeMetricsRegistry);
             handler.setRSocketStrategies(strategies);
             return handler;
         }
 
+        /**
+         * Serve `spring.rsocket.server` on the {@link NettyTransportFactory} transport, in place of Spring Boot's factory.
+         *
+         * @param rSocketProperties RSocketProperties
+         * @param transportFactory  NettyTransportFactory
+         * @param processors        ServerRSocketFactoryProcessors
+         * @return RSocketServerFactory
+         */
+        @Bean
+        @ConditionalOnProperty(name = "spring.rsocket.server.transport", havingValue = "tcp", matchIfMissing = true)
+        public RSocketServerFactory rSocketServerFactory(RSocketProperties rSocketProperties, NettyTransportFactory transportFactory,
+                                                         ObjectProvider<ServerRSocketFactoryProcessor> processors) {
+            RSocketProperties.Server server = rSocketProperties.getServer();
+            InetSocketAddress address = server.getAddress() != null
+                    ? new InetSocketAddress(server.getAddress(), server.getPort()) : new InetSocketAddress(server.getPort());
+            return new NettyTransportRSocketServerFactory(transportFactory, address, processors.orderedStream().collect(Collectors.toList()));
+        }
+
+        /**
+         * Bind the responder in-JVM as well, when `spring.rsocket.local.server-name` is set. See more in {@link LocalTransports}.
+         *
+         * @param properties     LocalTransportProperties
+         * @param messageHandler RSocketMessageHandler
+         * @param processors     the ServerRSocketFactoryProcessors of the TCP server
+         * @return the in-JVM server
+         */
+        @Bean(destroyMethod = "dispose")
+        @ConditionalOnProperty("spring.rsocket.local.server-name")
+        public Closeable localRSocketServer(LocalTransportProperties properties, RSocketMessageHandler messageHandler,
+                                            ObjectProvider<ServerRSocketFactoryProcessor> processors) {
+            return LocalTransports.bind(properties.getServerName(), messageHandler.responder(), processors.orderedStream().collect(Collectors.toList()));
+        }
+
+        /**
+         * Per connection lease stats of this responder, bound to Micrometer as a MeterBinder.
+         *
+         * @return LeaseStatsRegistry
+         */
+        @Bean(destroyMethod = "close")
+        public LeaseStatsRegistry leaseStatsRegistry() {
+            return new LeaseStatsRegistry(ServerRoleEnum.SERVER);
+        }
+
+        /**
+         * Issue the leases by the latency measured on this responder, see more in {@link AdaptiveLeaseSender}.
+         * The responder of rSocketRequester1 shares it, to lease the requests of the server.
+         *
+         * @param properties         AdaptiveLeaseProperties
+         * @param leaseStatsRegistry LeaseStatsRegistry
+         * @return AdaptiveLeaseSender
+         */
+        @Bean
+        public AdaptiveLeaseSender adaptiveLeaseSender(AdaptiveLeaseProperties properties, LeaseStatsRegistry leaseStatsRegistry) {
+            return new AdaptiveLeaseSender(ServerRoleEnum.SERVER, properties, leaseStatsRegistry);
+        }
+
         /**
          * A ServerRSocketFactoryCustomizer to add the emission
          * (and retrieval) of leases to (and from) clients.
@@ -284,17 +451,15 @@ public class RSocketConfiguration {
          * more, distinct clients, and keeps it from being overwhelmed
          * with requests.
          *
+         * @param leaseSender AdaptiveLeaseSender
          * @return ServerRSocketFactoryProcessor
          */
         @Bean
-        ServerRSocketFactoryProcessor resumeServerFactoryCustomizer() {
-            return (factory) -> factory.lease(() ->
-                    Leases.<NoopStats>create()
-                            // receive the lease from the server side.
-                            .receiver(new LeaseReceiver(ServerRoleEnum.SERVER))
-                            // issue 5 leases to each client, the timeToLiveMillis is 7s.
-                            .sender(new LeaseSender(ServerRoleEnum.SERVER, 70_000, 5))
-            );
+        ServerRSocketFactoryProcessor resumeServerFactoryCustomizer(AdaptiveLeaseSender leaseSender) {
+            // receive the lease from the server side, issue leases sized by the latency and shed the load before the server saturates.
+            return (factory) -> factory.lease(() -> leaseSender.leases(new LeaseReceiver(ServerRoleEnum.SERVER)))
+                    // measure the requests the leases are sized by.
+                    .addResponderPlugin(leaseSender.responder());
         }
     }
 
@@ -2,22 +2,32 @@ package com.shf.client.controller;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shf.entity.ClientReply;
 import com.shf.entity.Foo;
+import com.shf.entity.RouteSnapshot;
 import com.shf.entity.User;
+import com.shf.entity.UserAck;
+import com.shf.entity.UserBatch;
+import com.shf.entity.UserChangeEvent;
+import com.shf.entity.UserListRequest;
 import com.shf.entity.UserRequest;
 
 import org.reactivestreams.Publisher;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
 import org.springframework.messaging.rsocket.RSocketRequester;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.time.Duration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import reactor.core.publisher.Flux;
@@ -46,13 +56,20 @@ public class UserRestController {
 
     private final ObjectMapper objectMapper;
 
+    /**
+     * Sent as the securityToken metadata of the admin routes of the server.
+     */
+    private final String adminToken;
+
     @Autowired
     public UserRestController(@Qualifier("rSocketRequester1") RSocketRequester rSocketRequester1,
                               @Qualifier("rSocketRequester2") RSocketRequester rSocketRequester2,
-                              ObjectMapper objectMapper) {
+                              ObjectMapper objectMapper,
+                              @Value("${admin.token:}") String adminToken) {
         this.rSocketRequester1 = rSocketRequester1;
         this.rSocketRequester2 = rSocketRequester2;
         this.objectMapper = objectMapper;
+        this.adminToken = adminToken;
     }
 
     /***********************************request/response ******************************/
@@ -70,6 +87,20 @@ public class UserRestController {
                 .retrieveMono(User.class);
     }
 
+    /**
+     * Fetch many users in a single request/response instead of one request per id.
+     *
+     * @param ids comma separated ids
+     * @return found users and missing ids
+     */
+    @GetMapping(value = "batch")
+    public Publisher<UserBatch> users(@RequestParam("ids") int[] ids) {
+        return rSocketRequester1
+                .route("users.batch")
+                .data(ids)
+                .retrieveMono(UserBatch.class);
+    }
+
     /***********************************Fire And Forget******************************/
 
     /**
@@ -86,6 +117,33 @@ public class UserRestController {
                 .send();
     }
 
+    /**
+     * Replace an existing user, published as an UPDATE change.
+     *
+     * @return false if the user does not exist
+     */
+    @GetMapping(value = "update/{id}")
+    public Publisher<Boolean> update(@PathVariable("id") int id,
+                                     @RequestParam("name") String name,
+                                     @RequestParam("age") int age) {
+        return rSocketRequester1
+                .route("update.user")
+                .data(User.builder().id(id).name(name).age(age).build())
+                .retrieveMono(Boolean.class);
+    }
+
+    /**
+     * Delete a user, published as a DELETE change.
+     *
+     * @return false if the user does not exist
+     */
+    @GetMapping(value = "delete/{id}")
+    public Publisher<Boolean> delete(@PathVariable("id") int id) {
+        return rSocketRequester1
+                .route("delete.user.{id}", id)
+                .retrieveMono(Boolean.class);
+    }
+
     /***********************************Request Stream******************************/
     /**
      * Defining our response expectation with the retrieveFlux() method call.
@@ -103,6 +161,63 @@ public class UserRestController {
                 .retrieveFlux(User.class);
     }
 
+    /**
+     * One page of the users, resumed after the cursor.
+     * The cursor of the next page is {@link com.shf.entity.UserCursor#after(int)} of the last user received.
+     *
+     * @param cursor cursor, absent for the first page
+     * @param size   page size
+     * @return User
+     */
+    @GetMapping(value = "page", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Publisher<User> page(@RequestParam(value = "cursor", required = false) String cursor,
+                                @RequestParam(value = "size", defaultValue = "20") int size) {
+        return rSocketRequester1
+                .route("list")
+                .data(new UserListRequest(cursor, size))
+                .retrieveFlux(User.class);
+    }
+
+    /**
+     * Range query on the server side age index, streamed as server-sent events.
+     *
+     * @param min min age
+     * @param max max age
+     * @return User
+     */
+    @GetMapping(value = "age/{min}/{max}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Publisher<User> usersByAge(@PathVariable("min") int min, @PathVariable("max") int max) {
+        return rSocketRequester1
+                .route("users.by.age.{min}.{max}", min, max)
+                .retrieveFlux(User.class);
+    }
+
+    /**
+     * Prefix query on the server side name index, streamed as server-sent events.
+     *
+     * @param prefix name prefix
+     * @return User
+     */
+    @GetMapping(value = "name/{prefix}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Publisher<User> usersByNamePrefix(@PathVariable("prefix") String prefix) {
+        return rSocketRequester1
+                .route("users.by.name.prefix")
+                .data(prefix)
+                .retrieveFlux(User.class);
+    }
+
+    /**
+     * Mirror the repository: stream its changes, from a sequence if given.
+     *
+     * @param from first sequence, absent for live changes only
+     * @return UserChangeEvent
+     */
+    @GetMapping(value = "changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Publisher<UserChangeEvent> changes(@RequestParam(value = "from", required = false) Long from) {
+        RSocketRequester.RequestSpec spec = rSocketRequester1.route("user.changes");
+        return (from == null ? spec : spec.data(from)).retrieveFlux(UserChangeEvent.class);
+    }
+
     /***********************************Request Channel******************************/
 
     /**
@@ -120,6 +235,93 @@ public class UserRestController {
                 .retrieveFlux(User.class);
     }
 
+    /**
+     * Bulk load generated users through the `add.users.channel` route, streaming back one ack per window.
+     *
+     * @param from  first id
+     * @param count number of users
+     * @return UserAck
+     */
+    @GetMapping(value = "bulk", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Publisher<UserAck> bulk(@RequestParam(value = "from", defaultValue = "1000") int from,
+                                   @RequestParam(value = "count", defaultValue = "10000") int count) {
+        return rSocketRequester1
+                .route("add.users.channel")
+                .data(Flux.range(from, count)
+                        .map(id -> User.builder().id(id).name("bulk-" + id).age(id % 100).build()), User.class)
+                .retrieveFlux(UserAck.class);
+    }
+
+    /***********************************Admin******************************/
+    /**
+     * Dump the server side users to its binary snapshot file.
+     *
+     * @return number of users written
+     */
+    @GetMapping(value = "admin/snapshot/save")
+    public Publisher<Long> saveSnapshot() {
+        return rSocketRequester1
+                .route("admin.snapshot.save")
+                .metadata(adminToken, SECURITY_TOKEN_MIME_TYPE)
+                .retrieveMono(Long.class);
+    }
+
+    /**
+     * Load the server side binary snapshot file into the running server.
+     *
+     * @return number of users loaded
+     */
+    @GetMapping(value = "admin/snapshot/load")
+    public Publisher<Long> loadSnapshot() {
+        return rSocketRequester1
+                .route("admin.snapshot.load")
+                .metadata(adminToken, SECURITY_TOKEN_MIME_TYPE)
+                .retrieveMono(Long.class);
+    }
+
+    /**
+     * Stream the latency, throughput, in-flight and payload size of every server route, one snapshot per metrics period.
+     *
+     * @return RouteSnapshot of all routes
+     */
+    @GetMapping(value = "admin/metrics/routes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Publisher<List<RouteSnapshot>> routeMetrics() {
+        return rSocketRequester1
+                .route("metrics.routes")
+                .retrieveFlux(new ParameterizedTypeReference<List<RouteSnapshot>>() {
+                });
+    }
+
+    /***********************************Server Push******************************/
+    /**
+     * Ask the server to push a user to every connected client.
+     *
+     * @return number of clients
+     */
+    @GetMapping(value = "broadcast")
+    public Publisher<Integer> broadcast() {
+        return rSocketRequester1
+                .route("admin.broadcast.user")
+                .metadata(adminToken, SECURITY_TOKEN_MIME_TYPE)
+                .data(User.builder().id(5).age(30).name("news").build())
+                .retrieveMono(Integer.class);
+    }
+
+    /**
+     * Ask the server to push a user to one client, e.g. Client-123 or Client-234.
+     *
+     * @param clientId client id
+     * @return void
+     */
+    @GetMapping(value = "push/{clientId}")
+    public Publisher<Void> push(@PathVariable("clientId") String clientId) {
+        return rSocketRequester1
+                .route("admin.send.user.{clientId}", clientId)
+                .metadata(adminToken, SECURITY_TOKEN_MIME_TYPE)
+                .data(User.builder().id(6).age(31).name("direct").build())
+                .retrieveMono(Void.class);
+    }
+
     /***********************************Invoke Error******************************/
     @GetMapping("error")
     public Publisher<User> error() {
@@ -241,6 +443,38 @@ public class UserRestController {
     }
 
 
+    /**
+     * The server calls back every connected client responder, replies stream back as they arrive.
+     *
+     * @return ClientReply
+     */
+    @GetMapping(value = "scatter/responder", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Publisher<ClientReply> scatterResponder() {
+        return rSocketRequester1
+                .route("scatter.responder.user")
+                .data(new UserRequest(1))
+                .metadata("bearer token_001", SECURITY_TOKEN_MIME_TYPE)
+                .metadata("refresh_token_001", REFRESH_TOKEN_MIME_TYPE)
+                .retrieveFlux(ClientReply.class);
+    }
+
+    /**
+     * The server calls back every connected client responder and answers once `quorum` of them replied.
+     *
+     * @param quorum quorum
+     * @return ClientReply
+     */
+    @GetMapping(value = "quorum/responder/{quorum}")
+    public Publisher<List<ClientReply>> quorumResponder(@PathVariable("quorum") int quorum) {
+        return rSocketRequester1
+                .route("quorum.responder.user.{quorum}", quorum)
+                .data(new UserRequest(1))
+                .metadata("bearer token_001", SECURITY_TOKEN_MIME_TYPE)
+                .metadata("refresh_token_001", REFRESH_TOKEN_MIME_TYPE)
+                .retrieveMono(new ParameterizedTypeReference<List<ClientReply>>() {
+                });
+    }
+
     private Map<String, Object> buildMapHeader() {
         Map<String, Object> map = new HashMap<>(2);
         map.put("foo", "bar");
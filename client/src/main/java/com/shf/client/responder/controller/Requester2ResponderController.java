@@ -27,4 +27,16 @@ public class Requester2ResponderController {
         log.info("Responder2 --> user_name:[{}] securityToken:[{}] refreshToken:[{}]", user.getName(), securityToken, refreshToken);
         return Mono.just(user.getName());
     }
+
+    /**
+     * Server push, see `admin.broadcast.user` and `admin.send.user.{clientId}` on the server side.
+     *
+     * @param user user
+     * @return Mono<Void>
+     */
+    @MessageMapping("responder.notify")
+    public Mono<Void> notify(User user) {
+        log.info("Responder2 --> notified of user:[{}]", user);
+        return Mono.empty();
+    }
 }
@@ -0,0 +1,16 @@
+package com.shf.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * The requesters are lazy, so that the context starts without a server, the RSocket server takes a free port.
+ */
+@SpringBootTest(properties = {"spring.main.lazy-initialization=true", "spring.rsocket.server.port=0"})
+class ClientApplicationTests {
+
+    @Test
+    void contextLoads() {
+    }
+
+}
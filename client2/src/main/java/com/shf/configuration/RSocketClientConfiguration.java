@@ -1,17 +1,22 @@
 package com.shf.configuration;
 
+import com.shf.entity.User;
+import com.shf.lease.AdaptiveLeaseProperties;
+import com.shf.lease.AdaptiveLeaseSender;
 import com.shf.lease.LeaseReceiver;
-import com.shf.lease.LeaseSender;
-import com.shf.lease.NoopStats;
+import com.shf.lease.LeaseStatsRegistry;
 import com.shf.lease.ServerRoleEnum;
+import com.shf.mimetype.DataCodecProperties;
+import com.shf.mimetype.DataCodecs;
+import com.shf.transport.NettyTransportFactory;
+import com.shf.transport.NettyTransportProperties;
 
-import io.rsocket.lease.Leases;
-import io.rsocket.transport.netty.client.TcpClientTransport;
-
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.rsocket.messaging.RSocketStrategiesCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
 import org.springframework.security.rsocket.metadata.BasicAuthenticationEncoder;
 import org.springframework.security.rsocket.metadata.UsernamePasswordMetadata;
 import org.springframework.util.MimeTypeUtils;
@@ -27,32 +32,67 @@ import lombok.extern.slf4j.Slf4j;
  * - Integrated with spring-security for authentication and authorization.
  * - Enable lease： Client side check itself whether has valid leases.
  *   If has no, it will invoke exception inside and never send the request to the server side.
+ * - Select a binary data mime type from the local codecs, JSON as the fallback.
  *
  * @author songhaifeng
  * @date 2019/11/18 11:26
  */
 @Configuration
+@EnableConfigurationProperties({DataCodecProperties.class, NettyTransportProperties.class, AdaptiveLeaseProperties.class})
 @Slf4j
 public class RSocketClientConfiguration {
 
+    /**
+     * The event loops and the socket options of the TCP transport, from `spring.rsocket.netty`.
+     *
+     * @param properties NettyTransportProperties
+     * @return NettyTransportFactory
+     */
+    @Bean(destroyMethod = "dispose")
+    public NettyTransportFactory nettyTransportFactory(NettyTransportProperties properties) {
+        return new NettyTransportFactory(properties);
+    }
+
+    /**
+     * Per connection lease stats of this client as a responder, bound to Micrometer as a MeterBinder.
+     *
+     * @return LeaseStatsRegistry
+     */
+    @Bean(destroyMethod = "close")
+    public LeaseStatsRegistry leaseStatsRegistry() {
+        return new LeaseStatsRegistry(ServerRoleEnum.CLIENT);
+    }
+
+    /**
+     * Issue the leases to the server by the latency measured on this client, see more in {@link AdaptiveLeaseSender}.
+     *
+     * @param properties         AdaptiveLeaseProperties
+     * @param leaseStatsRegistry LeaseStatsRegistry
+     * @return AdaptiveLeaseSender
+     */
+    @Bean
+    public AdaptiveLeaseSender adaptiveLeaseSender(AdaptiveLeaseProperties properties, LeaseStatsRegistry leaseStatsRegistry) {
+        return new AdaptiveLeaseSender(ServerRoleEnum.CLIENT, properties, leaseStatsRegistry);
+    }
+
     @Bean
-    public RSocketRequester rSocketRequester(RSocketRequester.Builder builder) {
+    public RSocketRequester rSocketRequester(RSocketRequester.Builder builder, RSocketStrategies strategies,
+                                             DataCodecProperties dataCodecProperties, NettyTransportFactory nettyTransportFactory,
+                                             AdaptiveLeaseSender leaseSender) {
         // Test `setup().hasRole("SETUP")` which is configured on the server side.
         final UsernamePasswordMetadata credentials = new UsernamePasswordMetadata("setup", "654321");
         return builder
+                .dataMimeType(DataCodecs.select(strategies, dataCodecProperties.getMimeTypes(), User.class))
                 .rsocketFactory(configurer ->
-                        configurer.lease(() ->
-                                Leases.<NoopStats>create()
-                                        .receiver(new LeaseReceiver(ServerRoleEnum.CLIENT))
-                                        .sender(new LeaseSender(ServerRoleEnum.CLIENT, 30_000, 5))
-                        )
+                        configurer.lease(() -> leaseSender.leases(new LeaseReceiver(ServerRoleEnum.CLIENT)))
+                                .addResponderPlugin(leaseSender.responder())
                 )
                 .setupData("Client2-abc")
                 // could send multiple metadata in a setup frame.
                 .setupMetadata(Arrays.asList("connect-metadata-value", "connect-metadata-value2"), MimeTypeUtils.APPLICATION_JSON)
                 // Authentication metadata
                 .setupMetadata(credentials, UsernamePasswordMetadata.BASIC_AUTHENTICATION_MIME_TYPE)
-                .connect(TcpClientTransport.create(new InetSocketAddress("127.0.0.1", 8081)))
+                .connect(nettyTransportFactory.client(new InetSocketAddress("127.0.0.1", 8081)))
                 .block();
     }
 
@@ -67,4 +107,14 @@ public class RSocketClientConfiguration {
             strategyBuilder.encoder(new BasicAuthenticationEncoder());
         };
     }
+
+    /**
+     * Add the binary data codecs.
+     *
+     * @return RSocketStrategiesCustomizer
+     */
+    @Bean
+    public RSocketStrategiesCustomizer binaryCodecsCustomizer() {
+        return DataCodecs.binaryCodecs();
+    }
 }
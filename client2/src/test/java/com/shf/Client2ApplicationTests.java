@@ -0,0 +1,16 @@
+package com.shf;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * The requester is lazy, so that the context starts without a server.
+ */
+@SpringBootTest(properties = "spring.main.lazy-initialization=true")
+class Client2ApplicationTests {
+
+    @Test
+    void contextLoads() {
+    }
+
+}
@@ -0,0 +1,285 @@
+package com.shf.codec.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Description:
+ * Generates a {@code com.shf.codec.EntityCodec} named {@code <Type>BinaryCodec} for every class annotated with {@code com.shf.codec.BinaryCodec},
+ * and lists them in {@code META-INF/services/com.shf.codec.EntityCodec}.
+ * <ul>
+ * <li>The class needs a public no-args constructor, every non static, non transient field a getter and a setter(as generated by Lombok @Data).</li>
+ * <li>Fields are written in declaration order, with no names or type tags.</li>
+ * <li>Primitives are written at their fixed size. Boxed primitives are prefixed with a presence byte.
+ * Strings are an int length, -1 for null, followed by the UTF-8 bytes.</li>
+ * </ul>
+ * The generated code calls the ByteBuf accessors directly: no reflection and no intermediate arrays.
+ *
+ * @author songhaifeng
+ * @date 2020/01/11 10:20
+ */
+@SupportedAnnotationTypes(BinaryCodecProcessor.ANNOTATION)
+public class BinaryCodecProcessor extends AbstractProcessor {
+    static final String ANNOTATION = "com.shf.codec.BinaryCodec";
+    private static final String CODEC_INTERFACE = "com.shf.codec.EntityCodec";
+    private static final String SUFFIX = "BinaryCodec";
+    private static final Map<String, FieldType> FIELD_TYPES = new HashMap<>();
+
+    static {
+        FIELD_TYPES.put("boolean", new FieldType(1, "Boolean", false));
+        FIELD_TYPES.put("byte", new FieldType(1, "Byte", false));
+        FIELD_TYPES.put("short", new FieldType(2, "Short", false));
+        FIELD_TYPES.put("char", new FieldType(2, "Char", false));
+        FIELD_TYPES.put("int", new FieldType(4, "Int", false));
+        FIELD_TYPES.put("float", new FieldType(4, "Float", false));
+        FIELD_TYPES.put("long", new FieldType(8, "Long", false));
+        FIELD_TYPES.put("double", new FieldType(8, "Double", false));
+        FIELD_TYPES.put("java.lang.Boolean", new FieldType(1, "Boolean", true));
+        FIELD_TYPES.put("java.lang.Byte", new FieldType(1, "Byte", true));
+        FIELD_TYPES.put("java.lang.Short", new FieldType(2, "Short", true));
+        FIELD_TYPES.put("java.lang.Character", new FieldType(2, "Char", true));
+        FIELD_TYPES.put("java.lang.Integer", new FieldType(4, "Int", true));
+        FIELD_TYPES.put("java.lang.Float", new FieldType(4, "Float", true));
+        FIELD_TYPES.put("java.lang.Long", new FieldType(8, "Long", true));
+        FIELD_TYPES.put("java.lang.Double", new FieldType(8, "Double", true));
+    }
+
+    private final List<String> generated = new ArrayList<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    error(element, "@BinaryCodec only applies to classes");
+                    continue;
+                }
+                generate((TypeElement) element);
+            }
+        }
+        if (roundEnv.processingOver() && !generated.isEmpty()) {
+            writeServices();
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type) {
+        if (type.getEnclosingElement().getKind() != ElementKind.PACKAGE) {
+            error(type, "@BinaryCodec only applies to top level classes");
+            return;
+        }
+        if (!hasPublicNoArgsConstructor(type)) {
+            error(type, "@BinaryCodec requires a public no-args constructor");
+            return;
+        }
+        String packageName = ((PackageElement) processingEnv.getElementUtils().getPackageOf(type)).getQualifiedName().toString();
+        String typeName = type.getSimpleName().toString();
+        String codecName = typeName + SUFFIX;
+
+        StringBuilder size = new StringBuilder();
+        StringBuilder write = new StringBuilder();
+        StringBuilder read = new StringBuilder();
+        int fixedSize = 0;
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                continue;
+            }
+            String name = field.getSimpleName().toString();
+            // a local never clashes with the parameters
+            String local = name + "Field";
+            String fieldType = field.asType().toString();
+            String getter = getter(name, field.asType().getKind() == TypeKind.BOOLEAN);
+            String setter = setter(name, field.asType().getKind() == TypeKind.BOOLEAN);
+            if ("java.lang.String".equals(fieldType)) {
+                fixedSize += 4;
+                size.append("        String ").append(local).append(" = value.").append(getter).append("();\n")
+                        .append("        if (").append(local).append(" != null) {\n")
+                        .append("            size += ByteBufUtil.utf8Bytes(").append(local).append(");\n")
+                        .append("        }\n");
+                write.append("        writeString(buf, value.").append(getter).append("());\n");
+                read.append("        value.").append(setter).append("(readString(buf));\n");
+                continue;
+            }
+            FieldType known = FIELD_TYPES.get(fieldType);
+            if (known == null) {
+                error(field, "@BinaryCodec does not support the field type " + fieldType);
+                return;
+            }
+            if (known.boxed) {
+                fixedSize += 1;
+                size.append("        if (value.").append(getter).append("() != null) {\n")
+                        .append("            size += ").append(known.size).append(";\n")
+                        .append("        }\n");
+                write.append("        ").append(fieldType).append(' ').append(local).append(" = value.").append(getter).append("();\n")
+                        .append("        buf.writeBoolean(").append(local).append(" != null);\n")
+                        .append("        if (").append(local).append(" != null) {\n")
+                        .append("            buf.write").append(known.accessor).append('(').append(local).append(");\n")
+                        .append("        }\n");
+                read.append("        if (buf.readBoolean()) {\n")
+                        .append("            value.").append(setter).append("(buf.read").append(known.accessor).append("());\n")
+                        .append("        }\n");
+            } else {
+                fixedSize += known.size;
+                write.append("        buf.write").append(known.accessor).append("(value.").append(getter).append("());\n");
+                read.append("        value.").append(setter).append("(buf.read").append(known.accessor).append("());\n");
+            }
+        }
+
+        String source = "package " + packageName + ";\n"
+                + "\n"
+                + "import io.netty.buffer.ByteBuf;\n"
+                + "import io.netty.buffer.ByteBufUtil;\n"
+                + "\n"
+                + "import java.nio.charset.StandardCharsets;\n"
+                + "\n"
+                + "/**\n"
+                + " * Binary codec of {@link " + typeName + "}, generated by " + getClass().getName() + ". Do not edit.\n"
+                + " */\n"
+                + "public final class " + codecName + " implements " + CODEC_INTERFACE + "<" + typeName + "> {\n"
+                + "\n"
+                + "    @Override\n"
+                + "    public Class<" + typeName + "> type() {\n"
+                + "        return " + typeName + ".class;\n"
+                + "    }\n"
+                + "\n"
+                + "    @Override\n"
+                + "    public int size(" + typeName + " value) {\n"
+                + "        int size = " + fixedSize + ";\n"
+                + size
+                + "        return size;\n"
+                + "    }\n"
+                + "\n"
+                + "    @Override\n"
+                + "    public void write(" + typeName + " value, ByteBuf buf) {\n"
+                + write
+                + "    }\n"
+                + "\n"
+                + "    @Override\n"
+                + "    public " + typeName + " read(ByteBuf buf) {\n"
+                + "        " + typeName + " value = new " + typeName + "();\n"
+                + read
+                + "        return value;\n"
+                + "    }\n"
+                + "\n"
+                + "    private static void writeString(ByteBuf buf, String value) {\n"
+                + "        if (value == null) {\n"
+                + "            buf.writeInt(-1);\n"
+                + "            return;\n"
+                + "        }\n"
+                + "        int lengthIndex = buf.writerIndex();\n"
+                + "        buf.writeInt(0);\n"
+                + "        buf.setInt(lengthIndex, ByteBufUtil.writeUtf8(buf, value));\n"
+                + "    }\n"
+                + "\n"
+                + "    private static String readString(ByteBuf buf) {\n"
+                + "        int length = buf.readInt();\n"
+                + "        return length < 0 ? null : buf.readCharSequence(length, StandardCharsets.UTF_8).toString();\n"
+                + "    }\n"
+                + "}\n";
+
+        String qualifiedName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source);
+            }
+            generated.add(qualifiedName);
+        } catch (IOException e) {
+            error(type, "Failed to write " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    private void writeServices() {
+        try {
+            FileObject file = processingEnv.getFiler()
+                    .createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + CODEC_INTERFACE);
+            try (Writer writer = file.openWriter()) {
+                for (String codec : generated) {
+                    writer.write(codec);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write the codec services: " + e.getMessage());
+        }
+    }
+
+    private static boolean hasPublicNoArgsConstructor(TypeElement type) {
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements());
+        // Lombok adds @NoArgsConstructor after the processors ran, so no explicit constructor is accepted as well
+        return constructors.isEmpty() || constructors.stream()
+                .anyMatch(constructor -> constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC))
+                || type.getAnnotationMirrors().stream()
+                .anyMatch(mirror -> mirror.getAnnotationType().toString().equals("lombok.NoArgsConstructor"));
+    }
+
+    /**
+     * Accessor names as generated by Lombok.
+     */
+    private static String getter(String field, boolean primitiveBoolean) {
+        if (primitiveBoolean) {
+            return isPrefixed(field) ? field : "is" + capitalize(field);
+        }
+        return "get" + capitalize(field);
+    }
+
+    private static String setter(String field, boolean primitiveBoolean) {
+        return "set" + capitalize(primitiveBoolean && isPrefixed(field) ? field.substring(2) : field);
+    }
+
+    private static boolean isPrefixed(String field) {
+        return field.length() > 2 && field.startsWith("is") && Character.isUpperCase(field.charAt(2));
+    }
+
+    private static String capitalize(String field) {
+        return Character.toUpperCase(field.charAt(0)) + field.substring(1);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static final class FieldType {
+        final int size;
+        /**
+         * Suffix of the ByteBuf read and write methods.
+         */
+        final String accessor;
+        final boolean boxed;
+
+        FieldType(int size, String accessor, boolean boxed) {
+            this.size = size;
+            this.accessor = accessor;
+            this.boxed = boxed;
+        }
+    }
+}
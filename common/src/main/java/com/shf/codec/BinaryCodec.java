@@ -0,0 +1,21 @@
+package com.shf.codec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Description:
+ * Generate a reflection-free {@link EntityCodec} for the annotated class at compile time,
+ * see com.shf.codec.processor.BinaryCodecProcessor in the codec-processor module.
+ *
+ * @author songhaifeng
+ * @date 2020/01/11 10:05
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface BinaryCodec {
+}
@@ -0,0 +1,71 @@
+package com.shf.codec;
+
+import com.shf.mimetype.DataCodecs;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.util.MimeType;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Description:
+ * Decodes the {@link BinaryCodec} entities with their generated {@link EntityCodec}.
+ * A {@link NettyDataBuffer}, as RSocket uses, is read in place: the fields are read from the frame buffer with no copy.
+ *
+ * @author songhaifeng
+ * @date 2020/01/11 10:42
+ */
+public class BinaryEntityDecoder implements Decoder<Object> {
+
+    @Override
+    public boolean canDecode(ResolvableType elementType, MimeType mimeType) {
+        return (mimeType == null || DataCodecs.APPLICATION_ENTITY.isCompatibleWith(mimeType))
+                && EntityCodecs.get(elementType.toClass()) != null;
+    }
+
+    @Override
+    public Flux<Object> decode(Publisher<DataBuffer> inputStream, ResolvableType elementType,
+                               MimeType mimeType, Map<String, Object> hints) {
+        return Flux.from(inputStream).map(buffer -> decode(buffer, elementType, mimeType, hints));
+    }
+
+    @Override
+    public Mono<Object> decodeToMono(Publisher<DataBuffer> inputStream, ResolvableType elementType,
+                                     MimeType mimeType, Map<String, Object> hints) {
+        return DataBufferUtils.join(inputStream).map(buffer -> decode(buffer, elementType, mimeType, hints));
+    }
+
+    @Override
+    public Object decode(DataBuffer buffer, ResolvableType targetType, MimeType mimeType, Map<String, Object> hints) {
+        EntityCodec<?> codec = EntityCodecs.get(targetType.toClass());
+        try {
+            ByteBuf buf = buffer instanceof NettyDataBuffer
+                    ? ((NettyDataBuffer) buffer).getNativeBuffer()
+                    : Unpooled.wrappedBuffer(buffer.asByteBuffer());
+            return codec.read(buf);
+        } catch (IndexOutOfBoundsException e) {
+            throw new DecodingException("Truncated " + targetType.toClass().getSimpleName(), e);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    @Override
+    public List<MimeType> getDecodableMimeTypes() {
+        return Collections.singletonList(DataCodecs.APPLICATION_ENTITY);
+    }
+}
@@ -0,0 +1,65 @@
+package com.shf.codec;
+
+import com.shf.mimetype.DataCodecs;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.util.MimeType;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Description:
+ * Encodes the {@link BinaryCodec} entities with their generated {@link EntityCodec}.
+ * With a {@link NettyDataBufferFactory}, as RSocket uses, each value is written into a pooled {@link ByteBuf} of its exact size.
+ *
+ * @author songhaifeng
+ * @date 2020/01/11 10:30
+ */
+public class BinaryEntityEncoder implements Encoder<Object> {
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        return (mimeType == null || DataCodecs.APPLICATION_ENTITY.isCompatibleWith(mimeType))
+                && EntityCodecs.get(elementType.toClass()) != null;
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory, ResolvableType elementType,
+                                   MimeType mimeType, Map<String, Object> hints) {
+        return Flux.from(inputStream).map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public DataBuffer encodeValue(Object value, DataBufferFactory bufferFactory, ResolvableType valueType,
+                                  MimeType mimeType, Map<String, Object> hints) {
+        EntityCodec<Object> codec = (EntityCodec<Object>) EntityCodecs.get(value.getClass());
+        int size = codec.size(value);
+        if (bufferFactory instanceof NettyDataBufferFactory) {
+            NettyDataBufferFactory nettyFactory = (NettyDataBufferFactory) bufferFactory;
+            ByteBuf buf = nettyFactory.getByteBufAllocator().buffer(size, size);
+            codec.write(value, buf);
+            return nettyFactory.wrap(buf);
+        }
+        ByteBuf buf = Unpooled.buffer(size, size);
+        codec.write(value, buf);
+        return bufferFactory.wrap(buf.nioBuffer());
+    }
+
+    @Override
+    public List<MimeType> getEncodableMimeTypes() {
+        return Collections.singletonList(DataCodecs.APPLICATION_ENTITY);
+    }
+}
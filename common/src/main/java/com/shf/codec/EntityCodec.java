@@ -0,0 +1,28 @@
+package com.shf.codec;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Description:
+ * Writes and reads one type straight to and from a {@link ByteBuf}, implementations are generated for {@link BinaryCodec} classes.
+ *
+ * @param <T> entity type
+ * @author songhaifeng
+ * @date 2020/01/11 10:08
+ */
+public interface EntityCodec<T> {
+
+    Class<T> type();
+
+    /**
+     * @return exact number of bytes {@link #write(Object, ByteBuf)} writes
+     */
+    int size(T value);
+
+    void write(T value, ByteBuf buf);
+
+    /**
+     * Read one value from the reader index of the buffer.
+     */
+    T read(ByteBuf buf);
+}
@@ -0,0 +1,41 @@
+package com.shf.codec;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Description:
+ * The generated {@link EntityCodec}s, listed in META-INF/services by the annotation processor.
+ *
+ * @author songhaifeng
+ * @date 2020/01/11 10:12
+ */
+@Slf4j
+public final class EntityCodecs {
+    private static final Map<Class<?>, EntityCodec<?>> CODECS = load();
+
+    private EntityCodecs() {
+    }
+
+    /**
+     * @return the codec of the exact type, null if it has none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> EntityCodec<T> get(Class<T> type) {
+        return (EntityCodec<T>) CODECS.get(type);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Map<Class<?>, EntityCodec<?>> load() {
+        Map<Class<?>, EntityCodec<?>> codecs = new HashMap<>();
+        for (EntityCodec codec : ServiceLoader.load(EntityCodec.class, EntityCodecs.class.getClassLoader())) {
+            codecs.put(codec.type(), codec);
+        }
+        log.info("Binary codecs of {}", codecs.keySet());
+        return Collections.unmodifiableMap(codecs);
+    }
+}
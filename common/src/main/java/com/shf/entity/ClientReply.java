@@ -0,0 +1,40 @@
+package com.shf.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Description:
+ * The reply of one client to a scatter-gather request of the server.
+ *
+ * @param <T> value type
+ * @author songhaifeng
+ * @date 2020/01/08 11:02
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClientReply<T> {
+    private String clientId;
+    /**
+     * Null if the client failed or timed out.
+     */
+    private T value;
+    /**
+     * Null if the client replied.
+     */
+    private String error;
+
+    public static <T> ClientReply<T> success(String clientId, T value) {
+        return new ClientReply<>(clientId, value, null);
+    }
+
+    public static <T> ClientReply<T> failure(String clientId, Throwable error) {
+        return new ClientReply<>(clientId, null, error.getClass().getSimpleName() + ": " + error.getMessage());
+    }
+
+    public boolean succeeded() {
+        return error == null;
+    }
+}
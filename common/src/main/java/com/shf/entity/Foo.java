@@ -1,5 +1,7 @@
 package com.shf.entity;
 
+import com.shf.codec.BinaryCodec;
+
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -11,6 +13,7 @@ import lombok.NoArgsConstructor;
  * @author: songhaifeng
  * @date: 2019/11/21 14:59
  */
+@BinaryCodec
 @Builder
 @Data
 @NoArgsConstructor
@@ -0,0 +1,41 @@
+package com.shf.entity;
+
+import lombok.Data;
+
+/**
+ * Description:
+ * Lease statistics of one connection of a responder.
+ * Counters are totals since the connection was set up, latencies cover the last snapshot interval only.
+ *
+ * @author songhaifeng
+ * @date 2020/01/19 10:20
+ */
+@Data
+public class LeaseSnapshot {
+    /**
+     * Sequence of the connection in its responder.
+     */
+    private long connection;
+    /**
+     * SERVER or CLIENT, the role of the responder.
+     */
+    private String role;
+    private long accepted;
+    private long rejected;
+    private long completed;
+    private long inFlight;
+    /**
+     * Requests allowed by the last lease sent, and its time to live.
+     */
+    private long allowedRequests;
+    private long ttlMillis;
+    /**
+     * Requests completed in the interval.
+     */
+    private long intervalRequests;
+    private long p50Micros;
+    private long p90Micros;
+    private long p99Micros;
+    private long maxMicros;
+    private long timestamp;
+}
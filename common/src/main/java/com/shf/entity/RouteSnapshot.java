@@ -0,0 +1,34 @@
+package com.shf.entity;
+
+import lombok.Data;
+
+/**
+ * Description:
+ * Metrics of one route and interaction type, emitted by the `metrics.routes` route.
+ * Counters are totals since startup, latencies cover the last snapshot interval only.
+ *
+ * @author songhaifeng
+ * @date 2020/01/09 10:20
+ */
+@Data
+public class RouteSnapshot {
+    private String route;
+    /**
+     * Frame type of the interaction, such as REQUEST_RESPONSE or REQUEST_STREAM.
+     */
+    private String interaction;
+    private long requests;
+    private long errors;
+    private long inFlight;
+    private long requestBytes;
+    private long responseBytes;
+    /**
+     * Requests completed in the interval.
+     */
+    private long intervalRequests;
+    private long p50Micros;
+    private long p90Micros;
+    private long p99Micros;
+    private long maxMicros;
+    private long timestamp;
+}
@@ -0,0 +1,26 @@
+package com.shf.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Description:
+ * Acknowledgement of one window of the `add.users.channel` route.
+ *
+ * @author songhaifeng
+ * @date 2019/12/31 09:30
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserAck {
+    /**
+     * Number of users of the window that were added.
+     */
+    private int accepted;
+    /**
+     * Ids of the users of the window that were not added because the id already exists.
+     */
+    private int[] rejected;
+}
@@ -0,0 +1,22 @@
+package com.shf.entity;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Description:
+ * Response of the `users.batch` routes: the users found, in request order, and the ids that were not.
+ *
+ * @author songhaifeng
+ * @date 2019/12/30 15:40
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserBatch {
+    private List<User> users;
+    private int[] missing;
+}
@@ -0,0 +1,30 @@
+package com.shf.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Description:
+ * One mutation of the user repository, streamed by the `user.changes` route.
+ * Sequences increase by one per change, a gap tells a subscriber it missed changes and must resync.
+ *
+ * @author songhaifeng
+ * @date 2020/01/02 10:05
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserChangeEvent {
+    public enum Type {
+        INSERT, UPDATE, DELETE
+    }
+
+    private long sequence;
+    private Type type;
+    private int id;
+    /**
+     * New value, null for a delete.
+     */
+    private User user;
+}
@@ -0,0 +1,45 @@
+package com.shf.entity;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Description:
+ * Opaque cursor of the `list` route. Users are streamed in id order,
+ * so the cursor of a user is the position right after it: an interrupted stream
+ * continues with the cursor of the last user it received.
+ *
+ * @author songhaifeng
+ * @date 2019/12/30 10:15
+ */
+public final class UserCursor {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private UserCursor() {
+    }
+
+    /**
+     * @param id id of the last received user
+     * @return cursor resuming after the user
+     */
+    public static String after(int id) {
+        return ENCODER.encodeToString(ByteBuffer.allocate(Integer.BYTES).putInt(id).array());
+    }
+
+    /**
+     * @param cursor cursor, may be null or empty
+     * @return id the cursor resumes after, null for the start of the stream
+     * @throws IllegalArgumentException if the cursor was not created by {@link #after(int)}
+     */
+    public static Integer lastId(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        byte[] bytes = DECODER.decode(cursor);
+        if (bytes.length != Integer.BYTES) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+}
@@ -0,0 +1,26 @@
+package com.shf.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Description:
+ * Payload of the `list` route, both fields are optional.
+ *
+ * @author songhaifeng
+ * @date 2019/12/30 10:12
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserListRequest {
+    /**
+     * Opaque position to resume from, see {@link UserCursor}. Null to start from the first user.
+     */
+    private String cursor;
+    /**
+     * Maximum number of users in the stream, 0 for all of them.
+     */
+    private int size;
+}
@@ -1,5 +1,7 @@
 package com.shf.entity;
 
+import com.shf.codec.BinaryCodec;
+
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -10,6 +12,7 @@ import lombok.NoArgsConstructor;
  * @author: songhaifeng
  * @date: 2019/11/18 14:54
  */
+@BinaryCodec
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -0,0 +1,46 @@
+package com.shf.lease;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+import lombok.Data;
+
+/**
+ * Description:
+ * The leases issued by an {@link AdaptiveLeaseSender}, prefixed with `rsocket.lease`.
+ *
+ * @author songhaifeng
+ * @date 2020/01/18 10:10
+ */
+@Data
+@ConfigurationProperties(prefix = "rsocket.lease")
+public class AdaptiveLeaseProperties {
+    /**
+     * Concurrent requests allowed at first, and the requests of a lease before any latency is measured.
+     */
+    private int initialLimit = 20;
+    private int minLimit = 1;
+    private int maxLimit = 1000;
+    /**
+     * How much the latency may grow above its long term average before the limit is decreased.
+     */
+    private double rttTolerance = 1.5;
+    /**
+     * Weight of a new limit against the previous one.
+     */
+    private double smoothing = 0.2;
+    /**
+     * Windows the long term latency is averaged over.
+     */
+    private int longWindows = 20;
+    /**
+     * Window the latency is averaged over, and the limit updated on.
+     */
+    private Duration window = Duration.ofSeconds(1);
+    /**
+     * Period of the leases, shortest when the latency grows, longest when it is steady.
+     */
+    private Duration minTtl = Duration.ofMillis(500);
+    private Duration maxTtl = Duration.ofSeconds(5);
+}
@@ -0,0 +1,213 @@
+package com.shf.lease;
+
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.lease.Lease;
+import io.rsocket.lease.Leases;
+import io.rsocket.plugins.RSocketInterceptor;
+import io.rsocket.util.RSocketProxy;
+
+import org.reactivestreams.Publisher;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Description:
+ * Class responsible for issuing leases sized by the measured latency, in place of a fixed {@link LeaseSender}.
+ * <ul>
+ * <li>{@link #responder()} measures the requests of every connection, from their start to their first response(or completion),
+ * into a {@link GradientLimit}: the concurrent requests the responder takes before it queues them.</li>
+ * <li>Each connection gets a share of the limit by its demand(the requests accepted or rejected during its last lease, from its
+ * {@link ConnectionLeaseStats}), as a rate by Little's law: {@code allowedRequests = limit * share * ttl / rtt}.
+ * An idle connection keeps a tenth of an even share.</li>
+ * <li>The leases are renewed more often as the latency rises, from `max-ttl` down to `min-ttl`,
+ * each one outliving its period by a half so that the requester is never left without.</li>
+ * </ul>
+ * One instance is shared by all the connections of a responder, {@link #leases} supplies the leases of each one.
+ *
+ * @author songhaifeng
+ * @date 2020/01/18 10:40
+ */
+@Slf4j
+public class AdaptiveLeaseSender implements Function<Optional<ConnectionLeaseStats>, Flux<Lease>> {
+    /**
+     * Share of the demand an idle connection is given, relative to the mean.
+     */
+    private static final double IDLE_SHARE = 0.1;
+
+    private final ServerRoleEnum serverRole;
+    private final AdaptiveLeaseProperties properties;
+    private final LeaseStatsRegistry registry;
+    private final GradientLimit limit;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    public AdaptiveLeaseSender(ServerRoleEnum serverRole, AdaptiveLeaseProperties properties, LeaseStatsRegistry registry) {
+        this.serverRole = serverRole;
+        this.properties = properties;
+        this.registry = registry;
+        this.limit = new GradientLimit(properties);
+    }
+
+    /**
+     * The leases of a new connection, with its stats.
+     *
+     * @param receiver receiver of the leases from the peer
+     * @return Leases
+     */
+    public Leases<ConnectionLeaseStats> leases(Consumer<Flux<Lease>> receiver) {
+        return Leases.<ConnectionLeaseStats>create()
+                .receiver(receiver)
+                .sender(this)
+                .stats(registry.create());
+    }
+
+    @Override
+    public Flux<Lease> apply(Optional<ConnectionLeaseStats> leaseStats) {
+        ConnectionLeaseStats stats = leaseStats.orElse(null);
+        return Flux.defer(() -> {
+            limit.update();
+            long period = period();
+            Lease lease = Lease.create((int) (period * 3 / 2), allowedRequests(period, stats));
+            if (stats != null) {
+                stats.leased(lease);
+            }
+            log.debug("{} : responder sends new leases: ttl: {}, requests: {}, limit: {}, rtt: {}us",
+                    serverRole, lease.getTimeToLiveMillis(), lease.getAllowedRequests(), limit.getLimit(), (long) limit.getRttNanos() / 1000);
+            return Mono.just(lease).concatWith(Mono.delay(Duration.ofMillis(period)).then(Mono.empty()));
+        })
+                .repeat()
+                .doOnSubscribe(subscription -> connections.incrementAndGet())
+                .doFinally(signal -> {
+                    connections.decrementAndGet();
+                    if (stats != null) {
+                        registry.unregister(stats);
+                    }
+                });
+    }
+
+    /**
+     * @return the responder plugin measuring the requests
+     */
+    public RSocketInterceptor responder() {
+        return Measured::new;
+    }
+
+    /**
+     * @return the limit the leases are sized by
+     */
+    public GradientLimit getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the period of the leases, from `max-ttl` at a steady latency down to `min-ttl`
+     */
+    long period() {
+        long min = properties.getMinTtl().toMillis();
+        long max = properties.getMaxTtl().toMillis();
+        return min + Math.round((max - min) * (2 * limit.getGradient() - 1));
+    }
+
+    /**
+     * @param period period of the lease
+     * @param stats  stats of the connection, null if unknown
+     * @return the requests of the lease
+     */
+    int allowedRequests(long period, ConnectionLeaseStats stats) {
+        double rtt = limit.getRttNanos();
+        double allowed = rtt == 0 ? properties.getInitialLimit() : limit.getLimit() * share(stats) * TimeUnit.MILLISECONDS.toNanos(period) / rtt;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.ceil(allowed)));
+    }
+
+    /**
+     * @return the share of the limit of the connection, by its demand against the one of all the connections
+     */
+    private double share(ConnectionLeaseStats stats) {
+        if (stats == null) {
+            return 1.0 / Math.max(1, connections.get());
+        }
+        double demand = stats.updateDemandRate();
+        double total = 0;
+        int count = 0;
+        for (ConnectionLeaseStats connection : registry.connections()) {
+            total += connection.demandRate();
+            count++;
+        }
+        if (total <= 0) {
+            return 1.0 / Math.max(1, count);
+        }
+        double idle = total / count * IDLE_SHARE;
+        return (demand + idle) / (total + count * idle);
+    }
+
+    /**
+     * @param stats the stats of the connection of the request, null if its lease was not checked
+     */
+    private <T> Flux<T> measure(Publisher<T> request, ConnectionLeaseStats stats) {
+        return Flux.defer(() -> {
+            int started = inflight.incrementAndGet();
+            long start = stats != null ? stats.start() : System.nanoTime();
+            AtomicBoolean ended = new AtomicBoolean();
+            return Flux.from(request)
+                    .doOnEach(signal -> {
+                        if (ended.compareAndSet(false, true)) {
+                            inflight.decrementAndGet();
+                            limit.onSample(System.nanoTime() - start, started);
+                            if (stats != null) {
+                                stats.stop(start);
+                            }
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (ended.compareAndSet(false, true)) {
+                            inflight.decrementAndGet();
+                            if (stats != null) {
+                                stats.cancel();
+                            }
+                        }
+                    });
+        });
+    }
+
+    private final class Measured extends RSocketProxy {
+
+        Measured(RSocket source) {
+            super(source);
+        }
+
+        @Override
+        public Mono<Void> fireAndForget(Payload payload) {
+            ConnectionLeaseStats stats = ConnectionLeaseStats.takeAccepted();
+            return measure(super.fireAndForget(payload), stats).then();
+        }
+
+        @Override
+        public Mono<Payload> requestResponse(Payload payload) {
+            ConnectionLeaseStats stats = ConnectionLeaseStats.takeAccepted();
+            return measure(super.requestResponse(payload), stats).singleOrEmpty();
+        }
+
+        @Override
+        public Flux<Payload> requestStream(Payload payload) {
+            ConnectionLeaseStats stats = ConnectionLeaseStats.takeAccepted();
+            return measure(super.requestStream(payload), stats);
+        }
+
+        @Override
+        public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+            ConnectionLeaseStats stats = ConnectionLeaseStats.takeAccepted();
+            return measure(super.requestChannel(payloads), stats);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.shf.lease;
+
+import com.shf.entity.LeaseSnapshot;
+
+import io.rsocket.lease.Lease;
+import io.rsocket.lease.LeaseStats;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Description:
+ * The {@link LeaseStats} of one connection: accepted, rejected and completed requests, requests in flight,
+ * the leases sent and a latency histogram.
+ * <ul>
+ * <li>Recording is wait-free and allocation free: {@link LongAdder}s for counters, a {@link Recorder} for latencies.</li>
+ * <li>RSocket reports the lease checks only. The requests themselves are recorded by the responder plugin of
+ * {@link AdaptiveLeaseSender}, which finds the stats of a request by {@link #takeAccepted()}:
+ * RSocket checks the lease of a request right before it hands the request to the responder, on the same thread.</li>
+ * <li>Snapshots are taken by the single thread of a {@link LeaseStatsRegistry}, {@link #last()} returns the latest one.</li>
+ * </ul>
+ *
+ * @author songhaifeng
+ * @date 2020/01/19 10:35
+ */
+public final class ConnectionLeaseStats implements LeaseStats {
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final ThreadLocal<ConnectionLeaseStats> ACCEPTED = new ThreadLocal<>();
+
+    private final long connection;
+    private final ServerRoleEnum serverRole;
+    private final LeaseStatsRegistry registry;
+    private final Recorder latency = new Recorder(HIGHEST_TRACKABLE_NANOS, 2);
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final AtomicLong inFlight = new AtomicLong();
+    private volatile long allowedRequests;
+    private volatile long ttlMillis;
+    private volatile double demandRate;
+    /**
+     * Owned by the lease sender of the connection.
+     */
+    private long lastDemand;
+    private long lastDemandNanos = System.nanoTime();
+    /**
+     * Owned by the snapshot thread.
+     */
+    private Histogram interval;
+    private volatile LeaseSnapshot last;
+
+    ConnectionLeaseStats(long connection, ServerRoleEnum serverRole, LeaseStatsRegistry registry) {
+        this.connection = connection;
+        this.serverRole = serverRole;
+        this.registry = registry;
+        this.last = snapshot(null, 0);
+    }
+
+    /**
+     * @return the stats of the connection whose lease just accepted a request on this thread, once; null if none
+     */
+    static ConnectionLeaseStats takeAccepted() {
+        ConnectionLeaseStats stats = ACCEPTED.get();
+        if (stats != null) {
+            ACCEPTED.set(null);
+        }
+        return stats;
+    }
+
+    @Override
+    public void onEvent(EventType eventType) {
+        switch (eventType) {
+            case ACCEPT:
+                accepted.increment();
+                ACCEPTED.set(this);
+                break;
+            case REJECT:
+                rejected.increment();
+                break;
+            case TERMINATE:
+                registry.unregister(this);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * A request is handed to the responder.
+     *
+     * @return start time, passed back to {@link #stop(long)}
+     */
+    public long start() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * The request responds(or completes), once per {@link #start()}.
+     *
+     * @param startNanos value returned by {@link #start()}
+     */
+    public void stop(long startNanos) {
+        inFlight.decrementAndGet();
+        completed.increment();
+        latency.recordValue(Math.min(System.nanoTime() - startNanos, HIGHEST_TRACKABLE_NANOS));
+    }
+
+    /**
+     * The request is cancelled before it responds, once per {@link #start()}.
+     */
+    public void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * A lease is sent on the connection.
+     *
+     * @param lease Lease
+     */
+    public void leased(Lease lease) {
+        allowedRequests = lease.getAllowedRequests();
+        ttlMillis = lease.getTimeToLiveMillis();
+    }
+
+    /**
+     * Measure the requests(accepted or rejected) per second since the last call, called by the lease sender of the connection only.
+     *
+     * @return the requests per second
+     */
+    public double updateDemandRate() {
+        long demand = accepted.sum() + rejected.sum();
+        long now = System.nanoTime();
+        if (now > lastDemandNanos) {
+            demandRate = (demand - lastDemand) * (double) TimeUnit.SECONDS.toNanos(1) / (now - lastDemandNanos);
+        }
+        lastDemand = demand;
+        lastDemandNanos = now;
+        return demandRate;
+    }
+
+    /**
+     * @return the requests per second, as of the last lease
+     */
+    public double demandRate() {
+        return demandRate;
+    }
+
+    public long getConnection() {
+        return connection;
+    }
+
+    public ServerRoleEnum getServerRole() {
+        return serverRole;
+    }
+
+    public long accepted() {
+        return accepted.sum();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    public long completed() {
+        return completed.sum();
+    }
+
+    public long inFlight() {
+        return inFlight.get();
+    }
+
+    public long allowedRequests() {
+        return allowedRequests;
+    }
+
+    /**
+     * @return the latest snapshot
+     */
+    public LeaseSnapshot last() {
+        return last;
+    }
+
+    /**
+     * Swap the interval histogram and summarize it, called by the snapshot thread only.
+     */
+    LeaseSnapshot snapshot(long timestamp) {
+        interval = latency.getIntervalHistogram(interval);
+        LeaseSnapshot snapshot = snapshot(interval, timestamp);
+        last = snapshot;
+        return snapshot;
+    }
+
+    private LeaseSnapshot snapshot(Histogram histogram, long timestamp) {
+        LeaseSnapshot snapshot = new LeaseSnapshot();
+        snapshot.setConnection(connection);
+        snapshot.setRole(serverRole.name());
+        snapshot.setAccepted(accepted());
+        snapshot.setRejected(rejected());
+        snapshot.setCompleted(completed());
+        snapshot.setInFlight(inFlight());
+        snapshot.setAllowedRequests(allowedRequests);
+        snapshot.setTtlMillis(ttlMillis);
+        snapshot.setTimestamp(timestamp);
+        if (histogram != null && histogram.getTotalCount() > 0) {
+            snapshot.setIntervalRequests(histogram.getTotalCount());
+            snapshot.setP50Micros(TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(50)));
+            snapshot.setP90Micros(TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(90)));
+            snapshot.setP99Micros(TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99)));
+            snapshot.setMaxMicros(TimeUnit.NANOSECONDS.toMicros(histogram.getMaxValue()));
+        }
+        return snapshot;
+    }
+}
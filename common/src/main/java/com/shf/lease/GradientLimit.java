@@ -0,0 +1,100 @@
+package com.shf.lease;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description:
+ * A concurrency limit following the gradient of the latency, as Gradient2 of Netflix's concurrency-limits does.
+ * <ul>
+ * <li>The samples of a window are averaged into a short RTT, the short RTTs into a long (EWMA) RTT.</li>
+ * <li>{@code gradient = max(0.5, min(1, tolerance * longRtt / shortRtt))}: 1 while the latency is steady,
+ * down to 0.5 as the requests queue up.</li>
+ * <li>{@code limit = limit * gradient + sqrt(limit)}, smoothed: it grows by the square root of the limit while the latency is steady,
+ * and shrinks as soon as the latency rises. It does not grow while less than half of it is in use.</li>
+ * </ul>
+ * The samples are recorded lock-free, the limit is updated at most once a window.
+ *
+ * @author songhaifeng
+ * @date 2020/01/18 10:20
+ */
+public class GradientLimit {
+    private final AdaptiveLeaseProperties properties;
+    private final long windowNanos;
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong rttSum = new AtomicLong();
+    private final AtomicInteger maxInflight = new AtomicInteger();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private volatile double limit;
+    private volatile double gradient = 0.5;
+    private volatile double shortRtt;
+    private volatile double longRtt;
+
+    public GradientLimit(AdaptiveLeaseProperties properties) {
+        this.properties = properties;
+        this.windowNanos = properties.getWindow().toNanos();
+        this.limit = properties.getInitialLimit();
+    }
+
+    /**
+     * @param rttNanos latency of a request
+     * @param inflight requests in progress when it started
+     */
+    public void onSample(long rttNanos, int inflight) {
+        samples.incrementAndGet();
+        rttSum.addAndGet(rttNanos);
+        maxInflight.accumulateAndGet(inflight, Math::max);
+    }
+
+    /**
+     * Update the limit from the samples of the window, if it is over.
+     */
+    public void update() {
+        long start = windowStart.get();
+        long now = System.nanoTime();
+        if (now - start < windowNanos || !windowStart.compareAndSet(start, now)) {
+            return;
+        }
+        long count = samples.getAndSet(0);
+        long sum = rttSum.getAndSet(0);
+        int inflight = maxInflight.getAndSet(0);
+        if (count == 0) {
+            return;
+        }
+        double rtt = (double) sum / count;
+        longRtt = longRtt == 0 ? rtt : longRtt + (rtt - longRtt) / properties.getLongWindows();
+        // let the long RTT follow a lasting drop of the latency
+        if (longRtt / rtt > 2) {
+            longRtt *= 0.95;
+        }
+        shortRtt = rtt;
+        gradient = Math.max(0.5, Math.min(1.0, properties.getRttTolerance() * longRtt / rtt));
+        if (inflight < limit / 2) {
+            return;
+        }
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        newLimit = limit * (1 - properties.getSmoothing()) + newLimit * properties.getSmoothing();
+        limit = Math.max(properties.getMinLimit(), Math.min(properties.getMaxLimit(), newLimit));
+    }
+
+    /**
+     * @return concurrent requests allowed
+     */
+    public double getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return 0.5 to 1, lower as the latency rises
+     */
+    public double getGradient() {
+        return gradient;
+    }
+
+    /**
+     * @return the average latency of the last window, 0 if none yet
+     */
+    public double getRttNanos() {
+        return shortRtt;
+    }
+}
@@ -15,6 +15,8 @@ import reactor.core.publisher.Flux;
  * Clients that do not honor leases will receive an error if they
  * try to received a new connection without a valid lease. But it
  * would be better if they do not even try, if they know they will fail.
+ * The requester tracks the same leases itself, as its {@code RSocket#availability()},
+ * which {@link com.shf.pool.RSocketPool} balances the requests on.
  *
  * <p>
  * The implementation is based on this sample:
@@ -0,0 +1,170 @@
+package com.shf.lease;
+
+import com.shf.entity.LeaseSnapshot;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Description:
+ * The {@link ConnectionLeaseStats} of every open connection of a responder.
+ * <ul>
+ * <li>{@link #create()} is the stats supplier of the leases of a connection, the stats are removed when the connection terminates.</li>
+ * <li>A daemon thread snapshots every connection each period, {@link #snapshot()} returns the latest ones.</li>
+ * <li>Bound to Micrometer as `rsocket.lease.accepted`, `rsocket.lease.rejected`, `rsocket.lease.completed`, `rsocket.lease.in.flight`,
+ * `rsocket.lease.allowed`(requests of the last lease) and `rsocket.lease.latency`(per quantile of the last interval),
+ * tagged with the role and the slot of the connection, so that the lease limits can be compared with the actual load.
+ * The connection sequence grows with every reconnect, a slot is the lowest one free and is reused once its connection
+ * terminates, so the series are bounded by the connections open at once.</li>
+ * </ul>
+ *
+ * @author songhaifeng
+ * @date 2020/01/19 11:05
+ */
+@Slf4j
+public class LeaseStatsRegistry implements MeterBinder, AutoCloseable {
+    public static final Duration DEFAULT_PERIOD = Duration.ofSeconds(5);
+
+    private final ServerRoleEnum serverRole;
+    private final List<ConnectionLeaseStats> all = new CopyOnWriteArrayList<>();
+    private final Map<ConnectionLeaseStats, List<Meter>> meters = new ConcurrentHashMap<>();
+    private final Map<ConnectionLeaseStats, Integer> slots = new ConcurrentHashMap<>();
+    private final BitSet usedSlots = new BitSet();
+    private final AtomicLong connections = new AtomicLong();
+    private final ScheduledExecutorService ticker;
+    private volatile List<LeaseSnapshot> latest = Collections.emptyList();
+    private MeterRegistry meterRegistry;
+
+    public LeaseStatsRegistry(ServerRoleEnum serverRole) {
+        this(serverRole, DEFAULT_PERIOD);
+    }
+
+    public LeaseStatsRegistry(ServerRoleEnum serverRole, Duration period) {
+        this.serverRole = serverRole;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lease-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the stats of a new connection
+     */
+    public synchronized ConnectionLeaseStats create() {
+        ConnectionLeaseStats stats = new ConnectionLeaseStats(connections.incrementAndGet(), serverRole, this);
+        all.add(stats);
+        int slot = usedSlots.nextClearBit(0);
+        usedSlots.set(slot);
+        slots.put(stats, slot);
+        if (meterRegistry != null) {
+            bind(stats, meterRegistry);
+        }
+        return stats;
+    }
+
+    /**
+     * @return the stats of the open connections
+     */
+    public List<ConnectionLeaseStats> connections() {
+        return all;
+    }
+
+    /**
+     * @return snapshots of every open connection, taken at the last period
+     */
+    public List<LeaseSnapshot> snapshot() {
+        return latest;
+    }
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        all.forEach(stats -> bind(stats, registry));
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    /**
+     * Remove the stats of a terminated connection, and their meters.
+     */
+    synchronized void unregister(ConnectionLeaseStats stats) {
+        if (!all.remove(stats)) {
+            return;
+        }
+        List<Meter> bound = meters.remove(stats);
+        if (bound != null && meterRegistry != null) {
+            bound.forEach(meterRegistry::remove);
+        }
+        usedSlots.clear(slots.remove(stats));
+    }
+
+    /**
+     * @return the slot the meters of the connection are tagged with, -1 if it is not registered
+     */
+    int slot(ConnectionLeaseStats stats) {
+        return slots.getOrDefault(stats, -1);
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            List<LeaseSnapshot> snapshots = new ArrayList<>(all.size());
+            for (ConnectionLeaseStats stats : all) {
+                snapshots.add(stats.snapshot(now));
+            }
+            latest = Collections.unmodifiableList(snapshots);
+        } catch (RuntimeException e) {
+            // an exception would cancel the periodic task
+            log.warn("Lease stats snapshot failed.", e);
+        }
+    }
+
+    private void bind(ConnectionLeaseStats stats, MeterRegistry registry) {
+        Tags tags = Tags.of("role", stats.getServerRole().name(), "slot", String.valueOf(slots.get(stats)));
+        List<Meter> bound = new ArrayList<>();
+        bound.add(FunctionCounter.builder("rsocket.lease.accepted", stats, ConnectionLeaseStats::accepted).tags(tags).register(registry));
+        bound.add(FunctionCounter.builder("rsocket.lease.rejected", stats, ConnectionLeaseStats::rejected).tags(tags).register(registry));
+        bound.add(FunctionCounter.builder("rsocket.lease.completed", stats, ConnectionLeaseStats::completed).tags(tags).register(registry));
+        bound.add(Gauge.builder("rsocket.lease.in.flight", stats, ConnectionLeaseStats::inFlight).tags(tags).register(registry));
+        bound.add(Gauge.builder("rsocket.lease.allowed", stats, ConnectionLeaseStats::allowedRequests).tags(tags).register(registry));
+        bound.add(bindLatency(stats, registry, tags, "0.5", s -> s.last().getP50Micros()));
+        bound.add(bindLatency(stats, registry, tags, "0.9", s -> s.last().getP90Micros()));
+        bound.add(bindLatency(stats, registry, tags, "0.99", s -> s.last().getP99Micros()));
+        bound.add(bindLatency(stats, registry, tags, "max", s -> s.last().getMaxMicros()));
+        meters.put(stats, bound);
+    }
+
+    private static Meter bindLatency(ConnectionLeaseStats stats, MeterRegistry registry, Tags tags, String quantile,
+                                     ToDoubleFunction<ConnectionLeaseStats> micros) {
+        return TimeGauge.builder("rsocket.lease.latency", stats, TimeUnit.MICROSECONDS, micros)
+                .tags(tags)
+                .tag("quantile", quantile)
+                .register(registry);
+    }
+}
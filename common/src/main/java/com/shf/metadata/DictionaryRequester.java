@@ -0,0 +1,187 @@
+package com.shf.metadata;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.metadata.CompositeMetadata;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.RSocketProxy;
+
+import org.reactivestreams.Publisher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static com.shf.metadata.MetadataDictionary.COMPACT_MIME_TYPE_VALUE;
+import static com.shf.metadata.MetadataDictionary.DEFINE;
+import static com.shf.metadata.MetadataDictionary.LITERAL;
+import static com.shf.metadata.MetadataDictionary.REFERENCE;
+
+/**
+ * Description:
+ * The requester side of a {@link MetadataDictionary}, one per connection.
+ *
+ * @author songhaifeng
+ * @date 2020/01/14 11:10
+ */
+class DictionaryRequester extends RSocketProxy {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Set<Integer> referenced = new HashSet<>();
+    private final int maxReferences;
+    private final int maxValueSize;
+    private final ConcurrentMap<Value, Reference> references = new ConcurrentHashMap<>();
+    private int nextReference;
+
+    DictionaryRequester(RSocket source, List<String> mimeTypes, List<String> referencedMimeTypes, int maxReferences, int maxValueSize) {
+        super(source);
+        for (int i = 0; i < mimeTypes.size(); i++) {
+            ids.put(mimeTypes.get(i), i);
+        }
+        referencedMimeTypes.stream().map(ids::get).filter(id -> id != null).forEach(referenced::add);
+        this.maxReferences = maxReferences;
+        this.maxValueSize = maxValueSize;
+    }
+
+    @Override
+    public Mono<Void> fireAndForget(Payload payload) {
+        return source.fireAndForget(compact(payload));
+    }
+
+    @Override
+    public Mono<Payload> requestResponse(Payload payload) {
+        return source.requestResponse(compact(payload));
+    }
+
+    @Override
+    public Flux<Payload> requestStream(Payload payload) {
+        return source.requestStream(compact(payload));
+    }
+
+    @Override
+    public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+        return source.requestChannel(Flux.from(payloads).map(this::compact));
+    }
+
+    private Payload compact(Payload payload) {
+        if (!payload.hasMetadata() || !MetadataDictionary.anyEntry(payload.metadata(), ids::containsKey)) {
+            return payload;
+        }
+        // the other entries keep their position, the compact entry takes the one of the first replaced entry
+        List<String> mimeTypes = new ArrayList<>(4);
+        List<ByteBuf> contents = new ArrayList<>(4);
+        ByteBuf compact = null;
+        for (CompositeMetadata.Entry entry : new CompositeMetadata(payload.metadata(), false)) {
+            ByteBuf content = entry.getContent();
+            Integer id = ids.get(entry.getMimeType());
+            if (id == null) {
+                mimeTypes.add(entry.getMimeType());
+                contents.add(content.retain());
+                continue;
+            }
+            if (compact == null) {
+                compact = ByteBufAllocator.DEFAULT.buffer();
+                mimeTypes.add(COMPACT_MIME_TYPE_VALUE);
+                contents.add(compact);
+            }
+            compact.writeByte(id);
+            int reference = referenced.contains(id) && content.readableBytes() <= maxValueSize ? reference(id, content) : -1;
+            if (reference >= 0) {
+                compact.writeByte(REFERENCE).writeShort(reference);
+            } else {
+                compact.writeByte(LITERAL).writeInt(content.readableBytes()).writeBytes(content, content.readerIndex(), content.readableBytes());
+            }
+        }
+        CompositeByteBuf metadata = ByteBufAllocator.DEFAULT.compositeBuffer();
+        for (int i = 0; i < mimeTypes.size(); i++) {
+            MetadataDictionary.addEntry(metadata, mimeTypes.get(i), contents.get(i));
+        }
+        Payload compacted = ByteBufPayload.create(payload.sliceData().retain(), metadata);
+        payload.release();
+        return compacted;
+    }
+
+    /**
+     * @return the reference of the value, -1 if it is to be sent in full
+     */
+    private int reference(int id, ByteBuf content) {
+        Value value = new Value(id, ByteBufUtil.getBytes(content));
+        Reference reference = references.get(value);
+        if (reference == null) {
+            define(value);
+            return -1;
+        }
+        return reference.ready ? reference.id : -1;
+    }
+
+    private synchronized void define(Value value) {
+        if (references.containsKey(value) || nextReference >= maxReferences) {
+            return;
+        }
+        Reference reference = new Reference(nextReference++);
+        references.put(value, reference);
+        ByteBuf define = ByteBufAllocator.DEFAULT.buffer(8 + value.bytes.length)
+                .writeByte(value.id)
+                .writeByte(DEFINE)
+                .writeShort(reference.id)
+                .writeInt(value.bytes.length)
+                .writeBytes(value.bytes);
+        CompositeByteBuf metadata = ByteBufAllocator.DEFAULT.compositeBuffer();
+        MetadataDictionary.addEntry(metadata, COMPACT_MIME_TYPE_VALUE, define);
+        // completes once the frame is enqueued, the frames enqueued after it may use the reference
+        source.metadataPush(ByteBufPayload.create(Unpooled.EMPTY_BUFFER, metadata))
+                .subscribe(null, error -> references.remove(value, reference), () -> reference.ready = true);
+    }
+
+    private static final class Reference {
+        private final int id;
+        private volatile boolean ready;
+
+        Reference(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * A metadata value of a mime type.
+     */
+    private static final class Value {
+        private final int id;
+        private final byte[] bytes;
+
+        Value(int id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Value)) {
+                return false;
+            }
+            Value other = (Value) o;
+            return id == other.id && Arrays.equals(bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * id + Arrays.hashCode(bytes);
+        }
+    }
+}
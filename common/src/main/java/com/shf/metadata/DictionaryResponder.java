@@ -0,0 +1,155 @@
+package com.shf.metadata;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.metadata.CompositeMetadata;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.RSocketProxy;
+
+import org.reactivestreams.Publisher;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static com.shf.metadata.MetadataDictionary.COMPACT_MIME_TYPE_VALUE;
+import static com.shf.metadata.MetadataDictionary.DEFINE;
+import static com.shf.metadata.MetadataDictionary.LITERAL;
+import static com.shf.metadata.MetadataDictionary.REFERENCE;
+
+/**
+ * Description:
+ * The responder side of a {@link MetadataDictionary}, one per connection.
+ * A metadata push made only of definitions is consumed here, anything else is expanded and passed on.
+ * The expanded metadata is written to one pooled buffer: the entries are small, copying them costs less than
+ * a composite buffer with a header buffer and a component per entry.
+ *
+ * @author songhaifeng
+ * @date 2020/01/14 11:40
+ */
+class DictionaryResponder extends RSocketProxy {
+    private final String[] mimeTypes;
+    /**
+     * The composite metadata entry of each reference, encoded once on the heap.
+     */
+    private final AtomicReferenceArray<byte[]> references;
+    private final int maxValueSize;
+
+    DictionaryResponder(RSocket source, String[] mimeTypes, int maxReferences, int maxValueSize) {
+        super(source);
+        this.mimeTypes = mimeTypes;
+        this.references = new AtomicReferenceArray<>(maxReferences);
+        this.maxValueSize = maxValueSize;
+    }
+
+    @Override
+    public Mono<Void> fireAndForget(Payload payload) {
+        try {
+            return source.fireAndForget(expand(payload));
+        } catch (RuntimeException e) {
+            return Mono.error(e);
+        }
+    }
+
+    @Override
+    public Mono<Payload> requestResponse(Payload payload) {
+        try {
+            return source.requestResponse(expand(payload));
+        } catch (RuntimeException e) {
+            return Mono.error(e);
+        }
+    }
+
+    @Override
+    public Flux<Payload> requestStream(Payload payload) {
+        try {
+            return source.requestStream(expand(payload));
+        } catch (RuntimeException e) {
+            return Flux.error(e);
+        }
+    }
+
+    @Override
+    public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+        return source.requestChannel(Flux.from(payloads).map(this::expand));
+    }
+
+    @Override
+    public Mono<Void> metadataPush(Payload payload) {
+        try {
+            Payload expanded = expand(payload);
+            if (expanded.hasMetadata() && expanded.metadata().isReadable()) {
+                return source.metadataPush(expanded);
+            }
+            expanded.release();
+            return Mono.empty();
+        } catch (RuntimeException e) {
+            return Mono.error(e);
+        }
+    }
+
+    /**
+     * @return the payload with its compact entries expanded, definitions removed
+     */
+    private Payload expand(Payload payload) {
+        if (!payload.hasMetadata() || !MetadataDictionary.anyEntry(payload.metadata(), COMPACT_MIME_TYPE_VALUE::equals)) {
+            return payload;
+        }
+        ByteBuf metadata = ByteBufAllocator.DEFAULT.buffer(payload.metadata().readableBytes() * 2);
+        try {
+            for (CompositeMetadata.Entry entry : new CompositeMetadata(payload.metadata(), false)) {
+                if (COMPACT_MIME_TYPE_VALUE.equals(entry.getMimeType())) {
+                    expand(entry.getContent(), metadata);
+                } else {
+                    MetadataDictionary.writeEntry(metadata, entry.getMimeType(), entry.getContent());
+                }
+            }
+        } catch (RuntimeException e) {
+            metadata.release();
+            payload.release();
+            throw e;
+        }
+        Payload expanded = ByteBufPayload.create(payload.sliceData().retain(), metadata);
+        payload.release();
+        return expanded;
+    }
+
+    private void expand(ByteBuf compact, ByteBuf metadata) {
+        while (compact.isReadable()) {
+            String mimeType = mimeType(compact.readUnsignedByte());
+            byte kind = compact.readByte();
+            if (kind == LITERAL) {
+                MetadataDictionary.writeEntry(metadata, mimeType, compact.readSlice(compact.readInt()));
+            } else if (kind == REFERENCE) {
+                int reference = compact.readUnsignedShort();
+                byte[] entry = reference < references.length() ? references.get(reference) : null;
+                if (entry == null) {
+                    throw new IllegalStateException("Unknown metadata reference " + reference);
+                }
+                metadata.writeBytes(entry);
+            } else if (kind == DEFINE) {
+                int reference = compact.readUnsignedShort();
+                int length = compact.readInt();
+                if (reference >= references.length()) {
+                    throw new IllegalStateException("Metadata reference " + reference + " out of range " + references.length());
+                }
+                if (length < 0 || length > maxValueSize) {
+                    throw new IllegalStateException("Metadata reference " + reference + " of " + length + " bytes, over " + maxValueSize);
+                }
+                references.set(reference, MetadataDictionary.encodeEntry(mimeType, compact.readSlice(length)));
+            } else {
+                throw new IllegalStateException("Unknown metadata entry kind " + kind);
+            }
+        }
+    }
+
+    private String mimeType(int id) {
+        if (id >= mimeTypes.length) {
+            throw new IllegalStateException("Unknown metadata mime type id " + id);
+        }
+        return mimeTypes[id];
+    }
+}
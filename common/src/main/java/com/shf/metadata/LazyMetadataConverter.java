@@ -0,0 +1,28 @@
+package com.shf.metadata;
+
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.convert.converter.GenericConverter;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Description:
+ * Resolves a {@link LazyMetadataValue} header for a {@link org.springframework.messaging.handler.annotation.Header @Header} parameter,
+ * the entry is decoded at this point.
+ *
+ * @author songhaifeng
+ * @date 2020/01/12 10:35
+ */
+public class LazyMetadataConverter implements GenericConverter {
+
+    @Override
+    public Set<ConvertiblePair> getConvertibleTypes() {
+        return Collections.singleton(new ConvertiblePair(LazyMetadataValue.class, Object.class));
+    }
+
+    @Override
+    public Object convert(Object source, TypeDescriptor sourceType, TypeDescriptor targetType) {
+        return source == null ? null : ((LazyMetadataValue) source).get();
+    }
+}
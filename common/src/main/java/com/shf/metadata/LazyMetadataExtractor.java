@@ -0,0 +1,173 @@
+package com.shf.metadata;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.rsocket.Payload;
+import io.rsocket.metadata.CompositeMetadata;
+import io.rsocket.metadata.RoutingMetadata;
+import io.rsocket.metadata.WellKnownMimeType;
+
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.messaging.rsocket.MetadataExtractor;
+import org.springframework.messaging.rsocket.MetadataExtractorRegistry;
+import org.springframework.util.MimeType;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Description:
+ * A {@link MetadataExtractor} which decodes a metadata entry only when it is asked for.
+ * <ul>
+ * <li>Per frame, the composite entries are indexed in place, nothing is decoded but the route.
+ * The content of each registered entry is copied to the heap, as the frame is released once the request is handed over.</li>
+ * <li>An entry registered with a name becomes a {@link LazyMetadataValue} header: it is decoded by the first
+ * {@link org.springframework.messaging.handler.annotation.Header @Header} parameter({@link LazyMetadataConverter})
+ * or interceptor({@link LazyMetadataValue#resolve(Object)}) reading it, and cached within the exchange.</li>
+ * <li>An entry registered with a mapper is decoded eagerly, the headers it adds are not known until then.</li>
+ * </ul>
+ * Registered through {@link MetadataExtractorRegistry} as the default extractor is.
+ *
+ * @author songhaifeng
+ * @date 2020/01/12 10:05
+ */
+public class LazyMetadataExtractor implements MetadataExtractor, MetadataExtractorRegistry {
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+    private static final String ROUTING = WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString();
+    private static final DefaultDataBufferFactory BUFFER_FACTORY = new DefaultDataBufferFactory();
+
+    private final List<Decoder<?>> decoders;
+    private final Map<String, List<Registration>> registrations = new ConcurrentHashMap<>();
+
+    /**
+     * @param decoders decoders of the strategies, looked up on the first decode of each registration
+     */
+    public LazyMetadataExtractor(List<Decoder<?>> decoders) {
+        this.decoders = decoders;
+    }
+
+    @Override
+    public void metadataToExtract(MimeType mimeType, Class<?> targetType, String name) {
+        register(new Registration(decoders, mimeType, ResolvableType.forClass(targetType), name, null));
+    }
+
+    @Override
+    public void metadataToExtract(MimeType mimeType, ParameterizedTypeReference<?> type, String name) {
+        register(new Registration(decoders, mimeType, ResolvableType.forType(type), name, null));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> void metadataToExtract(MimeType mimeType, Class<T> targetType, BiConsumer<T, Map<String, Object>> mapper) {
+        register(new Registration(decoders, mimeType, ResolvableType.forClass(targetType), null, (BiConsumer<Object, Map<String, Object>>) mapper));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> void metadataToExtract(MimeType mimeType, ParameterizedTypeReference<T> type, BiConsumer<T, Map<String, Object>> mapper) {
+        register(new Registration(decoders, mimeType, ResolvableType.forType(type), null, (BiConsumer<Object, Map<String, Object>>) mapper));
+    }
+
+    @Override
+    public Map<String, Object> extract(Payload payload, MimeType metadataMimeType) {
+        if (!payload.hasMetadata()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> result = new HashMap<>();
+        ByteBuf metadata = payload.metadata();
+        if (!COMPOSITE.equals(metadataMimeType.toString())) {
+            extractEntry(metadataMimeType.toString(), metadata, result);
+            return result;
+        }
+        for (CompositeMetadata.Entry entry : new CompositeMetadata(metadata, false)) {
+            if (entry.getMimeType() != null) {
+                extractEntry(entry.getMimeType(), entry.getContent(), result);
+            }
+        }
+        return result;
+    }
+
+    private void extractEntry(String mimeType, ByteBuf content, Map<String, Object> result) {
+        if (ROUTING.equals(mimeType)) {
+            Iterator<String> tags = new RoutingMetadata(content).iterator();
+            if (tags.hasNext()) {
+                result.put(ROUTE_KEY, tags.next());
+            }
+            return;
+        }
+        List<Registration> candidates = registrations.get(mimeType);
+        if (candidates == null) {
+            return;
+        }
+        // never the backing array, which may belong to a pooled buffer reused after the frame is released
+        byte[] bytes = ByteBufUtil.getBytes(content);
+        int offset = 0;
+        int length = bytes.length;
+        for (Registration registration : candidates) {
+            if (registration.name != null) {
+                result.put(registration.name, new LazyMetadataValue(registration, bytes, offset, length));
+            } else {
+                Object value = registration.decoder()
+                        .decode(BUFFER_FACTORY.wrap(ByteBuffer.wrap(bytes, offset, length)), registration.type, registration.mimeType, Collections.emptyMap());
+                if (value != null) {
+                    registration.mapper.accept(value, result);
+                }
+            }
+        }
+    }
+
+    private void register(Registration registration) {
+        registrations.computeIfAbsent(registration.mimeType.toString(), key -> new ArrayList<>()).add(registration);
+    }
+
+    /**
+     * One registered entry.
+     */
+    static final class Registration {
+        private final List<Decoder<?>> decoders;
+        private final MimeType mimeType;
+        private final ResolvableType type;
+        private final String name;
+        private final BiConsumer<Object, Map<String, Object>> mapper;
+        private volatile Decoder<?> decoder;
+
+        private Registration(List<Decoder<?>> decoders, MimeType mimeType, ResolvableType type, String name,
+                             BiConsumer<Object, Map<String, Object>> mapper) {
+            this.decoders = decoders;
+            this.mimeType = mimeType;
+            this.type = type;
+            this.name = name;
+            this.mapper = mapper;
+        }
+
+        MimeType getMimeType() {
+            return mimeType;
+        }
+
+        ResolvableType getType() {
+            return type;
+        }
+
+        Decoder<?> decoder() {
+            Decoder<?> found = decoder;
+            if (found == null) {
+                found = decoders.stream()
+                        .filter(candidate -> candidate.canDecode(type, mimeType))
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalArgumentException("No decoder for " + mimeType + " and " + type));
+                decoder = found;
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.shf.metadata;
+
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.util.MimeType;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+/**
+ * Description:
+ * A metadata entry which is decoded on its first {@link #get()} only, then cached for the rest of the exchange.
+ * It refers to a heap copy of the frame metadata, so it outlives the released frame.
+ *
+ * @author songhaifeng
+ * @date 2020/01/12 10:20
+ */
+public final class LazyMetadataValue {
+    private static final DefaultDataBufferFactory BUFFER_FACTORY = new DefaultDataBufferFactory();
+
+    private final LazyMetadataExtractor.Registration registration;
+    private final byte[] metadata;
+    private final int offset;
+    private final int length;
+    private Object value;
+    private boolean decoded;
+
+    LazyMetadataValue(LazyMetadataExtractor.Registration registration, byte[] metadata, int offset, int length) {
+        this.registration = registration;
+        this.metadata = metadata;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @param header a header value
+     * @return the decoded value if the header is lazy, the header itself otherwise
+     */
+    public static Object resolve(Object header) {
+        return header instanceof LazyMetadataValue ? ((LazyMetadataValue) header).get() : header;
+    }
+
+    public synchronized Object get() {
+        if (!decoded) {
+            Decoder<?> decoder = registration.decoder();
+            ResolvableType type = registration.getType();
+            MimeType mimeType = registration.getMimeType();
+            value = decoder.decode(BUFFER_FACTORY.wrap(ByteBuffer.wrap(metadata, offset, length)), type, mimeType, Collections.emptyMap());
+            decoded = true;
+        }
+        return value;
+    }
+
+    public ResolvableType getType() {
+        return registration.getType();
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(get());
+    }
+}
@@ -0,0 +1,165 @@
+package com.shf.metadata;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rsocket.ConnectionSetupPayload;
+import io.rsocket.metadata.CompositeMetadata;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.plugins.SocketAcceptorInterceptor;
+
+import org.springframework.messaging.rsocket.ClientRSocketFactoryConfigurer;
+import org.springframework.util.Assert;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Description:
+ * A connection scoped dictionary, so that the custom metadata mime types and the repeated metadata values are not resent in full in every frame.
+ * <ul>
+ * <li>The requester lists the custom mime types in a {@link #DICTIONARY_MIME_TYPE} entry of the SETUP metadata, their index is their id.</li>
+ * <li>In a request, the entries of those mime types are replaced by a single {@link #COMPACT_MIME_TYPE} entry:
+ * per entry, a one byte mime type id, then a one byte kind followed by either the int length and the value({@link #LITERAL}),
+ * or a two bytes reference({@link #REFERENCE}).</li>
+ * <li>A value is given a reference by a metadata push of a {@link #DEFINE} entry: reference, int length and value.
+ * The requester sends it in full until the push has been enqueued, so that the responder always knows a reference before its first use.
+ * A value over `max-referenced-value-size` is always sent in full, the responder rejects a larger definition.</li>
+ * <li>The responder expands the compact entry back to the composite metadata before the handlers see it, into a single pooled buffer:
+ * a referenced entry is kept already encoded and only copied.</li>
+ * </ul>
+ * Both sides must enable it, see more in {@link MetadataDictionaryProperties}.
+ *
+ * @author songhaifeng
+ * @date 2020/01/14 10:40
+ */
+public final class MetadataDictionary {
+    public static final String DICTIONARY_MIME_TYPE_VALUE = "message/x.shf.dictionary";
+    public static final String COMPACT_MIME_TYPE_VALUE = "message/x.shf.compact";
+    public static final MimeType DICTIONARY_MIME_TYPE = MimeType.valueOf(DICTIONARY_MIME_TYPE_VALUE);
+    public static final MimeType COMPACT_MIME_TYPE = MimeType.valueOf(COMPACT_MIME_TYPE_VALUE);
+
+    static final byte LITERAL = 0;
+    static final byte REFERENCE = 1;
+    static final byte DEFINE = 2;
+    static final int MAX_MIME_TYPES = 256;
+    static final int MAX_REFERENCES = 65536;
+    private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+    private static final char SEPARATOR = '\n';
+
+    private MetadataDictionary() {
+    }
+
+    /**
+     * @param properties properties
+     * @return the value of the {@link #DICTIONARY_MIME_TYPE} entry of the SETUP metadata
+     */
+    public static String setupMetadata(MetadataDictionaryProperties properties) {
+        return String.join(String.valueOf(SEPARATOR), mimeTypes(properties.getMimeTypes()));
+    }
+
+    /**
+     * The requester side, to be added with the {@link #setupMetadata} of the same properties.
+     *
+     * @param properties properties
+     * @return ClientRSocketFactoryConfigurer compacting the metadata of every request
+     */
+    public static ClientRSocketFactoryConfigurer requester(MetadataDictionaryProperties properties) {
+        List<String> mimeTypes = mimeTypes(properties.getMimeTypes());
+        List<String> referenced = mimeTypes(properties.getReferencedMimeTypes());
+        Assert.isTrue(mimeTypes.size() <= MAX_MIME_TYPES, "At most " + MAX_MIME_TYPES + " mime types");
+        Assert.isTrue(properties.getMaxReferences() <= MAX_REFERENCES, "At most " + MAX_REFERENCES + " references");
+        return rsocketFactory -> rsocketFactory.addRequesterPlugin(source ->
+                new DictionaryRequester(source, mimeTypes, referenced, properties.getMaxReferences(), properties.getMaxReferencedValueSize()));
+    }
+
+    /**
+     * The responder side, a connection without a dictionary in its SETUP metadata is left as is.
+     *
+     * @param properties properties
+     * @return SocketAcceptorInterceptor expanding the metadata of every request
+     */
+    public static SocketAcceptorInterceptor responder(MetadataDictionaryProperties properties) {
+        int maxReferences = Math.min(properties.getMaxReferences(), MAX_REFERENCES);
+        int maxValueSize = properties.getMaxReferencedValueSize();
+        return acceptor -> (setup, sendingSocket) -> {
+            // read before the acceptor, which may release the setup payload
+            String[] mimeTypes = mimeTypes(setup);
+            return mimeTypes == null ? acceptor.accept(setup, sendingSocket)
+                    : acceptor.accept(setup, sendingSocket).map(responder -> new DictionaryResponder(responder, mimeTypes, maxReferences, maxValueSize));
+        };
+    }
+
+    private static String[] mimeTypes(ConnectionSetupPayload setup) {
+        if (!setup.hasMetadata() || !COMPOSITE.equals(setup.metadataMimeType())) {
+            return null;
+        }
+        for (CompositeMetadata.Entry entry : new CompositeMetadata(setup.metadata(), false)) {
+            if (DICTIONARY_MIME_TYPE_VALUE.equals(entry.getMimeType())) {
+                String value = entry.getContent().toString(StandardCharsets.UTF_8);
+                return value.isEmpty() ? new String[0] : value.split(String.valueOf(SEPARATOR));
+            }
+        }
+        return null;
+    }
+
+    private static List<String> mimeTypes(List<String> values) {
+        // as Spring writes them in the composite metadata
+        return values.stream().map(value -> MimeType.valueOf(value).toString()).collect(Collectors.toList());
+    }
+
+    /**
+     * @return whether every entry has a mime type and at least one matches
+     */
+    static boolean anyEntry(ByteBuf metadata, Predicate<String> mimeType) {
+        boolean found = false;
+        for (CompositeMetadata.Entry entry : new CompositeMetadata(metadata, false)) {
+            if (entry.getMimeType() == null) {
+                // an unknown reserved id, left as is
+                return false;
+            }
+            found |= mimeType.test(entry.getMimeType());
+        }
+        return found;
+    }
+
+    /**
+     * Write an entry of a composite metadata to a buffer, a well known mime type as its id, as {@link #addEntry} encodes it.
+     */
+    static void writeEntry(ByteBuf metadata, String mimeType, ByteBuf content) {
+        WellKnownMimeType wellKnown = WellKnownMimeType.fromString(mimeType);
+        if (wellKnown == WellKnownMimeType.UNPARSEABLE_MIME_TYPE || wellKnown == WellKnownMimeType.UNKNOWN_RESERVED_MIME_TYPE) {
+            Assert.isTrue(!mimeType.isEmpty() && mimeType.length() <= 128, "Mime type of 1 to 128 characters");
+            metadata.writeByte(mimeType.length() - 1).writeCharSequence(mimeType, StandardCharsets.US_ASCII);
+        } else {
+            metadata.writeByte(wellKnown.getIdentifier() | 0x80);
+        }
+        metadata.writeMedium(content.readableBytes()).writeBytes(content, content.readerIndex(), content.readableBytes());
+    }
+
+    /**
+     * @return the entry of a composite metadata encoded on the heap
+     */
+    static byte[] encodeEntry(String mimeType, ByteBuf content) {
+        ByteBuf encoded = Unpooled.buffer(4 + mimeType.length() + content.readableBytes());
+        writeEntry(encoded, mimeType, content);
+        return encoded.array();
+    }
+
+    /**
+     * Add an entry to a composite metadata, a well known mime type as its id.
+     */
+    static void addEntry(CompositeByteBuf metadata, String mimeType, ByteBuf content) {
+        WellKnownMimeType wellKnown = WellKnownMimeType.fromString(mimeType);
+        if (wellKnown == WellKnownMimeType.UNPARSEABLE_MIME_TYPE || wellKnown == WellKnownMimeType.UNKNOWN_RESERVED_MIME_TYPE) {
+            CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, ByteBufAllocator.DEFAULT, mimeType, content);
+        } else {
+            CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, ByteBufAllocator.DEFAULT, wellKnown, content);
+        }
+    }
+}
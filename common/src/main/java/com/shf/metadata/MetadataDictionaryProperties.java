@@ -0,0 +1,48 @@
+package com.shf.metadata;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.Data;
+
+import static com.shf.mimetype.MimeTypes.FOO_MIME_TYPE;
+import static com.shf.mimetype.MimeTypes.MAP_MIME_TYPE;
+import static com.shf.mimetype.MimeTypes.PARAMETERIZED_TYPE_MIME_TYPE;
+import static com.shf.mimetype.MimeTypes.REFRESH_TOKEN_MIME_TYPE;
+import static com.shf.mimetype.MimeTypes.SECURITY_TOKEN_MIME_TYPE;
+
+/**
+ * Description:
+ * The connection scoped metadata dictionary, prefixed with `rsocket.metadata.dictionary`. See more in {@link MetadataDictionary}.
+ *
+ * @author songhaifeng
+ * @date 2020/01/14 10:30
+ */
+@Data
+@ConfigurationProperties(prefix = "rsocket.metadata.dictionary")
+public class MetadataDictionaryProperties {
+    /**
+     * Both sides of a connection must enable it.
+     */
+    private boolean enabled = true;
+    /**
+     * Requester side, the custom mime types sent as a one byte id, at most 256.
+     */
+    private List<String> mimeTypes = Arrays.asList(SECURITY_TOKEN_MIME_TYPE.toString(), REFRESH_TOKEN_MIME_TYPE.toString(),
+            MAP_MIME_TYPE.toString(), FOO_MIME_TYPE.toString(), PARAMETERIZED_TYPE_MIME_TYPE.toString());
+    /**
+     * Requester side, the mime types whose repeated values are sent as a reference.
+     */
+    private List<String> referencedMimeTypes = Arrays.asList(SECURITY_TOKEN_MIME_TYPE.toString(), REFRESH_TOKEN_MIME_TYPE.toString());
+    /**
+     * References per connection, the same on both sides. Further values are sent in full.
+     */
+    private int maxReferences = 256;
+    /**
+     * Bytes of a value sent as a reference, the same on both sides. Larger values are sent in full,
+     * so the references of a connection hold at most `max-references` times as much.
+     */
+    private int maxReferencedValueSize = 1024;
+}
@@ -0,0 +1,160 @@
+package com.shf.metrics;
+
+import com.shf.route.RouteTableRSocketMessageHandler;
+
+import io.rsocket.frame.FrameType;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ReactiveAdapterRegistry;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.CompositeMessageCondition;
+import org.springframework.messaging.handler.DestinationPatternsMessageCondition;
+import org.springframework.messaging.handler.HandlerMethod;
+import org.springframework.messaging.handler.invocation.reactive.HandlerMethodReturnValueHandler;
+import org.springframework.messaging.rsocket.ClientRSocketFactoryConfigurer;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketFrameTypeMessageCondition;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.messaging.rsocket.annotation.support.RSocketPayloadReturnValueHandler;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Description:
+ * A {@link RSocketMessageHandler} recording the {@link RouteMetrics} of every {@link org.springframework.messaging.handler.annotation.MessageMapping @MessageMapping}
+ * and {@link org.springframework.messaging.rsocket.annotation.ConnectMapping @ConnectMapping} method, per interaction type.
+ * <ul>
+ * <li>Fire-and-forget and setup: from the match until the handler method completes.</li>
+ * <li>Request-response, request-stream and request-channel: from the match until the response stream terminates or is cancelled,
+ * observed on the response the payload return value handler passes to the reply processor of the RSocket adapter.
+ * A request failing before it replies is counted as an error without a latency.</li>
+ * </ul>
+ * The route metrics and the start time travel in the mutable message headers. The signals are observed by the one
+ * {@link RouteSignalListener} of the route; the only listener allocated per request is the {@code doFinally} holding its start time.
+ *
+ * @author songhaifeng
+ * @date 2020/01/09 11:40
+ */
+public class InstrumentedRSocketMessageHandler extends RouteTableRSocketMessageHandler {
+    private static final String METRICS_HEADER = "rsocketRouteMetrics";
+    private static final String START_HEADER = "rsocketRouteStart";
+
+    private final RouteMetricsRegistry routeMetrics;
+
+    public InstrumentedRSocketMessageHandler(RouteMetricsRegistry routeMetrics) {
+        this.routeMetrics = routeMetrics;
+    }
+
+    /**
+     * The instrumented variant of {@link RSocketMessageHandler#clientResponder(RSocketStrategies, Object...)}.
+     *
+     * @param strategies        strategies
+     * @param routeMetrics      registry
+     * @param candidateHandlers handler instances or classes
+     * @return ClientRSocketFactoryConfigurer
+     */
+    public static ClientRSocketFactoryConfigurer clientResponder(RSocketStrategies strategies, RouteMetricsRegistry routeMetrics,
+                                                                 Object... candidateHandlers) {
+        Assert.notEmpty(candidateHandlers, "No handlers");
+        List<Object> handlers = new ArrayList<>(candidateHandlers.length);
+        for (Object candidate : candidateHandlers) {
+            handlers.add(candidate instanceof Class ? BeanUtils.instantiateClass((Class<?>) candidate) : candidate);
+        }
+        return rsocketFactory -> {
+            InstrumentedRSocketMessageHandler handler = new InstrumentedRSocketMessageHandler(routeMetrics);
+            handler.setHandlers(handlers);
+            handler.setRSocketStrategies(strategies);
+            handler.afterPropertiesSet();
+            rsocketFactory.acceptor(handler.responder());
+        };
+    }
+
+    /**
+     * The payload return value handler stops the recording of the requests which reply.
+     */
+    @Override
+    protected List<? extends HandlerMethodReturnValueHandler> initReturnValueHandlers() {
+        List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>();
+        handlers.add(new InstrumentedPayloadReturnValueHandler(new ArrayList<>(getEncoders()), getReactiveAdapterRegistry()));
+        handlers.addAll(getReturnValueHandlerConfigurer().getCustomHandlers());
+        return handlers;
+    }
+
+    @Override
+    protected Mono<Void> handleMatch(CompositeMessageCondition mapping, HandlerMethod handlerMethod, Message<?> message) {
+        FrameType frameType = (FrameType) message.getHeaders().get(RSocketFrameTypeMessageCondition.FRAME_TYPE_HEADER);
+        if (frameType == null) {
+            return super.handleMatch(mapping, handlerMethod, message);
+        }
+        RouteMetrics found = routeMetrics.get(handlerMethod.getMethod(), frameType);
+        RouteMetrics metrics = found != null ? found
+                : routeMetrics.register(handlerMethod.getMethod(), route(mapping, handlerMethod), frameType);
+        RouteSignalListener listener = metrics.listener();
+
+        Object payload = message.getPayload();
+        long start = metrics.start(payload instanceof DataBuffer ? ((DataBuffer) payload).readableByteCount() : 0);
+        if (payload instanceof Flux) {
+            // request-channel, count the inbound stream as it is consumed
+            message = MessageBuilder.createMessage(((Flux<?>) payload).doOnNext(listener.requests), message.getHeaders());
+        }
+
+        // MessagingRSocket leaves the headers mutable, so that handlers can add the destination variables,
+        // super.handleMatch rejects the message otherwise
+        MessageHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, MessageHeaderAccessor.class);
+        if (message.getHeaders().get(RSocketPayloadReturnValueHandler.RESPONSE_HEADER) == null
+                || accessor == null || !accessor.isMutable()) {
+            return super.handleMatch(mapping, handlerMethod, message)
+                    .doFinally(signal -> metrics.stop(start, signal == SignalType.ON_ERROR));
+        }
+        accessor.setHeader(METRICS_HEADER, metrics);
+        accessor.setHeader(START_HEADER, start);
+        return super.handleMatch(mapping, handlerMethod, message).doOnError(listener.failures);
+    }
+
+    private static String route(CompositeMessageCondition mapping, HandlerMethod handlerMethod) {
+        Set<String> patterns = mapping.getCondition(DestinationPatternsMessageCondition.class).getPatterns();
+        return patterns.isEmpty() ? handlerMethod.getMethod().getName() : String.join(",", patterns);
+    }
+
+    /**
+     * Stops the recording when the response terminates, or at once when the handler returns nothing.
+     */
+    private static final class InstrumentedPayloadReturnValueHandler extends RSocketPayloadReturnValueHandler {
+
+        InstrumentedPayloadReturnValueHandler(List<Encoder<?>> encoders, ReactiveAdapterRegistry registry) {
+            super(encoders, registry);
+        }
+
+        @Override
+        protected Mono<Void> handleEncodedContent(Flux<DataBuffer> encodedContent, MethodParameter returnType, Message<?> message) {
+            RouteMetrics metrics = (RouteMetrics) message.getHeaders().get(METRICS_HEADER);
+            if (metrics == null) {
+                return super.handleEncodedContent(encodedContent, returnType, message);
+            }
+            long start = message.getHeaders().get(START_HEADER, Long.class);
+            return super.handleEncodedContent(encodedContent.doOnNext(metrics.listener().responses)
+                    .doFinally(signal -> metrics.stop(start, signal == SignalType.ON_ERROR)), returnType, message);
+        }
+
+        @Override
+        protected Mono<Void> handleNoContent(MethodParameter returnType, Message<?> message) {
+            RouteMetrics metrics = (RouteMetrics) message.getHeaders().get(METRICS_HEADER);
+            if (metrics != null) {
+                metrics.stop(message.getHeaders().get(START_HEADER, Long.class), false);
+            }
+            return super.handleNoContent(returnType, message);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.shf.metrics;
+
+import com.shf.entity.RouteSnapshot;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Description:
+ * Recorder of one route and interaction type.
+ * Recording into it is wait-free and allocation free: a {@link Recorder} for latencies, {@link LongAdder}s for counters.
+ * The signals of its requests are observed by one {@link RouteSignalListener}, see {@link InstrumentedRSocketMessageHandler}.
+ * Snapshots are taken by a single thread, which recycles the interval histogram.
+ *
+ * @author songhaifeng
+ * @date 2020/01/09 10:35
+ */
+public final class RouteMetrics {
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final String route;
+    private final String interaction;
+    private final Recorder latency = new Recorder(HIGHEST_TRACKABLE_NANOS, 2);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder requestBytes = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final RouteSignalListener listener = new RouteSignalListener(this);
+    /**
+     * Owned by the snapshot thread.
+     */
+    private Histogram interval;
+    private volatile RouteSnapshot last;
+
+    RouteMetrics(String route, String interaction) {
+        this.route = route;
+        this.interaction = interaction;
+        this.last = snapshot(null, 0);
+    }
+
+    /**
+     * A request arrives.
+     *
+     * @param bytes size of the request payload, 0 if unknown
+     * @return start time, passed back to {@link #stop(long, boolean)}
+     */
+    public long start(long bytes) {
+        requests.increment();
+        inFlight.incrementAndGet();
+        if (bytes > 0) {
+            requestBytes.add(bytes);
+        }
+        return System.nanoTime();
+    }
+
+    public void requestBytes(long bytes) {
+        requestBytes.add(bytes);
+    }
+
+    public void responseBytes(long bytes) {
+        responseBytes.add(bytes);
+    }
+
+    /**
+     * The request terminates, once per {@link #start(long)}.
+     *
+     * @param startNanos value returned by {@link #start(long)}
+     * @param failed     whether the request failed
+     */
+    public void stop(long startNanos, boolean failed) {
+        inFlight.decrementAndGet();
+        if (failed) {
+            errors.increment();
+        }
+        latency.recordValue(Math.min(System.nanoTime() - startNanos, HIGHEST_TRACKABLE_NANOS));
+    }
+
+    /**
+     * The request fails before replying, once per {@link #start(long)} instead of {@link #stop(long, boolean)}.
+     * It is counted as an error, its latency is not recorded.
+     */
+    public void fail() {
+        inFlight.decrementAndGet();
+        errors.increment();
+    }
+
+    RouteSignalListener listener() {
+        return listener;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public String getInteraction() {
+        return interaction;
+    }
+
+    public long requests() {
+        return requests.sum();
+    }
+
+    public long errors() {
+        return errors.sum();
+    }
+
+    public long inFlight() {
+        return inFlight.get();
+    }
+
+    public long requestBytes() {
+        return requestBytes.sum();
+    }
+
+    public long responseBytes() {
+        return responseBytes.sum();
+    }
+
+    /**
+     * @return the latest snapshot
+     */
+    public RouteSnapshot last() {
+        return last;
+    }
+
+    /**
+     * Swap the interval histogram and summarize it, called by the snapshot thread only.
+     */
+    RouteSnapshot snapshot(long timestamp) {
+        interval = latency.getIntervalHistogram(interval);
+        RouteSnapshot snapshot = snapshot(interval, timestamp);
+        last = snapshot;
+        return snapshot;
+    }
+
+    private RouteSnapshot snapshot(Histogram histogram, long timestamp) {
+        RouteSnapshot snapshot = new RouteSnapshot();
+        snapshot.setRoute(route);
+        snapshot.setInteraction(interaction);
+        snapshot.setRequests(requests());
+        snapshot.setErrors(errors());
+        snapshot.setInFlight(inFlight());
+        snapshot.setRequestBytes(requestBytes());
+        snapshot.setResponseBytes(responseBytes());
+        snapshot.setTimestamp(timestamp);
+        if (histogram != null && histogram.getTotalCount() > 0) {
+            snapshot.setIntervalRequests(histogram.getTotalCount());
+            snapshot.setP50Micros(TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(50)));
+            snapshot.setP90Micros(TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(90)));
+            snapshot.setP99Micros(TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99)));
+            snapshot.setMaxMicros(TimeUnit.NANOSECONDS.toMicros(histogram.getMaxValue()));
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,158 @@
+package com.shf.metrics;
+
+import com.shf.entity.RouteSnapshot;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.rsocket.frame.FrameType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToDoubleFunction;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Description:
+ * The {@link RouteMetrics} of every handler method, one per interaction type.
+ * <ul>
+ * <li>Lookups by handler method and frame type are a map read and an array read, a recorder is created on the first request only.</li>
+ * <li>A daemon thread snapshots every recorder each period, {@link #snapshot()} returns the latest ones.</li>
+ * <li>Bound to Micrometer as `rsocket.route.requests`, `rsocket.route.errors`, `rsocket.route.in.flight`,
+ * `rsocket.route.request.bytes`, `rsocket.route.response.bytes` and `rsocket.route.latency`(per quantile of the last interval),
+ * tagged with the route and the interaction type.</li>
+ * </ul>
+ *
+ * @author songhaifeng
+ * @date 2020/01/09 11:05
+ */
+@Slf4j
+public class RouteMetricsRegistry implements MeterBinder, AutoCloseable {
+    public static final Duration DEFAULT_PERIOD = Duration.ofSeconds(5);
+    private static final int INTERACTIONS = FrameType.values().length;
+
+    private final ConcurrentMap<Object, AtomicReferenceArray<RouteMetrics>> metrics = new ConcurrentHashMap<>();
+    private final List<RouteMetrics> all = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService ticker;
+    private final Duration period;
+    private volatile List<RouteSnapshot> latest = Collections.emptyList();
+    private MeterRegistry meterRegistry;
+
+    public RouteMetricsRegistry() {
+        this(DEFAULT_PERIOD);
+    }
+
+    public RouteMetricsRegistry(Duration period) {
+        this.period = period;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "route-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param key         handler method
+     * @param interaction frame type
+     * @return the recorder, null if none has been registered yet
+     */
+    public RouteMetrics get(Object key, FrameType interaction) {
+        AtomicReferenceArray<RouteMetrics> byInteraction = metrics.get(key);
+        return byInteraction == null ? null : byInteraction.get(interaction.ordinal());
+    }
+
+    /**
+     * Create the recorder of a handler method and frame type, or return the existing one.
+     *
+     * @param key         handler method
+     * @param route       route patterns of the handler method
+     * @param interaction frame type
+     * @return RouteMetrics
+     */
+    public synchronized RouteMetrics register(Object key, String route, FrameType interaction) {
+        AtomicReferenceArray<RouteMetrics> byInteraction = metrics.computeIfAbsent(key, k -> new AtomicReferenceArray<>(INTERACTIONS));
+        RouteMetrics routeMetrics = byInteraction.get(interaction.ordinal());
+        if (routeMetrics == null) {
+            routeMetrics = new RouteMetrics(route, interaction.name());
+            byInteraction.set(interaction.ordinal(), routeMetrics);
+            all.add(routeMetrics);
+            if (meterRegistry != null) {
+                bind(routeMetrics, meterRegistry);
+            }
+        }
+        return routeMetrics;
+    }
+
+    /**
+     * @return snapshots of every route, taken at the last period
+     */
+    public List<RouteSnapshot> snapshot() {
+        return latest;
+    }
+
+    public Duration getPeriod() {
+        return period;
+    }
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        all.forEach(routeMetrics -> bind(routeMetrics, registry));
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            List<RouteSnapshot> snapshots = new ArrayList<>(all.size());
+            for (RouteMetrics routeMetrics : all) {
+                snapshots.add(routeMetrics.snapshot(now));
+            }
+            latest = Collections.unmodifiableList(snapshots);
+        } catch (RuntimeException e) {
+            // an exception would cancel the periodic task
+            log.warn("Route metrics snapshot failed.", e);
+        }
+    }
+
+    private static void bind(RouteMetrics routeMetrics, MeterRegistry registry) {
+        Tags tags = Tags.of("route", routeMetrics.getRoute(), "interaction", routeMetrics.getInteraction());
+        FunctionCounter.builder("rsocket.route.requests", routeMetrics, RouteMetrics::requests).tags(tags).register(registry);
+        FunctionCounter.builder("rsocket.route.errors", routeMetrics, RouteMetrics::errors).tags(tags).register(registry);
+        FunctionCounter.builder("rsocket.route.request.bytes", routeMetrics, RouteMetrics::requestBytes)
+                .baseUnit("bytes").tags(tags).register(registry);
+        FunctionCounter.builder("rsocket.route.response.bytes", routeMetrics, RouteMetrics::responseBytes)
+                .baseUnit("bytes").tags(tags).register(registry);
+        Gauge.builder("rsocket.route.in.flight", routeMetrics, RouteMetrics::inFlight).tags(tags).register(registry);
+        bindLatency(routeMetrics, registry, tags, "0.5", m -> m.last().getP50Micros());
+        bindLatency(routeMetrics, registry, tags, "0.9", m -> m.last().getP90Micros());
+        bindLatency(routeMetrics, registry, tags, "0.99", m -> m.last().getP99Micros());
+        bindLatency(routeMetrics, registry, tags, "max", m -> m.last().getMaxMicros());
+    }
+
+    private static void bindLatency(RouteMetrics routeMetrics, MeterRegistry registry, Tags tags, String quantile,
+                                    ToDoubleFunction<RouteMetrics> micros) {
+        TimeGauge.builder("rsocket.route.latency", routeMetrics, TimeUnit.MICROSECONDS, micros)
+                .tags(tags)
+                .tag("quantile", quantile)
+                .register(registry);
+    }
+}
@@ -0,0 +1,38 @@
+package com.shf.metrics;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.util.function.Consumer;
+
+/**
+ * Description:
+ * The signal listener of one {@link RouteMetrics}, shared by every request of its route, so that observing a request
+ * does not allocate a listener of its own.
+ *
+ * @author songhaifeng
+ * @date 2020/01/22 10:20
+ */
+final class RouteSignalListener {
+    /**
+     * Counts the inbound buffers of a request-channel.
+     */
+    final Consumer<Object> requests;
+    /**
+     * Counts the encoded response buffers.
+     */
+    final Consumer<DataBuffer> responses;
+    /**
+     * Stops a request which failed before replying.
+     */
+    final Consumer<Throwable> failures;
+
+    RouteSignalListener(RouteMetrics metrics) {
+        this.requests = request -> {
+            if (request instanceof DataBuffer) {
+                metrics.requestBytes(((DataBuffer) request).readableByteCount());
+            }
+        };
+        this.responses = response -> metrics.responseBytes(response.readableByteCount());
+        this.failures = error -> metrics.fail();
+    }
+}
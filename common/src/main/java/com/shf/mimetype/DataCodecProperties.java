@@ -0,0 +1,27 @@
+package com.shf.mimetype;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Description:
+ * Data mime types of the requesters, prefixed with `rsocket.data`.
+ *
+ * @author songhaifeng
+ * @date 2020/01/10 10:40
+ */
+@Data
+@ConfigurationProperties(prefix = "rsocket.data")
+public class DataCodecProperties {
+    /**
+     * In order of preference, see {@link DataCodecs#select}, to be supported by the responder.
+     */
+    private List<String> mimeTypes = Arrays.asList(
+            DataCodecs.APPLICATION_ENTITY_VALUE, DataCodecs.APPLICATION_SMILE_VALUE,
+            DataCodecs.APPLICATION_CBOR_VALUE, MimeTypeUtils.APPLICATION_JSON_VALUE);
+}
@@ -0,0 +1,89 @@
+package com.shf.mimetype;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shf.codec.BinaryEntityDecoder;
+import com.shf.codec.BinaryEntityEncoder;
+
+import org.springframework.boot.rsocket.messaging.RSocketStrategiesCustomizer;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Description:
+ * Data codecs shared by the requesters and the responders.
+ * <ul>
+ * <li>CBOR is registered by RSocketStrategiesAutoConfiguration.JacksonCborStrategyConfiguration, {@link #binaryCodecs()} adds Smile.</li>
+ * <li>{@link #APPLICATION_ENTITY}: the {@link com.shf.codec.BinaryCodec} entities are written by their generated codecs,
+ * any other payload falls back to Smile.</li>
+ * <li>The data mime type is fixed for a connection by its SETUP frame. There is no negotiation in the protocol:
+ * a requester declares the one {@link #select}ed from its own codecs, the first preferred one it can both encode and decode,
+ * JSON otherwise. A responder rejects the SETUP of a data mime type it cannot handle, the connection is not retried
+ * with the next one, so the preferred mime types of a requester have to be registered on the responder as well.</li>
+ * </ul>
+ *
+ * @author songhaifeng
+ * @date 2020/01/10 10:15
+ */
+@Slf4j
+public final class DataCodecs {
+    public static final String APPLICATION_CBOR_VALUE = "application/cbor";
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+    public static final String APPLICATION_ENTITY_VALUE = "application/x.shf.entity";
+    public static final MimeType APPLICATION_CBOR = MimeType.valueOf(APPLICATION_CBOR_VALUE);
+    public static final MimeType APPLICATION_SMILE = MimeType.valueOf(APPLICATION_SMILE_VALUE);
+    public static final MimeType APPLICATION_ENTITY = MimeType.valueOf(APPLICATION_ENTITY_VALUE);
+
+    private DataCodecs() {
+    }
+
+    /**
+     * @return RSocketStrategiesCustomizer registering the generated entity codecs, then Smile for both mime types
+     */
+    public static RSocketStrategiesCustomizer binaryCodecs() {
+        return strategyBuilder -> {
+            ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+            strategyBuilder
+                    .encoder(new BinaryEntityEncoder())
+                    .decoder(new BinaryEntityDecoder())
+                    .encoder(new Jackson2SmileEncoder(smileMapper, APPLICATION_SMILE, APPLICATION_ENTITY))
+                    .decoder(new Jackson2SmileDecoder(smileMapper, APPLICATION_SMILE, APPLICATION_ENTITY));
+        };
+    }
+
+    /**
+     * Select the data mime type of a connection from the codecs of the requester alone, the responder is not consulted.
+     *
+     * @param strategies strategies of the requester
+     * @param preferred  mime types in order of preference
+     * @param probe      a type sent over the connection
+     * @return the first preferred mime type the strategies can encode and decode the probe with, JSON if none
+     */
+    public static MimeType select(RSocketStrategies strategies, List<String> preferred, Class<?> probe) {
+        for (String value : preferred) {
+            MimeType mimeType = MimeTypeUtils.parseMimeType(value);
+            if (supports(strategies, mimeType, probe)) {
+                return mimeType;
+            }
+            log.warn("No codec for the data mime type {}, try the next one.", mimeType);
+        }
+        return MimeTypeUtils.APPLICATION_JSON;
+    }
+
+    /**
+     * @return whether the strategies can encode and decode the probe with the mime type
+     */
+    public static boolean supports(RSocketStrategies strategies, MimeType mimeType, Class<?> probe) {
+        ResolvableType type = ResolvableType.forClass(probe);
+        return strategies.encoders().stream().anyMatch(encoder -> encoder.canEncode(type, mimeType))
+                && strategies.decoders().stream().anyMatch(decoder -> decoder.canDecode(type, mimeType));
+    }
+}
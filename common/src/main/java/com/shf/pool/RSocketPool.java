@@ -0,0 +1,335 @@
+package com.shf.pool;
+
+import io.netty.util.ReferenceCountUtil;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.lease.MissingLeaseException;
+import io.rsocket.transport.ClientTransport;
+
+import org.reactivestreams.Publisher;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Description:
+ * A pool of connections to one or more instances of a server, seen as a single {@link RSocket}.
+ * <ul>
+ * <li>Each request goes to the available connection of the lowest cost:
+ * {@code (outstanding requests + 1) * latency / availability}, where the latency is an EWMA of the time to the first response,
+ * and the availability is {@link RSocket#availability()}, which follows the lease received from the server.
+ * Ties are broken round-robin.</li>
+ * <li>A connection whose lease is exhausted (or not received yet) is skipped. A request waits while no connection is available,
+ * up to `acquire-timeout`, and is sent again elsewhere if its lease runs out on the way.</li>
+ * <li>A closed connection is replaced in the background, with a backoff.</li>
+ * <li>A metadata push is a connection level frame, it is sent on every open connection.</li>
+ * </ul>
+ * {@link #requester} wraps it as a {@link RSocketRequester}, so the callers keep the same API.
+ *
+ * @author songhaifeng
+ * @date 2020/01/17 10:30
+ */
+@Slf4j
+public class RSocketPool implements RSocket {
+    private final List<Mono<RSocketRequester>> connectors;
+    private final RSocketPoolProperties properties;
+    private final AtomicReferenceArray<Connection> connections;
+    private final DirectProcessor<Connection> connected = DirectProcessor.create();
+    private final FluxSink<Connection> connectedSink = connected.sink();
+    private final AtomicReference<RSocketRequester> first = new AtomicReference<>();
+    private final MonoProcessor<RSocketRequester> firstConnected = MonoProcessor.create();
+    private final Disposable.Composite connecting = Disposables.composite();
+    private final MonoProcessor<Void> onClose = MonoProcessor.create();
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean disposed;
+
+    RSocketPool(List<Mono<RSocketRequester>> connectors, RSocketPoolProperties properties) {
+        this.connectors = connectors;
+        this.properties = properties;
+        this.connections = new AtomicReferenceArray<>(connectors.size() * properties.getSize());
+    }
+
+    /**
+     * Open a pool of connections to a server, as configured by the builder.
+     *
+     * @param builder    builder, connected once per connection
+     * @param transport  transport to the server
+     * @param strategies strategies of the builder
+     * @param properties properties
+     * @return the requester over the pool, once its first connection is open
+     */
+    public static Mono<RSocketRequester> requester(RSocketRequester.Builder builder, ClientTransport transport,
+                                                   RSocketStrategies strategies, RSocketPoolProperties properties) {
+        return requester(builder, Collections.singletonList(transport), strategies, properties);
+    }
+
+    /**
+     * Open a pool of connections to several instances of a server, `size` connections to each one.
+     *
+     * @param builder    builder, connected once per connection
+     * @param transports transports to the server instances
+     * @param strategies strategies of the builder
+     * @param properties properties
+     * @return the requester over the pool, once its first connection is open
+     */
+    public static Mono<RSocketRequester> requester(RSocketRequester.Builder builder, List<ClientTransport> transports,
+                                                   RSocketStrategies strategies, RSocketPoolProperties properties) {
+        return Mono.defer(() -> {
+            List<Mono<RSocketRequester>> connectors = new ArrayList<>(transports.size());
+            for (ClientTransport transport : transports) {
+                connectors.add(builder.connect(transport));
+            }
+            RSocketPool pool = new RSocketPool(connectors, properties);
+            pool.start();
+            return pool.firstConnected
+                    .timeout(properties.getConnectTimeout())
+                    .doOnError(error -> pool.dispose())
+                    .map(requester -> RSocketRequester.wrap(pool, requester.dataMimeType(), requester.metadataMimeType(), strategies));
+        });
+    }
+
+    void start() {
+        for (int slot = 0; slot < connections.length(); slot++) {
+            connect(slot, connector(slot));
+        }
+    }
+
+    @Override
+    public Mono<Void> fireAndForget(Payload payload) {
+        return send(payload, RSocket::fireAndForget).then();
+    }
+
+    @Override
+    public Mono<Payload> requestResponse(Payload payload) {
+        return send(payload, RSocket::requestResponse).singleOrEmpty();
+    }
+
+    @Override
+    public Flux<Payload> requestStream(Payload payload) {
+        return send(payload, RSocket::requestStream);
+    }
+
+    @Override
+    public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+        // the payloads can not be subscribed twice, so a channel is not sent again
+        return acquire().flatMapMany(connection -> connection.observe(connection.rsocket.requestChannel(payloads)));
+    }
+
+    @Override
+    public Mono<Void> metadataPush(Payload payload) {
+        List<Connection> open = open();
+        if (open.isEmpty()) {
+            ReferenceCountUtil.safeRelease(payload);
+            return Mono.error(new IllegalStateException("No open connection"));
+        }
+        return Flux.fromIterable(open)
+                .flatMap(connection -> connection.rsocket.metadataPush(payload.retain()))
+                .doFinally(signal -> ReferenceCountUtil.safeRelease(payload))
+                .then();
+    }
+
+    @Override
+    public double availability() {
+        double availability = 0;
+        for (Connection connection : open()) {
+            availability = Math.max(availability, connection.rsocket.availability());
+        }
+        return availability;
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        connecting.dispose();
+        for (int slot = 0; slot < connections.length(); slot++) {
+            Connection connection = connections.getAndSet(slot, null);
+            if (connection != null) {
+                connection.rsocket.dispose();
+            }
+        }
+        connectedSink.complete();
+        onClose.onComplete();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    @Override
+    public Mono<Void> onClose() {
+        return onClose;
+    }
+
+    /**
+     * Send the request on the picked connection, again on another one if the lease ran out in between.
+     * Each attempt is given its own reference to the payload, the connection releases it once it is sent.
+     */
+    private <T> Flux<T> send(Payload payload, BiFunction<RSocket, Payload, Publisher<T>> request) {
+        return Flux.defer(() -> acquire().flatMapMany(connection -> connection.observe(request.apply(connection.rsocket, payload.retain()))))
+                .retry(MissingLeaseException.class::isInstance)
+                .doFinally(signal -> ReferenceCountUtil.safeRelease(payload));
+    }
+
+    private Mono<Connection> acquire() {
+        if (disposed) {
+            return Mono.error(new IllegalStateException("The pool is disposed"));
+        }
+        Connection picked = pick();
+        if (picked != null) {
+            picked.pending.incrementAndGet();
+            return Mono.just(picked);
+        }
+        // subscribe to the connections to come before looking again, and keep looking for a renewed lease
+        return Flux.merge(connected.filter(connection -> connection.availability() > 0),
+                Flux.interval(properties.getAcquireRetryInterval()).startWith(0L).concatMap(tick -> Mono.justOrEmpty(pick())))
+                .next()
+                .timeout(properties.getAcquireTimeout(), Mono.defer(() ->
+                        Mono.error(new IllegalStateException("No available connection within " + properties.getAcquireTimeout()))))
+                .doOnNext(connection -> connection.pending.incrementAndGet());
+    }
+
+    /**
+     * @return the available connection of the lowest cost, null if none
+     */
+    private Connection pick() {
+        int size = connections.length();
+        int start = next.getAndIncrement();
+        Connection best = null;
+        double lowest = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Connection connection = connections.get(Math.floorMod(start + i, size));
+            if (connection == null) {
+                continue;
+            }
+            double availability = connection.availability();
+            if (availability <= 0) {
+                continue;
+            }
+            double cost = (connection.pending.get() + 1) * Math.max(connection.latency, 1) / availability;
+            if (cost < lowest) {
+                best = connection;
+                lowest = cost;
+            }
+        }
+        return best;
+    }
+
+    private List<Connection> open() {
+        List<Connection> open = new ArrayList<>(connections.length());
+        for (int slot = 0; slot < connections.length(); slot++) {
+            Connection connection = connections.get(slot);
+            if (connection != null && !connection.rsocket.isDisposed()) {
+                open.add(connection);
+            }
+        }
+        return open;
+    }
+
+    /**
+     * @return the mean latency of the open connections, a new connection starts from it, 0 if none
+     */
+    private double meanLatency() {
+        List<Connection> open = open();
+        double sum = 0;
+        for (Connection connection : open) {
+            sum += connection.latency;
+        }
+        return open.isEmpty() ? 0 : sum / open.size();
+    }
+
+    private Mono<RSocketRequester> connector(int slot) {
+        return connectors.get(slot / properties.getSize());
+    }
+
+    private void connect(int slot, Mono<RSocketRequester> attempt) {
+        connecting.add(attempt
+                .retryBackoff(Long.MAX_VALUE, properties.getReconnectMinBackoff(), properties.getReconnectMaxBackoff())
+                .subscribe(requester -> connected(slot, requester), error -> log.error("Connection {} of the pool failed.", slot, error)));
+    }
+
+    private void connected(int slot, RSocketRequester requester) {
+        RSocket rsocket = requester.rsocket();
+        if (disposed) {
+            rsocket.dispose();
+            return;
+        }
+        Connection connection = new Connection(rsocket, meanLatency());
+        connections.set(slot, connection);
+        if (first.compareAndSet(null, requester)) {
+            firstConnected.onNext(requester);
+        }
+        connectedSink.next(connection);
+        rsocket.onClose().doFinally(signal -> closed(slot, connection)).subscribe();
+    }
+
+    private void closed(int slot, Connection connection) {
+        if (connections.compareAndSet(slot, connection, null) && !disposed) {
+            log.warn("Connection {} of the pool closed, replacing it.", slot);
+            connect(slot, connector(slot).delaySubscription(properties.getReconnectMinBackoff()));
+        }
+    }
+
+    private static final class Connection {
+        /**
+         * Weight of the latest sample in the latency EWMA.
+         */
+        private static final double LATENCY_WEIGHT = 0.2;
+
+        private final RSocket rsocket;
+        private final AtomicInteger pending = new AtomicInteger();
+        /**
+         * EWMA of the nanos to the first response. Updated without a lock, a lost sample is of no consequence.
+         */
+        private volatile double latency;
+
+        Connection(RSocket rsocket, double latency) {
+            this.rsocket = rsocket;
+            this.latency = latency;
+        }
+
+        /**
+         * @return 0 when closed or out of lease, up to 1 otherwise
+         */
+        double availability() {
+            return rsocket.isDisposed() ? 0 : rsocket.availability();
+        }
+
+        /**
+         * Sample the latency on the first response(or the completion), and count the request as outstanding until it terminates.
+         */
+        <T> Flux<T> observe(Publisher<T> request) {
+            long start = System.nanoTime();
+            boolean[] observed = new boolean[1];
+            return Flux.from(request)
+                    .doOnEach(signal -> {
+                        if (!observed[0] && (signal.isOnNext() || signal.isOnComplete())) {
+                            observed[0] = true;
+                            latency += LATENCY_WEIGHT * (System.nanoTime() - start - latency);
+                        }
+                    })
+                    .doFinally(this::release);
+        }
+
+        void release(SignalType signal) {
+            pending.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.shf.pool;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Description:
+ * The connections of a pooled requester, prefixed with `rsocket.requester.pool`. See more in {@link RSocketPool}.
+ *
+ * @author songhaifeng
+ * @date 2020/01/17 10:10
+ */
+@Data
+@ConfigurationProperties(prefix = "rsocket.requester.pool")
+public class RSocketPoolProperties {
+    /**
+     * Server instances to balance the requests over, as host:port.
+     */
+    private List<String> endpoints = new ArrayList<>();
+    /**
+     * The name of the server instance to connect to in-JVM when no endpoint is set and it is bound in this JVM, over TCP otherwise.
+     */
+    private String localName;
+    /**
+     * Connections to each server instance.
+     */
+    private int size = 4;
+    /**
+     * How long to wait for the first connection on startup.
+     */
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    /**
+     * How long a request waits for a connection when none is available.
+     */
+    private Duration acquireTimeout = Duration.ofSeconds(5);
+    /**
+     * How often a waiting request looks again for a connection, such as one whose lease is renewed.
+     */
+    private Duration acquireRetryInterval = Duration.ofMillis(10);
+    /**
+     * Backoff between the attempts to replace a closed connection, doubled up to the max.
+     */
+    private Duration reconnectMinBackoff = Duration.ofSeconds(1);
+    private Duration reconnectMaxBackoff = Duration.ofSeconds(30);
+}
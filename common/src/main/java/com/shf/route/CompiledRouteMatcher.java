@@ -0,0 +1,125 @@
+package com.shf.route;
+
+import org.springframework.util.RouteMatcher;
+import org.springframework.web.util.pattern.PathPatternRouteMatcher;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Description:
+ * A {@link RouteMatcher} which compiles each pattern once and parses each route once.
+ * <ul>
+ * <li>A route is split into its segments by a single scan, parsed routes are cached up to {@link #MAX_CACHED_ROUTES}.</li>
+ * <li>A pattern is compiled to a {@link RoutePattern}: matching compares segments, variables are read by index, no regex is involved.</li>
+ * <li>Patterns whose syntax {@link RoutePattern} does not support, as well as {@link #combine} and {@link #getComparator},
+ * are delegated to a {@link PathPatternRouteMatcher}, so the semantics stay the same.</li>
+ * </ul>
+ * Used by {@link RouteTableRSocketMessageHandler} to dispatch through a {@link RouteTable}.
+ *
+ * @author songhaifeng
+ * @date 2020/01/13 10:40
+ */
+public class CompiledRouteMatcher implements RouteMatcher {
+    /**
+     * Bounds the cache, routes carrying ids are unbounded.
+     */
+    static final int MAX_CACHED_ROUTES = 10_000;
+    private static final RoutePattern UNSUPPORTED = RoutePattern.compile("");
+
+    private final PathPatternRouteMatcher delegate = new PathPatternRouteMatcher();
+    private final ConcurrentMap<String, RoutePattern> patterns = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ParsedRoute> routes = new ConcurrentHashMap<>();
+
+    @Override
+    public Route parseRoute(String routeValue) {
+        ParsedRoute route = routes.get(routeValue);
+        if (route == null) {
+            route = new ParsedRoute(routeValue, RoutePattern.split(routeValue));
+            if (routes.size() < MAX_CACHED_ROUTES) {
+                routes.putIfAbsent(routeValue, route);
+            }
+        }
+        return route;
+    }
+
+    @Override
+    public boolean isPattern(String route) {
+        return delegate.isPattern(route);
+    }
+
+    @Override
+    public String combine(String pattern1, String pattern2) {
+        return delegate.combine(pattern1, pattern2);
+    }
+
+    @Override
+    public boolean match(String pattern, Route route) {
+        RoutePattern compiled = compile(pattern);
+        return compiled != null ? compiled.matches(parsed(route).segments) : delegate.match(pattern, parsed(route).delegateRoute(delegate));
+    }
+
+    @Override
+    public Map<String, String> matchAndExtract(String pattern, Route route) {
+        RoutePattern compiled = compile(pattern);
+        return compiled != null
+                ? compiled.matchAndExtract(parsed(route).segments)
+                : delegate.matchAndExtract(pattern, parsed(route).delegateRoute(delegate));
+    }
+
+    @Override
+    public Comparator<String> getComparator(Route route) {
+        return delegate.getComparator(parsed(route).delegateRoute(delegate));
+    }
+
+    /**
+     * @return the compiled pattern, null if it is left to the {@link PathPatternRouteMatcher}
+     */
+    RoutePattern compile(String pattern) {
+        RoutePattern compiled = patterns.get(pattern);
+        if (compiled == null) {
+            compiled = RoutePattern.compile(pattern);
+            patterns.putIfAbsent(pattern, compiled != null ? compiled : UNSUPPORTED);
+        }
+        return compiled == UNSUPPORTED ? null : compiled;
+    }
+
+    ParsedRoute parsed(Route route) {
+        return route instanceof ParsedRoute ? (ParsedRoute) route : (ParsedRoute) parseRoute(route.value());
+    }
+
+    /**
+     * A route split into its segments.
+     */
+    static final class ParsedRoute implements Route {
+        private final String value;
+        final String[] segments;
+        private volatile Route delegateRoute;
+
+        ParsedRoute(String value, String[] segments) {
+            this.value = value;
+            this.segments = segments;
+        }
+
+        @Override
+        public String value() {
+            return value;
+        }
+
+        Route delegateRoute(PathPatternRouteMatcher delegate) {
+            Route route = delegateRoute;
+            if (route == null) {
+                route = delegate.parseRoute(value);
+                delegateRoute = route;
+            }
+            return route;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+}
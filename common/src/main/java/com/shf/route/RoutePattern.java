@@ -0,0 +1,151 @@
+package com.shf.route;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Description:
+ * A route pattern compiled to its segments: literals, `{name}` variables, `*` for any one segment and a trailing `**` for any rest.
+ * As with PathPattern, a variable or a `*` does not match an empty segment, such as the middle one of `user..1`.
+ * Other syntaxes, such as `{name:regex}`, `{*name}` or a partial segment like `user{id}`, are not compiled.
+ *
+ * @author songhaifeng
+ * @date 2020/01/13 10:10
+ */
+final class RoutePattern {
+    static final char SEPARATOR = '.';
+    static final String WILDCARD = "*";
+    static final String MULTI_WILDCARD = "**";
+
+    private final String value;
+    /**
+     * Literal of each segment, null for a variable or a wildcard.
+     */
+    private final String[] literals;
+    /**
+     * Variable name of each segment, null for a literal or a wildcard.
+     */
+    private final String[] variables;
+    private final boolean trailingMulti;
+
+    private RoutePattern(String value, String[] literals, String[] variables, boolean trailingMulti) {
+        this.value = value;
+        this.literals = literals;
+        this.variables = variables;
+        this.trailingMulti = trailingMulti;
+    }
+
+    /**
+     * @return the compiled pattern, null if its syntax is not supported
+     */
+    static RoutePattern compile(String pattern) {
+        String[] segments = split(pattern);
+        boolean trailingMulti = segments.length > 0 && MULTI_WILDCARD.equals(segments[segments.length - 1]);
+        int length = trailingMulti ? segments.length - 1 : segments.length;
+        String[] literals = new String[length];
+        String[] variables = new String[length];
+        for (int i = 0; i < length; i++) {
+            String segment = segments[i];
+            if (WILDCARD.equals(segment)) {
+                continue;
+            }
+            if (isVariable(segment)) {
+                variables[i] = segment.substring(1, segment.length() - 1);
+            } else if (isLiteral(segment)) {
+                literals[i] = segment;
+            } else {
+                return null;
+            }
+        }
+        return new RoutePattern(pattern, literals, variables, trailingMulti);
+    }
+
+    /**
+     * @return the segments of a route or a pattern, scanned once for the separator
+     */
+    static String[] split(String value) {
+        if (value.isEmpty()) {
+            return new String[0];
+        }
+        List<String> segments = new ArrayList<>(4);
+        int start = 0;
+        int end;
+        while ((end = value.indexOf(SEPARATOR, start)) >= 0) {
+            segments.add(value.substring(start, end));
+            start = end + 1;
+        }
+        segments.add(value.substring(start));
+        return segments.toArray(new String[0]);
+    }
+
+    /**
+     * @return whether the route matches this pattern
+     */
+    boolean matches(String[] route) {
+        if (trailingMulti ? route.length < literals.length : route.length != literals.length) {
+            return false;
+        }
+        for (int i = 0; i < literals.length; i++) {
+            if (literals[i] != null ? !literals[i].equals(route[i]) : route[i].isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the variables of the route, null if it does not match
+     */
+    Map<String, String> matchAndExtract(String[] route) {
+        if (!matches(route)) {
+            return null;
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i] != null) {
+                result.put(variables[i], route[i]);
+            }
+        }
+        return result;
+    }
+
+    String getValue() {
+        return value;
+    }
+
+    /**
+     * Literal of a segment, null for a variable or a wildcard.
+     */
+    String literal(int segment) {
+        return literals[segment];
+    }
+
+    int segments() {
+        return literals.length;
+    }
+
+    boolean isTrailingMulti() {
+        return trailingMulti;
+    }
+
+    private static boolean isVariable(String segment) {
+        if (segment.length() < 3 || segment.charAt(0) != '{' || segment.charAt(segment.length() - 1) != '}') {
+            return false;
+        }
+        String name = segment.substring(1, segment.length() - 1);
+        // `{name:regex}` and `{*name}` are left to PathPattern
+        return isLiteral(name) && name.indexOf(':') < 0;
+    }
+
+    private static boolean isLiteral(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '{' || c == '}' || c == '*' || c == '?') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+package com.shf.route;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Description:
+ * A dispatch table from a route to the mappings which may match it, built once from all the mappings.
+ * <ul>
+ * <li>Static patterns: a hash lookup by the whole route.</li>
+ * <li>Compiled templated patterns: a trie of segments, a literal child is a hash lookup, `{name}` and `*` share one child.</li>
+ * <li>Mappings without patterns match every route, mappings with a pattern the trie does not support are always candidates.</li>
+ * </ul>
+ * A lookup walks at most the segments of the route times the wildcard branches, whatever the number of mappings.
+ * The candidates still go through the full conditions of their mapping.
+ *
+ * @param <T> mapping type
+ * @author songhaifeng
+ * @date 2020/01/13 11:20
+ */
+final class RouteTable<T> {
+    private final Map<String, List<T>> statics = new HashMap<>();
+    private final Node<T> root = new Node<>();
+    private final List<T> always = new ArrayList<>();
+    private final int size;
+
+    /**
+     * @param mappings mappings
+     * @param patterns patterns of a mapping
+     * @param matcher  matcher compiling the patterns
+     */
+    RouteTable(Collection<T> mappings, Function<T, Collection<String>> patterns, CompiledRouteMatcher matcher) {
+        for (T mapping : mappings) {
+            Collection<String> values = patterns.apply(mapping);
+            if (values.isEmpty()) {
+                always.add(mapping);
+                continue;
+            }
+            for (String pattern : values) {
+                RoutePattern compiled = matcher.compile(pattern);
+                if (compiled == null) {
+                    addOnce(always, mapping);
+                } else if (!matcher.isPattern(pattern)) {
+                    addOnce(statics.computeIfAbsent(pattern, key -> new ArrayList<>(1)), mapping);
+                } else {
+                    root.insert(compiled, 0, mapping);
+                }
+            }
+        }
+        this.size = mappings.size();
+    }
+
+    /**
+     * @return number of mappings the table was built from
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param route route
+     * @return the mappings which may match the route, each once
+     */
+    List<T> candidates(CompiledRouteMatcher.ParsedRoute route) {
+        List<T> found = statics.get(route.value());
+        List<T> candidates = new ArrayList<>(found != null ? found : Collections.emptyList());
+        root.collect(route.segments, 0, candidates);
+        for (T mapping : always) {
+            addOnce(candidates, mapping);
+        }
+        return candidates;
+    }
+
+    private static <T> void addOnce(List<T> list, T mapping) {
+        if (!list.contains(mapping)) {
+            list.add(mapping);
+        }
+    }
+
+    private static final class Node<T> {
+        private final Map<String, Node<T>> literals = new HashMap<>();
+        private Node<T> any;
+        /**
+         * Mappings whose pattern ends at this node.
+         */
+        private final List<T> terminal = new ArrayList<>(1);
+        /**
+         * Mappings whose pattern ends with `**` at this node.
+         */
+        private final List<T> rest = new ArrayList<>(1);
+
+        void insert(RoutePattern pattern, int segment, T mapping) {
+            if (segment == pattern.segments()) {
+                addOnce(pattern.isTrailingMulti() ? rest : terminal, mapping);
+                return;
+            }
+            String literal = pattern.literal(segment);
+            Node<T> child;
+            if (literal != null) {
+                child = literals.computeIfAbsent(literal, key -> new Node<>());
+            } else {
+                if (any == null) {
+                    any = new Node<>();
+                }
+                child = any;
+            }
+            child.insert(pattern, segment + 1, mapping);
+        }
+
+        void collect(String[] route, int segment, List<T> candidates) {
+            for (T mapping : rest) {
+                addOnce(candidates, mapping);
+            }
+            if (segment == route.length) {
+                for (T mapping : terminal) {
+                    addOnce(candidates, mapping);
+                }
+                return;
+            }
+            Node<T> literal = literals.get(route[segment]);
+            if (literal != null) {
+                literal.collect(route, segment + 1, candidates);
+            }
+            if (any != null) {
+                any.collect(route, segment + 1, candidates);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.shf.route;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.CompositeMessageCondition;
+import org.springframework.messaging.handler.DestinationPatternsMessageCondition;
+import org.springframework.messaging.handler.HandlerMethod;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.util.RouteMatcher;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Description:
+ * A {@link RSocketMessageHandler} which looks the handler method up in a {@link RouteTable}, when the route matcher is a {@link CompiledRouteMatcher}.
+ * <ul>
+ * <li>Only the mappings the table returns for the route are matched against the message, instead of all the mappings on a miss of the static lookup.</li>
+ * <li>The best match, the ambiguity check and {@link #handleNoMatch} are those of {@link RSocketMessageHandler}.</li>
+ * <li>The table is built on the first message, and again whenever the number of handler methods changes.</li>
+ * </ul>
+ *
+ * @author songhaifeng
+ * @date 2020/01/13 11:50
+ */
+public class RouteTableRSocketMessageHandler extends RSocketMessageHandler {
+    private volatile RouteTable<CompositeMessageCondition> routeTable;
+
+    @Override
+    public Mono<Void> handleMessage(Message<?> message) {
+        RouteMatcher.Route destination = getDestination(message);
+        if (destination == null || !(getRouteMatcher() instanceof CompiledRouteMatcher)) {
+            return super.handleMessage(message);
+        }
+        CompiledRouteMatcher matcher = (CompiledRouteMatcher) getRouteMatcher();
+        Map.Entry<CompositeMessageCondition, HandlerMethod> best;
+        try {
+            Map<CompositeMessageCondition, HandlerMethod> handlerMethods = getHandlerMethods();
+            List<Map.Entry<CompositeMessageCondition, HandlerMethod>> matches = new ArrayList<>(2);
+            for (CompositeMessageCondition candidate : routeTable(handlerMethods, matcher).candidates(matcher.parsed(destination))) {
+                CompositeMessageCondition match = getMatchingMapping(candidate, message);
+                if (match != null) {
+                    // the matching mapping is narrowed to the matched patterns, the handler method is found by the registered one
+                    matches.add(new AbstractMap.SimpleImmutableEntry<>(match, handlerMethods.get(candidate)));
+                }
+            }
+            if (matches.isEmpty()) {
+                handleNoMatch(destination, message);
+                return Mono.empty();
+            }
+            Comparator<Map.Entry<CompositeMessageCondition, HandlerMethod>> comparator =
+                    Map.Entry.comparingByKey(getMappingComparator(message));
+            matches.sort(comparator);
+            best = matches.get(0);
+            if (matches.size() > 1 && comparator.compare(best, matches.get(1)) == 0) {
+                throw new IllegalStateException("Ambiguous handler methods mapped for destination '" + destination.value() + "': {"
+                        + best.getValue().getShortLogMessage() + ", " + matches.get(1).getValue().getShortLogMessage() + "}");
+            }
+        } catch (Exception e) {
+            return Mono.error(e);
+        }
+        return handleMatch(best.getKey(), best.getValue(), message);
+    }
+
+    private RouteTable<CompositeMessageCondition> routeTable(Map<CompositeMessageCondition, HandlerMethod> handlerMethods,
+                                                             CompiledRouteMatcher matcher) {
+        RouteTable<CompositeMessageCondition> table = routeTable;
+        if (table == null || table.size() != handlerMethods.size()) {
+            table = new RouteTable<>(new ArrayList<>(handlerMethods.keySet()),
+                    mapping -> mapping.getCondition(DestinationPatternsMessageCondition.class).getPatterns(), matcher);
+            routeTable = table;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,25 @@
+package com.shf.transport;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Description:
+ * The in-JVM transport, prefixed with `spring.rsocket.local`. See more in {@link LocalTransports}.
+ *
+ * @author songhaifeng
+ * @date 2020/01/15 10:10
+ */
+@Data
+@ConfigurationProperties(prefix = "spring.rsocket.local")
+public class LocalTransportProperties {
+    /**
+     * Server side, the name the responder is also bound to in this JVM, next to the `spring.rsocket.server` one. None if not set.
+     */
+    private String serverName;
+    /**
+     * Requester side, the name of the peer to connect to in-JVM when it is bound in this JVM, over TCP otherwise.
+     */
+    private String clientName;
+}
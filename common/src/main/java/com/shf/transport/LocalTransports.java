@@ -0,0 +1,74 @@
+package com.shf.transport;
+
+import io.rsocket.Closeable;
+import io.rsocket.RSocketFactory;
+import io.rsocket.SocketAcceptor;
+import io.rsocket.frame.decoder.PayloadDecoder;
+import io.rsocket.transport.ClientTransport;
+import io.rsocket.transport.local.LocalClientTransport;
+import io.rsocket.transport.local.LocalServerTransport;
+
+import org.springframework.boot.rsocket.server.ServerRSocketFactoryProcessor;
+
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Description:
+ * The in-JVM transport of RSocket, for a requester and a responder running in the same JVM.
+ * <ul>
+ * <li>The frames are handed over as they are: no socket, no copy. With {@link PayloadDecoder#ZERO_COPY},
+ * the payloads the responder reads are the buffers the requester wrote.</li>
+ * <li>A responder is bound to a name by {@link #bind}, with the same acceptor and {@link ServerRSocketFactoryProcessor}s as its TCP server.</li>
+ * <li>A requester picks the transport by {@link #client}, each time it connects: in-JVM if the name is bound, TCP otherwise.</li>
+ * </ul>
+ *
+ * @author songhaifeng
+ * @date 2020/01/15 10:20
+ */
+@Slf4j
+public final class LocalTransports {
+
+    private LocalTransports() {
+    }
+
+    /**
+     * The transport is picked on every connect, so that a requester created before the responder is bound,
+     * or reconnecting after it is unbound, follows it.
+     *
+     * @param name the name bound by the peer, null for TCP only
+     * @param tcp  the TCP transport to the peer, such as {@link NettyTransportFactory#client}
+     * @return ClientTransport
+     */
+    public static ClientTransport client(String name, ClientTransport tcp) {
+        if (name == null) {
+            return tcp;
+        }
+        return mtu -> {
+            if (LocalServerTransport.findServer(name) != null) {
+                log.debug("Connect to [{}] in-JVM instead of over TCP.", name);
+                return LocalClientTransport.create(name).connect(mtu);
+            }
+            return tcp.connect(mtu);
+        };
+    }
+
+    /**
+     * Bind a responder in this JVM.
+     *
+     * @param name       name
+     * @param acceptor   the acceptor of the TCP server, such as {@code RSocketMessageHandler#responder()}
+     * @param processors the processors of the TCP server
+     * @return the server, to dispose on shutdown
+     */
+    public static Closeable bind(String name, SocketAcceptor acceptor, List<ServerRSocketFactoryProcessor> processors) {
+        RSocketFactory.ServerRSocketFactory factory = RSocketFactory.receive().frameDecoder(PayloadDecoder.ZERO_COPY);
+        for (ServerRSocketFactoryProcessor processor : processors) {
+            factory = processor.process(factory);
+        }
+        Closeable server = factory.acceptor(acceptor).transport(LocalServerTransport.create(name)).start().block();
+        log.info("RSocket responder bound in-JVM to [{}].", name);
+        return server;
+    }
+}
@@ -0,0 +1,126 @@
+package com.shf.transport;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+import io.rsocket.transport.ClientTransport;
+import io.rsocket.transport.ServerTransport;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.netty.resources.LoopResources;
+import reactor.netty.tcp.TcpClient;
+import reactor.netty.tcp.TcpServer;
+
+/**
+ * Description:
+ * Creates the TCP transports of the requesters and the responders from {@link NettyTransportProperties}, instead of Reactor Netty's defaults.
+ * <ul>
+ * <li>The transports of a factory share its event loops, native(epoll or kqueue) when available, NIO otherwise.</li>
+ * <li>The socket options and the allocator are set on every connection, accepted or opened.</li>
+ * </ul>
+ * Disposing the factory shuts its event loops down.
+ *
+ * @author songhaifeng
+ * @date 2020/01/16 10:30
+ */
+@Slf4j
+public class NettyTransportFactory implements Disposable {
+    private final NettyTransportProperties properties;
+    private final LoopResources loopResources;
+    private final Map<ChannelOption<?>, Object> options;
+
+    public NettyTransportFactory(NettyTransportProperties properties) {
+        this.properties = properties;
+        this.loopResources = LoopResources.create("rsocket", properties.getSelectCount(), properties.getWorkerCount(), true);
+        this.options = options(properties);
+        log.info("RSocket TCP transport on {}, {} worker event loops, options {}.", transportName(), properties.getWorkerCount(), options);
+    }
+
+    /**
+     * @return ClientTransport connecting to the address
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ClientTransport client(InetSocketAddress address) {
+        TcpClient client = TcpClient.create()
+                .addressSupplier(() -> address)
+                .runOn(loopResources, properties.isNativeTransport());
+        for (Map.Entry<ChannelOption<?>, Object> option : options.entrySet()) {
+            client = client.option((ChannelOption) option.getKey(), option.getValue());
+        }
+        return TcpClientTransport.create(client);
+    }
+
+    /**
+     * @return ServerTransport bound to the address, the options apply to the accepted connections
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ServerTransport<CloseableChannel> server(InetSocketAddress address) {
+        TcpServer server = TcpServer.create()
+                .addressSupplier(() -> address)
+                .runOn(loopResources, properties.isNativeTransport());
+        for (Map.Entry<ChannelOption<?>, Object> option : options.entrySet()) {
+            server = server.option((ChannelOption) option.getKey(), option.getValue());
+        }
+        return TcpServerTransport.create(server);
+    }
+
+    /**
+     * @return native(epoll or kqueue, whichever is on the classpath) or nio
+     */
+    public String transportName() {
+        return properties.isNativeTransport() && LoopResources.hasNativeSupport() ? "native" : "nio";
+    }
+
+    @Override
+    public void dispose() {
+        loopResources.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return loopResources.isDisposed();
+    }
+
+    private static Map<ChannelOption<?>, Object> options(NettyTransportProperties properties) {
+        Map<ChannelOption<?>, Object> options = new LinkedHashMap<>();
+        options.put(ChannelOption.TCP_NODELAY, properties.isTcpNoDelay());
+        if (properties.getSendBufferSize() != null) {
+            options.put(ChannelOption.SO_SNDBUF, properties.getSendBufferSize());
+        }
+        if (properties.getReceiveBufferSize() != null) {
+            options.put(ChannelOption.SO_RCVBUF, properties.getReceiveBufferSize());
+        }
+        if (properties.getWriteBufferLowWaterMark() != null || properties.getWriteBufferHighWaterMark() != null) {
+            WriteBufferWaterMark defaults = WriteBufferWaterMark.DEFAULT;
+            options.put(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                    properties.getWriteBufferLowWaterMark() != null ? properties.getWriteBufferLowWaterMark() : defaults.low(),
+                    properties.getWriteBufferHighWaterMark() != null ? properties.getWriteBufferHighWaterMark() : defaults.high()));
+        }
+        ByteBufAllocator allocator = allocator(properties.getAllocator());
+        if (allocator != null) {
+            options.put(ChannelOption.ALLOCATOR, allocator);
+        }
+        return options;
+    }
+
+    private static ByteBufAllocator allocator(NettyTransportProperties.Allocator allocator) {
+        switch (allocator) {
+            case POOLED:
+                return PooledByteBufAllocator.DEFAULT;
+            case UNPOOLED:
+                return UnpooledByteBufAllocator.DEFAULT;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.shf.transport;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * Description:
+ * The TCP transports, prefixed with `spring.rsocket.netty`. Unset socket options keep the OS and Netty defaults.
+ * See more in {@link NettyTransportFactory}.
+ *
+ * @author songhaifeng
+ * @date 2020/01/16 10:10
+ */
+@Data
+@ConfigurationProperties(prefix = "spring.rsocket.netty")
+public class NettyTransportProperties {
+    /**
+     * Use the native transport(epoll on Linux, kqueue on macOS) when it is available, NIO otherwise.
+     */
+    private boolean nativeTransport = true;
+    /**
+     * Event loops accepting the connections of a server, -1 to share the worker ones.
+     */
+    private int selectCount = LoopResources.DEFAULT_IO_SELECT_COUNT;
+    /**
+     * Event loops handling the connections.
+     */
+    private int workerCount = LoopResources.DEFAULT_IO_WORKER_COUNT;
+    /**
+     * TCP_NODELAY, frames are small and latency bound.
+     */
+    private boolean tcpNoDelay = true;
+    /**
+     * SO_SNDBUF in bytes.
+     */
+    private Integer sendBufferSize;
+    /**
+     * SO_RCVBUF in bytes.
+     */
+    private Integer receiveBufferSize;
+    /**
+     * A channel stops being writable above the high water mark until it falls below the low one, in bytes.
+     */
+    private Integer writeBufferLowWaterMark;
+    private Integer writeBufferHighWaterMark;
+    private Allocator allocator = Allocator.DEFAULT;
+
+    public enum Allocator {
+        /**
+         * Netty's default, pooled unless `io.netty.allocator.type=unpooled`.
+         */
+        DEFAULT,
+        POOLED,
+        UNPOOLED
+    }
+}
@@ -0,0 +1,79 @@
+package com.shf.transport;
+
+import io.rsocket.RSocketFactory;
+import io.rsocket.SocketAcceptor;
+import io.rsocket.transport.netty.server.CloseableChannel;
+
+import org.springframework.boot.rsocket.server.RSocketServer;
+import org.springframework.boot.rsocket.server.RSocketServerFactory;
+import org.springframework.boot.rsocket.server.ServerRSocketFactoryProcessor;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Description:
+ * A TCP {@link RSocketServerFactory} on the transport of a {@link NettyTransportFactory}, in place of Spring Boot's NettyRSocketServerFactory,
+ * which only runs on Reactor Netty's defaults. The {@link ServerRSocketFactoryProcessor}s are applied the same way.
+ *
+ * @author songhaifeng
+ * @date 2020/01/16 11:00
+ */
+public class NettyTransportRSocketServerFactory implements RSocketServerFactory {
+    private final NettyTransportFactory transportFactory;
+    private final InetSocketAddress address;
+    private final List<ServerRSocketFactoryProcessor> processors;
+
+    public NettyTransportRSocketServerFactory(NettyTransportFactory transportFactory, InetSocketAddress address,
+                                              List<ServerRSocketFactoryProcessor> processors) {
+        this.transportFactory = transportFactory;
+        this.address = address;
+        this.processors = processors;
+    }
+
+    @Override
+    public RSocketServer create(SocketAcceptor socketAcceptor) {
+        RSocketFactory.ServerRSocketFactory factory = RSocketFactory.receive();
+        for (ServerRSocketFactoryProcessor processor : processors) {
+            factory = processor.process(factory);
+        }
+        return new Server(factory.acceptor(socketAcceptor).transport(transportFactory.server(address)).start());
+    }
+
+    private static final class Server implements RSocketServer {
+        private final Mono<CloseableChannel> starter;
+        private volatile CloseableChannel channel;
+
+        Server(Mono<CloseableChannel> starter) {
+            this.starter = starter;
+        }
+
+        @Override
+        public void start() {
+            CloseableChannel started = starter.block();
+            channel = started;
+            // the event loops are daemon threads, keep the JVM alive until the server closes as Spring Boot does
+            Thread awaitThread = new Thread(() -> started.onClose().block(), "rsocket");
+            awaitThread.setContextClassLoader(getClass().getClassLoader());
+            awaitThread.setDaemon(false);
+            awaitThread.start();
+        }
+
+        @Override
+        public void stop() {
+            CloseableChannel started = channel;
+            if (started != null) {
+                started.dispose();
+                channel = null;
+            }
+        }
+
+        @Override
+        public InetSocketAddress address() {
+            CloseableChannel started = channel;
+            return started != null ? started.address() : null;
+        }
+    }
+}
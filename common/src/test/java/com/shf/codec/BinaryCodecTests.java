@@ -0,0 +1,158 @@
+package com.shf.codec;
+
+import com.shf.entity.Foo;
+import com.shf.entity.User;
+import com.shf.entity.UserRequest;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryCodecTests {
+    /**
+     * 31 bytes of primitives, a presence byte per boxed field and an int length per String.
+     */
+    private static final int SAMPLE_FIXED_SIZE = 31 + 8 + 2 * 4;
+
+    @Test
+    void codecsAreGeneratedAndListedForTheAnnotatedClassesOnly() {
+        assertThat(EntityCodecs.get(User.class).type()).isEqualTo(User.class);
+        assertThat(EntityCodecs.get(UserRequest.class).type()).isEqualTo(UserRequest.class);
+        assertThat(EntityCodecs.get(Foo.class).type()).isEqualTo(Foo.class);
+        assertThat(EntityCodecs.get(CodecSample.class).type()).isEqualTo(CodecSample.class);
+        assertThat(EntityCodecs.get(String.class)).isNull();
+    }
+
+    @Test
+    void userIsWrittenInDeclarationOrderWithAUtf8Name() {
+        User user = User.builder().id(7).name("宋海峰").age(30).build();
+        ByteBuf buf = write(EntityCodecs.get(User.class), user);
+
+        assertThat(buf.readInt()).isEqualTo(7);
+        assertThat(buf.readInt()).isEqualTo(9);
+        assertThat(buf.readCharSequence(9, StandardCharsets.UTF_8).toString()).isEqualTo("宋海峰");
+        assertThat(buf.readInt()).isEqualTo(30);
+        assertThat(buf.isReadable()).isFalse();
+        buf.release();
+    }
+
+    @Test
+    void usersRoundTripWithAnyName() {
+        EntityCodec<User> codec = EntityCodecs.get(User.class);
+        for (String name : new String[]{"songhaifeng", "", null, "宋海峰", "rocket 🚀"}) {
+            User user = User.builder().id(-1).name(name).age(Integer.MAX_VALUE).build();
+            assertThat(roundTrip(codec, user)).isEqualTo(user);
+        }
+        assertThat(codec.size(User.builder().build())).isEqualTo(12);
+    }
+
+    @Test
+    void singleFieldEntitiesRoundTrip() {
+        EntityCodec<UserRequest> requestCodec = EntityCodecs.get(UserRequest.class);
+        assertThat(requestCodec.size(new UserRequest(3))).isEqualTo(4);
+        assertThat(roundTrip(requestCodec, new UserRequest(Integer.MIN_VALUE))).isEqualTo(new UserRequest(Integer.MIN_VALUE));
+
+        EntityCodec<Foo> fooCodec = EntityCodecs.get(Foo.class);
+        assertThat(roundTrip(fooCodec, new Foo("foo"))).isEqualTo(new Foo("foo"));
+        ByteBuf buf = write(fooCodec, new Foo(null));
+        assertThat(buf.readInt()).isEqualTo(-1);
+        buf.release();
+    }
+
+    @Test
+    void everySupportedFieldTypeRoundTripsAtItsExtremes() {
+        EntityCodec<CodecSample> codec = EntityCodecs.get(CodecSample.class);
+        CodecSample sample = new CodecSample();
+        sample.setActive(true);
+        sample.setEnabled(true);
+        sample.setTiny(Byte.MIN_VALUE);
+        sample.setSmall(Short.MAX_VALUE);
+        sample.setLetter('\uFFFF');
+        sample.setCount(Integer.MIN_VALUE);
+        sample.setRatio(Float.NaN);
+        sample.setTotal(Long.MAX_VALUE);
+        sample.setAverage(-0.0D);
+        sample.setMaybeActive(false);
+        sample.setMaybeTiny(Byte.MAX_VALUE);
+        sample.setMaybeSmall(Short.MIN_VALUE);
+        sample.setMaybeLetter('峰');
+        sample.setMaybeCount(0);
+        sample.setMaybeRatio(Float.NEGATIVE_INFINITY);
+        sample.setMaybeTotal(Long.MIN_VALUE);
+        sample.setMaybeAverage(Double.MIN_VALUE);
+        sample.setName("name");
+        sample.setDescription("");
+        sample.setCached("not written");
+
+        assertThat(codec.size(sample)).isEqualTo(SAMPLE_FIXED_SIZE + 30 + 4);
+        CodecSample read = roundTrip(codec, sample);
+        assertThat(read.getCached()).isNull();
+        assertThat(read).isEqualTo(sample);
+    }
+
+    @Test
+    void nullBoxedFieldsAndStringsOnlyTakeTheirMarker() {
+        EntityCodec<CodecSample> codec = EntityCodecs.get(CodecSample.class);
+        CodecSample sample = new CodecSample();
+
+        assertThat(codec.size(sample)).isEqualTo(SAMPLE_FIXED_SIZE);
+        CodecSample read = roundTrip(codec, sample);
+        assertThat(read).isEqualTo(sample);
+        assertThat(read.getMaybeCount()).isNull();
+        assertThat(read.getName()).isNull();
+    }
+
+    @Test
+    void valuesWrittenBackToBackAreReadOneAtATime() {
+        EntityCodec<User> codec = EntityCodecs.get(User.class);
+        User first = User.builder().id(1).name("a").age(20).build();
+        User second = User.builder().id(2).name(null).age(21).build();
+        ByteBuf buf = Unpooled.buffer();
+        codec.write(first, buf);
+        codec.write(second, buf);
+
+        assertThat(codec.read(buf)).isEqualTo(first);
+        assertThat(buf.readerIndex()).isEqualTo(codec.size(first));
+        assertThat(codec.read(buf)).isEqualTo(second);
+        assertThat(buf.isReadable()).isFalse();
+        buf.release();
+    }
+
+    @Test
+    void truncatedBufferFailsToRead() {
+        EntityCodec<User> codec = EntityCodecs.get(User.class);
+        ByteBuf buf = write(codec, User.builder().id(1).name("name").age(20).build());
+        ByteBuf truncated = buf.slice(0, buf.readableBytes() - 1);
+
+        assertThatThrownBy(() -> codec.read(truncated)).isInstanceOf(IndexOutOfBoundsException.class);
+        buf.release();
+    }
+
+    /**
+     * Write into a buffer that cannot grow past the computed size, as {@link BinaryEntityEncoder} does.
+     */
+    private static <T> ByteBuf write(EntityCodec<T> codec, T value) {
+        int size = codec.size(value);
+        ByteBuf buf = Unpooled.buffer(size, size);
+        codec.write(value, buf);
+        assertThat(buf.readableBytes()).isEqualTo(size);
+        return buf;
+    }
+
+    private static <T> T roundTrip(EntityCodec<T> codec, T value) {
+        ByteBuf buf = write(codec, value);
+        try {
+            T read = codec.read(buf);
+            assertThat(buf.isReadable()).isFalse();
+            return read;
+        } finally {
+            buf.release();
+        }
+    }
+}
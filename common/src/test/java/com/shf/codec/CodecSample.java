@@ -0,0 +1,39 @@
+package com.shf.codec;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Description:
+ * One field of every type {@link BinaryCodec} supports, its codec is generated when the tests compile.
+ *
+ * @author songhaifeng
+ * @date 2020/01/11 11:05
+ */
+@BinaryCodec
+@Data
+@NoArgsConstructor
+public class CodecSample {
+    static final int NOT_WRITTEN = 1;
+
+    private boolean active;
+    private boolean isEnabled;
+    private byte tiny;
+    private short small;
+    private char letter;
+    private int count;
+    private float ratio;
+    private long total;
+    private double average;
+    private Boolean maybeActive;
+    private Byte maybeTiny;
+    private Short maybeSmall;
+    private Character maybeLetter;
+    private Integer maybeCount;
+    private Float maybeRatio;
+    private Long maybeTotal;
+    private Double maybeAverage;
+    private String name;
+    private String description;
+    private transient String cached;
+}
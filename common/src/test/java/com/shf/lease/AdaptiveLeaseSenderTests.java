@@ -0,0 +1,159 @@
+package com.shf.lease;
+
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Closeable;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.lease.LeaseStats;
+import io.rsocket.lease.Leases;
+import io.rsocket.transport.local.LocalClientTransport;
+import io.rsocket.transport.local.LocalServerTransport;
+import io.rsocket.util.DefaultPayload;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class AdaptiveLeaseSenderTests {
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(2);
+
+    @Test
+    void periodShortensFromTheMaxToTheMinTtlAsTheGradientFalls() {
+        AdaptiveLeaseProperties properties = GradientLimitTests.properties();
+        try (LeaseStatsRegistry registry = new LeaseStatsRegistry(ServerRoleEnum.SERVER)) {
+            AdaptiveLeaseSender sender = new AdaptiveLeaseSender(ServerRoleEnum.SERVER, properties, registry);
+            // no latency measured yet, the gradient starts at its lowest
+            assertThat(sender.period()).isEqualTo(properties.getMinTtl().toMillis());
+            assertThat(sender.allowedRequests(sender.period(), null)).isEqualTo(properties.getInitialLimit());
+
+            sample(sender.getLimit(), RTT);
+            assertThat(sender.getLimit().getGradient()).isEqualTo(1.0);
+            assertThat(sender.period()).isEqualTo(properties.getMaxTtl().toMillis());
+
+            // a latency of 3 times the long term one: gradient = 1.5 * (2 + 4 / 20) / 6 = 0.55
+            sample(sender.getLimit(), RTT * 3);
+            double gradient = sender.getLimit().getGradient();
+            assertThat(gradient).isCloseTo(0.55, within(1e-9));
+            long min = properties.getMinTtl().toMillis();
+            long max = properties.getMaxTtl().toMillis();
+            assertThat(sender.period()).isEqualTo(min + Math.round((max - min) * (2 * gradient - 1)));
+        }
+    }
+
+    @Test
+    void allowedRequestsAreTheLimitAsARateOverThePeriod() {
+        AdaptiveLeaseProperties properties = GradientLimitTests.properties();
+        try (LeaseStatsRegistry registry = new LeaseStatsRegistry(ServerRoleEnum.SERVER)) {
+            AdaptiveLeaseSender sender = new AdaptiveLeaseSender(ServerRoleEnum.SERVER, properties, registry);
+            sample(sender.getLimit(), RTT);
+            double limit = sender.getLimit().getLimit();
+
+            // Little's law: limit concurrent requests of RTT each, over 1s
+            assertThat(sender.allowedRequests(1_000, null)).isEqualTo((int) Math.ceil(limit * TimeUnit.SECONDS.toNanos(1) / RTT));
+            // at least one request, whatever the limit
+            assertThat(sender.allowedRequests(0, null)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void limitIsSharedOutByTheDemandOfEachConnection() {
+        AdaptiveLeaseProperties properties = GradientLimitTests.properties();
+        try (LeaseStatsRegistry registry = new LeaseStatsRegistry(ServerRoleEnum.SERVER)) {
+            AdaptiveLeaseSender sender = new AdaptiveLeaseSender(ServerRoleEnum.SERVER, properties, registry);
+            sample(sender.getLimit(), RTT);
+            ConnectionLeaseStats busy = registry.create();
+            ConnectionLeaseStats idle = registry.create();
+            idle.updateDemandRate();
+            for (int i = 0; i < 100; i++) {
+                busy.onEvent(LeaseStats.EventType.ACCEPT);
+            }
+            int all = sender.allowedRequests(1_000, null);
+
+            // the idle connection keeps a tenth of an even share: idle = 0.1 * busy / 2
+            int busyRequests = sender.allowedRequests(1_000, busy);
+            int idleRequests = sender.allowedRequests(1_000, idle);
+
+            assertThat((double) busyRequests).isCloseTo(all * 1.05 / 1.1, within(1.0));
+            assertThat((double) idleRequests).isCloseTo(all * 0.05 / 1.1, within(1.0));
+        }
+    }
+
+    @Test
+    void requestsAreMeasuredOnTheConnectionWhoseLeaseAcceptedThem() {
+        AdaptiveLeaseProperties properties = new AdaptiveLeaseProperties();
+        properties.setMinTtl(Duration.ofSeconds(30));
+        properties.setMaxTtl(Duration.ofSeconds(30));
+        properties.setInitialLimit(1_000);
+        try (LeaseStatsRegistry registry = new LeaseStatsRegistry(ServerRoleEnum.SERVER)) {
+            AdaptiveLeaseSender sender = new AdaptiveLeaseSender(ServerRoleEnum.SERVER, properties, registry);
+            String name = "adaptive-lease-" + System.nanoTime();
+            Closeable server = RSocketFactory.receive()
+                    .lease(() -> sender.leases(new LeaseReceiver(ServerRoleEnum.SERVER)))
+                    .addResponderPlugin(sender.responder())
+                    .acceptor((setup, sendingSocket) -> Mono.just(new AbstractRSocket() {
+                        @Override
+                        public Mono<Payload> requestResponse(Payload payload) {
+                            payload.release();
+                            return Mono.delay(Duration.ofMillis(1)).map(tick -> DefaultPayload.create("pong"));
+                        }
+                    }))
+                    .transport(LocalServerTransport.create(name))
+                    .start()
+                    .block();
+            RSocket first = connect(name);
+            RSocket second = connect(name);
+            try {
+                // both connections send at once, on the server event loops in turn
+                Flux.merge(send(first, 30), send(second, 70)).blockLast(Duration.ofSeconds(30));
+
+                assertThat(registry.connections()).hasSize(2);
+                ConnectionLeaseStats one = registry.connections().get(0);
+                ConnectionLeaseStats two = registry.connections().get(1);
+                assertThat(one.accepted()).isEqualTo(30);
+                assertThat(one.completed()).isEqualTo(30);
+                assertThat(two.accepted()).isEqualTo(70);
+                assertThat(two.completed()).isEqualTo(70);
+                assertThat(one.inFlight() + two.inFlight()).isEqualTo(0);
+            } finally {
+                first.dispose();
+                second.dispose();
+                server.dispose();
+            }
+        }
+    }
+
+    private static RSocket connect(String name) {
+        RSocket rsocket = RSocketFactory.connect()
+                .lease(() -> Leases.create().receiver(new LeaseReceiver(ServerRoleEnum.CLIENT)))
+                .transport(LocalClientTransport.create(name))
+                .start()
+                .block(Duration.ofSeconds(10));
+        // the first lease is sent right after the setup
+        Mono.fromCallable(rsocket::availability)
+                .filter(availability -> availability > 0)
+                .repeatWhenEmpty(attempts -> attempts.delayElements(Duration.ofMillis(10)))
+                .block(Duration.ofSeconds(10));
+        return rsocket;
+    }
+
+    private static Flux<Payload> send(RSocket rsocket, int requests) {
+        return Flux.range(0, requests)
+                .flatMap(i -> rsocket.requestResponse(DefaultPayload.create("ping")), 8)
+                .doOnNext(Payload::release);
+    }
+
+    private static void sample(GradientLimit limit, long rttNanos) {
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(rttNanos, 0);
+        }
+        limit.update();
+    }
+}
@@ -0,0 +1,138 @@
+package com.shf.lease;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.lease.Lease;
+import io.rsocket.lease.LeaseStats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConnectionLeaseStatsTests {
+
+    @Test
+    void countsTheLeaseChecksAndTheRequests() {
+        try (LeaseStatsRegistry registry = new LeaseStatsRegistry(ServerRoleEnum.SERVER)) {
+            ConnectionLeaseStats stats = registry.create();
+            stats.onEvent(LeaseStats.EventType.ACCEPT);
+            stats.onEvent(LeaseStats.EventType.ACCEPT);
+            stats.onEvent(LeaseStats.EventType.ACCEPT);
+            stats.onEvent(LeaseStats.EventType.REJECT);
+            stats.leased(Lease.create(1_500, 42));
+
+            long first = stats.start();
+            long second = stats.start();
+            stats.start();
+            assertThat(stats.inFlight()).isEqualTo(3);
+            stats.stop(first);
+            stats.stop(second);
+            stats.cancel();
+
+            assertThat(stats.accepted()).isEqualTo(3);
+            assertThat(stats.rejected()).isEqualTo(1);
+            assertThat(stats.completed()).isEqualTo(2);
+            assertThat(stats.inFlight()).isEqualTo(0);
+            assertThat(stats.allowedRequests()).isEqualTo(42);
+            assertThat(stats.updateDemandRate()).isGreaterThan(0.0);
+            // no request since the last lease
+            assertThat(stats.updateDemandRate()).isEqualTo(0.0);
+
+            stats.snapshot(7);
+            assertThat(stats.last().getAccepted()).isEqualTo(3);
+            assertThat(stats.last().getTtlMillis()).isEqualTo(1_500);
+            assertThat(stats.last().getIntervalRequests()).isEqualTo(2);
+            assertThat(stats.last().getTimestamp()).isEqualTo(7);
+        }
+    }
+
+    @Test
+    void terminatedConnectionIsUnregisteredWithItsMeters() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        try (LeaseStatsRegistry registry = new LeaseStatsRegistry(ServerRoleEnum.SERVER)) {
+            ConnectionLeaseStats first = registry.create();
+            registry.bindTo(meterRegistry);
+            ConnectionLeaseStats second = registry.create();
+            first.onEvent(LeaseStats.EventType.ACCEPT);
+            assertThat(registry.connections()).containsExactly(first, second);
+            assertThat(meterRegistry.get("rsocket.lease.accepted").tags("slot", "0").functionCounter().count()).isEqualTo(1.0);
+            assertThat(meterRegistry.get("rsocket.lease.accepted").tags("slot", "1").functionCounter().count()).isEqualTo(0.0);
+
+            first.onEvent(LeaseStats.EventType.TERMINATE);
+
+            assertThat(registry.connections()).containsExactly(second);
+            assertThat(registry.slot(first)).isEqualTo(-1);
+            assertThat(meterRegistry.find("rsocket.lease.accepted").tags("slot", "0").meters()).isEmpty();
+            assertThat(meterRegistry.find("rsocket.lease.latency").tags("slot", "0").meters()).isEmpty();
+            // terminated twice, by RSocket and by the end of its leases
+            registry.unregister(first);
+            assertThat(registry.connections()).containsExactly(second);
+        }
+    }
+
+    @Test
+    void slotOfATerminatedConnectionIsReused() {
+        try (LeaseStatsRegistry registry = new LeaseStatsRegistry(ServerRoleEnum.CLIENT)) {
+            ConnectionLeaseStats first = registry.create();
+            ConnectionLeaseStats second = registry.create();
+            assertThat(registry.slot(first)).isEqualTo(0);
+            assertThat(registry.slot(second)).isEqualTo(1);
+
+            registry.unregister(first);
+            ConnectionLeaseStats third = registry.create();
+
+            assertThat(registry.slot(third)).isEqualTo(0);
+            // the connection sequence is not reused
+            assertThat(third.getConnection()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    void acceptedRequestIsTakenOnceByTheThreadThatCheckedItsLease() throws Exception {
+        try (LeaseStatsRegistry registry = new LeaseStatsRegistry(ServerRoleEnum.SERVER)) {
+            ConnectionLeaseStats first = registry.create();
+            ConnectionLeaseStats second = registry.create();
+            assertThat(ConnectionLeaseStats.takeAccepted()).isNull();
+
+            // a rejected request leaves nothing to take
+            first.onEvent(LeaseStats.EventType.REJECT);
+            assertThat(ConnectionLeaseStats.takeAccepted()).isNull();
+
+            first.onEvent(LeaseStats.EventType.ACCEPT);
+            second.onEvent(LeaseStats.EventType.ACCEPT);
+            assertThat(ConnectionLeaseStats.takeAccepted()).isSameAs(second);
+            assertThat(ConnectionLeaseStats.takeAccepted()).isNull();
+
+            // the event loops of the two connections check and take their requests concurrently
+            ExecutorService loops = Executors.newFixedThreadPool(2);
+            try {
+                Future<Integer> misses = loops.submit(() -> checkAndTake(first, 10_000));
+                Future<Integer> otherMisses = loops.submit(() -> checkAndTake(second, 10_000));
+                assertThat(misses.get(30, TimeUnit.SECONDS)).isEqualTo(0);
+                assertThat(otherMisses.get(30, TimeUnit.SECONDS)).isEqualTo(0);
+            } finally {
+                loops.shutdown();
+            }
+            assertThat(first.accepted()).isEqualTo(10_001);
+            assertThat(second.accepted()).isEqualTo(10_001);
+        }
+    }
+
+    /**
+     * @return the requests not attributed to their connection
+     */
+    private static int checkAndTake(ConnectionLeaseStats stats, int requests) {
+        int misses = 0;
+        for (int i = 0; i < requests; i++) {
+            stats.onEvent(LeaseStats.EventType.ACCEPT);
+            if (ConnectionLeaseStats.takeAccepted() != stats) {
+                misses++;
+            }
+        }
+        return misses;
+    }
+}
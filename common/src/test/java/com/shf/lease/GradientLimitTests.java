@@ -0,0 +1,125 @@
+package com.shf.lease;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class GradientLimitTests {
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void limitGrowsWhileTheLatencyIsSteady() {
+        GradientLimit limit = new GradientLimit(properties());
+        double previous = limit.getLimit();
+        for (int window = 0; window < 20; window++) {
+            sample(limit, RTT, (int) limit.getLimit());
+            limit.update();
+
+            assertThat(limit.getGradient()).isEqualTo(1.0);
+            assertThat(limit.getLimit()).isGreaterThan(previous);
+            previous = limit.getLimit();
+        }
+        assertThat(limit.getRttNanos()).isEqualTo((double) RTT);
+    }
+
+    @Test
+    void limitShrinksAsTheLatencyRises() {
+        GradientLimit limit = new GradientLimit(properties());
+        for (int window = 0; window < 10; window++) {
+            sample(limit, RTT, (int) limit.getLimit());
+            limit.update();
+        }
+        double steady = limit.getLimit();
+
+        // the tolerance absorbs a small rise
+        sample(limit, RTT * 14 / 10, (int) limit.getLimit());
+        limit.update();
+        assertThat(limit.getGradient()).isEqualTo(1.0);
+
+        double previous = limit.getLimit();
+        for (int window = 0; window < 5; window++) {
+            sample(limit, RTT * 10, (int) limit.getLimit());
+            limit.update();
+
+            assertThat(limit.getGradient()).isLessThan(1.0).isGreaterThanOrEqualTo(0.5);
+            assertThat(limit.getLimit()).isLessThan(previous);
+            previous = limit.getLimit();
+        }
+        assertThat(limit.getLimit()).isLessThan(steady);
+        assertThat(limit.getRttNanos()).isEqualTo((double) RTT * 10);
+    }
+
+    @Test
+    void gradientFollowsTheRatioOfTheLongToTheShortLatency() {
+        AdaptiveLeaseProperties properties = properties();
+        GradientLimit limit = new GradientLimit(properties);
+        sample(limit, RTT, 0);
+        limit.update();
+
+        sample(limit, RTT * 2, 0);
+        limit.update();
+
+        double longRtt = RTT + (RTT * 2 - RTT) / (double) properties.getLongWindows();
+        assertThat(limit.getGradient()).isCloseTo(properties.getRttTolerance() * longRtt / (RTT * 2), within(1e-9));
+    }
+
+    @Test
+    void limitStaysWithinItsBoundsAndDoesNotGrowWhenMostlyUnused() {
+        AdaptiveLeaseProperties properties = properties();
+        properties.setMaxLimit(30);
+        properties.setMinLimit(10);
+        GradientLimit limit = new GradientLimit(properties);
+
+        // less than half of the limit in use
+        sample(limit, RTT, 9);
+        limit.update();
+        assertThat(limit.getLimit()).isEqualTo(20.0);
+
+        for (int window = 0; window < 50; window++) {
+            sample(limit, RTT, (int) limit.getLimit());
+            limit.update();
+        }
+        assertThat(limit.getLimit()).isEqualTo(30.0);
+
+        // a latency rising faster than the long term average can follow
+        for (int window = 0; window < 50; window++) {
+            sample(limit, (long) (RTT * Math.pow(1.5, window + 1)), (int) limit.getLimit());
+            limit.update();
+        }
+        assertThat(limit.getLimit()).isEqualTo(10.0);
+    }
+
+    @Test
+    void windowWithoutSamplesKeepsTheLimit() {
+        AdaptiveLeaseProperties properties = properties();
+        properties.setWindow(Duration.ofHours(1));
+        GradientLimit limit = new GradientLimit(properties);
+        sample(limit, RTT, 20);
+        limit.update();
+        assertThat(limit.getRttNanos()).isEqualTo(0.0);
+
+        GradientLimit empty = new GradientLimit(properties());
+        empty.update();
+        assertThat(empty.getLimit()).isEqualTo(20.0);
+        assertThat(empty.getGradient()).isEqualTo(0.5);
+    }
+
+    /**
+     * A window of zero, every update closes one.
+     */
+    static AdaptiveLeaseProperties properties() {
+        AdaptiveLeaseProperties properties = new AdaptiveLeaseProperties();
+        properties.setWindow(Duration.ZERO);
+        return properties;
+    }
+
+    private static void sample(GradientLimit limit, long rttNanos, int inflight) {
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(rttNanos, inflight);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.shf.metadata;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rsocket.Payload;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.ByteBufPayload;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Decoder;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.messaging.rsocket.MetadataExtractor;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LazyMetadataExtractorTests {
+    private static final MimeType COMPOSITE = MimeType.valueOf(WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString());
+    private static final String ROUTING = WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString();
+    private static final MimeType TENANT = MimeType.valueOf("text/x.tenant");
+    private static final MimeType TRACE = MimeType.valueOf("text/x.trace");
+
+    private final CountingDecoder decoder = new CountingDecoder();
+    private final LazyMetadataExtractor extractor = new LazyMetadataExtractor(Collections.singletonList(decoder));
+
+    @Test
+    void entryIsDecodedOnceOnItsFirstAccess() {
+        extractor.metadataToExtract(TENANT, String.class, "tenant");
+        Payload payload = payload("user.get", TENANT, "acme");
+
+        Map<String, Object> headers = extractor.extract(payload, COMPOSITE);
+        payload.release();
+
+        assertThat(headers).containsEntry(MetadataExtractor.ROUTE_KEY, "user.get");
+        assertThat(headers.get("tenant")).isInstanceOf(LazyMetadataValue.class);
+        assertThat(decoder.decoded.get()).isZero();
+
+        LazyMetadataValue tenant = (LazyMetadataValue) headers.get("tenant");
+        assertThat(tenant.get()).isEqualTo("acme");
+        assertThat(tenant.get()).isEqualTo("acme");
+        assertThat(LazyMetadataValue.resolve(tenant)).isEqualTo("acme");
+        assertThat(decoder.decoded.get()).isEqualTo(1);
+    }
+
+    @Test
+    void unusedEntriesAreNeverDecoded() {
+        extractor.metadataToExtract(TENANT, String.class, "tenant");
+        extractor.metadataToExtract(TRACE, String.class, "trace");
+        Payload payload = payload("user.get", TENANT, "acme", TRACE, "0af7651916cd43dd");
+
+        Map<String, Object> headers = extractor.extract(payload, COMPOSITE);
+        payload.release();
+        assertThat(LazyMetadataValue.resolve(headers.get("trace"))).isEqualTo("0af7651916cd43dd");
+
+        assertThat(decoder.decoded.get()).isEqualTo(1);
+        assertThat(headers.get("tenant")).isInstanceOf(LazyMetadataValue.class);
+    }
+
+    @Test
+    void entryOfTheConnectionMimeTypeIsLazyToo() {
+        extractor.metadataToExtract(TENANT, String.class, "tenant");
+        Payload payload = ByteBufPayload.create(Unpooled.EMPTY_BUFFER, ByteBufAllocator.DEFAULT.buffer().writeBytes(bytes("acme")));
+
+        Map<String, Object> headers = extractor.extract(payload, TENANT);
+        payload.release();
+
+        assertThat(decoder.decoded.get()).isZero();
+        assertThat(LazyMetadataValue.resolve(headers.get("tenant"))).isEqualTo("acme");
+        assertThat(decoder.decoded.get()).isEqualTo(1);
+    }
+
+    @Test
+    void frameIsNotRetainedAndTheValueOutlivesIt() {
+        extractor.metadataToExtract(TENANT, String.class, "tenant");
+        Payload payload = payload("user.get", TENANT, "acme");
+
+        Map<String, Object> headers = extractor.extract(payload, COMPOSITE);
+        assertThat(payload.metadata().refCnt()).isEqualTo(1);
+        assertThat(payload.release()).isTrue();
+        assertThat(payload.refCnt()).isZero();
+
+        // decoded from the heap copy, the pooled frame buffers may already be reused
+        assertThat(LazyMetadataValue.resolve(headers.get("tenant"))).isEqualTo("acme");
+    }
+
+    @Test
+    void converterDecodesTheHeaderOfAHeaderParameter() {
+        extractor.metadataToExtract(TENANT, String.class, "tenant");
+        Payload payload = payload("user.get", TENANT, "acme");
+        Map<String, Object> headers = extractor.extract(payload, COMPOSITE);
+        payload.release();
+        LazyMetadataConverter converter = new LazyMetadataConverter();
+        TypeDescriptor source = TypeDescriptor.valueOf(LazyMetadataValue.class);
+        TypeDescriptor target = TypeDescriptor.valueOf(String.class);
+
+        assertThat(converter.convert(headers.get("tenant"), source, target)).isEqualTo("acme");
+        assertThat(converter.convert(headers.get("tenant"), source, target)).isEqualTo("acme");
+        assertThat(converter.convert(null, source, target)).isNull();
+        assertThat(decoder.decoded.get()).isEqualTo(1);
+    }
+
+    /**
+     * @param entries mime type and value pairs, after the route
+     */
+    private static Payload payload(String route, Object... entries) {
+        CompositeByteBuf metadata = ByteBufAllocator.DEFAULT.compositeBuffer();
+        byte[] routeBytes = bytes(route);
+        MetadataDictionary.addEntry(metadata, ROUTING,
+                ByteBufAllocator.DEFAULT.buffer().writeByte(routeBytes.length).writeBytes(routeBytes));
+        for (int i = 0; i < entries.length; i += 2) {
+            MetadataDictionary.addEntry(metadata, entries[i].toString(),
+                    ByteBufAllocator.DEFAULT.buffer().writeBytes(bytes((String) entries[i + 1])));
+        }
+        return ByteBufPayload.create(Unpooled.EMPTY_BUFFER, metadata);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A text decoder counting the values it decodes.
+     */
+    private static final class CountingDecoder implements Decoder<String> {
+        private final StringDecoder delegate = StringDecoder.allMimeTypes();
+        private final AtomicInteger decoded = new AtomicInteger();
+
+        @Override
+        public boolean canDecode(ResolvableType elementType, MimeType mimeType) {
+            return delegate.canDecode(elementType, mimeType);
+        }
+
+        @Override
+        public Flux<String> decode(Publisher<DataBuffer> inputStream, ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+            return delegate.decode(inputStream, elementType, mimeType, hints).doOnNext(value -> decoded.incrementAndGet());
+        }
+
+        @Override
+        public Mono<String> decodeToMono(Publisher<DataBuffer> inputStream, ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+            return delegate.decodeToMono(inputStream, elementType, mimeType, hints).doOnNext(value -> decoded.incrementAndGet());
+        }
+
+        @Override
+        public String decode(DataBuffer buffer, ResolvableType targetType, MimeType mimeType, Map<String, Object> hints) {
+            decoded.incrementAndGet();
+            return delegate.decode(buffer, targetType, mimeType, hints);
+        }
+
+        @Override
+        public List<MimeType> getDecodableMimeTypes() {
+            return delegate.getDecodableMimeTypes();
+        }
+    }
+}
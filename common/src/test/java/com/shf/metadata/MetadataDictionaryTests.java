@@ -0,0 +1,230 @@
+package com.shf.metadata;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.metadata.CompositeMetadata;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.DefaultPayload;
+import io.rsocket.util.RSocketProxy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import reactor.core.publisher.Mono;
+
+import static com.shf.metadata.MetadataDictionary.COMPACT_MIME_TYPE_VALUE;
+import static com.shf.metadata.MetadataDictionary.DEFINE;
+import static com.shf.metadata.MetadataDictionary.LITERAL;
+import static com.shf.metadata.MetadataDictionary.REFERENCE;
+import static com.shf.mimetype.MimeTypes.MAP_MIME_TYPE;
+import static com.shf.mimetype.MimeTypes.SECURITY_TOKEN_MIME_TYPE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetadataDictionaryTests {
+    private static final String TOKEN = SECURITY_TOKEN_MIME_TYPE.toString();
+    private static final String MAP = MAP_MIME_TYPE.toString();
+    private static final String ROUTING = WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString();
+    private static final int MAX_VALUE_SIZE = 16;
+
+    private final Handler handler = new Handler();
+    private Wire wire;
+    private DictionaryRequester requester;
+
+    @BeforeEach
+    void connect() {
+        String[] mimeTypes = {TOKEN, MAP};
+        DictionaryResponder responder = new DictionaryResponder(handler, mimeTypes, 4, MAX_VALUE_SIZE);
+        // the metadata pushes complete at once, a definition is ready for the next request
+        wire = new Wire(responder);
+        requester = new DictionaryRequester(wire, Arrays.asList(mimeTypes), Collections.singletonList(TOKEN), 4, MAX_VALUE_SIZE);
+    }
+
+    @Test
+    void referencedValueIsSentInFullUntilDefinedThenAsAReference() {
+        for (int i = 0; i < 3; i++) {
+            requester.requestResponse(payload(ROUTING, "user", TOKEN, "token", MAP, "{\"a\":" + i + "}")).block();
+        }
+
+        assertThat(wire.pushes).containsExactly(Collections.singletonList(DEFINE));
+        assertThat(wire.requests).containsExactly(Arrays.asList(LITERAL, LITERAL), Arrays.asList(REFERENCE, LITERAL), Arrays.asList(REFERENCE, LITERAL));
+        assertThat(handler.requests).containsExactly(
+                Arrays.asList(ROUTING + "=user", TOKEN + "=token", MAP + "={\"a\":0}"),
+                Arrays.asList(ROUTING + "=user", TOKEN + "=token", MAP + "={\"a\":1}"),
+                Arrays.asList(ROUTING + "=user", TOKEN + "=token", MAP + "={\"a\":2}"));
+    }
+
+    @Test
+    void valueOverTheMaxSizeIsNeverReferenced() {
+        String token = "a-token-of-more-than-16-bytes";
+        requester.requestResponse(payload(TOKEN, token)).block();
+        requester.requestResponse(payload(TOKEN, token)).block();
+
+        assertThat(wire.pushes).isEmpty();
+        assertThat(wire.requests).containsExactly(Collections.singletonList(LITERAL), Collections.singletonList(LITERAL));
+        assertThat(handler.requests).containsExactly(Collections.singletonList(TOKEN + "=" + token), Collections.singletonList(TOKEN + "=" + token));
+    }
+
+    @Test
+    void metadataWithoutDictionaryEntriesIsPassedAsIs() {
+        Payload payload = payload(ROUTING, "user");
+        requester.requestResponse(payload).block();
+
+        assertThat(wire.requests).containsExactly(Collections.emptyList());
+        assertThat(handler.requests).containsExactly(Collections.singletonList(ROUTING + "=user"));
+    }
+
+    @Test
+    void unknownReferenceIsRejected() {
+        DictionaryResponder responder = new DictionaryResponder(handler, new String[]{TOKEN}, 4, MAX_VALUE_SIZE);
+        ByteBuf compact = Unpooled.buffer().writeByte(0).writeByte(REFERENCE).writeShort(2);
+
+        assertThatThrownBy(() -> responder.requestResponse(compact(compact)).block())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Unknown metadata reference 2");
+        assertThat(handler.requests).isEmpty();
+    }
+
+    @Test
+    void definitionOutOfRangeOrOverTheMaxSizeIsRejected() {
+        DictionaryResponder responder = new DictionaryResponder(handler, new String[]{TOKEN}, 4, MAX_VALUE_SIZE);
+        ByteBuf outOfRange = Unpooled.buffer().writeByte(0).writeByte(DEFINE).writeShort(4).writeInt(1).writeByte('a');
+        ByteBuf tooLarge = Unpooled.buffer().writeByte(0).writeByte(DEFINE).writeShort(0).writeInt(MAX_VALUE_SIZE + 1)
+                .writeBytes(new byte[MAX_VALUE_SIZE + 1]);
+
+        assertThatThrownBy(() -> responder.metadataPush(compact(outOfRange)).block())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("out of range");
+        assertThatThrownBy(() -> responder.metadataPush(compact(tooLarge)).block())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("over " + MAX_VALUE_SIZE);
+    }
+
+    @Test
+    void definedReferenceExpandsToItsEntry() {
+        DictionaryResponder responder = new DictionaryResponder(handler, new String[]{TOKEN, MAP}, 4, MAX_VALUE_SIZE);
+        ByteBuf define = Unpooled.buffer().writeByte(0).writeByte(DEFINE).writeShort(3).writeInt(5).writeBytes(bytes("token"));
+        responder.metadataPush(compact(define)).block();
+
+        ByteBuf compact = Unpooled.buffer().writeByte(1).writeByte(LITERAL).writeInt(2).writeBytes(bytes("{}"))
+                .writeByte(0).writeByte(REFERENCE).writeShort(3);
+        responder.requestResponse(compact(compact)).block();
+
+        assertThat(handler.pushes).isZero();
+        assertThat(handler.requests).containsExactly(Arrays.asList(MAP + "={}", TOKEN + "=token"));
+    }
+
+    /**
+     * @param entries mime type and value pairs
+     */
+    private static Payload payload(String... entries) {
+        CompositeByteBuf metadata = ByteBufAllocator.DEFAULT.compositeBuffer();
+        for (int i = 0; i < entries.length; i += 2) {
+            MetadataDictionary.addEntry(metadata, entries[i], Unpooled.wrappedBuffer(bytes(entries[i + 1])));
+        }
+        return ByteBufPayload.create(Unpooled.wrappedBuffer(bytes("data")), metadata);
+    }
+
+    private static Payload compact(ByteBuf compact) {
+        return payload(COMPACT_MIME_TYPE_VALUE, compact);
+    }
+
+    private static Payload payload(String mimeType, ByteBuf content) {
+        CompositeByteBuf metadata = ByteBufAllocator.DEFAULT.compositeBuffer();
+        MetadataDictionary.addEntry(metadata, mimeType, content);
+        return ByteBufPayload.create(Unpooled.EMPTY_BUFFER, metadata);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the kinds of the compact entries of the metadata, in order
+     */
+    private static List<Byte> kinds(ByteBuf metadata) {
+        List<Byte> kinds = new ArrayList<>();
+        for (CompositeMetadata.Entry entry : new CompositeMetadata(metadata, false)) {
+            if (!COMPACT_MIME_TYPE_VALUE.equals(entry.getMimeType())) {
+                continue;
+            }
+            ByteBuf compact = entry.getContent();
+            while (compact.isReadable()) {
+                compact.skipBytes(1);
+                byte kind = compact.readByte();
+                kinds.add(kind);
+                if (kind == LITERAL) {
+                    compact.skipBytes(compact.readInt());
+                } else if (kind == REFERENCE) {
+                    compact.skipBytes(2);
+                } else {
+                    compact.skipBytes(2);
+                    compact.skipBytes(compact.readInt());
+                }
+            }
+        }
+        return kinds;
+    }
+
+    /**
+     * Records the compact entries between the requester and the responder.
+     */
+    private static final class Wire extends RSocketProxy {
+        private final List<List<Byte>> requests = new ArrayList<>();
+        private final List<List<Byte>> pushes = new ArrayList<>();
+
+        Wire(RSocket source) {
+            super(source);
+        }
+
+        @Override
+        public Mono<Payload> requestResponse(Payload payload) {
+            requests.add(kinds(payload.metadata()));
+            return super.requestResponse(payload);
+        }
+
+        @Override
+        public Mono<Void> metadataPush(Payload payload) {
+            pushes.add(kinds(payload.metadata()));
+            return super.metadataPush(payload);
+        }
+    }
+
+    /**
+     * Records the expanded metadata the handlers would see.
+     */
+    private static final class Handler extends AbstractRSocket {
+        private final List<List<String>> requests = new ArrayList<>();
+        private int pushes;
+
+        @Override
+        public Mono<Payload> requestResponse(Payload payload) {
+            List<String> entries = new ArrayList<>();
+            for (CompositeMetadata.Entry entry : new CompositeMetadata(payload.metadata(), false)) {
+                entries.add(entry.getMimeType() + "=" + entry.getContent().toString(StandardCharsets.UTF_8));
+            }
+            requests.add(entries);
+            payload.release();
+            return Mono.just(DefaultPayload.create("ok"));
+        }
+
+        @Override
+        public Mono<Void> metadataPush(Payload payload) {
+            pushes++;
+            payload.release();
+            return Mono.empty();
+        }
+    }
+}
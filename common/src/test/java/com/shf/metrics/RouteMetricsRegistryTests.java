@@ -0,0 +1,74 @@
+package com.shf.metrics;
+
+import com.shf.entity.RouteSnapshot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.frame.FrameType;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RouteMetricsRegistryTests {
+
+    @Test
+    void registersOneRecorderPerKeyAndInteraction() {
+        try (RouteMetricsRegistry registry = new RouteMetricsRegistry()) {
+            Object handler = new Object();
+            assertThat(registry.get(handler, FrameType.REQUEST_RESPONSE)).isNull();
+
+            RouteMetrics response = registry.register(handler, "user.get", FrameType.REQUEST_RESPONSE);
+            assertThat(registry.register(handler, "user.get", FrameType.REQUEST_RESPONSE)).isSameAs(response);
+            assertThat(registry.get(handler, FrameType.REQUEST_RESPONSE)).isSameAs(response);
+
+            RouteMetrics stream = registry.register(handler, "user.get", FrameType.REQUEST_STREAM);
+            assertThat(stream).isNotSameAs(response);
+            assertThat(stream.getInteraction()).isEqualTo("REQUEST_STREAM");
+            assertThat(registry.get(new Object(), FrameType.REQUEST_RESPONSE)).isNull();
+        }
+    }
+
+    @Test
+    void snapshotsEveryRouteEachPeriod() throws InterruptedException {
+        try (RouteMetricsRegistry registry = new RouteMetricsRegistry(Duration.ofMillis(20))) {
+            RouteMetrics metrics = registry.register(new Object(), "user.get", FrameType.REQUEST_RESPONSE);
+            metrics.stop(metrics.start(0), false);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (registry.snapshot().isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            List<RouteSnapshot> snapshots = registry.snapshot();
+            assertThat(snapshots).hasSize(1);
+            assertThat(snapshots.get(0).getRoute()).isEqualTo("user.get");
+            assertThat(snapshots.get(0).getRequests()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void bindsTheRoutesRegisteredBeforeAndAfterTheMeterRegistry() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        try (RouteMetricsRegistry registry = new RouteMetricsRegistry()) {
+            RouteMetrics before = registry.register(new Object(), "user.get", FrameType.REQUEST_RESPONSE);
+            registry.bindTo(meterRegistry);
+            RouteMetrics after = registry.register(new Object(), "user.list", FrameType.REQUEST_STREAM);
+
+            before.stop(before.start(100), true);
+            after.start(0);
+            after.responseBytes(30);
+
+            assertThat(meterRegistry.get("rsocket.route.requests").tags("route", "user.get", "interaction", "REQUEST_RESPONSE")
+                    .functionCounter().count()).isEqualTo(1.0);
+            assertThat(meterRegistry.get("rsocket.route.errors").tags("route", "user.get").functionCounter().count()).isEqualTo(1.0);
+            assertThat(meterRegistry.get("rsocket.route.request.bytes").tags("route", "user.get").functionCounter().count()).isEqualTo(100.0);
+            assertThat(meterRegistry.get("rsocket.route.in.flight").tags("route", "user.list", "interaction", "REQUEST_STREAM")
+                    .gauge().value()).isEqualTo(1.0);
+            assertThat(meterRegistry.get("rsocket.route.response.bytes").tags("route", "user.list").functionCounter().count()).isEqualTo(30.0);
+            assertThat(meterRegistry.get("rsocket.route.latency").tags("route", "user.get").meters()).hasSize(4);
+        }
+    }
+}
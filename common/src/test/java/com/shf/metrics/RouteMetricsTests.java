@@ -0,0 +1,76 @@
+package com.shf.metrics;
+
+import com.shf.entity.RouteSnapshot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RouteMetricsTests {
+
+    @Test
+    void countsRequestsErrorsBytesAndInFlight() {
+        RouteMetrics metrics = new RouteMetrics("user.get", "REQUEST_RESPONSE");
+
+        long first = metrics.start(10);
+        long second = metrics.start(0);
+        metrics.requestBytes(5);
+        assertThat(metrics.inFlight()).isEqualTo(2);
+
+        metrics.responseBytes(20);
+        metrics.stop(first, false);
+        metrics.stop(second, true);
+
+        assertThat(metrics.requests()).isEqualTo(2);
+        assertThat(metrics.errors()).isEqualTo(1);
+        assertThat(metrics.inFlight()).isEqualTo(0);
+        assertThat(metrics.requestBytes()).isEqualTo(15);
+        assertThat(metrics.responseBytes()).isEqualTo(20);
+    }
+
+    @Test
+    void failureBeforeReplyingIsAnErrorWithoutLatency() {
+        RouteMetrics metrics = new RouteMetrics("user.get", "REQUEST_RESPONSE");
+
+        metrics.start(0);
+        metrics.fail();
+        RouteSnapshot snapshot = metrics.snapshot(42);
+
+        assertThat(snapshot.getRequests()).isEqualTo(1);
+        assertThat(snapshot.getErrors()).isEqualTo(1);
+        assertThat(snapshot.getInFlight()).isEqualTo(0);
+        assertThat(snapshot.getIntervalRequests()).isEqualTo(0);
+    }
+
+    @Test
+    void snapshotSummarizesTheLatenciesOfItsIntervalOnly() {
+        RouteMetrics metrics = new RouteMetrics("user.get", "REQUEST_RESPONSE");
+        assertThat(metrics.last().getRequests()).isEqualTo(0);
+
+        for (int i = 0; i < 10; i++) {
+            long start = metrics.start(0);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+            metrics.stop(start, false);
+        }
+        RouteSnapshot snapshot = metrics.snapshot(42);
+
+        assertThat(metrics.last()).isSameAs(snapshot);
+        assertThat(snapshot.getRoute()).isEqualTo("user.get");
+        assertThat(snapshot.getInteraction()).isEqualTo("REQUEST_RESPONSE");
+        assertThat(snapshot.getTimestamp()).isEqualTo(42);
+        assertThat(snapshot.getRequests()).isEqualTo(10);
+        assertThat(snapshot.getIntervalRequests()).isEqualTo(10);
+        assertThat(snapshot.getP50Micros()).isGreaterThanOrEqualTo(1_900);
+        assertThat(snapshot.getP99Micros()).isGreaterThanOrEqualTo(snapshot.getP50Micros());
+        assertThat(snapshot.getMaxMicros()).isGreaterThanOrEqualTo(snapshot.getP99Micros());
+
+        // the next interval is empty, the totals carry on
+        RouteSnapshot next = metrics.snapshot(43);
+        assertThat(next.getIntervalRequests()).isEqualTo(0);
+        assertThat(next.getP99Micros()).isEqualTo(0);
+        assertThat(next.getRequests()).isEqualTo(10);
+    }
+}
@@ -0,0 +1,163 @@
+package com.shf.pool;
+
+import com.shf.lease.LeaseReceiver;
+import com.shf.lease.ServerRoleEnum;
+
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Closeable;
+import io.rsocket.Payload;
+import io.rsocket.RSocketFactory;
+import io.rsocket.lease.Lease;
+import io.rsocket.lease.Leases;
+import io.rsocket.transport.ClientTransport;
+import io.rsocket.transport.local.LocalClientTransport;
+import io.rsocket.transport.local.LocalServerTransport;
+import io.rsocket.util.DefaultPayload;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeTypeUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Balances over in-JVM servers which handle one request at a time, each one of a fixed service time.
+ * The assertions are on the split of the requests over the servers, not on timings.
+ */
+class RSocketPoolTests {
+    private static final Duration SERVICE_TIME = Duration.ofMillis(1);
+    private static final int CONCURRENCY = 16;
+    private static final AtomicInteger NAMES = new AtomicInteger();
+
+    @Test
+    void requestsAreSpreadOverEquivalentServers() {
+        List<Server> servers = Arrays.asList(new Server(1_000_000), new Server(1_000_000), new Server(1_000_000));
+        RSocketRequester requester = requester(servers);
+        try {
+            send(requester, 600);
+
+            assertThat(servers.stream().mapToInt(server -> server.handled.get()).sum()).isEqualTo(600);
+            // an even split is 200 each, no server is left out or takes most of them
+            for (Server server : servers) {
+                assertThat(server.handled.get()).isBetween(60, 340);
+            }
+        } finally {
+            requester.rsocket().dispose();
+            servers.forEach(Server::dispose);
+        }
+    }
+
+    @Test
+    void slowerServerIsSentFewerRequests() {
+        Server fast = new Server(1_000_000);
+        Server slow = new Server(1_000_000, SERVICE_TIME.multipliedBy(20));
+        RSocketRequester requester = requester(Arrays.asList(fast, slow));
+        try {
+            send(requester, 400);
+
+            assertThat(fast.handled.get() + slow.handled.get()).isEqualTo(400);
+            assertThat(fast.handled.get()).isGreaterThan(2 * slow.handled.get());
+        } finally {
+            requester.rsocket().dispose();
+            fast.dispose();
+            slow.dispose();
+        }
+    }
+
+    @Test
+    void exhaustedLeaseIsAvoidedInsteadOfFailing() {
+        // a single lease of 5 requests for the whole test
+        Server exhausted = new Server(5);
+        Server available = new Server(1_000_000);
+        RSocketRequester requester = requester(Arrays.asList(exhausted, available));
+        try {
+            List<String> responses = Flux.range(0, 100)
+                    .flatMap(i -> requester.route("ping").data("ping").retrieveMono(String.class), CONCURRENCY)
+                    .collectList()
+                    .block(Duration.ofSeconds(30));
+
+            assertThat(responses).hasSize(100).containsOnly("pong");
+            assertThat(exhausted.handled.get()).isLessThanOrEqualTo(5);
+            assertThat(available.handled.get()).isGreaterThanOrEqualTo(95);
+        } finally {
+            requester.rsocket().dispose();
+            exhausted.dispose();
+            available.dispose();
+        }
+    }
+
+    private static void send(RSocketRequester requester, int requests) {
+        List<String> responses = Flux.range(0, requests)
+                .flatMap(i -> requester.route("ping").data("ping").retrieveMono(String.class), CONCURRENCY)
+                .collectList()
+                .block(Duration.ofSeconds(30));
+        assertThat(responses).hasSize(requests).containsOnly("pong");
+    }
+
+    private static RSocketRequester requester(List<Server> servers) {
+        List<ClientTransport> transports = new ArrayList<>();
+        servers.forEach(server -> transports.add(LocalClientTransport.create(server.name)));
+        RSocketPoolProperties properties = new RSocketPoolProperties();
+        properties.setSize(1);
+        RSocketStrategies strategies = RSocketStrategies.create();
+        RSocketRequester.Builder builder = RSocketRequester.builder()
+                .rsocketStrategies(strategies)
+                .dataMimeType(MimeTypeUtils.TEXT_PLAIN)
+                .rsocketFactory(factory -> factory.lease(() -> Leases.create().receiver(new LeaseReceiver(ServerRoleEnum.CLIENT))));
+        RSocketRequester requester = RSocketPool.requester(builder, transports, strategies, properties).block(Duration.ofSeconds(10));
+        // the pool is returned on its first connection, wait for the others and their leases
+        Mono.fromCallable(() -> requester.rsocket().availability())
+                .filter(availability -> availability > 0)
+                .repeatWhenEmpty(attempts -> attempts.delayElements(Duration.ofMillis(10)))
+                .block(Duration.ofSeconds(10));
+        Mono.delay(Duration.ofMillis(100)).block();
+        return requester;
+    }
+
+    private static final class Server {
+        private final String name = "pool-" + NAMES.incrementAndGet();
+        private final AtomicInteger handled = new AtomicInteger();
+        private final AtomicLong busyUntil = new AtomicLong();
+        private final Duration serviceTime;
+        private final Closeable closeable;
+
+        Server(int allowedRequests) {
+            this(allowedRequests, SERVICE_TIME);
+        }
+
+        Server(int allowedRequests, Duration serviceTime) {
+            this.serviceTime = serviceTime;
+            closeable = RSocketFactory.receive()
+                    .lease(() -> Leases.create().sender(stats -> Flux.just(Lease.create(60_000, allowedRequests)).concatWith(Flux.never())))
+                    .acceptor((setup, sendingSocket) -> Mono.just(new AbstractRSocket() {
+                        @Override
+                        public Mono<Payload> requestResponse(Payload payload) {
+                            payload.release();
+                            handled.incrementAndGet();
+                            // queue behind the requests in progress
+                            long now = System.nanoTime();
+                            long done = busyUntil.accumulateAndGet(now, (busy, at) -> Math.max(busy, at) + this.serviceTime.toNanos());
+                            return Mono.delay(Duration.ofNanos(done - now)).map(tick -> DefaultPayload.create("pong"));
+                        }
+                    }))
+                    .transport(LocalServerTransport.create(name))
+                    .start()
+                    .block();
+        }
+
+        void dispose() {
+            closeable.dispose();
+        }
+    }
+}
@@ -1,23 +1,27 @@
 package com.shf.pingpong;
 
+import com.shf.transport.NettyTransportFactory;
+import com.shf.transport.NettyTransportProperties;
+
 import io.rsocket.AbstractRSocket;
 import io.rsocket.ConnectionSetupPayload;
 import io.rsocket.Payload;
 import io.rsocket.RSocket;
 import io.rsocket.RSocketFactory;
 import io.rsocket.SocketAcceptor;
-import io.rsocket.transport.netty.client.TcpClientTransport;
-import io.rsocket.transport.netty.server.TcpServerTransport;
 import io.rsocket.util.DefaultPayload;
 
 import org.reactivestreams.Publisher;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
 import org.springframework.core.Ordered;
 import org.springframework.stereotype.Component;
 
+import java.net.InetSocketAddress;
 import java.time.Duration;
 
 import lombok.extern.slf4j.Slf4j;
@@ -31,6 +35,7 @@ import reactor.core.publisher.Mono;
  * @date: 2019/11/19 16:41
  */
 @SpringBootApplication
+@EnableConfigurationProperties(NettyTransportProperties.class)
 public class PingPong {
 
     static String reply(String in) {
@@ -46,6 +51,17 @@ public class PingPong {
     public static void main(String[] args) {
         SpringApplication.run(PingPong.class, args);
     }
+
+    /**
+     * The event loops and the socket options of both sides, from `spring.rsocket.netty`.
+     *
+     * @param properties NettyTransportProperties
+     * @return NettyTransportFactory
+     */
+    @Bean(destroyMethod = "dispose")
+    public NettyTransportFactory nettyTransportFactory(NettyTransportProperties properties) {
+        return new NettyTransportFactory(properties);
+    }
 }
 
 /**
@@ -54,6 +70,11 @@ public class PingPong {
 @Slf4j
 @Component
 class Ping implements ApplicationListener<ApplicationReadyEvent>, Ordered {
+    private final NettyTransportFactory transportFactory;
+
+    Ping(NettyTransportFactory transportFactory) {
+        this.transportFactory = transportFactory;
+    }
 
     @Override
     public void onApplicationEvent(ApplicationReadyEvent applicationReadyEvent) {
@@ -63,7 +84,7 @@ class Ping implements ApplicationListener<ApplicationReadyEvent>, Ordered {
         Mono<RSocket> start = RSocketFactory
                 //  indicates the current client will connect to server.
                 .connect()
-                .transport(TcpClientTransport.create(7000))
+                .transport(transportFactory.client(new InetSocketAddress("localhost", 7000)))
                 .start();
 
         start.flatMapMany(socket ->
@@ -90,6 +111,11 @@ class Ping implements ApplicationListener<ApplicationReadyEvent>, Ordered {
 @Slf4j
 @Component
 class Pong implements SocketAcceptor, Ordered, ApplicationListener<ApplicationReadyEvent> {
+    private final NettyTransportFactory transportFactory;
+
+    Pong(NettyTransportFactory transportFactory) {
+        this.transportFactory = transportFactory;
+    }
 
     @Override
     public void onApplicationEvent(ApplicationReadyEvent applicationReadyEvent) {
@@ -99,7 +125,7 @@ class Pong implements SocketAcceptor, Ordered, ApplicationListener<ApplicationRe
                 .receive()
                 // defines how to process the request, it accept a SocketAcceptor class
                 .acceptor(this)
-                .transport(TcpServerTransport.create(7000))
+                .transport(transportFactory.server(new InetSocketAddress("localhost", 7000)))
                 .start()
                 .subscribe();
     }
@@ -0,0 +1,21 @@
+package com.shf.server.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Description:
+ * Access to the `admin.*` routes, prefixed with `admin`.
+ *
+ * @author songhaifeng
+ * @date 2020/01/10 09:20
+ */
+@Data
+@ConfigurationProperties(prefix = "admin")
+public class AdminProperties {
+    /**
+     * Token the requester has to send as the securityToken metadata of an admin route, no request is accepted without one.
+     */
+    private String token;
+}
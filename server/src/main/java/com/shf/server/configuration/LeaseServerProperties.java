@@ -0,0 +1,25 @@
+package com.shf.server.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * Description:
+ * The leased responder, served apart from `spring.rsocket.server` to the requesters which enable leases, prefixed with `rsocket.lease.server`.
+ *
+ * @author songhaifeng
+ * @date 2020/01/21 10:00
+ */
+@Data
+@ConfigurationProperties(prefix = "rsocket.lease.server")
+public class LeaseServerProperties {
+    /**
+     * TCP port of the leased responder. None if not set.
+     */
+    private Integer port;
+    /**
+     * The name the leased responder is also bound to in this JVM. None if not set.
+     */
+    private String localName;
+}
@@ -1,18 +1,55 @@
 package com.shf.server.configuration;
 
 import com.shf.entity.Foo;
+import com.shf.lease.AdaptiveLeaseProperties;
+import com.shf.lease.AdaptiveLeaseSender;
+import com.shf.lease.LeaseReceiver;
+import com.shf.lease.LeaseStatsRegistry;
+import com.shf.lease.ServerRoleEnum;
+import com.shf.metadata.LazyMetadataConverter;
+import com.shf.metadata.LazyMetadataExtractor;
+import com.shf.metadata.MetadataDictionary;
+import com.shf.metadata.MetadataDictionaryProperties;
+import com.shf.metrics.InstrumentedRSocketMessageHandler;
+import com.shf.metrics.RouteMetricsRegistry;
+import com.shf.mimetype.DataCodecs;
+import com.shf.route.CompiledRouteMatcher;
+import com.shf.transport.LocalTransportProperties;
+import com.shf.transport.LocalTransports;
+import com.shf.transport.NettyTransportFactory;
+import com.shf.transport.NettyTransportProperties;
+import com.shf.transport.NettyTransportRSocketServerFactory;
 
+import io.rsocket.Closeable;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.rsocket.RSocketMessagingAutoConfiguration;
+import org.springframework.boot.autoconfigure.rsocket.RSocketProperties;
 import org.springframework.boot.autoconfigure.rsocket.RSocketStrategiesAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.rsocket.messaging.RSocketStrategiesCustomizer;
+import org.springframework.boot.rsocket.server.RSocketServer;
+import org.springframework.boot.rsocket.server.RSocketServerFactory;
 import org.springframework.boot.rsocket.server.ServerRSocketFactoryProcessor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.Ordered;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.annotation.Order;
+import org.springframework.format.support.DefaultFormattingConversionService;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
 import org.springframework.util.MimeTypeUtils;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import static com.shf.mimetype.MimeTypes.FOO_MIME_TYPE;
 import static com.shf.mimetype.MimeTypes.MAP_MIME_TYPE;
@@ -28,6 +65,9 @@ import static com.shf.mimetype.MimeTypes.SECURITY_TOKEN_MIME_TYPE;
  * @date 2019/11/20 18:06
  */
 @Configuration
+@EnableConfigurationProperties({ScatterGatherProperties.class, RouteMetricsProperties.class, MetadataDictionaryProperties.class,
+        LocalTransportProperties.class, NettyTransportProperties.class, AdaptiveLeaseProperties.class, AdminProperties.class,
+        LeaseServerProperties.class})
 public class RSocketServerConfiguration {
 
     /**
@@ -39,6 +79,8 @@ public class RSocketServerConfiguration {
     @Bean
     public RSocketStrategiesCustomizer addMetadataExtractMimeTypeCustomizer() {
         return (strategyBuilder) -> {
+            // dispatches through the route table of the InstrumentedRSocketMessageHandler
+            strategyBuilder.routeMatcher(new CompiledRouteMatcher());
             strategyBuilder.metadataExtractorRegistry(register -> {
                 register.metadataToExtract(MimeTypeUtils.APPLICATION_JSON, List.class, "connect-metadata");
                 // the name is used with @header, each mimeType can be mapped a single name.
@@ -72,7 +114,202 @@ public class RSocketServerConfiguration {
     }
 
     /**
-     * Add resume ability for ServerRSocketFactory
+     * Replace the default metadata extractor, which decodes every registered entry of every request,
+     * with a {@link LazyMetadataExtractor}: only the entries a handler or an interceptor reads are decoded.
+     * It runs last, so that the extractor looks its decoders up in the final list. `rsocket.metadata.extraction=eager` turns it off.
+     *
+     * @return RSocketStrategiesCustomizer
+     */
+    @Bean
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    @ConditionalOnProperty(name = "rsocket.metadata.extraction", havingValue = "lazy", matchIfMissing = true)
+    public RSocketStrategiesCustomizer lazyMetadataExtractorCustomizer() {
+        return (strategyBuilder) -> strategyBuilder.decoders(decoders ->
+                strategyBuilder.metadataExtractor(new LazyMetadataExtractor(decoders)));
+    }
+
+    /**
+     * Add the binary data codecs, a client picks its data mime type in the SETUP frame.
+     *
+     * @return RSocketStrategiesCustomizer
+     */
+    @Bean
+    public RSocketStrategiesCustomizer binaryCodecsCustomizer() {
+        return DataCodecs.binaryCodecs();
+    }
+
+    /**
+     * Per route recorders, bound to Micrometer as a MeterBinder.
+     *
+     * @param properties RouteMetricsProperties
+     * @return RouteMetricsRegistry
+     */
+    @Bean
+    public RouteMetricsRegistry routeMetricsRegistry(RouteMetricsProperties properties) {
+        return new RouteMetricsRegistry(properties.getPeriod());
+    }
+
+    /**
+     * Replace the default handler of {@link RSocketMessagingAutoConfiguration} with an instrumented one.
+     *
+     * @param rSocketStrategies    RSocketStrategies
+     * @param routeMetricsRegistry RouteMetricsRegistry
+     * @return RSocketMessageHandler
+     */
+    @Bean
+    public RSocketMessageHandler messageHandler(RSocketStrategies rSocketStrategies, RouteMetricsRegistry routeMetricsRegistry) {
+        RSocketMessageHandler handler = new InstrumentedRSocketMessageHandler(routeMetricsRegistry);
+        // decodes the lazy metadata headers for @Header parameters
+        DefaultFormattingConversionService conversionService = new DefaultFormattingConversionService();
+        conversionService.addConverter(new LazyMetadataConverter());
+        handler.setConversionService(conversionService);
+        handler.setRSocketStrategies(rSocketStrategies);
+        return handler;
+    }
+
+    /**
+     * The event loops and the socket options of the TCP transport, from `spring.rsocket.netty`.
+     *
+     * @param properties NettyTransportProperties
+     * @return NettyTransportFactory
+     */
+    @Bean(destroyMethod = "dispose")
+    public NettyTransportFactory nettyTransportFactory(NettyTransportProperties properties) {
+        return new NettyTransportFactory(properties);
+    }
+
+    /**
+     * Serve `spring.rsocket.server` on the {@link NettyTransportFactory} transport, in place of Spring Boot's factory.
+     *
+     * @param rSocketProperties RSocketProperties
+     * @param transportFactory  NettyTransportFactory
+     * @param processors        ServerRSocketFactoryProcessors
+     * @return RSocketServerFactory
+     */
+    @Bean
+    @ConditionalOnProperty(name = "spring.rsocket.server.transport", havingValue = "tcp", matchIfMissing = true)
+    public RSocketServerFactory rSocketServerFactory(RSocketProperties rSocketProperties, NettyTransportFactory transportFactory,
+                                                     ObjectProvider<ServerRSocketFactoryProcessor> processors) {
+        RSocketProperties.Server server = rSocketProperties.getServer();
+        InetSocketAddress address = server.getAddress() != null
+                ? new InetSocketAddress(server.getAddress(), server.getPort()) : new InetSocketAddress(server.getPort());
+        return new NettyTransportRSocketServerFactory(transportFactory, address, processors.orderedStream().collect(Collectors.toList()));
+    }
+
+    /**
+     * Bind the responder in-JVM as well, for the requesters running in this JVM. See more in {@link LocalTransports}.
+     *
+     * @param properties     LocalTransportProperties
+     * @param messageHandler RSocketMessageHandler
+     * @param processors     the ServerRSocketFactoryProcessors of the TCP server
+     * @return the in-JVM server
+     */
+    @Bean(destroyMethod = "dispose")
+    @Lazy(false)
+    @ConditionalOnProperty("spring.rsocket.local.server-name")
+    public Closeable localRSocketServer(LocalTransportProperties properties, RSocketMessageHandler messageHandler,
+                                        ObjectProvider<ServerRSocketFactoryProcessor> processors) {
+        return LocalTransports.bind(properties.getServerName(), messageHandler.responder(), processors.orderedStream().collect(Collectors.toList()));
+    }
+
+    /**
+     * Expand the metadata compacted by the {@link MetadataDictionary} of a requester.
+     *
+     * @param properties MetadataDictionaryProperties
+     * @return ServerRSocketFactoryProcessor
+     */
+    @Bean
+    ServerRSocketFactoryProcessor metadataDictionaryServerFactoryCustomizer(MetadataDictionaryProperties properties) {
+        return (factory) -> properties.isEnabled() ? factory.addSocketAcceptorPlugin(MetadataDictionary.responder(properties)) : factory;
+    }
+
+    /**
+     * Per connection lease stats of this server, bound to Micrometer as a MeterBinder.
+     *
+     * @return LeaseStatsRegistry
+     */
+    @Bean(destroyMethod = "close")
+    public LeaseStatsRegistry leaseStatsRegistry() {
+        return new LeaseStatsRegistry(ServerRoleEnum.SERVER);
+    }
+
+    /**
+     * Issue the leases by the latency measured on this server, see more in {@link AdaptiveLeaseSender}.
+     *
+     * @param properties         AdaptiveLeaseProperties
+     * @param leaseStatsRegistry LeaseStatsRegistry
+     * @return AdaptiveLeaseSender
+     */
+    @Bean
+    public AdaptiveLeaseSender adaptiveLeaseSender(AdaptiveLeaseProperties properties, LeaseStatsRegistry leaseStatsRegistry) {
+        return new AdaptiveLeaseSender(ServerRoleEnum.SERVER, properties, leaseStatsRegistry);
+    }
+
+    /**
+     * Serve the responder with leases on `rsocket.lease.server.port`, so that the pooled requesters balance on the availability
+     * of each server instance and the load is shed before the server saturates.
+     * Only the requesters which enable leases connect to it: a requester without them would have its requests beyond the lease rejected,
+     * the others connect to `spring.rsocket.server`, which issues none.
+     *
+     * @param properties        LeaseServerProperties
+     * @param rSocketProperties RSocketProperties
+     * @param transportFactory  NettyTransportFactory
+     * @param messageHandler    RSocketMessageHandler
+     * @param processors        the ServerRSocketFactoryProcessors of the TCP server
+     * @param leaseSender       AdaptiveLeaseSender
+     * @return the leased server, started
+     */
+    @Bean(destroyMethod = "stop")
+    @Lazy(false)
+    @ConditionalOnProperty("rsocket.lease.server.port")
+    public RSocketServer leasedRSocketServer(LeaseServerProperties properties, RSocketProperties rSocketProperties,
+                                             NettyTransportFactory transportFactory, RSocketMessageHandler messageHandler,
+                                             ObjectProvider<ServerRSocketFactoryProcessor> processors, AdaptiveLeaseSender leaseSender) {
+        InetAddress host = rSocketProperties.getServer().getAddress();
+        InetSocketAddress address = host != null ? new InetSocketAddress(host, properties.getPort()) : new InetSocketAddress(properties.getPort());
+        RSocketServer server = new NettyTransportRSocketServerFactory(transportFactory, address, leased(processors, leaseSender))
+                .create(messageHandler.responder());
+        server.start();
+        return server;
+    }
+
+    /**
+     * Bind the leased responder in-JVM as well, for the pooled requesters running in this JVM. See more in {@link LocalTransports}.
+     *
+     * @param properties     LeaseServerProperties
+     * @param messageHandler RSocketMessageHandler
+     * @param processors     the ServerRSocketFactoryProcessors of the TCP server
+     * @param leaseSender    AdaptiveLeaseSender
+     * @return the in-JVM leased server
+     */
+    @Bean(destroyMethod = "dispose")
+    @Lazy(false)
+    @ConditionalOnProperty("rsocket.lease.server.local-name")
+    public Closeable leasedLocalRSocketServer(LeaseServerProperties properties, RSocketMessageHandler messageHandler,
+                                              ObjectProvider<ServerRSocketFactoryProcessor> processors, AdaptiveLeaseSender leaseSender) {
+        return LocalTransports.bind(properties.getLocalName(), messageHandler.responder(), leased(processors, leaseSender));
+    }
+
+    /**
+     * The processors of the TCP server, then the leases. The leases of a requester are received as well,
+     * for the requests this server makes to it.
+     *
+     * @param processors  the ServerRSocketFactoryProcessors of the TCP server
+     * @param leaseSender AdaptiveLeaseSender
+     * @return ServerRSocketFactoryProcessors
+     */
+    private static List<ServerRSocketFactoryProcessor> leased(ObjectProvider<ServerRSocketFactoryProcessor> processors,
+                                                              AdaptiveLeaseSender leaseSender) {
+        List<ServerRSocketFactoryProcessor> leased = new ArrayList<>(processors.orderedStream().collect(Collectors.toList()));
+        leased.add((factory) -> factory.lease(() -> leaseSender.leases(new LeaseReceiver(ServerRoleEnum.SERVER)))
+                // measure the requests the leases are sized by.
+                .addResponderPlugin(leaseSender.responder()));
+        return leased;
+    }
+
+    /**
+     * Add resume ability for ServerRSocketFactory.
+     * RSocket does not resume a connection with leases, only the requesters without them resume.
      *
      * @return ServerRSocketFactoryProcessor
      */
@@ -0,0 +1,25 @@
+package com.shf.server.configuration;
+
+import com.shf.metrics.RouteMetricsRegistry;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+import lombok.Data;
+
+/**
+ * Description:
+ * Route metrics, prefixed with `metrics.routes`.
+ *
+ * @author songhaifeng
+ * @date 2020/01/09 14:10
+ */
+@Data
+@ConfigurationProperties(prefix = "metrics.routes")
+public class RouteMetricsProperties {
+    /**
+     * Interval of the latency histograms, and period of the `metrics.routes` route.
+     */
+    private Duration period = RouteMetricsRegistry.DEFAULT_PERIOD;
+}
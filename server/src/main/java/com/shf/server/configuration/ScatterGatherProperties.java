@@ -0,0 +1,27 @@
+package com.shf.server.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+import lombok.Data;
+
+/**
+ * Description:
+ * Deadlines of the scatter-gather routes, prefixed with `scatter-gather`.
+ *
+ * @author songhaifeng
+ * @date 2020/01/08 11:40
+ */
+@Data
+@ConfigurationProperties(prefix = "scatter-gather")
+public class ScatterGatherProperties {
+    /**
+     * Deadline of the call to each client.
+     */
+    private Duration perCallTimeout = Duration.ofSeconds(1);
+    /**
+     * Deadline of the whole scatter-gather.
+     */
+    private Duration globalTimeout = Duration.ofSeconds(3);
+}
@@ -0,0 +1,53 @@
+package com.shf.server.configuration;
+
+import com.shf.server.repository.UserLog;
+import com.shf.server.repository.UserSnapshotFile;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Description:
+ * Storage configuration of the {@link com.shf.server.repository.UserRepository}.
+ *
+ * @author songhaifeng
+ * @date 2019/12/27 14:26
+ */
+@Configuration
+@EnableConfigurationProperties(UserRepositoryProperties.class)
+public class UserRepositoryConfiguration {
+
+    /**
+     * The durable log is replayed by the repository on startup, see `user.repository.persistence.*`.
+     *
+     * @param properties UserRepositoryProperties
+     * @return UserLog
+     * @throws IOException if the log directory can not be created
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "user.repository.persistence", name = "enabled", havingValue = "true")
+    public UserLog userLog(UserRepositoryProperties properties) throws IOException {
+        UserRepositoryProperties.Persistence persistence = properties.getPersistence();
+        return new UserLog(Paths.get(persistence.getDirectory()),
+                (int) persistence.getSegmentSize().toBytes(),
+                persistence.getFlushInterval(),
+                persistence.getCompactionMinSegments());
+    }
+
+    /**
+     * See `user.repository.snapshot.*`.
+     *
+     * @param properties UserRepositoryProperties
+     * @return UserSnapshotFile
+     */
+    @Bean
+    public UserSnapshotFile userSnapshotFile(UserRepositoryProperties properties) {
+        UserRepositoryProperties.Snapshot snapshot = properties.getSnapshot();
+        return new UserSnapshotFile(Paths.get(snapshot.getPath()), snapshot.getChunkRecords(), snapshot.isIndex());
+    }
+}
@@ -0,0 +1,138 @@
+package com.shf.server.configuration;
+
+import com.shf.server.repository.UserChangeFeed;
+import com.shf.server.repository.UserWriteBehindQueue;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+import lombok.Data;
+
+/**
+ * Description:
+ * Properties of the user repository, prefixed with `user.repository`.
+ *
+ * @author songhaifeng
+ * @date 2019/12/27 14:20
+ */
+@Data
+@ConfigurationProperties(prefix = "user.repository")
+public class UserRepositoryProperties {
+
+    /**
+     * Number of partitions of the users, each with its own writer thread. 0 for one per core.
+     */
+    private int shards = 0;
+
+    private final Persistence persistence = new Persistence();
+
+    private final Snapshot snapshot = new Snapshot();
+
+    private final WriteBehind writeBehind = new WriteBehind();
+
+    private final Channel channel = new Channel();
+
+    private final Changes changes = new Changes();
+
+    @Data
+    public static class Persistence {
+        /**
+         * Write every added user to an append-only log and replay it on startup.
+         */
+        private boolean enabled = false;
+        /**
+         * Directory of the log segments.
+         */
+        private String directory = "data/users";
+        /**
+         * Size of a memory-mapped segment.
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+        /**
+         * How often the active segment is forced to disk.
+         */
+        private Duration flushInterval = Duration.ofSeconds(1);
+        /**
+         * How often sealed segments are compacted.
+         */
+        private Duration compactionInterval = Duration.ofMinutes(1);
+        /**
+         * Minimum number of sealed segments before a compaction runs.
+         */
+        private int compactionMinSegments = 4;
+    }
+
+    @Data
+    public static class Snapshot {
+        /**
+         * Binary snapshot file, written and loaded by the `admin.snapshot.*` routes.
+         */
+        private String path = "data/users.snapshot";
+        /**
+         * Preload the store from the snapshot file on startup, before the log is replayed.
+         */
+        private boolean loadOnStartup = true;
+        /**
+         * Write an index section, so the snapshot is decoded in parallel chunks.
+         */
+        private boolean index = true;
+        /**
+         * Number of users per chunk of the index.
+         */
+        private int chunkRecords = 65_536;
+    }
+
+    @Data
+    public static class WriteBehind {
+        /**
+         * Maximum number of users waiting for a group commit.
+         */
+        private int capacity = 65_536;
+        /**
+         * Maximum number of users applied in one group commit.
+         */
+        private int batchSize = 512;
+        /**
+         * Maximum time the writer waits for a batch to fill up.
+         */
+        private Duration maxLinger = Duration.ofMillis(5);
+        /**
+         * What happens to a user submitted while the queue is full.
+         */
+        private UserWriteBehindQueue.OverflowPolicy overflowPolicy = UserWriteBehindQueue.OverflowPolicy.REJECT;
+    }
+
+    @Data
+    public static class Channel {
+        /**
+         * Maximum number of users applied and acked together by the `add.users.channel` route.
+         */
+        private int windowSize = 512;
+        /**
+         * Maximum time a window waits to fill up.
+         */
+        private Duration windowTimeout = Duration.ofMillis(50);
+        /**
+         * Number of windows a producer may send ahead of the repository, the inbound credit is `window-size` times this.
+         */
+        private int maxPendingWindows = 4;
+    }
+
+    @Data
+    public static class Changes {
+        /**
+         * Number of recent changes kept in memory, rounded up to a power of two.
+         */
+        private int capacity = 65_536;
+        /**
+         * Maximum number of changes a subscriber may fall behind before it overflows.
+         */
+        private int maxLag = 16_384;
+        /**
+         * What happens to a subscriber that falls behind.
+         */
+        private UserChangeFeed.OverflowPolicy overflowPolicy = UserChangeFeed.OverflowPolicy.SKIP;
+    }
+}
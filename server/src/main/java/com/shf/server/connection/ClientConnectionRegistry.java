@@ -0,0 +1,250 @@
+package com.shf.server.connection;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.ByteBufPayload;
+
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Description:
+ * The requesters of all connected clients, keyed by client id.
+ * <ul>
+ * <li>Connections register on SETUP and are removed when they close, from any thread; lookups and iteration never lock.</li>
+ * <li>A client may hold several connections at once(a pooled requester sends the same setup data on each one),
+ * they are all kept under its id, requests to the client go to any one of them.</li>
+ * <li>{@link #sendTo(String, String, Object)} pushes a fire-and-forget request to one client.</li>
+ * <li>{@link #broadcast(String, Object)} pushes the same fire-and-forget request to every client, once. The payload and the
+ * routing metadata are encoded once per mime type into reference-counted buffers, every connection gets a retained slice of them.</li>
+ * </ul>
+ * Exposes `rsocket.clients`, `rsocket.connections` and `rsocket.broadcast.fanout`(time until the request is handed to every connection) meters.
+ *
+ * @author songhaifeng
+ * @date 2020/01/07 10:15
+ */
+@Slf4j
+@Component
+public class ClientConnectionRegistry {
+    private static final MimeType COMPOSITE_METADATA = MimeType.valueOf(WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString());
+    private static final MimeType ROUTING_METADATA = MimeType.valueOf(WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString());
+
+    /**
+     * Open connections of each client, replaced as a whole on every change.
+     */
+    private final ConcurrentMap<String, List<RSocketRequester>> requesters = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final RSocketStrategies strategies;
+    private final ByteBufAllocator allocator;
+    private final Timer fanoutTimer;
+
+    public ClientConnectionRegistry(RSocketStrategies strategies, MeterRegistry meterRegistry) {
+        this.strategies = strategies;
+        this.allocator = strategies.dataBufferFactory() instanceof NettyDataBufferFactory
+                ? ((NettyDataBufferFactory) strategies.dataBufferFactory()).getByteBufAllocator()
+                : ByteBufAllocator.DEFAULT;
+        Gauge.builder("rsocket.clients", requesters, Map::size).register(meterRegistry);
+        Gauge.builder("rsocket.connections", connections, AtomicInteger::get).register(meterRegistry);
+        this.fanoutTimer = Timer.builder("rsocket.broadcast.fanout").publishPercentileHistogram().register(meterRegistry);
+    }
+
+    /**
+     * Register the requester of a new connection, next to the other connections of the client.
+     * It is removed once the connection closes.
+     *
+     * @param clientId  client id
+     * @param requester requester
+     */
+    public void register(String clientId, RSocketRequester requester) {
+        List<RSocketRequester> registered = requesters.merge(clientId, Collections.singletonList(requester), ClientConnectionRegistry::plus);
+        connections.incrementAndGet();
+        log.info("Client({}) connected, {} open connection(s).", clientId, registered.size());
+        requester.rsocket()
+                // Invoke when the RSocket is closed.
+                // A {@code RSocket} can be closed by explicitly calling {@link RSocket#dispose()}
+                // or when the underlying transport connection is closed.
+                .onClose()
+                .doFinally(signal -> {
+                    requesters.computeIfPresent(clientId, (id, open) -> minus(open, requester));
+                    connections.decrementAndGet();
+                })
+                .subscribe(null, e -> {
+                });
+    }
+
+    /**
+     * @param clientId client id
+     * @return the requester of any open connection of the client, null if it is not connected
+     */
+    public RSocketRequester get(String clientId) {
+        List<RSocketRequester> open = requesters.get(clientId);
+        if (open == null) {
+            return null;
+        }
+        return open.size() == 1 ? open.get(0) : open.get(ThreadLocalRandom.current().nextInt(open.size()));
+    }
+
+    public Collection<String> clientIds() {
+        return Collections.unmodifiableSet(requesters.keySet());
+    }
+
+    /**
+     * @return number of connected clients
+     */
+    public int size() {
+        return requesters.size();
+    }
+
+    /**
+     * Fire-and-forget a request to one client.
+     *
+     * @param clientId client id
+     * @param route    route
+     * @param payload  data
+     * @return Mono<Void>, an error if the client is not connected
+     */
+    public Mono<Void> sendTo(String clientId, String route, Object payload) {
+        RSocketRequester requester = get(clientId);
+        if (requester == null) {
+            return Mono.error(new IllegalArgumentException("Client(" + clientId + ") is not connected."));
+        }
+        return requester.route(route).data(payload).send();
+    }
+
+    /**
+     * Fire-and-forget the same request to every connected client, on one of its connections,
+     * encoding it once per data and metadata mime type.
+     *
+     * @param route   route
+     * @param payload data
+     * @return number of clients the request was handed to
+     */
+    public Mono<Integer> broadcast(String route, Object payload) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            Map<MimeType, List<RSocketRequester>> byDataMimeType = requesters.keySet().stream()
+                    .map(this::get)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.groupingBy(RSocketRequester::dataMimeType));
+            Map<MimeType, ByteBuf> metadataByMimeType = new HashMap<>(2);
+            return Flux.fromIterable(byDataMimeType.entrySet())
+                    .flatMap(group -> {
+                        ByteBuf data = encode(payload, group.getKey());
+                        return Flux.fromIterable(group.getValue())
+                                .flatMap(requester -> send(requester, route, data, metadataByMimeType), Integer.MAX_VALUE)
+                                .doFinally(signal -> data.release());
+                    })
+                    .count()
+                    .map(Long::intValue)
+                    .doFinally(signal -> {
+                        metadataByMimeType.values().forEach(ByteBuf::release);
+                        fanoutTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    });
+        });
+    }
+
+    /**
+     * @return emits once the request is handed to the connection, empty if it failed
+     */
+    private Mono<Boolean> send(RSocketRequester requester, String route, ByteBuf data, Map<MimeType, ByteBuf> metadataByMimeType) {
+        MimeType metadataMimeType = requester.metadataMimeType();
+        // flatMap subscribes to the inner sources serially, the cache needs no lock
+        ByteBuf metadata = metadataByMimeType.computeIfAbsent(metadataMimeType, mimeType -> encodeRoute(route, mimeType));
+        if (metadata == null) {
+            // no shared encoding for this metadata mime type, fall back to the requester
+            return requester.route(route).data(payload(data)).send().thenReturn(Boolean.TRUE)
+                    .onErrorResume(e -> logFailure(requester, e));
+        }
+        return requester.rsocket()
+                .fireAndForget(ByteBufPayload.create(data.retainedSlice(), metadata.retainedSlice()))
+                .thenReturn(Boolean.TRUE)
+                .onErrorResume(e -> logFailure(requester, e));
+    }
+
+    private static List<RSocketRequester> plus(List<RSocketRequester> open, List<RSocketRequester> added) {
+        List<RSocketRequester> result = new ArrayList<>(open.size() + added.size());
+        result.addAll(open);
+        result.addAll(added);
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return the remaining connections, null(the client is removed) if none
+     */
+    private static List<RSocketRequester> minus(List<RSocketRequester> open, RSocketRequester removed) {
+        List<RSocketRequester> result = new ArrayList<>(open);
+        result.remove(removed);
+        return result.isEmpty() ? null : Collections.unmodifiableList(result);
+    }
+
+    private Mono<Boolean> logFailure(RSocketRequester requester, Throwable e) {
+        log.warn("Failed to push to a connection({}): {}", requester.rsocket(), e.getMessage());
+        return Mono.empty();
+    }
+
+    private static byte[] payload(ByteBuf data) {
+        byte[] bytes = new byte[data.readableBytes()];
+        data.getBytes(data.readerIndex(), bytes);
+        return bytes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ByteBuf encode(Object payload, MimeType dataMimeType) {
+        ResolvableType type = ResolvableType.forInstance(payload);
+        Encoder<Object> encoder = (Encoder<Object>) strategies.encoder(type, dataMimeType);
+        DataBuffer buffer = encoder.encodeValue(payload, strategies.dataBufferFactory(), type, dataMimeType, Collections.emptyMap());
+        return NettyDataBufferFactory.toByteBuf(buffer);
+    }
+
+    /**
+     * @return routing metadata for the mime type, null if the mime type is neither composite nor routing metadata
+     */
+    private ByteBuf encodeRoute(String route, MimeType metadataMimeType) {
+        byte[] bytes = route.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 255) {
+            throw new IllegalArgumentException("Route is longer than 255 bytes: " + route);
+        }
+        ByteBuf routing = allocator.buffer(bytes.length + 1).writeByte(bytes.length).writeBytes(bytes);
+        if (ROUTING_METADATA.equals(metadataMimeType)) {
+            return routing;
+        }
+        if (COMPOSITE_METADATA.equals(metadataMimeType)) {
+            CompositeByteBuf composite = allocator.compositeBuffer();
+            CompositeMetadataFlyweight.encodeAndAddMetadata(composite, allocator, WellKnownMimeType.MESSAGE_RSOCKET_ROUTING, routing);
+            return composite;
+        }
+        routing.release();
+        return null;
+    }
+}
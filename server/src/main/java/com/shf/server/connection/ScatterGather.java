@@ -0,0 +1,83 @@
+package com.shf.server.connection;
+
+import com.shf.entity.ClientReply;
+
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Description:
+ * Issue the same request to many connected clients in parallel, see {@link ClientConnectionRegistry}.
+ * <ul>
+ * <li>Every call has its own deadline, a client that misses it replies with a failure, the others are not held back.</li>
+ * <li>The whole scatter has a global deadline, then the calls still in flight are cancelled(a CANCEL frame each),
+ * so stragglers never leak streams or buffers.</li>
+ * <li>{@link #scatter} streams the replies as they arrive, {@link #quorum} completes as soon as enough clients succeeded
+ * and cancels the rest.</li>
+ * </ul>
+ *
+ * @author songhaifeng
+ * @date 2020/01/08 11:20
+ */
+@Component
+public class ScatterGather {
+    private final ClientConnectionRegistry registry;
+
+    public ScatterGather(ClientConnectionRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @param clientIds      target clients, null for every connected client
+     * @param call           the request to issue with the requester of a client
+     * @param perCallTimeout deadline of each call
+     * @param globalTimeout  deadline of the whole scatter
+     * @param <T>            value type
+     * @return one reply per client, in arrival order. Clients missing when the global deadline passes get no reply.
+     */
+    public <T> Flux<ClientReply<T>> scatter(Collection<String> clientIds,
+                                            Function<RSocketRequester, Mono<T>> call,
+                                            Duration perCallTimeout,
+                                            Duration globalTimeout) {
+        return Flux.defer(() -> Flux.fromIterable(clientIds == null ? registry.clientIds() : clientIds))
+                .flatMap(clientId -> {
+                    RSocketRequester requester = registry.get(clientId);
+                    if (requester == null) {
+                        return Mono.just(ClientReply.<T>failure(clientId, new IllegalArgumentException("Client is not connected.")));
+                    }
+                    return Mono.defer(() -> call.apply(requester))
+                            .timeout(perCallTimeout)
+                            .map(value -> ClientReply.success(clientId, value))
+                            .switchIfEmpty(Mono.fromSupplier(() -> ClientReply.<T>success(clientId, null)))
+                            .onErrorResume(e -> Mono.just(ClientReply.<T>failure(clientId, e)));
+                }, Integer.MAX_VALUE)
+                .take(globalTimeout);
+    }
+
+    /**
+     * @param quorum minimum number of successful replies
+     * @return the first `quorum` successful replies, a TimeoutException if the global deadline passes, or every client replied, before the quorum is met
+     */
+    public <T> Mono<List<ClientReply<T>>> quorum(Collection<String> clientIds,
+                                                 Function<RSocketRequester, Mono<T>> call,
+                                                 int quorum,
+                                                 Duration perCallTimeout,
+                                                 Duration globalTimeout) {
+        return scatter(clientIds, call, perCallTimeout, globalTimeout)
+                .filter(ClientReply::succeeded)
+                .take(quorum)
+                .collectList()
+                .flatMap(replies -> replies.size() >= quorum
+                        ? Mono.just(replies)
+                        : Mono.error(new TimeoutException("Quorum of " + quorum + " not met, " + replies.size() + " clients replied.")));
+    }
+}
@@ -1,9 +1,25 @@
 package com.shf.server.controller;
 
+import com.shf.entity.ClientReply;
 import com.shf.entity.Foo;
+import com.shf.entity.RouteSnapshot;
 import com.shf.entity.User;
+import com.shf.entity.UserAck;
+import com.shf.entity.UserBatch;
+import com.shf.entity.UserChangeEvent;
+import com.shf.entity.UserCursor;
+import com.shf.entity.UserListRequest;
 import com.shf.entity.UserRequest;
+import com.shf.metrics.RouteMetricsRegistry;
+import com.shf.mimetype.DataCodecs;
+import com.shf.server.configuration.AdminProperties;
+import com.shf.server.configuration.ScatterGatherProperties;
+import com.shf.server.connection.ClientConnectionRegistry;
+import com.shf.server.connection.ScatterGather;
+import com.shf.server.repository.UserBulkLoader;
+import com.shf.server.repository.UserChangeFeed;
 import com.shf.server.repository.UserRepository;
+import com.shf.server.repository.UserWriteBehindQueue;
 
 import org.apache.commons.collections4.MapUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,16 +30,22 @@ import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
 import org.springframework.messaging.rsocket.annotation.ConnectMapping;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.StringUtils;
 
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import static com.shf.mimetype.MimeTypes.REFRESH_TOKEN_MIME_TYPE;
 import static com.shf.mimetype.MimeTypes.SECURITY_TOKEN_MIME_TYPE;
@@ -37,35 +59,156 @@ import static com.shf.mimetype.MimeTypes.SECURITY_TOKEN_MIME_TYPE;
 @Controller
 @Slf4j
 public class UserController {
+    private static final int BATCH_CHUNK_SIZE = 256;
 
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private UserWriteBehindQueue userWriteBehindQueue;
+
+    @Autowired
+    private UserBulkLoader userBulkLoader;
+
+    @Autowired
+    private UserChangeFeed userChangeFeed;
+
+    @Autowired
+    private ClientConnectionRegistry clientConnectionRegistry;
+
+    @Autowired
+    private ScatterGather scatterGather;
+
+    @Autowired
+    private ScatterGatherProperties scatterGatherProperties;
+
+    @Autowired
+    private RouteMetricsRegistry routeMetricsRegistry;
+
+    @Autowired
+    private RSocketStrategies rSocketStrategies;
+
+    @Autowired
+    private AdminProperties adminProperties;
+
     /***********************************request/response******************************/
     @MessageMapping("user")
     public Mono<User> user(UserRequest userRequest) {
         return userRepository.getOne(userRequest.getId());
     }
 
+    /**
+     * Multi-get: all the users of the ids in one round trip.
+     *
+     * @param ids ids
+     * @return found users and missing ids
+     */
+    @MessageMapping("users.batch")
+    public Mono<UserBatch> usersBatch(int[] ids) {
+        return Mono.fromSupplier(() -> userRepository.getMany(ids));
+    }
+
+    /**
+     * Multi-get as a stream: the ids are looked up in chunks, one {@link UserBatch} per chunk,
+     * so a large request is not held in a single payload and follows the requester's credit.
+     *
+     * @param ids ids
+     * @return found users and missing ids per chunk
+     */
+    @MessageMapping("users.batch.stream")
+    public Flux<UserBatch> usersBatchStream(int[] ids) {
+        return Flux.range(0, (ids.length + BATCH_CHUNK_SIZE - 1) / BATCH_CHUNK_SIZE)
+                .map(chunk -> {
+                    int from = chunk * BATCH_CHUNK_SIZE;
+                    return userRepository.getMany(Arrays.copyOfRange(ids, from, Math.min(from + BATCH_CHUNK_SIZE, ids.length)));
+                });
+    }
+
+    @MessageMapping("update.user")
+    public Mono<Boolean> update(User user) {
+        return userRepository.update(user);
+    }
+
+    @MessageMapping("delete.user.{id}")
+    public Mono<Boolean> delete(@DestinationVariable("id") int id) {
+        return userRepository.delete(id);
+    }
+
     /***********************************Fire And Forget******************************/
+    /**
+     * The user is only enqueued here, it is applied by the next group commit of {@link UserWriteBehindQueue}.
+     * A user rejected by a full queue is an error nobody receives on this fire-and-forget route,
+     * it only counts in `user.write.rejected` and the errors of the route metrics.
+     *
+     * @param user user
+     * @return Mono<Void>
+     */
     @MessageMapping("add.user")
     public Mono<Void> add(User user) {
-        userRepository.add(user);
-        return Mono.empty();
+        return userWriteBehindQueue.submit(user);
     }
 
     /***********************************Request Stream******************************/
     /**
      * Returning a Flux<User> instead of a Mono<User>.
      * In the end, our RSocket server will send multiple responses to the client.
+     * <p>
+     * Users are emitted in id order as fast as the requester's REQUEST_N credit allows,
+     * from a snapshot taken when the stream starts. Send a {@link UserListRequest} to page:
+     * an interrupted stream resumes with {@link UserCursor#after(int)} of the last received user.
      *
-     * @return
+     * @param request cursor and page size, optional
+     * @return Flux<User>
      */
     @MessageMapping("list")
-    public Flux<User> list() {
-        return userRepository.list();
+    public Flux<User> list(@Payload(required = false) UserListRequest request) {
+        if (request == null) {
+            return userRepository.list(null, 0);
+        }
+        // an invalid cursor is an IllegalArgumentException, handled by handleException
+        return userRepository.list(UserCursor.lastId(request.getCursor()), request.getSize());
+    }
+
+
+    /**
+     * Stream the users whose age is in [min, max], backed by the age index.
+     * Users are read from the index only as the requester grants credit(REQUEST_N).
+     *
+     * @param min min age, inclusive
+     * @param max max age, inclusive
+     * @return Flux<User>
+     */
+    @MessageMapping("users.by.age.{min}.{max}")
+    public Flux<User> usersByAge(@DestinationVariable("min") int min, @DestinationVariable("max") int max) {
+        return userRepository.findByAge(min, max);
+    }
+
+    /**
+     * Stream the users whose name starts with the prefix sent as data, backed by the name index.
+     *
+     * @param prefix name prefix, "" for all names
+     * @return Flux<User>
+     */
+    @MessageMapping("users.by.name.prefix")
+    public Flux<User> usersByNamePrefix(@Payload(required = false) String prefix) {
+        if (prefix == null) {
+            return Flux.error(new IllegalArgumentException("A name prefix is required, send \"\" for all names."));
+        }
+        return userRepository.findByNamePrefix(prefix);
     }
 
+    /**
+     * Change data capture: every insert, update and delete of the repository, in sequence order.
+     * Send the first sequence wanted as data to catch up from the recent changes kept in memory,
+     * or nothing for live changes only. A gap in the sequences means changes were missed, see {@link UserChangeFeed}.
+     *
+     * @param fromSequence first sequence, optional
+     * @return Flux<UserChangeEvent>
+     */
+    @MessageMapping("user.changes")
+    public Flux<UserChangeEvent> changes(@Payload(required = false) Long fromSequence) {
+        return userChangeFeed.subscribe(fromSequence);
+    }
 
     /***********************************Request Channel******************************/
     @MessageMapping("request.channel")
@@ -73,6 +216,100 @@ public class UserController {
         return users;
     }
 
+    /**
+     * Bulk loading: users are applied in windows, each window is answered with one {@link UserAck}.
+     * The inbound credit follows the writes, see {@link UserBulkLoader}.
+     *
+     * @param users users
+     * @return one ack per window
+     */
+    @MessageMapping("add.users.channel")
+    public Flux<UserAck> addUsersChannel(Flux<User> users) {
+        return userBulkLoader.load(users);
+    }
+
+    /***********************************Admin******************************/
+    /**
+     * Dump the users to the binary snapshot file, off the event loop.
+     *
+     * @param securityToken the admin token
+     * @return number of users written
+     */
+    @MessageMapping("admin.snapshot.save")
+    public Mono<Long> saveSnapshot(@Header(name = "securityToken", required = false) String securityToken) {
+        return authorizeAdmin(securityToken)
+                .then(Mono.fromCallable(userRepository::saveSnapshot).subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    /**
+     * Load the users of the binary snapshot file into the running server, off the event loop.
+     *
+     * @param securityToken the admin token
+     * @return number of users loaded
+     */
+    @MessageMapping("admin.snapshot.load")
+    public Mono<Long> loadSnapshot(@Header(name = "securityToken", required = false) String securityToken) {
+        return authorizeAdmin(securityToken)
+                .then(Mono.fromCallable(userRepository::loadSnapshot).subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    /**
+     * Latency, throughput, in-flight and payload size of every route, one snapshot per metrics period.
+     * A slow requester only gets the latest snapshot.
+     *
+     * @return snapshots of all routes
+     */
+    @MessageMapping("metrics.routes")
+    public Flux<List<RouteSnapshot>> routeMetrics() {
+        return Flux.interval(Duration.ZERO, routeMetricsRegistry.getPeriod())
+                .onBackpressureLatest()
+                .map(tick -> routeMetricsRegistry.snapshot());
+    }
+
+    /***********************************Server Push******************************/
+    /**
+     * Push the user to the `responder.notify` route of every connected client, the user is encoded only once.
+     *
+     * @param securityToken the admin token
+     * @param user          user
+     * @return number of clients
+     */
+    @MessageMapping("admin.broadcast.user")
+    public Mono<Integer> broadcastUser(@Header(name = "securityToken", required = false) String securityToken, User user) {
+        return authorizeAdmin(securityToken)
+                .then(Mono.defer(() -> clientConnectionRegistry.broadcast("responder.notify", user)));
+    }
+
+    /**
+     * Push the user to the `responder.notify` route of one client.
+     *
+     * @param clientId      client id
+     * @param securityToken the admin token
+     * @param user          user
+     * @return Mono<Void>
+     */
+    @MessageMapping("admin.send.user.{clientId}")
+    public Mono<Void> sendUser(@DestinationVariable("clientId") String clientId,
+                               @Header(name = "securityToken", required = false) String securityToken, User user) {
+        return authorizeAdmin(securityToken)
+                .then(Mono.defer(() -> clientConnectionRegistry.sendTo(clientId, "responder.notify", user)));
+    }
+
+    /**
+     * The admin routes require the configured admin token as the securityToken metadata, compared in constant time.
+     *
+     * @param securityToken securityToken metadata of the request, null if absent
+     * @return empty if authorized, a {@link SecurityException} otherwise
+     */
+    private Mono<Void> authorizeAdmin(String securityToken) {
+        String token = adminProperties.getToken();
+        if (StringUtils.hasText(token) && securityToken != null
+                && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), securityToken.getBytes(StandardCharsets.UTF_8))) {
+            return Mono.empty();
+        }
+        return Mono.error(new SecurityException("Not authorized for the admin routes."));
+    }
+
     /***********************************Invoke Error******************************/
 
     @MessageMapping("user.error")
@@ -86,6 +323,15 @@ public class UserController {
         return Mono.just(User.builder().id(-1).build());
     }
 
+    /**
+     * A denied admin request is answered with an error frame, not with a placeholder user.
+     */
+    @MessageExceptionHandler
+    public Mono<Void> handleSecurityException(SecurityException e) {
+        log.warn(e.getMessage());
+        return Mono.error(e);
+    }
+
 
     /***********************************Send metadata(header)******************************/
     /**
@@ -98,7 +344,8 @@ public class UserController {
      */
     @MessageMapping("send.string.header")
     public Mono<String> sendStringHeader(@Header String securityToken, @Header String refreshToken, UserRequest userRequest) {
-        return Mono.just("Your(" + userRepository.getOne(userRequest.getId()).block().getName() + ") securityToken is '" + securityToken + "' and refreshToken is '" + refreshToken + "'");
+        return userRepository.getOne(userRequest.getId())
+                .map(user -> "Your(" + user.getName() + ") securityToken is '" + securityToken + "' and refreshToken is '" + refreshToken + "'");
     }
 
     /**
@@ -154,8 +401,6 @@ public class UserController {
     }
 
     /***********************************ConnectMapping******************************/
-    private static final Map<String, RSocketRequester> REQUESTER_MAP = new HashMap<>();
-
     /**
      * Matches all connects without route.
      * Keep in mind that @ConnectMapping methods are essentially handlers of the SETUP frame which must be handled before requests can begin.
@@ -168,20 +413,18 @@ public class UserController {
     @ConnectMapping
     Mono<Void> allConnect(RSocketRequester rSocketRequester, @Payload String clientId, @Header(value = "connect-metadata") List<String> metadatas) {
         log.info("Default ConnectMapping, match all connect.Client_id: {} . metadata: {}", clientId, metadatas.toArray(new String[0]));
-        rSocketRequester.rsocket()
-                // Invoke when the RSocket is closed.
-                // A {@code RSocket} can be closed by explicitly calling {@link RSocket#dispose()}
-                // or when the underlying transport connection is closed.
-                .onClose()
-                .subscribe(null, null,
-                        () -> REQUESTER_MAP.remove(clientId, rSocketRequester));
         // clientID authentication for security
         // mock case：Client999 will be rejected.
         if ("Client999".equalsIgnoreCase(clientId)) {
             log.warn("Reject client({}), disconnect.", clientId);
             rSocketRequester.rsocket().dispose();
+        } else if (!DataCodecs.supports(rSocketStrategies, rSocketRequester.dataMimeType(), User.class)) {
+            // the data mime type is fixed by the SETUP frame, the client has to reconnect with another one
+            log.warn("Reject client({}), no codec for the data mime type {}.", clientId, rSocketRequester.dataMimeType());
+            rSocketRequester.rsocket().dispose();
         } else {
-            REQUESTER_MAP.put(clientId, rSocketRequester);
+            // removed from the registry once the connection is closed
+            clientConnectionRegistry.register(clientId, rSocketRequester);
         }
         return Mono.empty();
     }
@@ -214,13 +457,59 @@ public class UserController {
                                         @Header String securityToken,
                                         @Header String refreshToken,
                                         UserRequest userRequest) {
-        log.info("Your(" + userRepository.getOne(userRequest.getId()).block().getName() + ") securityToken is '" + securityToken + "' and refreshToken is '" + refreshToken + "'");
-        return rSocketRequester.route("responder.user")
-                .data(User.builder().id(1).age(12).name("coco").build())
+        return userRepository.getOne(userRequest.getId())
+                .flatMap(user -> {
+                    log.info("Your({}) securityToken is '{}' and refreshToken is '{}'", user.getName(), securityToken, refreshToken);
+                    return rSocketRequester.route("responder.user")
+                            .data(User.builder().id(1).age(12).name("coco").build())
+                            .metadata(securityToken, SECURITY_TOKEN_MIME_TYPE)
+                            .metadata(refreshToken, REFRESH_TOKEN_MIME_TYPE)
+                            .retrieveMono(String.class);
+                });
+    }
+
+    /**
+     * Like `requester.responder`, but calls the `responder.user` route of every connected client in parallel.
+     * Replies stream back as they arrive, within the deadlines of `scatter-gather.*`.
+     *
+     * @param securityToken metadata named securityToken
+     * @param refreshToken  metadata named refreshToken
+     * @param userRequest   request data
+     * @return one reply per client
+     */
+    @MessageMapping("scatter.responder.user")
+    public Flux<ClientReply<String>> scatterCallback(@Header String securityToken,
+                                                     @Header String refreshToken,
+                                                     UserRequest userRequest) {
+        return userRepository.getOne(userRequest.getId())
+                .flatMapMany(user -> scatterGather.scatter(null, requester -> responderUser(requester, user, securityToken, refreshToken),
+                        scatterGatherProperties.getPerCallTimeout(), scatterGatherProperties.getGlobalTimeout()));
+    }
+
+    /**
+     * Completes as soon as `quorum` clients replied to `responder.user`, the other calls are cancelled.
+     *
+     * @param quorum        number of successful replies
+     * @param securityToken metadata named securityToken
+     * @param refreshToken  metadata named refreshToken
+     * @param userRequest   request data
+     * @return the first successful replies
+     */
+    @MessageMapping("quorum.responder.user.{quorum}")
+    public Mono<List<ClientReply<String>>> quorumCallback(@DestinationVariable("quorum") int quorum,
+                                                          @Header String securityToken,
+                                                          @Header String refreshToken,
+                                                          UserRequest userRequest) {
+        return userRepository.getOne(userRequest.getId())
+                .flatMap(user -> scatterGather.quorum(null, requester -> responderUser(requester, user, securityToken, refreshToken),
+                        quorum, scatterGatherProperties.getPerCallTimeout(), scatterGatherProperties.getGlobalTimeout()));
+    }
+
+    private static Mono<String> responderUser(RSocketRequester requester, User user, String securityToken, String refreshToken) {
+        return requester.route("responder.user")
+                .data(user)
                 .metadata(securityToken, SECURITY_TOKEN_MIME_TYPE)
                 .metadata(refreshToken, REFRESH_TOKEN_MIME_TYPE)
                 .retrieveMono(String.class);
     }
-
-
 }
@@ -0,0 +1,343 @@
+package com.shf.server.repository;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Description:
+ * A concurrent hash map keyed by a primitive {@code int}, so lookups never box the key.
+ * <ul>
+ * <li>Reads are lock-free: every segment publishes its buckets through a volatile table of immutable node chains.</li>
+ * <li>Writes are striped: a write only locks the segment its key hashes to, and replaces the affected chain.</li>
+ * </ul>
+ * The default number of segments follows the number of cores, so writers arriving on different
+ * Netty event loops rarely contend on the same lock.
+ * Iteration is weakly consistent, like {@link java.util.concurrent.ConcurrentHashMap}.
+ *
+ * @param <V> value type
+ * @author songhaifeng
+ * @date 2019/12/26 10:12
+ */
+public class ConcurrentIntObjectMap<V> {
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+    private final int segmentMask;
+
+    public ConcurrentIntObjectMap() {
+        this(DEFAULT_INITIAL_CAPACITY, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentIntObjectMap(int initialCapacity, int concurrencyLevel) {
+        if (initialCapacity < 0 || concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("initialCapacity must be >= 0 and concurrencyLevel must be > 0.");
+        }
+        int segmentCount = tableSizeFor(Math.min(concurrencyLevel, 1 << 16));
+        int segmentCapacity = tableSizeFor(Math.max(2, initialCapacity / segmentCount));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment<>(segmentCapacity);
+        }
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+        this.segmentMask = segmentCount - 1;
+    }
+
+    public V get(int key) {
+        int hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associates the value with the key.
+     *
+     * @return the previous value, or null if there was none
+     */
+    public V put(int key, V value) {
+        checkValue(value);
+        int hash = hash(key);
+        return segmentFor(hash).put(key, hash, value, false);
+    }
+
+    /**
+     * Atomically associates the value with the key only when the key is absent.
+     *
+     * @return the current value if the key was present, otherwise null
+     */
+    public V putIfAbsent(int key, V value) {
+        checkValue(value);
+        int hash = hash(key);
+        return segmentFor(hash).put(key, hash, value, true);
+    }
+
+    /**
+     * Atomically replaces the value of the key only when it is currently mapped to the expected value.
+     */
+    public boolean replace(int key, V expectedValue, V newValue) {
+        checkValue(newValue);
+        int hash = hash(key);
+        return segmentFor(hash).replace(key, hash, expectedValue, newValue);
+    }
+
+    /**
+     * @return the removed value, or null if the key was absent
+     */
+    public V remove(int key) {
+        int hash = hash(key);
+        return segmentFor(hash).remove(key, hash, null);
+    }
+
+    /**
+     * Atomically removes the key only when it is currently mapped to the expected value.
+     */
+    public boolean remove(int key, V expectedValue) {
+        checkValue(expectedValue);
+        int hash = hash(key);
+        return segmentFor(hash).remove(key, hash, expectedValue) != null;
+    }
+
+    public int size() {
+        long size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.count;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        for (Segment<V> segment : segments) {
+            if (segment.count != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void forEachValue(Consumer<? super V> action) {
+        for (Segment<V> segment : segments) {
+            AtomicReferenceArray<Node<V>> table = segment.table;
+            for (int i = 0; i < table.length(); i++) {
+                for (Node<V> node = table.get(i); node != null; node = node.next) {
+                    action.accept(node.value);
+                }
+            }
+        }
+    }
+
+    /**
+     * A weakly consistent view of the values, it never throws {@link java.util.ConcurrentModificationException}.
+     *
+     * @return Iterable
+     */
+    public Iterable<V> values() {
+        return ValueIterator::new;
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        return segments[(hash >>> segmentShift) & segmentMask];
+    }
+
+    private static void checkValue(Object value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported.");
+        }
+    }
+
+    /**
+     * Fibonacci hashing spreads sequential ids over both the segment bits(high) and the bucket bits(low).
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int n = -1 >>> Integer.numberOfLeadingZeros(Math.max(1, capacity) - 1);
+        return n < 0 ? 1 : (n >= MAXIMUM_CAPACITY ? MAXIMUM_CAPACITY : n + 1);
+    }
+
+    /**
+     * Nodes are immutable, readers may safely walk a chain that a writer has just replaced.
+     */
+    private static final class Node<V> {
+        final int key;
+        final int hash;
+        final V value;
+        final Node<V> next;
+
+        Node(int key, int hash, V value, Node<V> next) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    private static final class Segment<V> {
+        volatile AtomicReferenceArray<Node<V>> table;
+        /**
+         * Only written under the segment lock, volatile for {@link #size()}.
+         */
+        volatile int count;
+        private int threshold;
+
+        Segment(int capacity) {
+            this.table = new AtomicReferenceArray<>(capacity);
+            this.threshold = (int) (capacity * LOAD_FACTOR);
+        }
+
+        V get(int key, int hash) {
+            AtomicReferenceArray<Node<V>> tab = table;
+            for (Node<V> node = tab.get(hash & (tab.length() - 1)); node != null; node = node.next) {
+                if (node.key == key) {
+                    return node.value;
+                }
+            }
+            return null;
+        }
+
+        synchronized V put(int key, int hash, V value, boolean onlyIfAbsent) {
+            AtomicReferenceArray<Node<V>> tab = table;
+            int index = hash & (tab.length() - 1);
+            Node<V> first = tab.get(index);
+            for (Node<V> node = first; node != null; node = node.next) {
+                if (node.key == key) {
+                    if (!onlyIfAbsent) {
+                        tab.set(index, replaceNode(first, node, new Node<>(key, hash, value, node.next)));
+                    }
+                    return node.value;
+                }
+            }
+            if (count + 1 > threshold) {
+                tab = rehash(tab);
+                index = hash & (tab.length() - 1);
+                first = tab.get(index);
+            }
+            tab.set(index, new Node<>(key, hash, value, first));
+            count = count + 1;
+            return null;
+        }
+
+        synchronized boolean replace(int key, int hash, V expectedValue, V newValue) {
+            AtomicReferenceArray<Node<V>> tab = table;
+            int index = hash & (tab.length() - 1);
+            Node<V> first = tab.get(index);
+            for (Node<V> node = first; node != null; node = node.next) {
+                if (node.key == key) {
+                    if (!node.value.equals(expectedValue)) {
+                        return false;
+                    }
+                    tab.set(index, replaceNode(first, node, new Node<>(key, hash, newValue, node.next)));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized V remove(int key, int hash, V expectedValue) {
+            AtomicReferenceArray<Node<V>> tab = table;
+            int index = hash & (tab.length() - 1);
+            Node<V> first = tab.get(index);
+            for (Node<V> node = first; node != null; node = node.next) {
+                if (node.key == key) {
+                    if (expectedValue != null && !node.value.equals(expectedValue)) {
+                        return null;
+                    }
+                    tab.set(index, replaceNode(first, node, node.next));
+                    count = count - 1;
+                    return node.value;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Copy the nodes in front of the target, the tail behind it is shared with the old chain.
+         */
+        private static <V> Node<V> replaceNode(Node<V> first, Node<V> target, Node<V> replacement) {
+            Node<V> head = replacement;
+            for (Node<V> node = first; node != target; node = node.next) {
+                head = new Node<>(node.key, node.hash, node.value, head);
+            }
+            return head;
+        }
+
+        private AtomicReferenceArray<Node<V>> rehash(AtomicReferenceArray<Node<V>> oldTable) {
+            int oldCapacity = oldTable.length();
+            if (oldCapacity >= MAXIMUM_CAPACITY) {
+                return oldTable;
+            }
+            int newCapacity = oldCapacity << 1;
+            AtomicReferenceArray<Node<V>> newTable = new AtomicReferenceArray<>(newCapacity);
+            int mask = newCapacity - 1;
+            for (int i = 0; i < oldCapacity; i++) {
+                for (Node<V> node = oldTable.get(i); node != null; node = node.next) {
+                    int index = node.hash & mask;
+                    newTable.set(index, new Node<>(node.key, node.hash, node.value, newTable.get(index)));
+                }
+            }
+            threshold = (int) (newCapacity * LOAD_FACTOR);
+            // publish the fully built table, readers holding the old one still see a consistent state.
+            table = newTable;
+            return newTable;
+        }
+    }
+
+    private final class ValueIterator implements Iterator<V> {
+        private int segmentIndex;
+        private AtomicReferenceArray<Node<V>> table;
+        private int bucketIndex;
+        private Node<V> next;
+
+        ValueIterator() {
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            Node<V> node = next;
+            if (node == null) {
+                throw new NoSuchElementException();
+            }
+            next = node.next;
+            if (next == null) {
+                advance();
+            }
+            return node.value;
+        }
+
+        private void advance() {
+            while (true) {
+                if (table != null) {
+                    while (bucketIndex < table.length()) {
+                        Node<V> node = table.get(bucketIndex++);
+                        if (node != null) {
+                            next = node;
+                            return;
+                        }
+                    }
+                }
+                if (segmentIndex >= segments.length) {
+                    next = null;
+                    return;
+                }
+                table = segments[segmentIndex++].table;
+                bucketIndex = 0;
+            }
+        }
+    }
+}
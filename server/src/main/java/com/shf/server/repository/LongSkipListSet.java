@@ -0,0 +1,221 @@
+package com.shf.server.repository;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Description:
+ * A sorted set of primitive {@code long} keys for a single writer and any number of readers, so that no key is boxed.
+ * <ul>
+ * <li>A skip list: one node per key, linked on up to {@value #MAX_LEVEL} levels through volatile slots.</li>
+ * <li>Writes must be serialized by the caller, a shard writes its indexes under its lock. They never lock themselves.</li>
+ * <li>Reads are lock-free. A removed node keeps its forward links, so a reader standing on it carries on in order.
+ * Iteration is weakly consistent, like {@link java.util.concurrent.ConcurrentSkipListSet}.</li>
+ * </ul>
+ * A key may carry a label ordered before it, the name index is ordered by {@code (name, id)}. A set uses labels for all
+ * its keys or for none.
+ *
+ * @author songhaifeng
+ * @date 2020/01/22 14:30
+ */
+public class LongSkipListSet {
+    private static final int MAX_LEVEL = 16;
+
+    private final Node head = new Node(null, 0, MAX_LEVEL);
+    /**
+     * Writer only, the predecessors found by the last search.
+     */
+    private final Node[] preds = new Node[MAX_LEVEL];
+    private volatile int level = 1;
+    private int size;
+    /**
+     * Writer only.
+     */
+    private int seed = 0x2545F491;
+
+    /**
+     * Writer only.
+     *
+     * @return false if the key is already present
+     */
+    public boolean add(long key) {
+        return add(null, key);
+    }
+
+    /**
+     * Writer only.
+     *
+     * @return false if the labelled key is already present
+     */
+    public boolean add(String label, long key) {
+        Node found = findPredecessors(label, key);
+        if (found != null) {
+            return false;
+        }
+        int nodeLevel = randomLevel();
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                preds[i] = head;
+            }
+            level = nodeLevel;
+        }
+        Node node = new Node(label, key, nodeLevel);
+        // linked bottom up, a reader finds the node at level 0 before it can reach it from above
+        for (int i = 0; i < nodeLevel; i++) {
+            node.next.lazySet(i, preds[i].next.get(i));
+            preds[i].next.set(i, node);
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Writer only.
+     *
+     * @return false if the key is absent
+     */
+    public boolean remove(long key) {
+        return remove(null, key);
+    }
+
+    /**
+     * Writer only. The node keeps its forward links, for the readers standing on it.
+     *
+     * @return false if the labelled key is absent
+     */
+    public boolean remove(String label, long key) {
+        Node node = findPredecessors(label, key);
+        if (node == null) {
+            return false;
+        }
+        for (int i = node.next.length() - 1; i >= 0; i--) {
+            if (preds[i].next.get(i) == node) {
+                preds[i].next.set(i, node.next.get(i));
+            }
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Writer only.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param key       lower bound
+     * @param inclusive whether the bound itself is included
+     * @return a cursor over the keys from the bound, in ascending order
+     */
+    public Cursor from(long key, boolean inclusive) {
+        return from(null, key, inclusive);
+    }
+
+    /**
+     * @return a cursor over the labelled keys from the bound, in ascending order
+     */
+    public Cursor from(String label, long key, boolean inclusive) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            Node next;
+            while ((next = x.next.get(i)) != null && before(next, label, key, inclusive)) {
+                x = next;
+            }
+        }
+        return new Cursor(x);
+    }
+
+    /**
+     * Forward-only position in the set, used by one reader.
+     */
+    public static final class Cursor {
+        private Node node;
+
+        private Cursor(Node before) {
+            this.node = before;
+        }
+
+        /**
+         * @return false once there is no next key
+         */
+        public boolean next() {
+            Node next = node.next.get(0);
+            if (next == null) {
+                return false;
+            }
+            node = next;
+            return true;
+        }
+
+        public long key() {
+            return node.key;
+        }
+
+        public String label() {
+            return node.label;
+        }
+    }
+
+    /**
+     * Writer only. Fill {@link #preds} with the last node before the key on every level.
+     *
+     * @return the node of the key, null if absent
+     */
+    private Node findPredecessors(String label, long key) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            Node next;
+            while ((next = x.next.get(i)) != null && compare(next, label, key) < 0) {
+                x = next;
+            }
+            preds[i] = x;
+        }
+        Node candidate = x.next.get(0);
+        return candidate != null && compare(candidate, label, key) == 0 ? candidate : null;
+    }
+
+    /**
+     * Writer only, a level of {@code n} with a probability of {@code 4^-(n-1)}.
+     */
+    private int randomLevel() {
+        int x = seed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        seed = x;
+        int nodeLevel = 1;
+        while ((x & 3) == 0 && nodeLevel < MAX_LEVEL) {
+            nodeLevel++;
+            x >>>= 2;
+        }
+        return nodeLevel;
+    }
+
+    private static boolean before(Node node, String label, long key, boolean inclusive) {
+        int c = compare(node, label, key);
+        return inclusive ? c < 0 : c <= 0;
+    }
+
+    private static int compare(Node node, String label, long key) {
+        if (label != null) {
+            int c = node.label.compareTo(label);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Long.compare(node.key, key);
+    }
+
+    private static final class Node {
+        final String label;
+        final long key;
+        final AtomicReferenceArray<Node> next;
+
+        Node(String label, long key, int level) {
+            this.label = label;
+            this.key = key;
+            this.next = new AtomicReferenceArray<>(level);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+import com.shf.entity.UserAck;
+import com.shf.server.configuration.UserRepositoryProperties;
+
+import org.reactivestreams.Subscription;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Description:
+ * Bulk loading for the `add.users.channel` route.
+ * <ul>
+ * <li>Inbound users are cut into windows of `window-size` users or `window-timeout`, whichever comes first.</li>
+ * <li>Each window is applied with {@link UserRepository#addAll(List)} off the event loop, and answered with one {@link UserAck}.</li>
+ * <li>Inbound credit(REQUEST_N) is `window-size * max-pending-windows` and is only given back once a window is written
+ * and the acks are requested, so a producer can never be more than that many users ahead of the repository,
+ * nor of a consumer that stops reading the acks. The acks waiting for demand are bounded by the same credit.</li>
+ * </ul>
+ * Windows of one channel are written in order, windows of different channels in parallel.
+ *
+ * @author songhaifeng
+ * @date 2019/12/31 09:42
+ */
+@Component
+public class UserBulkLoader {
+    private final UserRepository userRepository;
+    private final Scheduler scheduler = Schedulers.boundedElastic();
+    private final int windowSize;
+    private final long windowTimeoutMillis;
+    private final int maxPendingWindows;
+
+    public UserBulkLoader(UserRepository userRepository, UserRepositoryProperties properties) {
+        UserRepositoryProperties.Channel channel = properties.getChannel();
+        this.userRepository = userRepository;
+        this.windowSize = channel.getWindowSize();
+        this.windowTimeoutMillis = channel.getWindowTimeout().toMillis();
+        this.maxPendingWindows = channel.getMaxPendingWindows();
+    }
+
+    /**
+     * @param users inbound users, unbounded
+     * @return one ack per window
+     */
+    public Flux<UserAck> load(Flux<User> users) {
+        return Flux.create(sink -> {
+            WindowSubscriber subscriber = new WindowSubscriber(sink, scheduler.createWorker());
+            sink.onRequest(n -> subscriber.grantOwed());
+            sink.onDispose(subscriber::dispose);
+            users.subscribe(subscriber);
+        }, FluxSink.OverflowStrategy.BUFFER);
+    }
+
+    private static UserAck ack(List<User> window, List<User> accepted) {
+        int[] rejected = new int[window.size() - accepted.size()];
+        int a = 0;
+        int r = 0;
+        // accepted keeps the order of the window
+        for (User user : window) {
+            if (a < accepted.size() && accepted.get(a) == user) {
+                a++;
+            } else {
+                rejected[r++] = user.getId();
+            }
+        }
+        return new UserAck(accepted.size(), Arrays.copyOf(rejected, r));
+    }
+
+    private final class WindowSubscriber extends BaseSubscriber<User> {
+        private final FluxSink<UserAck> sink;
+        /**
+         * Serial: windows are written and acked in order, timeouts fire on the same thread.
+         */
+        private final Scheduler.Worker worker;
+        private List<User> window;
+        private long generation;
+        /**
+         * Inbound credit of the written windows, held back while the acks are not requested.
+         */
+        private long owed;
+
+        WindowSubscriber(FluxSink<UserAck> sink, Scheduler.Worker worker) {
+            this.sink = sink;
+            this.worker = worker;
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            request((long) windowSize * maxPendingWindows);
+        }
+
+        @Override
+        protected void hookOnNext(User user) {
+            List<User> full = null;
+            synchronized (this) {
+                if (window == null) {
+                    window = new ArrayList<>(windowSize);
+                    long current = ++generation;
+                    worker.schedule(() -> expire(current), windowTimeoutMillis, TimeUnit.MILLISECONDS);
+                }
+                window.add(user);
+                if (window.size() >= windowSize) {
+                    full = window;
+                    window = null;
+                }
+            }
+            if (full != null) {
+                List<User> ready = full;
+                worker.schedule(() -> write(ready));
+            }
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            List<User> rest = take();
+            worker.schedule(() -> {
+                if (rest != null) {
+                    write(rest);
+                }
+                sink.complete();
+            });
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            List<User> rest = take();
+            worker.schedule(() -> {
+                if (rest != null) {
+                    write(rest);
+                }
+                sink.error(throwable);
+            });
+        }
+
+        /**
+         * Called once the acks terminate or are cancelled.
+         */
+        @Override
+        public void dispose() {
+            super.dispose();
+            worker.dispose();
+        }
+
+        /**
+         * Give back the inbound credit of a written window, or owe it until the acks are requested.
+         */
+        private void giveBack(long credit) {
+            synchronized (this) {
+                if (sink.requestedFromDownstream() <= 0) {
+                    owed += credit;
+                    return;
+                }
+            }
+            request(credit);
+        }
+
+        /**
+         * The acks are requested, give back the credit owed.
+         */
+        void grantOwed() {
+            long credit;
+            synchronized (this) {
+                credit = owed;
+                owed = 0;
+            }
+            if (credit > 0) {
+                request(credit);
+            }
+        }
+
+        private synchronized List<User> take() {
+            List<User> rest = window;
+            window = null;
+            return rest;
+        }
+
+        private void expire(long expected) {
+            List<User> expired;
+            synchronized (this) {
+                if (window == null || generation != expected) {
+                    return;
+                }
+                expired = take();
+            }
+            write(expired);
+        }
+
+        private void write(List<User> batch) {
+            if (sink.isCancelled()) {
+                return;
+            }
+            try {
+                sink.next(ack(batch, userRepository.addAll(batch)));
+                giveBack(batch.size());
+            } catch (Exception e) {
+                cancel();
+                sink.error(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+import com.shf.entity.UserChangeEvent;
+import com.shf.server.configuration.UserRepositoryProperties;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Description:
+ * Change data capture of the {@link UserRepository}, behind the `user.changes` route.
+ * <ul>
+ * <li>Every mutation is published once into a bounded ring of the last `capacity` {@link UserChangeEvent}s.</li>
+ * <li>A subscriber is only a cursor into the ring, it is drained on its own worker as far as its demand allows,
+ * so a slow subscriber never holds back the writers or the other subscribers.</li>
+ * <li>A subscriber more than `max-lag` events behind, or whose next event was overwritten, overflows:
+ * see {@link OverflowPolicy}.</li>
+ * </ul>
+ * Exposes `user.changes.subscribers` and `user.changes.overflow` meters.
+ *
+ * @author songhaifeng
+ * @date 2020/01/02 10:20
+ */
+@Slf4j
+@Component
+public class UserChangeFeed {
+
+    public enum OverflowPolicy {
+        /**
+         * Skip to the oldest event still within reach, the subscriber sees a gap in the sequences.
+         */
+        SKIP,
+        /**
+         * Terminate the subscriber with an {@link IllegalStateException}.
+         */
+        ERROR
+    }
+
+    private final AtomicReferenceArray<UserChangeEvent> ring;
+    private final int mask;
+    private final int maxLag;
+    private final OverflowPolicy overflowPolicy;
+    private final Set<Cursor> cursors = new CopyOnWriteArraySet<>();
+    private final Scheduler scheduler = Schedulers.parallel();
+    private final Counter overflowCounter;
+    /**
+     * Sequence of the last published event, written under the lock of {@link #publish}.
+     */
+    private volatile long last;
+
+    public UserChangeFeed(UserRepositoryProperties properties, MeterRegistry meterRegistry) {
+        UserRepositoryProperties.Changes changes = properties.getChanges();
+        int capacity = Integer.highestOneBit(Math.max(2, changes.getCapacity() - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.maxLag = Math.min(changes.getMaxLag(), capacity);
+        this.overflowPolicy = changes.getOverflowPolicy();
+
+        Gauge.builder("user.changes.subscribers", cursors, Set::size).register(meterRegistry);
+        this.overflowCounter = Counter.builder("user.changes.overflow").register(meterRegistry);
+    }
+
+    /**
+     * Publish a change, callers serialize changes of the same id.
+     *
+     * @param type type
+     * @param id   id
+     * @param user new value, null for a delete
+     */
+    public void publish(UserChangeEvent.Type type, int id, User user) {
+        synchronized (this) {
+            long sequence = last + 1;
+            ring.lazySet((int) sequence & mask, new UserChangeEvent(sequence, type, id, user));
+            last = sequence;
+        }
+        for (Cursor cursor : cursors) {
+            cursor.signal();
+        }
+    }
+
+    /**
+     * @return sequence of the last published change, 0 if none
+     */
+    public long lastSequence() {
+        return last;
+    }
+
+    /**
+     * @param fromSequence first sequence to emit, null for live changes only
+     * @return Flux<UserChangeEvent>
+     */
+    public Flux<UserChangeEvent> subscribe(Long fromSequence) {
+        return Flux.create(sink -> {
+            Cursor cursor = new Cursor(sink, fromSequence == null ? last + 1 : Math.max(1, fromSequence));
+            cursors.add(cursor);
+            sink.onRequest(n -> cursor.signal());
+            sink.onDispose(() -> {
+                cursors.remove(cursor);
+                cursor.worker.dispose();
+            });
+        });
+    }
+
+    private final class Cursor {
+        private final FluxSink<UserChangeEvent> sink;
+        private final Scheduler.Worker worker;
+        private final AtomicInteger wip = new AtomicInteger();
+        /**
+         * Next sequence to emit, only touched by the drain loop.
+         */
+        private long next;
+
+        Cursor(FluxSink<UserChangeEvent> sink, long next) {
+            this.sink = sink;
+            this.worker = scheduler.createWorker();
+            this.next = next;
+        }
+
+        void signal() {
+            if (wip.getAndIncrement() == 0) {
+                worker.schedule(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                while (!sink.isCancelled() && sink.requestedFromDownstream() > 0 && next <= last) {
+                    if (last - next >= maxLag) {
+                        if (!overflow(last - maxLag + 1)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    UserChangeEvent event = ring.get((int) next & mask);
+                    if (event == null || event.getSequence() != next) {
+                        // overwritten by the writers while we were reading
+                        if (!overflow(last - mask)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    sink.next(event);
+                    next++;
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * @return true if the subscriber continues from the new position
+         */
+        private boolean overflow(long resumeFrom) {
+            overflowCounter.increment();
+            if (overflowPolicy == OverflowPolicy.ERROR) {
+                sink.error(new IllegalStateException("Change subscriber fell behind, next sequence " + next + " is no longer available."));
+                return false;
+            }
+            log.debug("Change subscriber fell behind, skip from {} to {}", next, resumeFrom);
+            next = Math.max(next + 1, resumeFrom);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+
+import java.util.Objects;
+
+/**
+ * Description:
+ * Incrementally maintained secondary indexes of the users, in {@link LongSkipListSet}s so that no key is boxed.
+ * <ul>
+ * <li>id: the ids, the order of full scans and the position a cursor resumes from.</li>
+ * <li>age: {@code (age << 32 | id ^ Integer.MIN_VALUE)} keys, so a range of ages is a contiguous, sorted run.
+ * The id is flipped to its offset from {@link Integer#MIN_VALUE} so negative ids sort before positive ones within an age.</li>
+ * <li>name: ids labelled with the name, so all names with a prefix are a contiguous run starting at the prefix.</li>
+ * </ul>
+ * The indexes are walked lazily through a {@link Cursor}: a range query reads the index while the subscriber requests more,
+ * it never copies the matches.
+ * <p>
+ * Like the id of a deleted user, the age and name entries of a replaced value stay indexed while a snapshot may read it,
+ * see {@link #retire(User, UserVersion, long)}. An index therefore holds every value some snapshot sees, and a reader only
+ * keeps the entry {@link Cursor#matches(User) matching} the user at its snapshot: each user is read once, at its place.
+ * All the methods but the cursors are writer only.
+ *
+ * @author songhaifeng
+ * @date 2019/12/29 15:02
+ */
+public class UserIndexes {
+    private static final long ID_MASK = 0xFFFFFFFFL;
+
+    private final LongSkipListSet idIndex = new LongSkipListSet();
+    private final LongSkipListSet ageIndex = new LongSkipListSet();
+    private final LongSkipListSet nameIndex = new LongSkipListSet();
+
+    /**
+     * Index the age and the name of a new value, those already indexed stay as they are.
+     *
+     * @param user new value
+     */
+    public void add(User user) {
+        ageIndex.add(ageKey(user.getAge(), user.getId()));
+        if (user.getName() != null) {
+            nameIndex.add(user.getName(), user.getId());
+        }
+    }
+
+    /**
+     * Drop the age and name entries of a replaced value once no snapshot reads it, unless a value still readable shares them.
+     *
+     * @param retired the replaced value
+     * @param current current version of the id, null once purged
+     * @param since   version of the write which replaced the value, visible to every snapshot
+     */
+    public void retire(User retired, UserVersion current, long since) {
+        boolean sameAge = false;
+        boolean sameName = retired.getName() == null;
+        // older versions are visible to no snapshot any more
+        for (UserVersion version = current; version != null && version.version >= since; version = version.previous) {
+            if (version.user != null) {
+                sameAge |= version.user.getAge() == retired.getAge();
+                sameName |= Objects.equals(version.user.getName(), retired.getName());
+            }
+        }
+        if (!sameAge) {
+            ageIndex.remove(ageKey(retired.getAge(), retired.getId()));
+        }
+        if (!sameName) {
+            nameIndex.remove(retired.getName(), retired.getId());
+        }
+    }
+
+    /**
+     * Add an id to the id index, it stays there while a snapshot may read it, so across deletes until it is removed.
+     *
+     * @param id id
+     */
+    public void addId(int id) {
+        idIndex.add(id);
+    }
+
+    public void removeId(int id) {
+        idIndex.remove(id);
+    }
+
+    /**
+     * @param afterId exclusive lower bound, null for all ids
+     * @return ids in ascending order
+     */
+    public Cursor ids(Integer afterId) {
+        LongSkipListSet.Cursor entries = afterId == null ? idIndex.from(Long.MIN_VALUE, true) : idIndex.from(afterId, false);
+        return new Cursor(entries) {
+            @Override
+            public int id() {
+                return (int) entries.key();
+            }
+        };
+    }
+
+    /**
+     * @return ids of the users whose age is in [min, max], ordered by age
+     */
+    public Cursor idsByAge(int min, int max) {
+        long last = ageKey(max, Integer.MAX_VALUE);
+        return new Cursor(ageIndex.from(ageKey(min, Integer.MIN_VALUE), true)) {
+            @Override
+            public boolean next() {
+                return entries.next() && entries.key() <= last;
+            }
+
+            @Override
+            public int id() {
+                return (int) entries.key() ^ Integer.MIN_VALUE;
+            }
+
+            @Override
+            public boolean matches(User user) {
+                return user.getAge() == (int) (entries.key() >> 32);
+            }
+        };
+    }
+
+    /**
+     * @return ids of the users whose name starts with the prefix, ordered by name
+     */
+    public Cursor idsByNamePrefix(String prefix) {
+        return new Cursor(nameIndex.from(prefix, Integer.MIN_VALUE, true)) {
+            @Override
+            public boolean next() {
+                return entries.next() && entries.label().startsWith(prefix);
+            }
+
+            @Override
+            public int id() {
+                return (int) entries.key();
+            }
+
+            @Override
+            public boolean matches(User user) {
+                return entries.label().equals(user.getName());
+            }
+        };
+    }
+
+    private static long ageKey(int age, int id) {
+        return ((long) age << 32) | ((id ^ Integer.MIN_VALUE) & ID_MASK);
+    }
+
+    /**
+     * Forward-only walk of one index, used by one reader.
+     */
+    public abstract static class Cursor {
+        final LongSkipListSet.Cursor entries;
+
+        Cursor(LongSkipListSet.Cursor entries) {
+            this.entries = entries;
+        }
+
+        /**
+         * @return false once the range is exhausted
+         */
+        public boolean next() {
+            return entries.next();
+        }
+
+        public abstract int id();
+
+        /**
+         * @param user the user of {@link #id()} at the snapshot of the reader
+         * @return whether the entry is the one of that value, the others belong to older or newer values
+         */
+        public boolean matches(User user) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/**
+ * Description:
+ * Durable, append-only log of user mutations.
+ * <ul>
+ * <li>Records are appended to memory-mapped segment files, each record is framed as
+ * {@code [int length][int crc32][byte type][int id][int age][int nameLength][name utf-8]}.</li>
+ * <li>All writes run on a dedicated single thread, the callers(RSocket event loops) only enqueue.</li>
+ * <li>Sealed segments are compacted in the background, keeping the last record of each id and dropping the deleted ones.</li>
+ * <li>{@link #replay(Consumer)} rebuilds the in-memory index on startup, it stops at the first torn or corrupt record.</li>
+ * <li>A {@link UserSnapshotFile} covers the segments before its position(see {@link #mark()}), so only the segments from
+ * that position on are replayed over it. Their tombstones are kept by compaction, they delete users of the snapshot.</li>
+ * </ul>
+ *
+ * @author songhaifeng
+ * @date 2019/12/27 11:05
+ */
+@Slf4j
+public class UserLog implements Closeable {
+    static final byte TYPE_PUT = 1;
+    static final byte TYPE_DELETE = 2;
+    /**
+     * Replay every segment, there is no snapshot.
+     */
+    public static final long NO_SNAPSHOT = -1;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final int HEADER_SIZE = 8;
+    /**
+     * type + id + age + nameLength
+     */
+    private static final int FIXED_BODY_SIZE = 13;
+    private static final long MAX_COMPACTION_BYTES = Integer.MAX_VALUE / 2;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int compactionMinSegments;
+    private final ScheduledExecutorService writer;
+    private final ScheduledExecutorService compactor;
+    private final ScheduledFuture<?> flushTask;
+    private final CRC32 writerCrc = new CRC32();
+    /**
+     * Sealed segments in log order, guarded by itself. The active segment is not part of it.
+     */
+    private final List<Path> sealedSegments = new ArrayList<>();
+
+    private long activeSequence;
+    private Path activePath;
+    private MappedByteBuffer active;
+    private boolean dirty;
+    private boolean created;
+    private ScheduledFuture<?> compactionTask;
+    /**
+     * Position of the snapshot on disk, compaction keeps the tombstones of the segments from there on.
+     */
+    private volatile long snapshotPosition = Long.MAX_VALUE;
+
+    public UserLog(Path directory, int segmentSize, Duration flushInterval, int compactionMinSegments) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.compactionMinSegments = Math.max(2, compactionMinSegments);
+        deleteLeftovers();
+        this.writer = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("user-log-writer-"));
+        this.compactor = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("user-log-compactor-"));
+        this.flushTask = writer.scheduleWithFixedDelay(this::flush,
+                flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replay the segments from the position of the loaded snapshot in order. Must be called once, before any append.
+     * The segments before the position are not read, they stay in the log until they are compacted.
+     *
+     * @param snapshotPosition position recorded by the loaded snapshot, {@link #NO_SNAPSHOT} to replay every segment
+     * @param onPut            invoked for each put record
+     * @param onDelete         invoked with the id of each delete record
+     * @return number of records replayed
+     */
+    public long replay(long snapshotPosition, Consumer<User> onPut, Consumer<Integer> onDelete) throws IOException {
+        this.snapshotPosition = snapshotPosition == NO_SNAPSHOT ? Long.MAX_VALUE : snapshotPosition;
+        List<Path> segments = listSegments();
+        created = segments.isEmpty();
+        long records = 0;
+        int skipped = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            if (sequenceOf(segment) < snapshotPosition) {
+                // even the last segment, appends must go to a segment at or after the position or the next startup skips them
+                synchronized (sealedSegments) {
+                    sealedSegments.add(segment);
+                }
+                skipped++;
+                continue;
+            }
+            boolean last = i == segments.size() - 1;
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(last ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                        0, last ? Math.max(segmentSize, channel.size()) : channel.size());
+                records += readRecords(buffer, new CRC32(), onPut, onDelete);
+                if (last) {
+                    // the tail may hold a torn record, wipe it so that later appends are not followed by garbage.
+                    for (int p = buffer.position(); p < buffer.limit(); p++) {
+                        buffer.put(p, (byte) 0);
+                    }
+                    activeSequence = sequenceOf(segment);
+                    activePath = segment;
+                    active = buffer;
+                } else {
+                    synchronized (sealedSegments) {
+                        sealedSegments.add(segment);
+                    }
+                }
+            }
+        }
+        if (active == null) {
+            if (!segments.isEmpty()) {
+                activeSequence = sequenceOf(segments.get(segments.size() - 1));
+            }
+            activeSequence = Math.max(activeSequence, snapshotPosition - 1);
+            roll();
+        }
+        log.info("Replayed {} user records from {} segments in {} ms, skipped {} segments before the snapshot", records,
+                segments.size() - skipped, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), skipped);
+        return records;
+    }
+
+    public long replay(Consumer<User> onPut, Consumer<Integer> onDelete) throws IOException {
+        return replay(NO_SNAPSHOT, onPut, onDelete);
+    }
+
+    public long replay(Consumer<User> onPut) throws IOException {
+        return replay(onPut, id -> {
+        });
+    }
+
+    /**
+     * @return true if the log had no segment when it was replayed, it starts empty
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    /**
+     * Seal the active segment unless it is empty, so that every record appended from now on is at or after the returned position.
+     * A snapshot opened after this call holds every record before the position.
+     * Blocks, must be called on a non event-loop thread.
+     *
+     * @return position of the next record
+     */
+    public long mark() {
+        long[] position = new long[1];
+        submit(() -> {
+            if (active.position() > 0) {
+                roll();
+            }
+            position[0] = activeSequence;
+        }).block();
+        return position[0];
+    }
+
+    /**
+     * A snapshot with the position is now on disk, compaction may drop the tombstones of the segments before it.
+     *
+     * @param position position of the snapshot, see {@link #mark()}
+     */
+    public void snapshotSaved(long position) {
+        snapshotPosition = position;
+    }
+
+    /**
+     * Enqueue a put record, the returned Mono completes once the record is in the mapped segment.
+     * The record is enqueued immediately, whether or not the result is subscribed.
+     *
+     * @param user user
+     * @return Mono
+     */
+    public Mono<Void> append(User user) {
+        return submit(() -> write(TYPE_PUT, user.getId(), user));
+    }
+
+    /**
+     * Enqueue a delete record(tombstone), the returned Mono completes once the record is in the mapped segment.
+     *
+     * @param id id
+     * @return Mono
+     */
+    public Mono<Void> appendDelete(int id) {
+        return submit(() -> write(TYPE_DELETE, id, null));
+    }
+
+    /**
+     * Enqueue a batch of put records as one task, the returned Mono completes once they are all in the mapped segment.
+     * The records are enqueued immediately, in order with the single appends of the calling thread.
+     *
+     * @param users users
+     * @return Mono
+     */
+    public Mono<Void> appendAll(List<User> users) {
+        return submit(() -> {
+            for (User user : users) {
+                write(TYPE_PUT, user.getId(), user);
+            }
+        });
+    }
+
+    /**
+     * Force every record enqueued so far to disk, the group commit of batches appended by several threads.
+     * Blocks, must be called on a non event-loop thread.
+     */
+    public void force() {
+        submit(this::flush).block();
+    }
+
+    /**
+     * Start compacting sealed segments periodically.
+     *
+     * @param interval compaction interval
+     */
+    public synchronized void startCompaction(Duration interval) {
+        if (compactionTask == null) {
+            compactionTask = compactor.scheduleWithFixedDelay(this::compact,
+                    interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (compactionTask != null) {
+            compactionTask.cancel(false);
+        }
+        flushTask.cancel(false);
+        submit(this::flush).block();
+        compactor.shutdown();
+        writer.shutdown();
+    }
+
+    private Mono<Void> submit(Runnable task) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        writer.execute(() -> {
+            try {
+                task.run();
+                future.complete(null);
+            } catch (Throwable e) {
+                log.error("Failed to write the user log", e);
+                future.completeExceptionally(e);
+            }
+        });
+        return Mono.fromFuture(future);
+    }
+
+    /**
+     * Runs on the writer thread only.
+     */
+    private void write(byte type, int id, User user) {
+        byte[] name = nameOf(user);
+        int recordLength = HEADER_SIZE + FIXED_BODY_SIZE + (name == null ? 0 : name.length);
+        if (recordLength > segmentSize) {
+            throw new IllegalArgumentException("Record of user " + id + " is larger than a segment.");
+        }
+        if (active.remaining() < recordLength) {
+            roll();
+        }
+        encode(active, writerCrc, type, id, user, name);
+        dirty = true;
+    }
+
+    /**
+     * Frame one record at the position of the buffer, the position is left after it.
+     * The length is written last, a record is only visible to replay once it is complete.
+     */
+    private static void encode(ByteBuffer out, CRC32 crc, byte type, int id, User user, byte[] name) {
+        int bodyLength = FIXED_BODY_SIZE + (name == null ? 0 : name.length);
+        int start = out.position();
+        out.position(start + HEADER_SIZE);
+        out.put(type).putInt(id).putInt(user == null ? 0 : user.getAge()).putInt(name == null ? -1 : name.length);
+        if (name != null) {
+            out.put(name);
+        }
+        ByteBuffer body = out.duplicate();
+        body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + bodyLength);
+        crc.reset();
+        crc.update(body);
+        out.putInt(start + 4, (int) crc.getValue());
+        out.putInt(start, bodyLength);
+    }
+
+    private static byte[] nameOf(User user) {
+        return user == null || user.getName() == null ? null : user.getName().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void flush() {
+        if (dirty && active != null) {
+            active.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Seal the active segment and map a new one. Runs on the writer thread, or during replay.
+     */
+    private void roll() {
+        try {
+            if (active != null) {
+                active.force();
+                synchronized (sealedSegments) {
+                    sealedSegments.add(activePath);
+                }
+            }
+            activeSequence++;
+            activePath = directory.resolve(segmentName(activeSequence));
+            try (FileChannel channel = FileChannel.open(activePath, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                active = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to roll the user log segment.", e);
+        }
+    }
+
+    /**
+     * Rewrite the oldest sealed segments into one segment that holds the last record of every id they contain, as found in them.
+     * The batch always starts at the oldest segment and every user comes from the log or from a snapshot(the repository logs even its
+     * sample users, see {@link UserRepository}), there is no older record left for a tombstone to hide, so tombstones are dropped.
+     * Unless the result lands at or after the snapshot position: it is replayed over the snapshot, where its tombstones still hide users.
+     * The result takes the place of the newest compacted segment, so the log order is preserved.
+     */
+    void compact() {
+        List<Path> batch = new ArrayList<>();
+        try {
+            long bytes = 0;
+            synchronized (sealedSegments) {
+                for (Path segment : sealedSegments) {
+                    bytes += Files.size(segment);
+                    if (bytes > MAX_COMPACTION_BYTES && !batch.isEmpty()) {
+                        break;
+                    }
+                    batch.add(segment);
+                }
+            }
+            if (batch.size() < compactionMinSegments) {
+                return;
+            }
+            Path target = batch.get(batch.size() - 1);
+            Path temp = directory.resolve(target.getFileName() + COMPACTING_SUFFIX);
+            long written = rewrite(batch, temp, sequenceOf(target) >= snapshotPosition);
+            force(temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            synchronized (sealedSegments) {
+                sealedSegments.removeAll(batch.subList(0, batch.size() - 1));
+            }
+            // a crash from here on only leaves older segments that the compacted one supersedes.
+            for (Path segment : batch.subList(0, batch.size() - 1)) {
+                Files.deleteIfExists(segment);
+            }
+            log.info("Compacted {} user log segments into {} with {} records", batch.size(), target.getFileName(), written);
+        } catch (Exception e) {
+            log.error("Failed to compact the user log segments {}", batch, e);
+        }
+    }
+
+    private long rewrite(List<Path> segments, Path temp, boolean keepTombstones) throws IOException {
+        // the segments are read in log order, so the last record of an id wins; a tombstone removes the id, and is kept if asked to.
+        ConcurrentIntObjectMap<User> last = new ConcurrentIntObjectMap<>(1024, 1);
+        ConcurrentIntObjectMap<Integer> tombstones = new ConcurrentIntObjectMap<>(16, 1);
+        for (Path segment : segments) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                readRecords(buffer, new CRC32(), user -> {
+                    last.put(user.getId(), user);
+                    tombstones.remove(user.getId());
+                }, id -> {
+                    last.remove(id);
+                    if (keepTombstones) {
+                        tombstones.put(id, id);
+                    }
+                });
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(1 << 20);
+        CRC32 crc = new CRC32();
+        long written = 0;
+        try (FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            for (User user : last.values()) {
+                byte[] name = nameOf(user);
+                if (out.remaining() < HEADER_SIZE + FIXED_BODY_SIZE + (name == null ? 0 : name.length)) {
+                    drain(out, target);
+                }
+                encode(out, crc, TYPE_PUT, user.getId(), user, name);
+                written++;
+            }
+            for (int id : tombstones.values()) {
+                if (out.remaining() < HEADER_SIZE + FIXED_BODY_SIZE) {
+                    drain(out, target);
+                }
+                encode(out, crc, TYPE_DELETE, id, null, null);
+                written++;
+            }
+            drain(out, target);
+        }
+        return written;
+    }
+
+    private static void drain(ByteBuffer out, FileChannel target) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            target.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Decode records from the current position until the end marker(length 0), a torn record or a crc mismatch.
+     * The buffer is left positioned after the last valid record.
+     */
+    static long readRecords(ByteBuffer buffer, CRC32 crc, Consumer<User> onPut, Consumer<Integer> onDelete) {
+        long records = 0;
+        while (buffer.remaining() >= HEADER_SIZE + FIXED_BODY_SIZE) {
+            int start = buffer.position();
+            int bodyLength = buffer.getInt(start);
+            if (bodyLength < FIXED_BODY_SIZE || bodyLength > buffer.limit() - start - HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + bodyLength);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+                log.warn("Found a corrupt user record at offset {}, the rest of the segment is ignored.", start);
+                break;
+            }
+            int offset = start + HEADER_SIZE;
+            byte type = buffer.get(offset);
+            int id = buffer.getInt(offset + 1);
+            if (type == TYPE_DELETE) {
+                onDelete.accept(id);
+            } else {
+                int nameLength = buffer.getInt(offset + 9);
+                String name = null;
+                if (nameLength >= 0) {
+                    byte[] bytes = new byte[nameLength];
+                    ByteBuffer nameBuffer = buffer.duplicate();
+                    nameBuffer.position(offset + FIXED_BODY_SIZE);
+                    nameBuffer.get(bytes);
+                    name = new String(bytes, StandardCharsets.UTF_8);
+                }
+                onPut.accept(User.builder().id(id).age(buffer.getInt(offset + 5)).name(name).build());
+            }
+            buffer.position(start + HEADER_SIZE + bodyLength);
+            records++;
+        }
+        return records;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private void deleteLeftovers() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + COMPACTING_SUFFIX)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static CustomizableThreadFactory daemonThreadFactory(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
+    private static String segmentName(long sequence) {
+        return String.format("%020d%s", sequence, SEGMENT_SUFFIX);
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
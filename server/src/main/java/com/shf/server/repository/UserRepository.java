@@ -1,48 +1,405 @@
 package com.shf.server.repository;
 
 import com.shf.entity.User;
+import com.shf.entity.UserBatch;
+import com.shf.server.configuration.UserRepositoryProperties;
 
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Repository;
 
-import java.time.Duration;
-import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.stream.Stream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.StreamSupport;
 
+import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
  * Description:
+ * Users are partitioned by id into {@link UserShard}s, by default one per core.
+ * Every shard has its own map, indexes and single writer thread, so writes scale with the shards
+ * and reads arriving on arbitrary Netty event-loop threads never lock.
+ * Queries across shards merge the ordered stream of every shard.
+ * <p>
+ * Each entry is a {@link UserVersion}, so streams can read a consistent snapshot, see {@link UserSnapshots}.
+ * The snapshot versions are shared by all shards, so a snapshot is consistent across them.
+ * <p>
+ * On startup the store is preloaded from the {@link UserSnapshotFile} if there is one, then the {@link UserLog} is replayed
+ * over it from the log position recorded by the snapshot, when configured(the repository is never lazy for that reason).
+ * Every added user is appended to the log off the event loop. The sample users are only added on the first start,
+ * with neither a snapshot nor a log to restore from.
  *
  * @author: songhaifeng
  * @date: 2019/11/18 14:57
  */
+@Slf4j
 @Repository
-public class UserRepository {
-    private static final Map<Integer, User> USERS = new HashMap<>(3);
+@Lazy(false)
+public class UserRepository implements DisposableBean {
+    private static final Comparator<User> BY_ID = Comparator.comparingInt(User::getId);
+    private static final Comparator<User> BY_AGE = Comparator.comparingInt(User::getAge).thenComparing(BY_ID);
+    private static final Comparator<User> BY_NAME = Comparator.comparing(User::getName).thenComparing(BY_ID);
 
-    static {
-        USERS.put(1, User.builder().id(1).age(18).name("foo").build());
-        USERS.put(2, User.builder().id(2).age(20).name("bar").build());
-        USERS.put(3, User.builder().id(3).age(25).name("car").build());
+    private final UserShard[] shards;
+    private final UserSnapshots snapshots;
+    private final UserSnapshotFile snapshotFile;
+    private final UserLog userLog;
+
+    public UserRepository(ObjectProvider<UserLog> userLogProvider, UserSnapshotFile snapshotFile,
+                          UserChangeFeed changeFeed, UserRepositoryProperties properties) {
+        int shardCount = properties.getShards() > 0 ? properties.getShards() : Runtime.getRuntime().availableProcessors();
+        this.shards = new UserShard[shardCount];
+        this.snapshots = new UserSnapshots(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new UserShard(i, snapshots, changeFeed);
+        }
+
+        this.snapshotFile = snapshotFile;
+        long snapshotPosition = UserLog.NO_SNAPSHOT;
+        if (properties.getSnapshot().isLoadOnStartup() && snapshotFile.exists()) {
+            try {
+                long start = System.nanoTime();
+                snapshotPosition = snapshotFile.logPosition();
+                long loaded = snapshotFile.load(users -> putAll(users, false));
+                Runtime runtime = Runtime.getRuntime();
+                log.info("Loaded {} users from the snapshot in {} ms, heap used {} MB", loaded,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load the user snapshot.", e);
+            }
+        }
+
+        this.userLog = userLogProvider.getIfAvailable();
+        if (userLog != null) {
+            try {
+                userLog.replay(snapshotPosition, this::put, id -> shardOf(id).remove(id));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to replay the user log.", e);
+            }
+        }
+        if (snapshotPosition == UserLog.NO_SNAPSHOT && (userLog == null || userLog.isCreated())) {
+            seed();
+        }
+        if (userLog != null) {
+            userLog.startCompaction(properties.getPersistence().getCompactionInterval());
+        }
     }
 
     public Mono<User> getOne(int id) {
-        return Mono.justOrEmpty(USERS.get(id));
+        return Mono.justOrEmpty(get(id));
+    }
+
+    /**
+     * Look up many users at once, without a Mono per id.
+     *
+     * @param ids ids, duplicates are looked up again
+     * @return the users found in request order and the missing ids
+     */
+    public UserBatch getMany(int[] ids) {
+        List<User> found = new ArrayList<>(ids.length);
+        int[] missing = new int[ids.length];
+        int missingCount = 0;
+        for (int id : ids) {
+            User user = get(id);
+            if (user != null) {
+                found.add(user);
+            } else {
+                missing[missingCount++] = id;
+            }
+        }
+        return new UserBatch(found, Arrays.copyOf(missing, missingCount));
     }
 
+    /**
+     * Add the user only if its id is absent, the check and the insert happen atomically on the writer of its shard.
+     * The returned Mono completes once the user is also in the log, if persistence is enabled.
+     *
+     * @param user user
+     * @return false if the id already exists
+     */
     public Mono<Boolean> add(User user) {
-        if (USERS.containsKey(user.getId())) {
-            return Mono.just(Boolean.FALSE);
+        UserShard shard = shardOf(user.getId());
+        return shard.write(() -> shard.insert(user))
+                .flatMap(inserted -> inserted && userLog != null ? userLog.append(user).thenReturn(Boolean.TRUE) : Mono.just(inserted));
+    }
+
+    /**
+     * Replace an existing user.
+     *
+     * @param user user
+     * @return false if the id does not exist
+     */
+    public Mono<Boolean> update(User user) {
+        UserShard shard = shardOf(user.getId());
+        return shard.write(() -> shard.update(user))
+                .flatMap(updated -> updated && userLog != null ? userLog.append(user).thenReturn(Boolean.TRUE) : Mono.just(updated));
+    }
+
+    /**
+     * Remove a user. Streams that are already running still see it, as of the snapshot they read.
+     *
+     * @param id id
+     * @return false if the id does not exist
+     */
+    public Mono<Boolean> delete(int id) {
+        UserShard shard = shardOf(id);
+        return shard.write(() -> shard.delete(id))
+                .flatMap(deleted -> deleted && userLog != null ? userLog.appendDelete(id).thenReturn(Boolean.TRUE) : Mono.just(deleted));
+    }
+
+    /**
+     * Apply a batch of users as one group commit: the batch is split by shard and applied by all shard writers in parallel,
+     * each user is added only if its id is absent. Each shard writer appends its accepted users to the log right after applying them,
+     * in order with its single mutations, then the log is forced to disk once for the whole batch.
+     * Blocks on the shards and the log, must not be called on an event-loop thread.
+     *
+     * @param batch users
+     * @return accepted users, in batch order
+     */
+    @SuppressWarnings("unchecked")
+    public List<User> addAll(List<User> batch) {
+        List<User>[] perShard = new List[shards.length];
+        int[][] positions = new int[shards.length][];
+        int[] counts = new int[shards.length];
+        for (int i = 0; i < batch.size(); i++) {
+            int shard = shardIndex(batch.get(i).getId());
+            if (perShard[shard] == null) {
+                perShard[shard] = new ArrayList<>();
+                positions[shard] = new int[batch.size()];
+            }
+            perShard[shard].add(batch.get(i));
+            positions[shard][counts[shard]++] = i;
+        }
+        boolean[] accepted = new boolean[batch.size()];
+        Mono<Void>[] logged = new Mono[shards.length];
+        List<CompletableFuture<Void>> writes = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (perShard[shard] != null) {
+                UserShard target = shards[shard];
+                List<User> users = perShard[shard];
+                int[] userPositions = positions[shard];
+                int index = shard;
+                writes.add(target.writeAll(() -> {
+                    target.insertAll(users, accepted, userPositions);
+                    if (userLog != null) {
+                        List<User> inserted = new ArrayList<>(users.size());
+                        for (int i = 0; i < users.size(); i++) {
+                            if (accepted[userPositions[i]]) {
+                                inserted.add(users.get(i));
+                            }
+                        }
+                        logged[index] = inserted.isEmpty() ? null : userLog.appendAll(inserted);
+                    }
+                }));
+            }
+        }
+        // join makes the flags and the appends written by the shard writers visible here
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        force(logged);
+
+        List<User> result = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (accepted[i]) {
+                result.add(batch.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Dump all users, as of the moment the dump starts, to the snapshot file.
+     * The log is marked first, so the snapshot holds every record before its log position.
+     * Blocks on the log and the file, must not be called on an event-loop thread.
+     * Dumps are serialized, the position of the snapshot on disk only moves forward.
+     *
+     * @return number of users written
+     */
+    public synchronized long saveSnapshot() throws IOException {
+        long logPosition = userLog == null ? 0 : userLog.mark();
+        long version = snapshots.open();
+        long written;
+        try {
+            written = snapshotFile.dump(() -> Arrays.stream(shards)
+                    .flatMap(shard -> StreamSupport.stream(shard.scan(version, () -> shard.indexes.ids(null)).spliterator(), false))
+                    .iterator(), logPosition);
+        } finally {
+            snapshots.close(version);
+        }
+        if (userLog != null) {
+            userLog.snapshotSaved(logPosition);
+        }
+        return written;
+    }
+
+    /**
+     * Insert or replace every user of the snapshot file. Unlike the startup preload,
+     * the users are published as changes and appended to the log.
+     * Blocks on the file, the shards and the log, must not be called on an event-loop thread.
+     *
+     * @return number of users loaded
+     */
+    public long loadSnapshot() throws IOException {
+        return snapshotFile.load(users -> putAll(users, true));
+    }
+
+    /**
+     * Stream all users ordered by id, as of the moment the stream is subscribed.
+     * Users are read from the store only as the requester grants credit(REQUEST_N), nothing is copied upfront.
+     *
+     * @param afterId resume after this id, null to start from the first user
+     * @param size    maximum number of users to emit, 0 for no limit
+     * @return Flux<User>
+     */
+    public Flux<User> list(Integer afterId, int size) {
+        Flux<User> snapshot = Flux.using(snapshots::open,
+                version -> merge(BY_ID, shard -> Flux.fromIterable(shard.scan(version, () -> shard.indexes.ids(afterId)))),
+                snapshots::close);
+        return size > 0 ? snapshot.limitRequest(size) : snapshot;
+    }
+
+    /**
+     * Stream the users whose age is in [min, max] ordered by age, as of the moment the stream is subscribed.
+     * The indexes are walked on demand, like {@link #list(Integer, int)}.
+     *
+     * @param min min age, inclusive
+     * @param max max age, inclusive
+     * @return Flux<User>
+     */
+    public Flux<User> findByAge(int min, int max) {
+        return Flux.using(snapshots::open,
+                version -> merge(BY_AGE, shard -> Flux.fromIterable(shard.scan(version, () -> shard.indexes.idsByAge(min, max)))),
+                snapshots::close);
+    }
+
+    /**
+     * Stream the users whose name starts with the prefix ordered by name, as of the moment the stream is subscribed.
+     * The indexes are walked on demand, like {@link #list(Integer, int)}.
+     *
+     * @param prefix name prefix, not null
+     * @return Flux<User>
+     */
+    public Flux<User> findByNamePrefix(String prefix) {
+        return Flux.using(snapshots::open,
+                version -> merge(BY_NAME, shard -> Flux.fromIterable(shard.scan(version, () -> shard.indexes.idsByNamePrefix(prefix)))),
+                snapshots::close);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        for (UserShard shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Insert or replace users, on the writers of their shards.
+     *
+     * @param users   users
+     * @param publish publish the changes and append the users to the log, false while starting up
+     */
+    @SuppressWarnings("unchecked")
+    private void putAll(List<User> users, boolean publish) {
+        List<User>[] perShard = new List[shards.length];
+        for (User user : users) {
+            int shard = shardIndex(user.getId());
+            if (perShard[shard] == null) {
+                perShard[shard] = new ArrayList<>();
+            }
+            perShard[shard].add(user);
+        }
+        boolean append = publish && userLog != null;
+        Mono<Void>[] logged = new Mono[shards.length];
+        List<CompletableFuture<Void>> writes = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (perShard[shard] != null) {
+                UserShard target = shards[shard];
+                List<User> shardUsers = perShard[shard];
+                int index = shard;
+                writes.add(target.writeAll(() -> {
+                    shardUsers.forEach(publish ? target::upsert : target::put);
+                    if (append) {
+                        logged[index] = userLog.appendAll(shardUsers);
+                    }
+                }));
+            }
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        force(logged);
+    }
+
+    /**
+     * Wait for the appends of the shard writers, then force them to disk with a single flush.
+     */
+    private void force(Mono<Void>[] logged) {
+        boolean appended = false;
+        for (Mono<Void> append : logged) {
+            if (append != null) {
+                append.block();
+                appended = true;
+            }
         }
-        USERS.put(user.getId(), user);
-        return Mono.just(Boolean.TRUE);
+        if (appended) {
+            userLog.force();
+        }
+    }
+
+    /**
+     * Merge the ordered streams of all shards into one ordered stream.
+     */
+    @SuppressWarnings("unchecked")
+    private Flux<User> merge(Comparator<User> order, Function<UserShard, Flux<User>> query) {
+        if (shards.length == 1) {
+            return query.apply(shards[0]);
+        }
+        Flux<User>[] sources = new Flux[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            sources[i] = query.apply(shards[i]);
+        }
+        return Flux.mergeOrdered(order, sources);
+    }
+
+    /**
+     * Add the sample users on the first start only, and log them: from then on they are restored from the snapshot or the log
+     * like any other user, so that a deleted one stays deleted once the log is compacted.
+     */
+    private void seed() {
+        List<User> seeds = Arrays.asList(
+                User.builder().id(1).age(18).name("foo").build(),
+                User.builder().id(2).age(20).name("bar").build(),
+                User.builder().id(3).age(25).name("car").build());
+        seeds.forEach(this::put);
+        if (userLog != null) {
+            userLog.appendAll(seeds);
+            userLog.force();
+        }
+    }
+
+    private User get(int id) {
+        return shardOf(id).get(id);
+    }
+
+    private void put(User user) {
+        shardOf(user.getId()).put(user);
+    }
+
+    private UserShard shardOf(int id) {
+        return shards[shardIndex(id)];
     }
 
-    public Flux<User> list() {
-        return Flux.fromStream(USERS.values().stream())
-                .delayElements(Duration.ofSeconds(3)).log();
+    /**
+     * Fibonacci hashing spreads sequential ids evenly over any number of shards.
+     */
+    private int shardIndex(int id) {
+        return (int) (((id * 0x9E3779B9L) & 0xFFFFFFFFL) * shards.length >>> 32);
     }
 }
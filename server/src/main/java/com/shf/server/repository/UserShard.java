@@ -0,0 +1,311 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+import com.shf.entity.UserChangeEvent;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Description:
+ * One partition of the {@link UserRepository}: the users whose id hashes to it, their indexes, and a single writer thread.
+ * <ul>
+ * <li>Reads are lock-free from any thread.</li>
+ * <li>A delete leaves a tombstone version, so snapshots opened before it still read the user.
+ * Tombstones are purged by later writes, once no open snapshot predates them.
+ * So are the index entries of the replaced values, until then a snapshot still finds the user at its place in the indexes.</li>
+ * <li>Every mutation runs on the writer thread, so mutations of an id are applied, published to the
+ * {@link UserChangeFeed} and appended to the {@link UserLog} in order. The writer only takes its own lock,
+ * contended by {@link UserSnapshots#open()} alone.</li>
+ * <li>Shards share no store state. They only meet on the change feed, whose global sequence is assigned
+ * under a short lock held for one ring slot write.</li>
+ * </ul>
+ * Methods documented as writer-only must only be called through {@link #write(Supplier)} or {@link #writeAll(Supplier)},
+ * or before the repository is published(seed and replay).
+ *
+ * @author songhaifeng
+ * @date 2020/01/03 14:10
+ */
+final class UserShard {
+    /**
+     * A single writer never contends, one segment is enough.
+     */
+    final ConcurrentIntObjectMap<UserVersion> users = new ConcurrentIntObjectMap<>(16, 1);
+    final UserIndexes indexes = new UserIndexes();
+    private final UserSnapshots snapshots;
+    private final UserChangeFeed changeFeed;
+    private final ExecutorService writer;
+    private final ReentrantLock lock;
+    /**
+     * Tombstones in version order, writer only.
+     */
+    private final ArrayDeque<UserVersion> tombstones = new ArrayDeque<>();
+    /**
+     * Replaced values still indexed in version order, writer only.
+     */
+    private final ArrayDeque<Retired> retired = new ArrayDeque<>();
+
+    UserShard(int index, UserSnapshots snapshots, UserChangeFeed changeFeed) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("user-shard-" + index + "-");
+        threadFactory.setDaemon(true);
+        this.snapshots = snapshots;
+        this.changeFeed = changeFeed;
+        this.writer = Executors.newSingleThreadExecutor(threadFactory);
+        this.lock = snapshots.writer(index);
+    }
+
+    User get(int id) {
+        UserVersion current = users.get(id);
+        return current == null ? null : current.user;
+    }
+
+    /**
+     * The users of this shard as of a snapshot, in the order of an index. The index is walked as the users are iterated.
+     *
+     * @param version snapshot version, open while iterating
+     * @param cursors creates the cursor of the index
+     * @return Iterable<User>
+     */
+    Iterable<User> scan(long version, Supplier<UserIndexes.Cursor> cursors) {
+        return () -> new Iterator<User>() {
+            private final UserIndexes.Cursor cursor = cursors.get();
+            private User next = advance();
+
+            private User advance() {
+                while (cursor.next()) {
+                    UserVersion current = users.get(cursor.id());
+                    User user = current == null ? null : current.at(version);
+                    // the entries of the values this snapshot does not see are skipped
+                    if (user != null && cursor.matches(user)) {
+                        return user;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public User next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                User user = next;
+                next = advance();
+                return user;
+            }
+        };
+    }
+
+    /**
+     * Run a mutation on the writer thread.
+     */
+    <T> Mono<T> write(Supplier<T> mutation) {
+        return Mono.create(sink -> {
+            try {
+                writer.execute(() -> {
+                    try {
+                        sink.success(mutation.get());
+                    } catch (Exception e) {
+                        sink.error(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                sink.error(e);
+            }
+        });
+    }
+
+    /**
+     * Run mutations on the writer thread, they are enqueued immediately.
+     */
+    CompletableFuture<Void> writeAll(Runnable mutations) {
+        return CompletableFuture.runAsync(mutations, writer);
+    }
+
+    /**
+     * Writer only.
+     *
+     * @return false if the id already exists
+     */
+    boolean insert(User user) {
+        lock.lock();
+        try {
+            UserVersion previous = users.get(user.getId());
+            if (previous != null && !previous.isTombstone()) {
+                return false;
+            }
+            install(previous, snapshots.next(previous, user));
+        } finally {
+            lock.unlock();
+        }
+        changeFeed.publish(UserChangeEvent.Type.INSERT, user.getId(), user);
+        return true;
+    }
+
+    /**
+     * Writer only.
+     *
+     * @param batch users of this shard
+     * @param accepted flags of the batch, set at the position of every inserted user
+     * @param positions position of each user in the flags
+     */
+    void insertAll(List<User> batch, boolean[] accepted, int[] positions) {
+        for (int i = 0; i < batch.size(); i++) {
+            accepted[positions[i]] = insert(batch.get(i));
+        }
+    }
+
+    /**
+     * Writer only.
+     *
+     * @return false if the id does not exist
+     */
+    boolean update(User user) {
+        lock.lock();
+        try {
+            UserVersion previous = users.get(user.getId());
+            if (previous == null || previous.isTombstone()) {
+                return false;
+            }
+            install(previous, snapshots.next(previous, user));
+        } finally {
+            lock.unlock();
+        }
+        changeFeed.publish(UserChangeEvent.Type.UPDATE, user.getId(), user);
+        return true;
+    }
+
+    /**
+     * Writer only.
+     *
+     * @return false if the id does not exist
+     */
+    boolean delete(int id) {
+        if (!remove(id)) {
+            return false;
+        }
+        changeFeed.publish(UserChangeEvent.Type.DELETE, id, null);
+        return true;
+    }
+
+    /**
+     * Writer only. Insert or replace, published as an INSERT or an UPDATE.
+     */
+    void upsert(User user) {
+        if (!insert(user)) {
+            update(user);
+        }
+    }
+
+    /**
+     * Insert or replace without publishing a change, used to seed and replay the store on startup.
+     * The replaced version stays linked for open snapshots.
+     */
+    void put(User user) {
+        lock.lock();
+        try {
+            UserVersion previous = users.get(user.getId());
+            install(previous, snapshots.next(previous, user));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replace the user with a tombstone without publishing a change, so that open snapshots still read it.
+     *
+     * @return false if the id does not exist
+     */
+    boolean remove(int id) {
+        lock.lock();
+        try {
+            UserVersion previous = users.get(id);
+            if (previous == null || previous.isTombstone()) {
+                return false;
+            }
+            UserVersion tombstone = snapshots.tombstone(previous);
+            tombstones.add(tombstone);
+            install(previous, tombstone);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() throws InterruptedException {
+        writer.shutdown();
+        writer.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writer only, under the lock. The id stays in the id index while its tombstone is in the store,
+     * the age and name of the previous value stay in their indexes until it is retired.
+     */
+    private void install(UserVersion previous, UserVersion current) {
+        users.put(current.id, current);
+        if (current.user != null) {
+            indexes.add(current.user);
+        }
+        if (previous == null || previous.isTombstone()) {
+            indexes.addId(current.id);
+        } else {
+            retired.add(new Retired(current, previous.user));
+        }
+        purgeTombstones();
+        purgeRetired();
+    }
+
+    /**
+     * Drop the index entries of the replaced values every snapshot sees the replacement of.
+     */
+    private void purgeRetired() {
+        Retired oldest;
+        while ((oldest = retired.peek()) != null && snapshots.visibleToAll(oldest.by)) {
+            retired.poll();
+            indexes.retire(oldest.user, users.get(oldest.by.id), oldest.by.version);
+        }
+    }
+
+    /**
+     * Drop the tombstones every snapshot sees, with their ids. A tombstone already replaced by a newer version is only dequeued.
+     */
+    private void purgeTombstones() {
+        UserVersion oldest;
+        while ((oldest = tombstones.peek()) != null && snapshots.visibleToAll(oldest)) {
+            tombstones.poll();
+            if (users.remove(oldest.id, oldest)) {
+                indexes.removeId(oldest.id);
+            }
+        }
+    }
+
+    private static final class Retired {
+        /**
+         * The version which replaced the value.
+         */
+        private final UserVersion by;
+        private final User user;
+
+        Retired(UserVersion by, User user) {
+            this.by = by;
+            this.user = user;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Description:
+ * Compact binary dump of all users, used to preload the {@link UserRepository} quickly.
+ * <pre>
+ * header : [int magic][int format][long records][long indexOffset][int chunks][int reserved][long logPosition]
+ * records: [int length][int id][int age][int nameLength|-1][name utf-8] ...
+ * index  : [long offset][int length][int records] per chunk of `chunk-records` records
+ * </pre>
+ * The index section is optional, it lets {@link #load(Consumer)} map and decode the chunks in parallel.
+ * The log position is the first {@link UserLog} segment the dump may not cover, the log is replayed from there on startup.
+ * A dump is written to a temporary file and moved over the previous one, so a crash never leaves a torn snapshot.
+ *
+ * @author songhaifeng
+ * @date 2020/01/06 10:30
+ */
+public class UserSnapshotFile {
+    private static final int MAGIC = 0x55535253;
+    private static final int FORMAT = 2;
+    private static final int HEADER_SIZE = 40;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    /**
+     * id + age + nameLength
+     */
+    private static final int FIXED_BODY_SIZE = 12;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path path;
+    private final int chunkRecords;
+    private final boolean writeIndex;
+
+    /**
+     * @param path         snapshot file
+     * @param chunkRecords records per index entry
+     * @param writeIndex   whether dumps get an index section
+     */
+    public UserSnapshotFile(Path path, int chunkRecords, boolean writeIndex) {
+        this.path = path;
+        this.chunkRecords = Math.max(1, chunkRecords);
+        this.writeIndex = writeIndex;
+    }
+
+    public boolean exists() {
+        return Files.isRegularFile(path);
+    }
+
+    /**
+     * Write all users to the snapshot file, replacing the previous one.
+     *
+     * @param users       users
+     * @param logPosition position of the user log the users are taken after, see {@link UserLog#mark()}; 0 without a log
+     * @return number of users written
+     */
+    public long dump(Iterable<User> users, long logPosition) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        List<long[]> chunks = new ArrayList<>();
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE;
+            long chunkOffset = position;
+            int chunkCount = 0;
+            channel.position(position);
+            for (User user : users) {
+                byte[] name = user.getName() == null ? null : user.getName().getBytes(StandardCharsets.UTF_8);
+                int bodyLength = FIXED_BODY_SIZE + (name == null ? 0 : name.length);
+                if (buffer.remaining() < 4 + bodyLength) {
+                    drain(buffer, channel);
+                    if (buffer.remaining() < 4 + bodyLength) {
+                        throw new IllegalArgumentException("Record of user " + user.getId() + " is larger than the buffer.");
+                    }
+                }
+                buffer.putInt(bodyLength).putInt(user.getId()).putInt(user.getAge()).putInt(name == null ? -1 : name.length);
+                if (name != null) {
+                    buffer.put(name);
+                }
+                position += 4 + bodyLength;
+                records++;
+                if (++chunkCount == chunkRecords) {
+                    chunks.add(new long[]{chunkOffset, position - chunkOffset, chunkCount});
+                    chunkOffset = position;
+                    chunkCount = 0;
+                }
+            }
+            if (chunkCount > 0) {
+                chunks.add(new long[]{chunkOffset, position - chunkOffset, chunkCount});
+            }
+            long indexOffset = 0;
+            if (writeIndex) {
+                indexOffset = position;
+                for (long[] chunk : chunks) {
+                    if (buffer.remaining() < INDEX_ENTRY_SIZE) {
+                        drain(buffer, channel);
+                    }
+                    buffer.putLong(chunk[0]).putInt((int) chunk[1]).putInt((int) chunk[2]);
+                }
+            }
+            drain(buffer, channel);
+            buffer.putInt(MAGIC).putInt(FORMAT).putLong(records).putLong(indexOffset)
+                    .putInt(writeIndex ? chunks.size() : 0).putInt(0).putLong(logPosition);
+            buffer.flip();
+            channel.write(buffer, 0);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return records;
+    }
+
+    /**
+     * @return the log position recorded by the dump, records before it are already in the snapshot
+     */
+    public long logPosition() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readHeader(channel).getLong(HEADER_SIZE - 8);
+        }
+    }
+
+    /**
+     * Decode the snapshot file. With an index section the chunks are mapped and decoded in parallel,
+     * so the consumer is called concurrently, once per chunk.
+     *
+     * @param consumer receives the users of one chunk
+     * @return number of users decoded
+     */
+    public long load(Consumer<List<User>> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel);
+            long records = header.getLong();
+            long indexOffset = header.getLong();
+            int chunkCount = header.getInt();
+
+            List<long[]> chunks = new ArrayList<>(Math.max(1, chunkCount));
+            if (chunkCount > 0) {
+                MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) chunkCount * INDEX_ENTRY_SIZE);
+                for (int i = 0; i < chunkCount; i++) {
+                    chunks.add(new long[]{index.getLong(), index.getInt(), index.getInt()});
+                }
+            } else if (records > 0) {
+                long end = indexOffset > 0 ? indexOffset : channel.size();
+                chunks.add(new long[]{HEADER_SIZE, end - HEADER_SIZE, records});
+            }
+
+            chunks.parallelStream().forEach(chunk -> {
+                try {
+                    consumer.accept(decode(channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1]), (int) chunk[2]));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return records;
+        }
+    }
+
+    /**
+     * Read and check the header, the buffer is left positioned after the format.
+     */
+    private ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // read the whole header
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new IOException("Not a user snapshot: " + path);
+        }
+        int format = header.getInt();
+        if (format != FORMAT) {
+            throw new IOException("Unsupported user snapshot format " + format + ": " + path);
+        }
+        return header;
+    }
+
+    private static List<User> decode(ByteBuffer buffer, int records) {
+        List<User> users = new ArrayList<>(records);
+        while (buffer.remaining() >= 4 + FIXED_BODY_SIZE) {
+            int bodyLength = buffer.getInt();
+            int next = buffer.position() + bodyLength;
+            int id = buffer.getInt();
+            int age = buffer.getInt();
+            int nameLength = buffer.getInt();
+            String name = null;
+            if (nameLength >= 0) {
+                byte[] bytes = new byte[nameLength];
+                buffer.get(bytes);
+                name = new String(bytes, StandardCharsets.UTF_8);
+            }
+            users.add(User.builder().id(id).age(age).name(name).build());
+            buffer.position(next);
+        }
+        return users;
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,116 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Description:
+ * Hands out versions for writes and snapshots of the user store.
+ * <p>
+ * A snapshot is just a version number: a reader sees, for every id, the newest {@link UserVersion} not newer than it.
+ * Writes keep the replaced version linked, and cut the chain below the oldest open snapshot,
+ * so iterating a snapshot never copies the store and old versions do not pile up once streams finish.
+ * A delete is a tombstone version, it is purged by its shard once {@link #visibleToAll(UserVersion)}.
+ *
+ * @author songhaifeng
+ * @date 2019/12/30 16:25
+ */
+public class UserSnapshots {
+    private final AtomicLong versions = new AtomicLong();
+    /**
+     * Open snapshot versions and how many snapshots are open at each.
+     */
+    private final ConcurrentSkipListMap<Long, Integer> openSnapshots = new ConcurrentSkipListMap<>();
+    /**
+     * One lock per shard writer, only contended by {@link #open()}.
+     */
+    private final ReentrantLock[] writers;
+
+    public UserSnapshots(int shards) {
+        this.writers = new ReentrantLock[shards];
+        for (int i = 0; i < shards; i++) {
+            writers[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Open a snapshot at the last version handed out, it must be closed with {@link #close(long)}.
+     * It holds the lock of every writer meanwhile, so that no write is between taking its version and installing it,
+     * and every later write sees the snapshot before it cuts a chain.
+     *
+     * @return the snapshot version
+     */
+    public long open() {
+        for (ReentrantLock writer : writers) {
+            writer.lock();
+        }
+        try {
+            long snapshot = versions.get();
+            openSnapshots.merge(snapshot, 1, Integer::sum);
+            return snapshot;
+        } finally {
+            for (int i = writers.length - 1; i >= 0; i--) {
+                writers[i].unlock();
+            }
+        }
+    }
+
+    public void close(long snapshot) {
+        openSnapshots.computeIfPresent(snapshot, (version, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * @param shard index of the shard
+     * @return the lock its writer holds from taking a version until the version is installed and indexed
+     */
+    ReentrantLock writer(int shard) {
+        return writers[shard];
+    }
+
+    /**
+     * Create the version replacing the previous one.
+     *
+     * @param previous current version in the store, null for an insert
+     * @param user     new value
+     * @return UserVersion
+     */
+    UserVersion next(UserVersion previous, User user) {
+        return link(new UserVersion(user.getId(), user, versions.incrementAndGet(), previous));
+    }
+
+    /**
+     * Create the tombstone replacing the previous version, the user stays visible to the snapshots opened before it.
+     *
+     * @param previous current version in the store
+     * @return UserVersion
+     */
+    UserVersion tombstone(UserVersion previous) {
+        return link(new UserVersion(previous.id, null, versions.incrementAndGet(), previous));
+    }
+
+    /**
+     * @return true once every open and future snapshot sees the version, or a newer one
+     */
+    boolean visibleToAll(UserVersion version) {
+        Map.Entry<Long, Integer> oldest = openSnapshots.firstEntry();
+        return oldest == null || oldest.getKey() >= version.version;
+    }
+
+    private UserVersion link(UserVersion next) {
+        UserVersion previous = next.previous;
+        if (previous != null) {
+            Map.Entry<Long, Integer> oldest = openSnapshots.firstEntry();
+            UserVersion keep = previous;
+            // keep walking while a snapshot older than `keep` may still need its predecessor.
+            while (oldest != null && keep.version > oldest.getKey() && keep.previous != null) {
+                keep = keep.previous;
+            }
+            keep.previous = null;
+        }
+        return next;
+    }
+}
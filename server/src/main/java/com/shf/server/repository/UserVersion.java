@@ -0,0 +1,48 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+
+/**
+ * Description:
+ * One version of a user in the store. Older versions stay linked while a snapshot may still read them,
+ * see {@link UserSnapshots}. A delete is a tombstone version(no user), so snapshots opened before it still read the user.
+ *
+ * @author songhaifeng
+ * @date 2019/12/30 16:18
+ */
+final class UserVersion {
+    final int id;
+    /**
+     * Null for a tombstone.
+     */
+    final User user;
+    final long version;
+    /**
+     * Cut(set to null) once no open snapshot can reach it.
+     */
+    volatile UserVersion previous;
+
+    UserVersion(int id, User user, long version, UserVersion previous) {
+        this.id = id;
+        this.user = user;
+        this.version = version;
+        this.previous = previous;
+    }
+
+    boolean isTombstone() {
+        return user == null;
+    }
+
+    /**
+     * @param snapshot snapshot version
+     * @return the user as it was when the snapshot was opened, null if it did not exist yet or was deleted
+     */
+    User at(long snapshot) {
+        for (UserVersion current = this; current != null; current = current.previous) {
+            if (current.version <= snapshot) {
+                return current.user;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,273 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+import com.shf.server.configuration.UserRepositoryProperties;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+/**
+ * Description:
+ * Write-behind pipeline for the fire-and-forget `add.user` route.
+ * <ul>
+ * <li>Producers(RSocket event loops) enqueue into a bounded, lock-free queue and return immediately, they never park.</li>
+ * <li>A single writer thread drains up to `batch-size` users, waiting at most `max-linger` for a batch to fill,
+ * and applies the batch to the {@link UserRepository} with one group commit to the {@link UserLog}.
+ * A producer only unparks it when it is idle, or when its submit fills a batch.</li>
+ * <li>When the queue is full the {@link OverflowPolicy} decides whether the user is dropped, rejected or waits for space.</li>
+ * </ul>
+ * Exposes `user.write.queue.depth`, `user.write.commit`(latency), `user.write.batch.size`,
+ * `user.write.dropped` and `user.write.rejected` meters.
+ *
+ * @author songhaifeng
+ * @date 2019/12/28 10:40
+ */
+@Slf4j
+@Component
+public class UserWriteBehindQueue implements DisposableBean {
+    public enum OverflowPolicy {
+        /**
+         * Discard the user and count it.
+         */
+        DROP,
+        /**
+         * Hold the user until the writer frees space, the Mono of the producer completes then; no thread waits.
+         * At most `capacity` users wait, the next ones are rejected.
+         */
+        WAIT,
+        /**
+         * Signal a {@link RejectedExecutionException} to the producer. On the fire-and-forget `add.user` route
+         * the requester never sees it, it only counts in `user.write.rejected` and the errors of the route metrics.
+         */
+        REJECT
+    }
+
+    private final UserRepository userRepository;
+    private final Queue<User> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Queue<Waiting> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final int capacity;
+    private final int batchSize;
+    private final long maxLingerNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread writer;
+    private volatile boolean running = true;
+    /**
+     * Whether the writer parks on an empty queue, rather than lingering for a batch to fill.
+     */
+    private volatile boolean idle;
+
+    private final Timer commitTimer;
+    private final DistributionSummary batchSizeSummary;
+    private final Counter droppedCounter;
+    private final Counter rejectedCounter;
+
+    public UserWriteBehindQueue(UserRepository userRepository, UserRepositoryProperties properties, MeterRegistry meterRegistry) {
+        UserRepositoryProperties.WriteBehind writeBehind = properties.getWriteBehind();
+        this.userRepository = userRepository;
+        this.capacity = writeBehind.getCapacity();
+        this.batchSize = writeBehind.getBatchSize();
+        this.maxLingerNanos = writeBehind.getMaxLinger().toNanos();
+        this.overflowPolicy = writeBehind.getOverflowPolicy();
+
+        Gauge.builder("user.write.queue.depth", depth, AtomicInteger::get).register(meterRegistry);
+        this.commitTimer = Timer.builder("user.write.commit").publishPercentileHistogram().register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("user.write.batch.size").register(meterRegistry);
+        this.droppedCounter = Counter.builder("user.write.dropped").register(meterRegistry);
+        this.rejectedCounter = Counter.builder("user.write.rejected").register(meterRegistry);
+
+        this.writer = new Thread(this::drainLoop, "user-write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Enqueue a user for the next group commit.
+     *
+     * @param user user
+     * @return empty Mono, completing once the user waited for space with {@link OverflowPolicy#WAIT},
+     * or an error when the user is rejected
+     */
+    public Mono<Void> submit(User user) {
+        int reserved = reserve();
+        if (reserved == 0) {
+            switch (overflowPolicy) {
+                case DROP:
+                    droppedCounter.increment();
+                    log.debug("Write-behind queue is full, drop user {}", user.getId());
+                    return Mono.empty();
+                case WAIT:
+                    if (!running) {
+                        rejectedCounter.increment();
+                        return Mono.error(new RejectedExecutionException("Write-behind queue is closed."));
+                    }
+                    if (waitingCount.incrementAndGet() > capacity) {
+                        waitingCount.decrementAndGet();
+                        rejectedCounter.increment();
+                        return Mono.error(new RejectedExecutionException("Write-behind queue is full(" + capacity + "), "
+                                + capacity + " users are waiting."));
+                    }
+                    // held from now on like an enqueued user, whether the Mono is subscribed or not
+                    MonoProcessor<Void> admitted = MonoProcessor.create();
+                    waiting.offer(new Waiting(user, admitted));
+                    admitWaiting();
+                    return admitted;
+                default:
+                    rejectedCounter.increment();
+                    return Mono.error(new RejectedExecutionException("Write-behind queue is full(" + capacity + ")."));
+            }
+        }
+        enqueue(user, reserved);
+        return Mono.empty();
+    }
+
+    public int depth() {
+        return depth.get();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        rejectWaiting();
+    }
+
+    /**
+     * CAS a slot out of the capacity, so the bound holds without a lock.
+     *
+     * @return the depth including the reserved slot, 0 when the queue is full
+     */
+    private int reserve() {
+        for (; ; ) {
+            int current = depth.get();
+            if (current >= capacity) {
+                return 0;
+            }
+            if (depth.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    /**
+     * Offer a user into its reserved slot, waking the writer up only when it is idle or the batch is full.
+     */
+    private void enqueue(User user, int reserved) {
+        queue.offer(user);
+        if (idle || reserved == batchSize) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Move the waiting users into the free slots, called by the writer and the waiting producers.
+     */
+    private void admitWaiting() {
+        while (!waiting.isEmpty()) {
+            int reserved = reserve();
+            if (reserved == 0) {
+                return;
+            }
+            Waiting next = waiting.poll();
+            if (next == null) {
+                depth.decrementAndGet();
+                return;
+            }
+            waitingCount.decrementAndGet();
+            enqueue(next.user, reserved);
+            next.admitted.onComplete();
+        }
+    }
+
+    /**
+     * Fail the users still waiting once the writer stopped.
+     */
+    private void rejectWaiting() {
+        for (Waiting next; (next = waiting.poll()) != null; ) {
+            waitingCount.decrementAndGet();
+            rejectedCounter.increment();
+            next.admitted.onError(new RejectedExecutionException("Write-behind queue is closed."));
+        }
+    }
+
+    private void drainLoop() {
+        List<User> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            admitWaiting();
+            User first = queue.poll();
+            if (first == null) {
+                idle = true;
+                // checked again once idle is published, a user offered before the producer could read it is not left waiting
+                if (queue.isEmpty() && running) {
+                    LockSupport.parkNanos(this, maxLingerNanos);
+                }
+                idle = false;
+                continue;
+            }
+            batch.add(first);
+            long deadline = System.nanoTime() + maxLingerNanos;
+            while (batch.size() < batchSize) {
+                User next = queue.poll();
+                if (next != null) {
+                    batch.add(next);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !running) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            depth.addAndGet(-batch.size());
+            commit(batch);
+            batch.clear();
+        }
+        rejectWaiting();
+    }
+
+    private void commit(List<User> batch) {
+        long start = System.nanoTime();
+        try {
+            int accepted = userRepository.addAll(batch).size();
+            if (accepted < batch.size()) {
+                log.debug("Group commit skipped {} users whose id already exists", batch.size() - accepted);
+            }
+        } catch (Exception e) {
+            log.error("Failed to commit {} users", batch.size(), e);
+        } finally {
+            commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batchSizeSummary.record(batch.size());
+        }
+    }
+
+    private static final class Waiting {
+        private final User user;
+        private final MonoProcessor<Void> admitted;
+
+        Waiting(User user, MonoProcessor<Void> admitted) {
+            this.user = user;
+            this.admitted = admitted;
+        }
+    }
+}
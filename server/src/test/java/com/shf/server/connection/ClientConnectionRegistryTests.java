@@ -0,0 +1,150 @@
+package com.shf.server.connection;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.metadata.WellKnownMimeType;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClientConnectionRegistryTests {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final MimeType COMPOSITE_METADATA = MimeType.valueOf(WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString());
+    private static final MimeType ROUTING_METADATA = MimeType.valueOf(WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString());
+    private static final MimeType TEXT_CSV = MimeType.valueOf("text/csv");
+
+    private final RSocketStrategies strategies = RSocketStrategies.create();
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ClientConnectionRegistry registry = new ClientConnectionRegistry(strategies, meterRegistry);
+
+    @Test
+    void broadcastEncodesOncePerMimeTypeAndReleasesEveryBuffer() {
+        RecordingRSocket first = register("client-1", MimeTypeUtils.TEXT_PLAIN, COMPOSITE_METADATA, null);
+        RecordingRSocket second = register("client-2", MimeTypeUtils.TEXT_PLAIN, COMPOSITE_METADATA, null);
+        RecordingRSocket routing = register("client-3", MimeTypeUtils.TEXT_PLAIN, ROUTING_METADATA, null);
+        RecordingRSocket csv = register("client-4", TEXT_CSV, COMPOSITE_METADATA, null);
+
+        assertThat(registry.broadcast("push", "hello").block(TIMEOUT)).isEqualTo(4);
+
+        for (RecordingRSocket rsocket : new RecordingRSocket[]{first, second, routing, csv}) {
+            assertThat(rsocket.data).containsExactly("hello");
+            assertThat(rsocket.metadata.get(0)).endsWith("push");
+        }
+        // the same data and metadata buffers are shared by the connections of the same mime types
+        assertThat(second.dataBuffers.get(0)).isSameAs(first.dataBuffers.get(0));
+        assertThat(second.metadataBuffers.get(0)).isSameAs(first.metadataBuffers.get(0));
+        assertThat(csv.dataBuffers.get(0)).isNotSameAs(first.dataBuffers.get(0));
+        assertThat(routing.metadataBuffers.get(0)).isNotSameAs(first.metadataBuffers.get(0));
+        assertReleased(first, second, routing, csv);
+    }
+
+    @Test
+    void failingConnectionIsSkippedAndTheOthersStillGetTheBroadcast() {
+        RecordingRSocket healthy = register("healthy", MimeTypeUtils.TEXT_PLAIN, COMPOSITE_METADATA, null);
+        RecordingRSocket failing = register("failing", MimeTypeUtils.TEXT_PLAIN, COMPOSITE_METADATA,
+                new IllegalStateException("connection reset"));
+        RecordingRSocket other = register("other", MimeTypeUtils.TEXT_PLAIN, ROUTING_METADATA, null);
+
+        assertThat(registry.broadcast("push", "hello").block(TIMEOUT)).isEqualTo(2);
+
+        assertThat(healthy.data).containsExactly("hello");
+        assertThat(failing.data).containsExactly("hello");
+        assertThat(other.data).containsExactly("hello");
+        assertReleased(healthy, failing, other);
+    }
+
+    @Test
+    void clientWithSeveralConnectionsGetsTheBroadcastOnce() {
+        RecordingRSocket first = register("pooled", MimeTypeUtils.TEXT_PLAIN, COMPOSITE_METADATA, null);
+        RecordingRSocket second = register("pooled", MimeTypeUtils.TEXT_PLAIN, COMPOSITE_METADATA, null);
+        assertThat(registry.size()).isEqualTo(1);
+        assertThat(meterRegistry.get("rsocket.connections").gauge().value()).isEqualTo(2.0);
+
+        assertThat(registry.broadcast("push", "hello").block(TIMEOUT)).isEqualTo(1);
+
+        assertThat(first.data.size() + second.data.size()).isEqualTo(1);
+        assertReleased(first, second);
+    }
+
+    @Test
+    void closedConnectionsAreUnregistered() {
+        RecordingRSocket first = register("pooled", MimeTypeUtils.TEXT_PLAIN, COMPOSITE_METADATA, null);
+        RecordingRSocket second = register("pooled", MimeTypeUtils.TEXT_PLAIN, COMPOSITE_METADATA, null);
+        RecordingRSocket single = register("single", MimeTypeUtils.TEXT_PLAIN, COMPOSITE_METADATA, null);
+
+        first.dispose();
+        single.dispose();
+        assertThat(registry.clientIds()).containsExactly("pooled");
+        assertThat(registry.get("single")).isNull();
+        assertThat(registry.get("pooled").rsocket()).isSameAs(second);
+        assertThat(meterRegistry.get("rsocket.connections").gauge().value()).isEqualTo(1.0);
+
+        assertThat(registry.broadcast("push", "hello").block(TIMEOUT)).isEqualTo(1);
+        assertThat(first.data).isEmpty();
+        assertThat(second.data).containsExactly("hello");
+        assertThat(single.data).isEmpty();
+        assertReleased(second);
+
+        second.dispose();
+        assertThat(registry.size()).isZero();
+        assertThat(registry.broadcast("push", "hello").block(TIMEOUT)).isZero();
+    }
+
+    private RecordingRSocket register(String clientId, MimeType dataMimeType, MimeType metadataMimeType, Throwable error) {
+        RecordingRSocket rsocket = new RecordingRSocket(error);
+        registry.register(clientId, RSocketRequester.wrap(rsocket, dataMimeType, metadataMimeType, strategies));
+        return rsocket;
+    }
+
+    /**
+     * Every buffer the registry encoded is released once the broadcast completes.
+     */
+    private static void assertReleased(RecordingRSocket... rsockets) {
+        for (RecordingRSocket rsocket : rsockets) {
+            rsocket.dataBuffers.forEach(buffer -> assertThat(buffer.refCnt()).isZero());
+            rsocket.metadataBuffers.forEach(buffer -> assertThat(buffer.refCnt()).isZero());
+        }
+    }
+
+    /**
+     * Records the fire-and-forget requests, and releases them as a connection does once they are written.
+     */
+    private static final class RecordingRSocket extends AbstractRSocket {
+        private final Throwable error;
+        private final List<String> data = new ArrayList<>();
+        private final List<String> metadata = new ArrayList<>();
+        /**
+         * The buffers the payload slices were cut from.
+         */
+        private final List<ByteBuf> dataBuffers = new ArrayList<>();
+        private final List<ByteBuf> metadataBuffers = new ArrayList<>();
+
+        RecordingRSocket(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public synchronized Mono<Void> fireAndForget(Payload payload) {
+            data.add(payload.getDataUtf8());
+            metadata.add(payload.getMetadataUtf8());
+            dataBuffers.add(payload.data().unwrap());
+            metadataBuffers.add(payload.metadata().unwrap());
+            payload.release();
+            return error == null ? Mono.empty() : Mono.error(error);
+        }
+    }
+}
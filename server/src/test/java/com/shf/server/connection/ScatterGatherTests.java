@@ -0,0 +1,144 @@
+package com.shf.server.connection;
+
+import com.shf.entity.ClientReply;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.DefaultPayload;
+import io.rsocket.util.EmptyPayload;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ScatterGatherTests {
+    private static final Duration PER_CALL_TIMEOUT = Duration.ofSeconds(1);
+    private static final Duration GLOBAL_TIMEOUT = Duration.ofSeconds(3);
+    private static final MimeType COMPOSITE_METADATA = MimeType.valueOf(WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString());
+    private static final Function<RSocketRequester, Mono<String>> CALL =
+            requester -> requester.rsocket().requestResponse(EmptyPayload.INSTANCE).map(Payload::getDataUtf8);
+
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private ClientConnectionRegistry registry;
+    private ScatterGather scatterGather;
+
+    @BeforeEach
+    void connect() {
+        RSocketStrategies strategies = RSocketStrategies.create();
+        registry = new ClientConnectionRegistry(strategies, new SimpleMeterRegistry());
+        scatterGather = new ScatterGather(registry);
+        register(strategies, "fast-1", () -> Mono.just("a"));
+        register(strategies, "fast-2", () -> Mono.just("b"));
+        register(strategies, "empty", Mono::empty);
+        register(strategies, "failing", () -> Mono.error(new IllegalStateException("boom")));
+        // replies after its own deadline, but before the global one
+        register(strategies, "slow", () -> Mono.delay(Duration.ofSeconds(2)).thenReturn("late"));
+        register(strategies, "hanging", () -> Mono.<String>never().doOnCancel(cancelled::incrementAndGet));
+    }
+
+    @Test
+    void everyClientRepliesOnceAndSlowCallsFailAtTheirOwnDeadline() {
+        List<String> clients = Arrays.asList("fast-1", "fast-2", "empty", "failing", "slow", "missing");
+
+        StepVerifier.withVirtualTime(() -> scatterGather.scatter(clients, CALL, PER_CALL_TIMEOUT, GLOBAL_TIMEOUT).collectList())
+                .thenAwait(PER_CALL_TIMEOUT)
+                .assertNext(replies -> {
+                    replies.sort(Comparator.comparing(ClientReply::getClientId));
+                    assertThat(replies).hasSize(6);
+                    assertThat(replies.get(0)).isEqualTo(ClientReply.success("empty", null));
+                    assertThat(replies.get(1).getError()).isEqualTo("IllegalStateException: boom");
+                    assertThat(replies.get(2)).isEqualTo(ClientReply.success("fast-1", "a"));
+                    assertThat(replies.get(3)).isEqualTo(ClientReply.success("fast-2", "b"));
+                    assertThat(replies.get(4).getError()).startsWith("IllegalArgumentException");
+                    assertThat(replies.get(5).getClientId()).isEqualTo("slow");
+                    assertThat(replies.get(5).getError()).startsWith(TimeoutException.class.getSimpleName());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void globalDeadlineCompletesTheScatterAndCancelsTheCallsInFlight() {
+        List<String> clients = Arrays.asList("fast-1", "hanging");
+
+        StepVerifier.withVirtualTime(() -> scatterGather.scatter(clients, CALL, Duration.ofSeconds(10), GLOBAL_TIMEOUT))
+                .expectSubscription()
+                .expectNext(ClientReply.success("fast-1", "a"))
+                .expectNoEvent(GLOBAL_TIMEOUT.minusMillis(1))
+                .thenAwait(Duration.ofMillis(1))
+                .verifyComplete();
+
+        assertThat(cancelled.get()).isEqualTo(1);
+    }
+
+    @Test
+    void quorumCompletesWithTheFirstSuccessesAndCancelsTheRest() {
+        List<String> clients = Arrays.asList("failing", "fast-1", "hanging", "fast-2");
+
+        StepVerifier.withVirtualTime(() -> scatterGather.quorum(clients, CALL, 2, PER_CALL_TIMEOUT, GLOBAL_TIMEOUT))
+                .assertNext(replies -> assertThat(replies)
+                        .containsExactlyInAnyOrder(ClientReply.success("fast-1", "a"), ClientReply.success("fast-2", "b")))
+                .verifyComplete();
+
+        assertThat(cancelled.get()).isEqualTo(1);
+    }
+
+    @Test
+    void quorumFailsOnceEveryClientRepliedWithoutEnoughSuccesses() {
+        List<String> clients = Arrays.asList("failing", "fast-1", "slow");
+
+        StepVerifier.withVirtualTime(() -> scatterGather.quorum(clients, CALL, 2, PER_CALL_TIMEOUT, GLOBAL_TIMEOUT))
+                .expectSubscription()
+                .expectNoEvent(PER_CALL_TIMEOUT.minusMillis(1))
+                .thenAwait(Duration.ofMillis(1))
+                .expectErrorSatisfies(e -> assertThat(e)
+                        .isInstanceOf(TimeoutException.class)
+                        .hasMessage("Quorum of 2 not met, 1 clients replied."))
+                .verify();
+    }
+
+    @Test
+    void quorumFailsAtTheGlobalDeadline() {
+        List<String> clients = Arrays.asList("fast-1", "hanging");
+
+        StepVerifier.withVirtualTime(() -> scatterGather.quorum(clients, CALL, 2, Duration.ofSeconds(10), GLOBAL_TIMEOUT))
+                .expectSubscription()
+                .expectNoEvent(GLOBAL_TIMEOUT.minusMillis(1))
+                .thenAwait(Duration.ofMillis(1))
+                .expectError(TimeoutException.class)
+                .verify();
+
+        assertThat(cancelled.get()).isEqualTo(1);
+    }
+
+    /**
+     * Connect a client whose request-response replies with the given source.
+     */
+    private void register(RSocketStrategies strategies, String clientId, Supplier<Mono<String>> reply) {
+        AbstractRSocket rsocket = new AbstractRSocket() {
+            @Override
+            public Mono<Payload> requestResponse(Payload payload) {
+                return Mono.defer(reply).map(DefaultPayload::create);
+            }
+        };
+        registry.register(clientId, RSocketRequester.wrap(rsocket, MimeTypeUtils.TEXT_PLAIN, COMPOSITE_METADATA, strategies));
+    }
+}
@@ -0,0 +1,111 @@
+package com.shf.server.controller;
+
+import com.shf.entity.User;
+import com.shf.entity.UserBatch;
+import com.shf.server.configuration.UserRepositoryProperties;
+import com.shf.server.repository.UserChangeFeed;
+import com.shf.server.repository.UserLog;
+import com.shf.server.repository.UserRepository;
+import com.shf.server.repository.UserSnapshotFile;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The `users.batch` and `users.batch.stream` routes over a repository holding the sample users 1, 2 and 3.
+ */
+class UserControllerBatchTests {
+    @TempDir
+    Path directory;
+
+    private UserRepository userRepository;
+    private final UserController controller = new UserController();
+
+    @BeforeEach
+    void openRepository() {
+        UserRepositoryProperties properties = new UserRepositoryProperties();
+        properties.setShards(2);
+        userRepository = new UserRepository(new StaticListableBeanFactory().getBeanProvider(UserLog.class),
+                new UserSnapshotFile(directory.resolve("users.snapshot"), 16, false),
+                new UserChangeFeed(properties, new SimpleMeterRegistry()), properties);
+        ReflectionTestUtils.setField(controller, "userRepository", userRepository);
+    }
+
+    @AfterEach
+    void closeRepository() throws InterruptedException {
+        userRepository.destroy();
+    }
+
+    @Test
+    void batchReturnsTheFoundUsersAndTheMissingIdsInRequestOrder() {
+        UserBatch batch = controller.usersBatch(new int[]{3, 7, 1, 9}).block();
+
+        assertThat(batch.getUsers()).extracting(User::getId).containsExactly(3, 1);
+        assertThat(batch.getMissing()).containsExactly(7, 9);
+    }
+
+    @Test
+    void batchLooksDuplicateIdsUpAgain() {
+        UserBatch batch = controller.usersBatch(new int[]{2, 5, 2, 5}).block();
+
+        assertThat(batch.getUsers()).extracting(User::getId).containsExactly(2, 2);
+        assertThat(batch.getMissing()).containsExactly(5, 5);
+    }
+
+    @Test
+    void emptyBatchFindsNothing() {
+        UserBatch batch = controller.usersBatch(new int[0]).block();
+
+        assertThat(batch.getUsers()).isEmpty();
+        assertThat(batch.getMissing()).isEmpty();
+    }
+
+    @Test
+    void streamSplitsTheIdsIntoChunksInRequestOrder() {
+        // 0 is missing, 1, 2 and 3 are found, each id once every 4
+        int[] ids = IntStream.range(0, 600).map(i -> i % 4).toArray();
+
+        List<UserBatch> batches = controller.usersBatchStream(ids).collectList().block();
+
+        assertThat(batches).hasSize(3);
+        assertThat(batches.get(0).getUsers()).hasSize(192);
+        assertThat(batches.get(0).getMissing()).hasSize(64);
+        assertThat(batches.get(2).getUsers()).hasSize(66);
+        assertThat(batches.get(2).getMissing()).hasSize(22);
+        List<Integer> found = new ArrayList<>();
+        batches.forEach(batch -> batch.getUsers().forEach(user -> found.add(user.getId())));
+        assertThat(found).containsExactlyElementsOf(IntStream.of(ids).filter(id -> id != 0).boxed().collect(Collectors.toList()));
+    }
+
+    @Test
+    void streamOfMixedAndDuplicateIdsFitsInOneChunk() {
+        StepVerifier.create(controller.usersBatchStream(new int[]{1, 8, 1, 3, 8}))
+                .assertNext(batch -> {
+                    assertThat(batch.getUsers()).extracting(User::getId).containsExactly(1, 1, 3);
+                    assertThat(batch.getMissing()).containsExactly(8, 8);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void emptyStreamCompletesWithoutAChunk() {
+        StepVerifier.create(controller.usersBatchStream(new int[0]))
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,84 @@
+package com.shf.server.controller;
+
+import com.shf.route.CompiledRouteMatcher;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.rsocket.annotation.ConnectMapping;
+import org.springframework.util.RouteMatcher;
+import org.springframework.web.util.pattern.PathPatternRouteMatcher;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Every route of {@link UserController} is matched by the {@link CompiledRouteMatcher} as by Spring's {@link PathPatternRouteMatcher}.
+ */
+class UserControllerRoutesTests {
+
+    @Test
+    void compiledMatcherAgreesWithPathPatternOnEveryRoute() {
+        List<String> patterns = patterns();
+        assertThat(patterns).contains("user.{id}", "delete.user.{id}", "users.by.age.{min}.{max}", "admin.send.user.{clientId}");
+        Set<String> routes = new LinkedHashSet<>();
+        patterns.forEach(pattern -> routes.addAll(routes(pattern)));
+
+        CompiledRouteMatcher compiled = new CompiledRouteMatcher();
+        PathPatternRouteMatcher pathPattern = new PathPatternRouteMatcher();
+        int matches = 0;
+        for (String value : routes) {
+            RouteMatcher.Route compiledRoute = compiled.parseRoute(value);
+            RouteMatcher.Route pathPatternRoute = pathPattern.parseRoute(value);
+            for (String pattern : patterns) {
+                boolean expected = pathPattern.match(pattern, pathPatternRoute);
+                assertThat(compiled.match(pattern, compiledRoute)).as("%s on %s", pattern, value).isEqualTo(expected);
+                assertThat(compiled.matchAndExtract(pattern, compiledRoute)).as("%s on %s", pattern, value)
+                        .isEqualTo(pathPattern.matchAndExtract(pattern, pathPatternRoute));
+                matches += expected ? 1 : 0;
+            }
+        }
+        // every pattern matches its own expansions at least
+        assertThat(matches).isGreaterThanOrEqualTo(patterns.size());
+    }
+
+    private static List<String> patterns() {
+        List<String> patterns = new ArrayList<>();
+        for (Method method : UserController.class.getDeclaredMethods()) {
+            MessageMapping messageMapping = method.getAnnotation(MessageMapping.class);
+            if (messageMapping != null) {
+                patterns.addAll(Arrays.asList(messageMapping.value()));
+            }
+            ConnectMapping connectMapping = method.getAnnotation(ConnectMapping.class);
+            if (connectMapping != null) {
+                patterns.addAll(Arrays.asList(connectMapping.value()));
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * @return the pattern expanded with a few values for its variables, and the routes just around it
+     */
+    private static List<String> routes(String pattern) {
+        List<String> routes = new ArrayList<>();
+        for (String value : Arrays.asList("1", "42", "abc", "")) {
+            String route = pattern.replaceAll("\\{[^}]+}", value);
+            routes.add(route);
+            routes.add(route + ".1");
+            routes.add(route + ".");
+            routes.add("." + route);
+            int last = route.lastIndexOf('.');
+            if (last > 0) {
+                routes.add(route.substring(0, last));
+            }
+        }
+        routes.add(pattern.replace('.', '-'));
+        return routes;
+    }
+}
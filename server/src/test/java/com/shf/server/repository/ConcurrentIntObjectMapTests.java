@@ -0,0 +1,71 @@
+package com.shf.server.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrentIntObjectMapTests {
+
+    @Test
+    void putGetRemove() {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<>(2, 2);
+        for (int i = -1000; i < 1000; i++) {
+            assertThat(map.put(i, "v" + i)).isNull();
+        }
+        assertThat(map.size()).isEqualTo(2000);
+        assertThat(map.get(-1000)).isEqualTo("v-1000");
+        assertThat(map.put(7, "seven")).isEqualTo("v7");
+        assertThat(map.putIfAbsent(7, "other")).isEqualTo("seven");
+        assertThat(map.replace(7, "other", "x")).isFalse();
+        assertThat(map.replace(7, "seven", "x")).isTrue();
+        assertThat(map.remove(7)).isEqualTo("x");
+        assertThat(map.get(7)).isNull();
+        assertThat(map.size()).isEqualTo(1999);
+
+        Set<String> values = new HashSet<>();
+        map.values().forEach(values::add);
+        assertThat(values).hasSize(1999);
+    }
+
+    @Test
+    void putIfAbsentHasExactlyOneWinner() throws Exception {
+        ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<>();
+        int threads = 8;
+        int keys = 100_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int writer = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                int won = 0;
+                for (int key = 0; key < keys; key++) {
+                    if (map.putIfAbsent(key, writer) == null) {
+                        won++;
+                    }
+                }
+                return won;
+            }));
+        }
+        start.countDown();
+        int total = 0;
+        for (Future<Integer> future : futures) {
+            total += future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThat(total).isEqualTo(keys);
+        assertThat(map.size()).isEqualTo(keys);
+    }
+}
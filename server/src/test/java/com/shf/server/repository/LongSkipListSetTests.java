@@ -0,0 +1,112 @@
+package com.shf.server.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongSkipListSetTests {
+
+    @Test
+    void addRemoveAndIterateFromABound() {
+        LongSkipListSet set = new LongSkipListSet();
+        for (long key : new long[]{5, Long.MIN_VALUE, -3, 42, 0, Long.MAX_VALUE}) {
+            assertThat(set.add(key)).isTrue();
+        }
+        assertThat(set.add(5)).isFalse();
+        assertThat(set.remove(42)).isTrue();
+        assertThat(set.remove(42)).isFalse();
+        assertThat(set.size()).isEqualTo(5);
+
+        assertThat(keys(set.from(Long.MIN_VALUE, true))).containsExactly(Long.MIN_VALUE, -3L, 0L, 5L, Long.MAX_VALUE);
+        assertThat(keys(set.from(0, true))).containsExactly(0L, 5L, Long.MAX_VALUE);
+        assertThat(keys(set.from(0, false))).containsExactly(5L, Long.MAX_VALUE);
+        assertThat(keys(set.from(6, true))).containsExactly(Long.MAX_VALUE);
+        assertThat(keys(set.from(Long.MAX_VALUE, false))).isEmpty();
+    }
+
+    @Test
+    void labelsAreOrderedBeforeTheirKeys() {
+        LongSkipListSet set = new LongSkipListSet();
+        set.add("bob", 1);
+        set.add("ann", 9);
+        set.add("ann", -2);
+        set.add("anna", 0);
+        assertThat(set.add("ann", 9)).isFalse();
+        assertThat(set.remove("bob", 2)).isFalse();
+
+        List<String> entries = new ArrayList<>();
+        LongSkipListSet.Cursor cursor = set.from("ann", Long.MIN_VALUE, true);
+        while (cursor.next()) {
+            entries.add(cursor.label() + cursor.key());
+        }
+        assertThat(entries).containsExactly("ann-2", "ann9", "anna0", "bob1");
+        assertThat(set.remove("ann", -2)).isTrue();
+        assertThat(set.from("ann", -2, true).next()).isTrue();
+    }
+
+    @Test
+    void readersIterateInOrderWhileTheWriterAddsAndRemoves() throws Exception {
+        LongSkipListSet set = new LongSkipListSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        // a stable half the readers must always see, the writer churns the odd keys
+        for (long key = 0; key < 2_000; key += 2) {
+            set.add(key);
+            expected.add(key);
+        }
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(3);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            futures.add(readers.submit(() -> {
+                int scans = 0;
+                while (writing.get()) {
+                    List<Long> seen = keys(set.from(Long.MIN_VALUE, true));
+                    for (int i = 1; i < seen.size(); i++) {
+                        assertThat(seen.get(i)).isGreaterThan(seen.get(i - 1));
+                    }
+                    assertThat(seen.stream().filter(key -> key % 2 == 0).count()).isEqualTo(1_000);
+                    scans++;
+                }
+                return scans;
+            }));
+        }
+
+        Random random = new Random(3);
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(1_000) * 2L + 1;
+            if (expected.add(key)) {
+                assertThat(set.add(key)).isTrue();
+            } else {
+                expected.remove(key);
+                assertThat(set.remove(key)).isTrue();
+            }
+        }
+        writing.set(false);
+        for (Future<Integer> future : futures) {
+            assertThat(future.get(30, TimeUnit.SECONDS)).isPositive();
+        }
+        readers.shutdown();
+
+        assertThat(keys(set.from(Long.MIN_VALUE, true))).containsExactlyElementsOf(expected);
+        assertThat(set.size()).isEqualTo(expected.size());
+    }
+
+    private static List<Long> keys(LongSkipListSet.Cursor cursor) {
+        List<Long> keys = new ArrayList<>();
+        while (cursor.next()) {
+            keys.add(cursor.key());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,121 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+import com.shf.entity.UserAck;
+import com.shf.server.configuration.UserRepositoryProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserBulkLoaderTests {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final int WINDOW_SIZE = 4;
+    private static final int MAX_PENDING_WINDOWS = 2;
+
+    @TempDir
+    Path directory;
+
+    private UserRepository repository;
+    private UserBulkLoader loader;
+
+    @BeforeEach
+    void open() {
+        UserRepositoryProperties properties = new UserRepositoryProperties();
+        properties.setShards(2);
+        properties.getSnapshot().setLoadOnStartup(false);
+        properties.getChannel().setWindowSize(WINDOW_SIZE);
+        // only the end of the stream closes a partial window
+        properties.getChannel().setWindowTimeout(Duration.ofMinutes(1));
+        properties.getChannel().setMaxPendingWindows(MAX_PENDING_WINDOWS);
+        repository = new UserRepository(new StaticListableBeanFactory().getBeanProvider(UserLog.class),
+                new UserSnapshotFile(directory.resolve("users.snapshot"), 16, false),
+                new UserChangeFeed(properties, new SimpleMeterRegistry()), properties);
+        loader = new UserBulkLoader(repository, properties);
+    }
+
+    @AfterEach
+    void close() throws InterruptedException {
+        repository.destroy();
+    }
+
+    @Test
+    void ackDemandBelowTheWindowsHoldsTheInboundCreditBack() {
+        AtomicLong requested = new AtomicLong();
+        Flux<User> users = Flux.range(100, 40).map(UserBulkLoaderTests::user).doOnRequest(requested::addAndGet);
+
+        StepVerifier.create(loader.load(users), 1)
+                .expectNext(new UserAck(WINDOW_SIZE, new int[0]))
+                // the second window is written and its ack waits, neither window gives its credit back
+                .expectNoEvent(Duration.ofMillis(200))
+                .then(() -> assertThat(requested.get()).isEqualTo(WINDOW_SIZE * MAX_PENDING_WINDOWS))
+                .thenRequest(1)
+                .expectNext(new UserAck(WINDOW_SIZE, new int[0]))
+                .then(() -> assertThat(requested.get()).isGreaterThan(WINDOW_SIZE * MAX_PENDING_WINDOWS))
+                .thenCancel()
+                .verify(TIMEOUT);
+    }
+
+    @Test
+    void partialLastWindowIsWrittenWhenTheUsersComplete() {
+        // user 1 is a sample user, it is rejected in the last window
+        Flux<User> users = Flux.range(100, 10).concatWith(Flux.just(1)).map(UserBulkLoaderTests::user);
+
+        StepVerifier.create(loader.load(users))
+                .expectNext(new UserAck(WINDOW_SIZE, new int[0]))
+                .expectNext(new UserAck(WINDOW_SIZE, new int[0]))
+                .expectNext(new UserAck(2, new int[]{1}))
+                .expectComplete()
+                .verify(TIMEOUT);
+        assertThat(repository.getMany(new int[]{108, 109}).getMissing()).isEmpty();
+    }
+
+    @Test
+    void upstreamErrorMidWindowWritesTheUsersReceivedThenFails() {
+        Flux<User> users = Flux.range(100, 6).map(UserBulkLoaderTests::user)
+                .concatWith(Flux.error(new IllegalStateException("connection lost")));
+
+        StepVerifier.create(loader.load(users))
+                .expectNext(new UserAck(WINDOW_SIZE, new int[0]))
+                .expectNext(new UserAck(2, new int[0]))
+                .expectErrorMessage("connection lost")
+                .verify(TIMEOUT);
+        assertThat(repository.getMany(new int[]{104, 105}).getMissing()).isEmpty();
+    }
+
+    @Test
+    void cancelStopsTheInboundUsers() {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicLong requested = new AtomicLong();
+        Flux<User> users = Flux.range(100, 1_000).map(UserBulkLoaderTests::user)
+                .doOnRequest(requested::addAndGet)
+                .doOnCancel(() -> cancelled.set(true));
+
+        StepVerifier.create(loader.load(users), 1)
+                .expectNext(new UserAck(WINDOW_SIZE, new int[0]))
+                .thenCancel()
+                .verify(TIMEOUT);
+        assertThat(cancelled).isTrue();
+        // nothing was requested past the credit of the windows, so most users were never sent
+        assertThat(requested.get()).isLessThan(1_000);
+        assertThat(repository.getMany(new int[]{999}).getMissing()).containsExactly(999);
+    }
+
+    private static User user(int id) {
+        return User.builder().id(id).age(20).name("user" + id).build();
+    }
+}
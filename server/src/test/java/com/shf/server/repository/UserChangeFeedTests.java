@@ -0,0 +1,139 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+import com.shf.entity.UserChangeEvent;
+import com.shf.server.configuration.UserRepositoryProperties;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserChangeFeedTests {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void subscriberResumesFromItsCursorWhileTheEventsAreInTheRing() {
+        UserChangeFeed feed = feed(8, 8, UserChangeFeed.OverflowPolicy.ERROR);
+        publish(feed, 5);
+        assertThat(feed.lastSequence()).isEqualTo(5);
+
+        StepVerifier.create(feed.subscribe(3L).map(UserChangeEvent::getSequence).take(3))
+                .expectNext(3L, 4L, 5L)
+                .expectComplete()
+                .verify(TIMEOUT);
+        StepVerifier.create(feed.subscribe(0L).map(UserChangeEvent::getSequence).take(5))
+                .expectNext(1L, 2L, 3L, 4L, 5L)
+                .expectComplete()
+                .verify(TIMEOUT);
+        assertThat(overflows()).isZero();
+    }
+
+    @Test
+    void liveSubscriberOnlySeesTheChangesAfterItSubscribed() {
+        UserChangeFeed feed = feed(8, 8, UserChangeFeed.OverflowPolicy.ERROR);
+        publish(feed, 2);
+
+        StepVerifier.create(feed.subscribe(null).take(2))
+                .then(() -> {
+                    feed.publish(UserChangeEvent.Type.UPDATE, 1, user(1));
+                    feed.publish(UserChangeEvent.Type.DELETE, 2, null);
+                })
+                .expectNext(new UserChangeEvent(3, UserChangeEvent.Type.UPDATE, 1, user(1)))
+                .expectNext(new UserChangeEvent(4, UserChangeEvent.Type.DELETE, 2, null))
+                .expectComplete()
+                .verify(TIMEOUT);
+    }
+
+    @Test
+    void subscriberWithoutDemandIsNotSentAnythingAndHoldsNobodyBack() {
+        UserChangeFeed feed = feed(8, 8, UserChangeFeed.OverflowPolicy.ERROR);
+
+        StepVerifier.create(feed.subscribe(null).map(UserChangeEvent::getSequence), 0)
+                .then(() -> publish(feed, 3))
+                .expectNoEvent(Duration.ofMillis(100))
+                .then(() -> assertThat(feed.lastSequence()).isEqualTo(3))
+                .thenRequest(2)
+                .expectNext(1L, 2L)
+                .thenRequest(1)
+                .expectNext(3L)
+                .thenCancel()
+                .verify(TIMEOUT);
+    }
+
+    @Test
+    void skipJumpsALaggingSubscriberToTheOldestEventWithinTheMaxLag() {
+        UserChangeFeed feed = feed(8, 4, UserChangeFeed.OverflowPolicy.SKIP);
+
+        StepVerifier.create(feed.subscribe(null).map(UserChangeEvent::getSequence), 0)
+                // 10 events behind, the oldest 4 are kept
+                .then(() -> publish(feed, 10))
+                .thenRequest(Long.MAX_VALUE)
+                .expectNext(7L, 8L, 9L, 10L)
+                .then(() -> publish(feed, 1))
+                .expectNext(11L)
+                .thenCancel()
+                .verify(TIMEOUT);
+        assertThat(overflows()).isEqualTo(1.0);
+    }
+
+    @Test
+    void skipAlsoAppliesToACursorOlderThanTheRing() {
+        UserChangeFeed feed = feed(8, 8, UserChangeFeed.OverflowPolicy.SKIP);
+        publish(feed, 20);
+
+        StepVerifier.create(feed.subscribe(1L).map(UserChangeEvent::getSequence).take(8))
+                .expectNext(13L, 14L, 15L, 16L, 17L, 18L, 19L, 20L)
+                .expectComplete()
+                .verify(TIMEOUT);
+        assertThat(overflows()).isEqualTo(1.0);
+    }
+
+    @Test
+    void errorTerminatesALaggingSubscriber() {
+        UserChangeFeed feed = feed(8, 4, UserChangeFeed.OverflowPolicy.ERROR);
+
+        StepVerifier.create(feed.subscribe(null), 0)
+                .then(() -> publish(feed, 10))
+                .thenRequest(Long.MAX_VALUE)
+                .expectErrorSatisfies(e -> assertThat(e)
+                        .isInstanceOf(IllegalStateException.class)
+                        .hasMessageContaining("next sequence 1 is no longer available"))
+                .verify(TIMEOUT);
+        assertThat(overflows()).isEqualTo(1.0);
+    }
+
+    private UserChangeFeed feed(int capacity, int maxLag, UserChangeFeed.OverflowPolicy overflowPolicy) {
+        UserRepositoryProperties properties = new UserRepositoryProperties();
+        properties.getChanges().setCapacity(capacity);
+        properties.getChanges().setMaxLag(maxLag);
+        properties.getChanges().setOverflowPolicy(overflowPolicy);
+        return new UserChangeFeed(properties, meterRegistry);
+    }
+
+    private double overflows() {
+        return meterRegistry.get("user.changes.overflow").counter().count();
+    }
+
+    /**
+     * Publish inserts of the next ids.
+     */
+    private static void publish(UserChangeFeed feed, int count) {
+        long first = feed.lastSequence() + 1;
+        for (long sequence = first; sequence < first + count; sequence++) {
+            feed.publish(UserChangeEvent.Type.INSERT, (int) sequence, user((int) sequence));
+        }
+    }
+
+    private static User user(int id) {
+        return User.builder().id(id).age(20).name("user" + id).build();
+    }
+}
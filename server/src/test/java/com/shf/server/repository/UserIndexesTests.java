@@ -0,0 +1,134 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserIndexesTests {
+
+    @Test
+    void ageRangeIsInclusiveAndOrderedByAgeThenId() {
+        UserIndexes indexes = indexes(user(3, 20, "c"), user(1, 20, "a"), user(2, 25, "b"), user(4, 30, "d"), user(5, 19, "e"));
+
+        assertThat(ids(indexes.idsByAge(20, 25))).containsExactly(1, 3, 2);
+        assertThat(ids(indexes.idsByAge(19, 30))).containsExactly(5, 1, 3, 2, 4);
+        assertThat(ids(indexes.idsByAge(21, 24))).isEmpty();
+        assertThat(ids(indexes.idsByAge(25, 20))).isEmpty();
+    }
+
+    @Test
+    void negativeIdsAndAgesKeepTheirOrderWithinTheRange() {
+        UserIndexes indexes = indexes(user(Integer.MIN_VALUE, 20, null), user(-1, 20, null), user(0, 20, null),
+                user(Integer.MAX_VALUE, 20, null), user(7, -5, null), user(8, Integer.MIN_VALUE, null), user(9, Integer.MAX_VALUE, null));
+
+        assertThat(ids(indexes.idsByAge(20, 20))).containsExactly(Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE);
+        assertThat(ids(indexes.idsByAge(-5, 20))).containsExactly(7, Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE);
+        assertThat(ids(indexes.idsByAge(Integer.MIN_VALUE, Integer.MAX_VALUE)))
+                .containsExactly(8, 7, Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE, 9);
+        assertThat(ids(indexes.idsByAge(21, Integer.MAX_VALUE))).containsExactly(9);
+    }
+
+    @Test
+    void updateMovesTheEntriesOfAUserOnceRetired() {
+        UserIndexes indexes = indexes(user(1, 20, "alice"), user(2, 30, "bob"));
+
+        UserVersion carol = new UserVersion(1, user(1, 35, "carol"), 3, null);
+        indexes.add(carol.user);
+        // both values are indexed until the old one is retired
+        assertThat(ids(indexes.idsByAge(20, 40))).containsExactly(1, 2, 1);
+        indexes.retire(user(1, 20, "alice"), carol, carol.version);
+        assertThat(ids(indexes.idsByAge(20, 30))).containsExactly(2);
+        assertThat(ids(indexes.idsByAge(31, 40))).containsExactly(1);
+        assertThat(ids(indexes.idsByNamePrefix("a"))).isEmpty();
+        assertThat(ids(indexes.idsByNamePrefix("c"))).containsExactly(1);
+
+        indexes.retire(user(2, 30, "bob"), null, 4);
+        assertThat(ids(indexes.idsByAge(Integer.MIN_VALUE, Integer.MAX_VALUE))).containsExactly(1);
+        assertThat(ids(indexes.idsByNamePrefix(""))).containsExactly(1);
+    }
+
+    @Test
+    void retiredEntriesStayWhileAReadableVersionSharesThem() {
+        UserIndexes indexes = indexes(user(1, 20, "alice"), user(1, 25, "bob"), user(1, 20, "carol"));
+        UserVersion bob = new UserVersion(1, user(1, 25, "bob"), 2, null);
+        UserVersion carol = new UserVersion(1, user(1, 20, "carol"), 3, bob);
+
+        // alice was replaced by bob, carol is back at her age
+        indexes.retire(user(1, 20, "alice"), carol, bob.version);
+        assertThat(ids(indexes.idsByAge(20, 20))).containsExactly(1);
+        assertThat(ids(indexes.idsByNamePrefix(""))).containsExactly(1, 1);
+        assertThat(ids(indexes.idsByNamePrefix("alice"))).isEmpty();
+
+        indexes.retire(user(1, 25, "bob"), carol, carol.version);
+        assertThat(ids(indexes.idsByAge(Integer.MIN_VALUE, Integer.MAX_VALUE))).containsExactly(1);
+        assertThat(ids(indexes.idsByNamePrefix(""))).containsExactly(1);
+    }
+
+    @Test
+    void cursorOnlyMatchesTheValueOfItsEntry() {
+        UserIndexes indexes = indexes(user(1, 20, "alice"), user(1, 25, "bob"));
+
+        UserIndexes.Cursor byAge = indexes.idsByAge(20, 25);
+        assertThat(byAge.next()).isTrue();
+        assertThat(byAge.matches(user(1, 20, "alice"))).isTrue();
+        assertThat(byAge.matches(user(1, 25, "bob"))).isFalse();
+        assertThat(byAge.next()).isTrue();
+        assertThat(byAge.matches(user(1, 25, "bob"))).isTrue();
+
+        UserIndexes.Cursor byName = indexes.idsByNamePrefix("");
+        assertThat(byName.next()).isTrue();
+        assertThat(byName.matches(user(1, 25, "alice"))).isTrue();
+        assertThat(byName.matches(user(1, 20, "bob"))).isFalse();
+    }
+
+    @Test
+    void namePrefixIsAContiguousRunOrderedByNameThenId() {
+        UserIndexes indexes = indexes(user(4, 1, "anna"), user(2, 1, "ann"), user(1, 1, "ann"), user(3, 1, "andy"),
+                user(5, 1, "bob"), user(-6, 1, "ann"), user(7, 1, null));
+
+        assertThat(ids(indexes.idsByNamePrefix("ann"))).containsExactly(-6, 1, 2, 4);
+        assertThat(ids(indexes.idsByNamePrefix("an"))).containsExactly(3, -6, 1, 2, 4);
+        assertThat(ids(indexes.idsByNamePrefix("annab"))).isEmpty();
+        assertThat(ids(indexes.idsByNamePrefix("c"))).isEmpty();
+        assertThat(ids(indexes.idsByNamePrefix(""))).containsExactly(3, -6, 1, 2, 4, 5);
+    }
+
+    @Test
+    void idsResumeAfterTheCursor() {
+        UserIndexes indexes = new UserIndexes();
+        for (int id : new int[]{5, -2, 9, 1}) {
+            indexes.addId(id);
+        }
+        indexes.removeId(9);
+
+        assertThat(ids(indexes.ids(null))).containsExactly(-2, 1, 5);
+        assertThat(ids(indexes.ids(1))).containsExactly(5);
+        assertThat(ids(indexes.ids(0))).containsExactly(1, 5);
+        assertThat(ids(indexes.ids(5))).isEmpty();
+    }
+
+    private static UserIndexes indexes(User... users) {
+        UserIndexes indexes = new UserIndexes();
+        for (User user : users) {
+            indexes.add(user);
+        }
+        return indexes;
+    }
+
+    private static List<Integer> ids(UserIndexes.Cursor cursor) {
+        List<Integer> list = new ArrayList<>();
+        while (cursor.next()) {
+            list.add(cursor.id());
+        }
+        return list;
+    }
+
+    private static User user(int id, int age, String name) {
+        return User.builder().id(id).age(age).name(name).build();
+    }
+}
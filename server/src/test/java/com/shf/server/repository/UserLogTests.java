@@ -0,0 +1,222 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserLogTests {
+    private static final int SEGMENT_SIZE = 256;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void appendedRecordsAreReplayedInOrder() throws IOException {
+        try (UserLog log = open()) {
+            log.replay(user -> {
+            });
+            log.append(user(1, 18, "foo")).block();
+            log.append(user(2, 20, null)).block();
+            log.appendAll(Arrays.asList(user(3, 25, "car"), user(1, 19, "foo2"))).block();
+            log.force();
+            log.appendDelete(2).block();
+        }
+
+        List<String> events = new ArrayList<>();
+        try (UserLog log = open()) {
+            long records = log.replay(user -> events.add("put " + user), id -> events.add("delete " + id));
+            assertThat(records).isEqualTo(5);
+        }
+        assertThat(events).containsExactly("put " + user(1, 18, "foo"), "put " + user(2, 20, null),
+                "put " + user(3, 25, "car"), "put " + user(1, 19, "foo2"), "delete 2");
+    }
+
+    @Test
+    void replayStopsAtACorruptTailAndAppendsOverIt() throws IOException {
+        try (UserLog log = open()) {
+            log.replay(user -> {
+            });
+            log.append(user(1, 18, "foo")).block();
+            log.append(user(2, 20, "bar")).block();
+        }
+        // flip a byte of the name of the second record, its crc no longer matches
+        Path segment = segments().get(0);
+        int secondRecord = 8 + 13 + 3;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer name = ByteBuffer.allocate(1);
+            channel.read(name, secondRecord + 8 + 13);
+            name.put(0, (byte) (name.get(0) ^ 0x7f)).rewind();
+            channel.write(name, secondRecord + 8 + 13);
+        }
+
+        Map<Integer, User> users = new TreeMap<>();
+        try (UserLog log = open()) {
+            assertThat(log.replay(user -> users.put(user.getId(), user))).isEqualTo(1);
+            assertThat(users).containsOnlyKeys(1);
+            log.append(user(3, 25, "car")).block();
+        }
+
+        users.clear();
+        try (UserLog log = open()) {
+            assertThat(log.replay(user -> users.put(user.getId(), user))).isEqualTo(2);
+        }
+        assertThat(users.values()).containsExactly(user(1, 18, "foo"), user(3, 25, "car"));
+    }
+
+    @Test
+    void compactionKeepsTheLastRecordOfEachIdAndDropsTombstones() throws IOException {
+        Map<Integer, User> expected = new TreeMap<>();
+        try (UserLog log = open()) {
+            log.replay(user -> {
+            });
+            for (int round = 0; round < 5; round++) {
+                for (int id = 1; id <= 6; id++) {
+                    User user = user(id, 20 + round, "user" + id);
+                    log.append(user).block();
+                    expected.put(id, user);
+                }
+            }
+            log.appendDelete(4).block();
+            expected.remove(4);
+            // roll past the tombstone, so that it is sealed as well
+            for (int id = 10; id < 20; id++) {
+                User user = user(id, 40, "user" + id);
+                log.append(user).block();
+                expected.put(id, user);
+            }
+            int before = segments().size();
+            assertThat(before).isGreaterThan(3);
+
+            log.compact();
+
+            assertThat(segments().size()).isLessThan(before);
+            // the active segment and the appends after the compaction are untouched
+            log.append(user(7, 30, "user7")).block();
+            expected.put(7, user(7, 30, "user7"));
+        }
+
+        Map<Integer, User> replayed = new TreeMap<>();
+        List<Integer> deleted = new ArrayList<>();
+        try (UserLog log = open()) {
+            log.replay(user -> replayed.put(user.getId(), user), id -> {
+                replayed.remove(id);
+                deleted.add(id);
+            });
+        }
+        assertThat(replayed).isEqualTo(expected);
+        assertThat(deleted).isEmpty();
+    }
+
+    @Test
+    void replayStartsAtTheSnapshotPosition() throws IOException {
+        long position;
+        try (UserLog log = open()) {
+            log.replay(user -> {
+            });
+            log.append(user(1, 18, "foo")).block();
+            log.append(user(2, 20, "bar")).block();
+            position = log.mark();
+            // nothing was appended since, the active segment is kept
+            assertThat(log.mark()).isEqualTo(position);
+            log.append(user(1, 19, "foo2")).block();
+            log.appendDelete(2).block();
+        }
+
+        List<String> events = new ArrayList<>();
+        try (UserLog log = open()) {
+            assertThat(log.replay(position, user -> events.add("put " + user), id -> events.add("delete " + id))).isEqualTo(2);
+        }
+        assertThat(events).containsExactly("put " + user(1, 19, "foo2"), "delete 2");
+    }
+
+    @Test
+    void appendsAfterASnapshotPositionPastTheLogAreReplayedFromIt() throws IOException {
+        try (UserLog log = open()) {
+            log.replay(user -> {
+            });
+            log.append(user(1, 18, "foo")).block();
+        }
+        try (UserLog log = open()) {
+            assertThat(log.replay(5, user -> {
+            }, id -> {
+            })).isZero();
+            log.append(user(2, 20, "bar")).block();
+        }
+
+        List<User> users = new ArrayList<>();
+        try (UserLog log = open()) {
+            assertThat(log.replay(5, users::add, id -> {
+            })).isEqualTo(1);
+        }
+        assertThat(users).containsExactly(user(2, 20, "bar"));
+    }
+
+    @Test
+    void compactionKeepsTheTombstonesFromTheSnapshotPositionOn() throws IOException {
+        long position;
+        try (UserLog log = open()) {
+            log.replay(user -> {
+            });
+            for (int id = 1; id <= 10; id++) {
+                log.append(user(id, 20, "user" + id)).block();
+            }
+            position = log.mark();
+            log.snapshotSaved(position);
+            log.appendDelete(4).block();
+            // roll past the tombstone, so that it is sealed and compacted with the segments before the position
+            for (int id = 11; id <= 20; id++) {
+                log.append(user(id, 21, "user" + id)).block();
+            }
+            int before = segments().size();
+            log.compact();
+            assertThat(segments().size()).isLessThan(before);
+        }
+
+        Map<Integer, User> replayed = new TreeMap<>();
+        List<Integer> deleted = new ArrayList<>();
+        try (UserLog log = open()) {
+            log.replay(position, user -> replayed.put(user.getId(), user), id -> {
+                replayed.remove(id);
+                deleted.add(id);
+            });
+        }
+        // the snapshot still holds user 4, the tombstone has to be replayed over it
+        assertThat(deleted).containsExactly(4);
+        assertThat(replayed).doesNotContainKey(4).hasSize(19);
+    }
+
+    private UserLog open() throws IOException {
+        return new UserLog(directory, SEGMENT_SIZE, Duration.ofSeconds(10), 2);
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log")) {
+            stream.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static User user(int id, int age, String name) {
+        return User.builder().id(id).age(age).name(name).build();
+    }
+}
@@ -0,0 +1,152 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+import com.shf.entity.UserBatch;
+import com.shf.server.configuration.UserRepositoryProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import reactor.core.publisher.Flux;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserRepositoryTests {
+    private static final int SEGMENT_SIZE = 256;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void deletedSampleUserStaysDeletedAfterCompactionAndRestart() throws Exception {
+        try (UserLog log = openLog()) {
+            UserRepository repository = open(log);
+            assertThat(repository.getMany(new int[]{1, 2, 3}).getMissing()).isEmpty();
+            assertThat(repository.delete(1).block()).isTrue();
+            log.mark();
+            assertThat(repository.add(user(4)).block()).isTrue();
+            log.mark();
+            // the oldest segments hold the put and the delete of user 1, both are dropped
+            log.compact();
+            assertThat(segments()).isEqualTo(2);
+            repository.destroy();
+        }
+
+        try (UserLog log = openLog()) {
+            UserRepository repository = open(log);
+            UserBatch batch = repository.getMany(new int[]{1, 2, 3, 4});
+            assertThat(batch.getMissing()).containsExactly(1);
+            assertThat(batch.getUsers()).extracting(User::getId).containsExactly(2, 3, 4);
+            repository.destroy();
+        }
+    }
+
+    @Test
+    void sampleUsersAreOnlyAddedOnTheFirstStart() throws Exception {
+        try (UserLog log = openLog()) {
+            UserRepository repository = open(log);
+            assertThat(repository.delete(2).block()).isTrue();
+            repository.destroy();
+        }
+
+        try (UserLog log = openLog()) {
+            UserRepository repository = open(log);
+            assertThat(repository.getMany(new int[]{1, 2, 3}).getMissing()).containsExactly(2);
+            repository.destroy();
+        }
+    }
+
+    @Test
+    void listReturnsTheIdsInOrderAcrossShards() throws Exception {
+        try (UserLog log = openLog()) {
+            UserRepository repository = open(log);
+            List<User> batch = new ArrayList<>();
+            // the sample users are 1, 2 and 3
+            IntStream.rangeClosed(4, 40).map(i -> 44 - i).forEach(id -> batch.add(user(id)));
+            batch.add(user(-5));
+            repository.addAll(batch);
+
+            assertThat(ids(repository.list(null, 0))).containsExactlyElementsOf(
+                    IntStream.concat(IntStream.of(-5), IntStream.rangeClosed(1, 40)).boxed().collect(Collectors.toList()));
+            assertThat(ids(repository.list(5, 6))).containsExactly(6, 7, 8, 9, 10, 11);
+            assertThat(ids(repository.list(-5, 2))).containsExactly(1, 2);
+            assertThat(ids(repository.list(40, 0))).isEmpty();
+            repository.destroy();
+        }
+    }
+
+    @Test
+    void addAllIsVisibleInEveryShardOnceForced() throws Exception {
+        int[] ids = IntStream.rangeClosed(1, 64).toArray();
+        try (UserLog log = openLog()) {
+            UserRepository repository = open(log);
+            List<User> batch = new ArrayList<>();
+            Arrays.stream(ids).forEach(id -> batch.add(user(id)));
+            batch.add(user(10));
+
+            // the sample users and the second 10 are already there
+            List<User> accepted = repository.addAll(batch);
+            assertThat(accepted).extracting(User::getId).containsExactlyElementsOf(
+                    IntStream.rangeClosed(4, 64).boxed().collect(Collectors.toList()));
+            UserBatch found = repository.getMany(ids);
+            assertThat(found.getMissing()).isEmpty();
+            assertThat(found.getUsers().get(0).getName()).isEqualTo("foo");
+            assertThat(found.getUsers().get(3).getName()).isEqualTo("user4");
+            repository.destroy();
+        }
+
+        // the batch was forced to the log before addAll returned, the replay restores all of it
+        try (UserLog log = openLog()) {
+            UserRepository repository = open(log);
+            UserBatch found = repository.getMany(ids);
+            assertThat(found.getMissing()).isEmpty();
+            assertThat(found.getUsers()).extracting(User::getId).containsExactly(Arrays.stream(ids).boxed().toArray(Integer[]::new));
+            repository.destroy();
+        }
+    }
+
+    private UserLog openLog() throws IOException {
+        return new UserLog(directory.resolve("log"), SEGMENT_SIZE, Duration.ofMillis(10), 2);
+    }
+
+    /**
+     * A repository of 2 shards over the log, without a snapshot.
+     */
+    private UserRepository open(UserLog log) {
+        UserRepositoryProperties properties = new UserRepositoryProperties();
+        properties.setShards(2);
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory(Collections.singletonMap("userLog", log));
+        return new UserRepository(beanFactory.getBeanProvider(UserLog.class),
+                new UserSnapshotFile(directory.resolve("users.snapshot"), 16, true),
+                new UserChangeFeed(properties, new SimpleMeterRegistry()), properties);
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("log"))) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    private static List<Integer> ids(Flux<User> users) {
+        return users.map(User::getId).collectList().block();
+    }
+
+    private static User user(int id) {
+        return User.builder().id(id).age(30).name("user" + id).build();
+    }
+}
@@ -0,0 +1,124 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserSnapshotFileTests {
+    private static final int MAGIC = 0x55535253;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void headerRecordsAndIndexFollowTheDocumentedLayout() throws IOException {
+        Path path = directory.resolve("users.snapshot");
+        List<User> users = users(5);
+        assertThat(new UserSnapshotFile(path, 2, true).dump(users, 42)).isEqualTo(5);
+
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+        assertThat(file.getInt()).isEqualTo(MAGIC);
+        assertThat(file.getInt()).isEqualTo(2);
+        assertThat(file.getLong()).isEqualTo(5);
+        long indexOffset = file.getLong();
+        assertThat(file.getInt()).isEqualTo(3);
+        assertThat(file.getInt()).isZero();
+        assertThat(file.getLong()).isEqualTo(42);
+
+        // records: [int length][int id][int age][int nameLength|-1][name utf-8]
+        List<Integer> recordOffsets = new ArrayList<>();
+        for (User user : users) {
+            recordOffsets.add(file.position());
+            byte[] name = user.getName() == null ? new byte[0] : user.getName().getBytes(StandardCharsets.UTF_8);
+            assertThat(file.getInt()).isEqualTo(12 + name.length);
+            assertThat(file.getInt()).isEqualTo(user.getId());
+            assertThat(file.getInt()).isEqualTo(user.getAge());
+            assertThat(file.getInt()).isEqualTo(user.getName() == null ? -1 : name.length);
+            byte[] read = new byte[name.length];
+            file.get(read);
+            assertThat(new String(read, StandardCharsets.UTF_8)).isEqualTo(user.getName() == null ? "" : user.getName());
+        }
+        assertThat(file.position()).isEqualTo(indexOffset);
+
+        // index: [long offset][int length][int records] per chunk of 2 records
+        int[][] chunks = {{0, 2}, {2, 4}, {4, 5}};
+        for (int[] chunk : chunks) {
+            int start = recordOffsets.get(chunk[0]);
+            int end = chunk[1] < recordOffsets.size() ? recordOffsets.get(chunk[1]) : (int) indexOffset;
+            assertThat(file.getLong()).isEqualTo(start);
+            assertThat(file.getInt()).isEqualTo(end - start);
+            assertThat(file.getInt()).isEqualTo(chunk[1] - chunk[0]);
+        }
+        assertThat(file.hasRemaining()).isFalse();
+        assertThat(Files.exists(directory.resolve("users.snapshot.tmp"))).isFalse();
+    }
+
+    @Test
+    void loadDecodesEveryChunkWithOrWithoutAnIndex() throws IOException {
+        List<User> users = users(1000);
+        for (boolean index : new boolean[]{true, false}) {
+            UserSnapshotFile snapshotFile = new UserSnapshotFile(directory.resolve("users-" + index + ".snapshot"), 64, index);
+            snapshotFile.dump(users, 7);
+
+            List<User> loaded = Collections.synchronizedList(new ArrayList<>());
+            assertThat(snapshotFile.load(loaded::addAll)).isEqualTo(1000);
+            assertThat(snapshotFile.logPosition()).isEqualTo(7);
+            loaded.sort(Comparator.comparingInt(User::getId));
+            assertThat(loaded).as("index %s", index).isEqualTo(users);
+        }
+    }
+
+    @Test
+    void dumpReplacesThePreviousSnapshot() throws IOException {
+        UserSnapshotFile snapshotFile = new UserSnapshotFile(directory.resolve("users.snapshot"), 16, true);
+        snapshotFile.dump(users(10), 1);
+        snapshotFile.dump(users(0), 3);
+
+        List<User> loaded = new ArrayList<>();
+        assertThat(snapshotFile.load(loaded::addAll)).isZero();
+        assertThat(loaded).isEmpty();
+        assertThat(snapshotFile.logPosition()).isEqualTo(3);
+    }
+
+    @Test
+    void rejectsAFileThatIsNotASnapshotOfThisFormat() throws IOException {
+        Path path = directory.resolve("users.snapshot");
+        UserSnapshotFile snapshotFile = new UserSnapshotFile(path, 16, true);
+
+        Files.write(path, new byte[]{1, 2, 3});
+        assertThatThrownBy(snapshotFile::logPosition).isInstanceOf(IOException.class).hasMessageContaining("Not a user snapshot");
+
+        snapshotFile.dump(users(3), 0);
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer.wrap(bytes).putInt(4, 1);
+        Files.write(path, bytes);
+        assertThatThrownBy(() -> snapshotFile.load(loaded -> {
+        })).isInstanceOf(IOException.class).hasMessageContaining("Unsupported user snapshot format 1");
+    }
+
+    /**
+     * Users ordered by id, every third one without a name and some with multi-byte names.
+     */
+    private static List<User> users(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            String name = id % 3 == 0 ? null : id % 3 == 1 ? "user" + id : "用户" + id;
+            users.add(User.builder().id(id).age(id % 90).name(name).build());
+        }
+        return users;
+    }
+}
@@ -0,0 +1,220 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+import com.shf.server.configuration.UserRepositoryProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserSnapshotsTests {
+    private static final int IDS = 64;
+
+    @Test
+    void snapshotsSeeAConsistentPrefixOfTheWritesUnderUpdatesAndDeletes() throws Exception {
+        UserSnapshots snapshots = new UserSnapshots(1);
+        UserShard shard = new UserShard(0, snapshots, new UserChangeFeed(new UserRepositoryProperties(), new SimpleMeterRegistry()));
+        // a single shard hands out one version per mutation, so the write at position i of the history has version i + 1
+        List<User> history = new ArrayList<>();
+        Map<Integer, User> live = new HashMap<>();
+        for (int id = 0; id < IDS; id++) {
+            User user = user(id, history.size() + 1);
+            assertThat(shard.insert(user)).isTrue();
+            history.add(user);
+            live.put(id, user);
+        }
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(3);
+        List<Future<List<Sample>>> futures = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            futures.add(readers.submit(() -> {
+                List<Sample> samples = new ArrayList<>();
+                while (writing.get()) {
+                    long version = snapshots.open();
+                    try {
+                        Map<Integer, Integer> seen = new TreeMap<>();
+                        for (User user : shard.scan(version, () -> shard.indexes.ids(null))) {
+                            seen.put(user.getId(), user.getAge());
+                            Thread.yield();
+                        }
+                        samples.add(new Sample(version, seen));
+                    } finally {
+                        snapshots.close(version);
+                    }
+                }
+                return samples;
+            }));
+        }
+
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            int id = random.nextInt(IDS);
+            if (!live.containsKey(id)) {
+                User user = user(id, history.size() + 1);
+                assertThat(shard.insert(user)).isTrue();
+                history.add(user);
+                live.put(id, user);
+            } else if (random.nextInt(4) == 0) {
+                assertThat(shard.delete(id)).isTrue();
+                history.add(user(id, -1));
+                live.remove(id);
+            } else {
+                User user = user(id, history.size() + 1);
+                assertThat(shard.update(user)).isTrue();
+                history.add(user);
+                live.put(id, user);
+            }
+        }
+        writing.set(false);
+        List<Sample> samples = new ArrayList<>();
+        for (Future<List<Sample>> future : futures) {
+            samples.addAll(future.get(30, TimeUnit.SECONDS));
+        }
+        readers.shutdown();
+
+        samples.sort(Comparator.comparingLong(sample -> sample.version));
+        assertThat(samples).isNotEmpty();
+        Map<Integer, Integer> expected = new TreeMap<>();
+        int applied = 0;
+        for (Sample sample : samples) {
+            while (applied < sample.version) {
+                User write = history.get(applied++);
+                if (write.getAge() < 0) {
+                    expected.remove(write.getId());
+                } else {
+                    expected.put(write.getId(), write.getAge());
+                }
+            }
+            assertThat(sample.seen).as("snapshot %d", sample.version).isEqualTo(expected);
+        }
+
+        // no snapshot is open any more, the next write purges every tombstone with its id
+        int id = live.keySet().iterator().next();
+        shard.update(user(id, 0));
+        List<Integer> ids = new ArrayList<>();
+        UserIndexes.Cursor cursor = shard.indexes.ids(null);
+        while (cursor.next()) {
+            ids.add(cursor.id());
+        }
+        assertThat(ids).containsExactlyInAnyOrderElementsOf(live.keySet());
+        assertThat(shard.users.size()).isEqualTo(live.size());
+        shard.close();
+    }
+
+    @Test
+    void ageScanReadsEveryUserOfItsSnapshotOnceInAgeOrder() throws Exception {
+        UserSnapshots snapshots = new UserSnapshots(1);
+        UserShard shard = new UserShard(0, snapshots, new UserChangeFeed(new UserRepositoryProperties(), new SimpleMeterRegistry()));
+        for (int id = 0; id < IDS; id++) {
+            assertThat(shard.insert(user(id, id % 10))).isTrue();
+        }
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(3);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            futures.add(readers.submit(() -> {
+                int scans = 0;
+                while (writing.get()) {
+                    long version = snapshots.open();
+                    try {
+                        Map<Integer, Integer> expected = new TreeMap<>();
+                        for (User user : shard.scan(version, () -> shard.indexes.ids(null))) {
+                            expected.put(user.getId(), user.getAge());
+                        }
+                        Map<Integer, Integer> seen = new TreeMap<>();
+                        int lastAge = Integer.MIN_VALUE;
+                        for (User user : shard.scan(version, () -> shard.indexes.idsByAge(0, 9))) {
+                            assertThat(seen.put(user.getId(), user.getAge())).as("user %d read twice", user.getId()).isNull();
+                            assertThat(user.getAge()).isGreaterThanOrEqualTo(lastAge);
+                            lastAge = user.getAge();
+                            Thread.yield();
+                        }
+                        assertThat(seen).isEqualTo(expected);
+                        scans++;
+                    } finally {
+                        snapshots.close(version);
+                    }
+                }
+                return scans;
+            }));
+        }
+
+        Random random = new Random(11);
+        for (int i = 0; i < 20_000; i++) {
+            int id = random.nextInt(IDS);
+            if (random.nextInt(8) == 0 && shard.delete(id)) {
+                continue;
+            }
+            shard.upsert(user(id, random.nextInt(10)));
+        }
+        writing.set(false);
+        for (Future<Integer> future : futures) {
+            assertThat(future.get(30, TimeUnit.SECONDS)).isPositive();
+        }
+        readers.shutdown();
+
+        // no snapshot is open any more, the next write retires every replaced value
+        shard.upsert(user(0, 0));
+        List<Integer> ids = new ArrayList<>();
+        UserIndexes.Cursor cursor = shard.indexes.idsByAge(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        while (cursor.next()) {
+            ids.add(cursor.id());
+        }
+        assertThat(ids).hasSize(shard.users.size()).doesNotHaveDuplicates();
+        shard.close();
+    }
+
+    @Test
+    void deletedUserStaysVisibleToAnOlderSnapshot() throws Exception {
+        UserSnapshots snapshots = new UserSnapshots(1);
+        UserShard shard = new UserShard(0, snapshots, new UserChangeFeed(new UserRepositoryProperties(), new SimpleMeterRegistry()));
+        shard.insert(user(1, 18));
+        long before = snapshots.open();
+
+        assertThat(shard.delete(1)).isTrue();
+        long after = snapshots.open();
+
+        assertThat(shard.get(1)).isNull();
+        assertThat(shard.users.get(1).at(before)).isEqualTo(user(1, 18));
+        assertThat(shard.users.get(1).at(after)).isNull();
+        assertThat(shard.delete(1)).isFalse();
+        assertThat(shard.update(user(1, 19))).isFalse();
+
+        snapshots.close(before);
+        snapshots.close(after);
+        assertThat(shard.insert(user(1, 20))).isTrue();
+        assertThat(shard.get(1)).isEqualTo(user(1, 20));
+        shard.close();
+    }
+
+    private static User user(int id, int age) {
+        return User.builder().id(id).age(age).name("user" + id).build();
+    }
+
+    private static final class Sample {
+        final long version;
+        final Map<Integer, Integer> seen;
+
+        Sample(long version, Map<Integer, Integer> seen) {
+            this.version = version;
+            this.seen = seen;
+        }
+    }
+}
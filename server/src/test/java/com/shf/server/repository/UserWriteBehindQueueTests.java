@@ -0,0 +1,190 @@
+package com.shf.server.repository;
+
+import com.shf.entity.User;
+import com.shf.server.configuration.UserRepositoryProperties;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserWriteBehindQueueTests {
+    private static final int CAPACITY = 2;
+
+    @TempDir
+    Path directory;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private BlockingRepository repository;
+    private UserWriteBehindQueue queue;
+
+    @AfterEach
+    void close() throws InterruptedException {
+        repository.release.countDown();
+        queue.destroy();
+        repository.destroy();
+    }
+
+    @Test
+    void dropDiscardsTheUserOnceTheQueueIsFull() throws InterruptedException {
+        fill(UserWriteBehindQueue.OverflowPolicy.DROP, 1);
+
+        assertThat(queue.submit(user(4)).block()).isNull();
+        assertThat(meterRegistry.get("user.write.dropped").counter().count()).isEqualTo(1.0);
+        assertThat(queue.depth()).isEqualTo(CAPACITY);
+
+        repository.release.countDown();
+        assertThat(repository.committed(3)).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void rejectSignalsAnErrorOnceTheQueueIsFull() throws InterruptedException {
+        fill(UserWriteBehindQueue.OverflowPolicy.REJECT, 1);
+
+        assertThatThrownBy(() -> queue.submit(user(4)).block())
+                .isInstanceOf(RejectedExecutionException.class)
+                .hasMessageContaining("full(" + CAPACITY + ")");
+        assertThat(meterRegistry.get("user.write.rejected").counter().count()).isEqualTo(1.0);
+
+        repository.release.countDown();
+        assertThat(repository.committed(3)).containsExactly(1, 2, 3);
+        // the writer freed the space again
+        assertThat(queue.submit(user(5)).block()).isNull();
+        assertThat(repository.committed(4)).containsExactly(1, 2, 3, 5);
+    }
+
+    @Test
+    void waitCompletesTheProducerOnceTheWriterFreesSpace() throws Exception {
+        fill(UserWriteBehindQueue.OverflowPolicy.WAIT, 1);
+
+        // submit returns at once, only its Mono waits
+        CompletableFuture<Void> producer = queue.submit(user(4)).toFuture();
+        Thread.sleep(100);
+        assertThat(producer.isDone()).isFalse();
+
+        repository.release.countDown();
+        producer.get(10, TimeUnit.SECONDS);
+        assertThat(repository.committed(4)).containsExactly(1, 2, 3, 4);
+        assertThat(meterRegistry.get("user.write.dropped").counter().count()).isEqualTo(0.0);
+        assertThat(meterRegistry.get("user.write.rejected").counter().count()).isEqualTo(0.0);
+    }
+
+    @Test
+    void waitRejectsOnceCapacityUsersAreWaiting() throws Exception {
+        fill(UserWriteBehindQueue.OverflowPolicy.WAIT, 1);
+        CompletableFuture<Void> fourth = queue.submit(user(4)).toFuture();
+        CompletableFuture<Void> fifth = queue.submit(user(5)).toFuture();
+
+        assertThatThrownBy(() -> queue.submit(user(6)).block())
+                .isInstanceOf(RejectedExecutionException.class)
+                .hasMessageContaining("users are waiting");
+        assertThat(meterRegistry.get("user.write.rejected").counter().count()).isEqualTo(1.0);
+
+        repository.release.countDown();
+        fourth.get(10, TimeUnit.SECONDS);
+        fifth.get(10, TimeUnit.SECONDS);
+        assertThat(repository.committed(5)).containsExactly(1, 2, 3, 4, 5);
+    }
+
+    @Test
+    void queuedUsersAreCommittedInBatchesOfAtMostTheBatchSize() throws InterruptedException {
+        open(UserWriteBehindQueue.OverflowPolicy.REJECT, 10, 3);
+        queue.submit(user(0)).block();
+        assertThat(repository.entered.await(10, TimeUnit.SECONDS)).isTrue();
+        for (int id = 1; id <= 7; id++) {
+            queue.submit(user(id)).block();
+        }
+
+        repository.release.countDown();
+        assertThat(repository.committed(8)).containsExactly(0, 1, 2, 3, 4, 5, 6, 7);
+        assertThat(repository.batchSizes).containsExactly(1, 3, 3, 1);
+        assertThat(queue.depth()).isZero();
+    }
+
+    /**
+     * Park the writer in the commit of user 1, then fill the queue with users 2 and 3.
+     */
+    private void fill(UserWriteBehindQueue.OverflowPolicy overflowPolicy, int batchSize) throws InterruptedException {
+        open(overflowPolicy, CAPACITY, batchSize);
+        queue.submit(user(1)).block();
+        assertThat(repository.entered.await(10, TimeUnit.SECONDS)).isTrue();
+        queue.submit(user(2)).block();
+        queue.submit(user(3)).block();
+        assertThat(queue.depth()).isEqualTo(CAPACITY);
+    }
+
+    private void open(UserWriteBehindQueue.OverflowPolicy overflowPolicy, int capacity, int batchSize) {
+        UserRepositoryProperties properties = new UserRepositoryProperties();
+        properties.setShards(1);
+        properties.getSnapshot().setLoadOnStartup(false);
+        properties.getWriteBehind().setCapacity(capacity);
+        properties.getWriteBehind().setBatchSize(batchSize);
+        properties.getWriteBehind().setMaxLinger(Duration.ofMillis(20));
+        properties.getWriteBehind().setOverflowPolicy(overflowPolicy);
+        repository = new BlockingRepository(properties, directory);
+        queue = new UserWriteBehindQueue(repository, properties, meterRegistry);
+    }
+
+    private static User user(int id) {
+        return User.builder().id(id).age(20).name("user" + id).build();
+    }
+
+    /**
+     * Holds the first group commit until released, and records what is committed.
+     */
+    private static final class BlockingRepository extends UserRepository {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<User> committed = new ArrayList<>();
+        private final List<Integer> batchSizes = new ArrayList<>();
+
+        BlockingRepository(UserRepositoryProperties properties, Path directory) {
+            super(new StaticListableBeanFactory().getBeanProvider(UserLog.class),
+                    new UserSnapshotFile(directory.resolve("users.snapshot"), 16, false),
+                    new UserChangeFeed(properties, new SimpleMeterRegistry()), properties);
+        }
+
+        @Override
+        public List<User> addAll(List<User> batch) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                committed.addAll(batch);
+                batchSizes.add(batch.size());
+                notifyAll();
+            }
+            return super.addAll(batch);
+        }
+
+        /**
+         * @return ids of the committed users, once there are at least that many
+         */
+        synchronized List<Integer> committed(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (committed.size() < count && System.nanoTime() < deadline) {
+                wait(100);
+            }
+            return committed.stream().map(User::getId).collect(Collectors.toList());
+        }
+    }
+}